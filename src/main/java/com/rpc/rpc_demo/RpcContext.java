@@ -1,10 +1,12 @@
 package com.rpc.rpc_demo;
 
+import cn.hutool.core.util.StrUtil;
 import com.rpc.rpc_demo.config.RegistryConfig;
 import com.rpc.rpc_demo.config.RpcConfig;
 import com.rpc.rpc_demo.constant.RpcConstant;
 import com.rpc.rpc_demo.registry.Registry;
 import com.rpc.rpc_demo.registry.RegistryFactory;
+import com.rpc.rpc_demo.serializer.impl.KryoSerializer;
 import com.rpc.rpc_demo.utils.ConfigUtils;
 import lombok.extern.slf4j.Slf4j;
 
@@ -29,6 +31,8 @@ public class RpcContext {
     public static void init(RpcConfig newRpcConfig) {
         rpcConfig = newRpcConfig;
         log.info("rpc application init success,config:{}", rpcConfig);
+        // Kryo 预注册业务类
+        registerKryoClasses(rpcConfig.getKryoRegistrationClasses());
         // 注册中心的初始化
         // 获取注册中心的核心配置
         RegistryConfig registryConfig = rpcConfig.getRegistryConfig();
@@ -40,6 +44,23 @@ public class RpcContext {
         Runtime.getRuntime().addShutdownHook(new Thread(registry::destroy));
     }
 
+    /**
+     * Kryo 预注册业务类
+     * @param classNames 全类名，逗号分隔
+     */
+    private static void registerKryoClasses(String classNames) {
+        if (StrUtil.isBlank(classNames)) {
+            return;
+        }
+        for (String className : StrUtil.splitTrim(classNames, ',')) {
+            try {
+                KryoSerializer.register(Class.forName(className));
+            } catch (ClassNotFoundException e) {
+                throw new RuntimeException("Kryo 预注册的类不存在:" + className, e);
+            }
+        }
+    }
+
     public static void init() {
         RpcConfig newRpcConfig;
         try {
@@ -50,7 +71,7 @@ public class RpcContext {
             log.error("load config error,use default config", e);
             newRpcConfig = new RpcConfig();
         }
-        init(rpcConfig);
+        init(newRpcConfig);
     }
 
 
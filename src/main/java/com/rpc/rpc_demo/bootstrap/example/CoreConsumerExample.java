@@ -25,5 +25,10 @@ public class CoreConsumerExample {
         } else {
             System.out.println("user==null");
         }
+
+        // 异步调用，不阻塞当前线程
+        userService.getUserAsync(user)
+                .thenAccept(asyncUser -> System.out.println("async:" + asyncUser.getName()))
+                .join();
     }
 }
@@ -0,0 +1,28 @@
+package com.rpc.rpc_demo.communication.protocol;
+
+import io.vertx.core.buffer.Buffer;
+
+import java.io.OutputStream;
+
+/**
+ * @Description Vert.x Buffer 的输出流视图，序列化器通过它直接把消息体写到要发送的 Buffer 后面，不需要中间的 byte[]
+ * @Author veritas
+ * @Data 2025/3/13 10:05
+ */
+public class BufferOutputStream extends OutputStream {
+    private final Buffer buffer;
+
+    public BufferOutputStream(Buffer buffer) {
+        this.buffer = buffer;
+    }
+
+    @Override
+    public void write(int b) {
+        buffer.appendByte((byte) b);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+        buffer.appendBytes(bytes, offset, length);
+    }
+}
@@ -0,0 +1,116 @@
+package com.rpc.rpc_demo.communication.protocol;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @Description 方法 ID 表（服务消费者用），紧凑格式的请求中用方法 ID 代替 服务名 + 方法名 + 参数类型列表
+ * <pre>
+ * 握手流程（每条连接一次）：
+ *      客户端在连接上第一次发请求时，顺带发送一个 HANDSHAKE 消息，消息头中的版本号是客户端支持的最高版本
+ *      服务端支持紧凑格式时，回复 HANDSHAKE 消息，消息体是 方法键名 -> 方法 ID 的 Map（见 LocalRegistry.getMethodTable）
+ *      客户端收到之后，这条连接上的请求如果能在表中找到方法 ID，就按紧凑格式（ProtocolConstant.PROTOCOL_VERSION_COMPACT）发送
+ * 收到方法 ID 表之前、表中没有的方法（握手之后才注册的服务），都按完整格式（ProtocolConstant.PROTOCOL_VERSION）发送；
+ *      服务端不支持紧凑格式时不回复握手，这条连接一直按完整格式发送
+ * 消息头比 PROTOCOL_VERSION 更早的服务端不能通信（消息头的格式不同），见 ProtocolConstant.PROTOCOL_VERSION
+ * 方法键名：serviceName#methodName(参数类型1,参数类型2)，参数类型是 Class.getName()
+ * 表创建之后不会再修改，查找时按 服务名 -> 方法名 -> 参数类型 逐级比较，不需要拼接字符串
+ * </pre>
+ * @Author veritas
+ * @Data 2025/3/14 15:10
+ */
+public class MethodTable {
+    /**
+     * 服务名 -> 方法名 -> 同名方法（重载的方法通过参数类型区分）
+     */
+    private final Map<String, Map<String, List<Entry>>> serviceMap;
+
+    public MethodTable(Map<String, Integer> methodIds) {
+        Map<String, Map<String, List<Entry>>> map = new HashMap<>();
+        for (Map.Entry<String, Integer> methodId : methodIds.entrySet()) {
+            String methodKey = methodId.getKey();
+            int hashIndex = methodKey.indexOf('#');
+            int leftIndex = methodKey.indexOf('(', hashIndex);
+            if (hashIndex <= 0 || leftIndex < 0 || !methodKey.endsWith(")")) {
+                continue;
+            }
+            String serviceName = methodKey.substring(0, hashIndex);
+            String methodName = methodKey.substring(hashIndex + 1, leftIndex);
+            String types = methodKey.substring(leftIndex + 1, methodKey.length() - 1);
+            String[] parameterTypeNames = types.isEmpty() ? new String[0] : types.split(",");
+            map.computeIfAbsent(serviceName, key -> new HashMap<>())
+                    .computeIfAbsent(methodName, key -> new ArrayList<>(1))
+                    .add(new Entry(parameterTypeNames, methodId.getValue()));
+        }
+        this.serviceMap = map;
+    }
+
+    /**
+     * 查找方法 ID
+     *
+     * @param serviceName    服务名称
+     * @param methodName     方法名称
+     * @param parameterTypes 参数类型列表
+     * @return 找不到时返回 -1
+     */
+    public int getMethodId(String serviceName, String methodName, Class<?>[] parameterTypes) {
+        Map<String, List<Entry>> methodMap = serviceMap.getOrDefault(serviceName, Collections.emptyMap());
+        List<Entry> entries = methodMap.get(methodName);
+        if (entries == null) {
+            return -1;
+        }
+        for (Entry entry : entries) {
+            if (entry.matches(parameterTypes)) {
+                return entry.methodId;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 方法键名 serviceName#methodName(参数类型1,参数类型2)
+     *
+     * @param serviceName    服务名称
+     * @param methodName     方法名称
+     * @param parameterTypes 参数类型列表
+     * @return
+     */
+    public static String methodKey(String serviceName, String methodName, Class<?>[] parameterTypes) {
+        StringBuilder builder = new StringBuilder(serviceName).append('#').append(methodName).append('(');
+        if (parameterTypes != null) {
+            for (int i = 0; i < parameterTypes.length; i++) {
+                if (i > 0) {
+                    builder.append(',');
+                }
+                builder.append(parameterTypes[i].getName());
+            }
+        }
+        return builder.append(')').toString();
+    }
+
+    private static class Entry {
+        private final String[] parameterTypeNames;
+        private final int methodId;
+
+        Entry(String[] parameterTypeNames, int methodId) {
+            this.parameterTypeNames = parameterTypeNames;
+            this.methodId = methodId;
+        }
+
+        boolean matches(Class<?>[] parameterTypes) {
+            int length = parameterTypes == null ? 0 : parameterTypes.length;
+            if (length != parameterTypeNames.length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (!parameterTypeNames[i].equals(parameterTypes[i].getName())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.rpc.rpc_demo.communication.protocol;
+
+import lombok.Getter;
+
+/**
+ * @Description 消息体的压缩设置：压缩器 + 压缩阈值
+ * <pre>
+ * 和 writeCoalescing、streamWindow 一样由连接（TcpClientConnection）和服务端处理器（TcpServerHandler）各自持有，
+ * 编码时传给 ProtocolMessageEncoder，同一个进程里的不同客户端、服务端可以使用不同的压缩设置
+ * 解码不需要这个设置：消息头的 compressor 字段标识实际使用的压缩器
+ * </pre>
+ * @Author veritas
+ * @Data 2025/3/14 10:20
+ */
+@Getter
+public final class ProtocolCompression {
+    /**
+     * 不压缩
+     */
+    public static final ProtocolCompression NONE =
+            new ProtocolCompression((byte) ProtocolMessageCompressorEnum.NONE.getKey(), Integer.MAX_VALUE);
+
+    /**
+     * 压缩器在消息头中的 key，见 ProtocolMessageCompressorEnum
+     */
+    private final byte compressorKey;
+
+    /**
+     * 消息体达到这个大小（字节）才压缩
+     */
+    private final int threshold;
+
+    private ProtocolCompression(byte compressorKey, int threshold) {
+        this.compressorKey = compressorKey;
+        this.threshold = threshold;
+    }
+
+    /**
+     * @param compressor 压缩器 见 CompressorType，none 表示不压缩
+     * @param threshold  消息体达到这个大小才压缩
+     * @return
+     */
+    public static ProtocolCompression of(String compressor, int threshold) {
+        ProtocolMessageCompressorEnum compressorEnum = ProtocolMessageCompressorEnum.getEnumByValue(compressor);
+        if (compressorEnum == null) {
+            throw new RuntimeException("没有对应的压缩器:" + compressor);
+        }
+        if (compressorEnum == ProtocolMessageCompressorEnum.NONE) {
+            return NONE;
+        }
+        return new ProtocolCompression((byte) compressorEnum.getKey(), Math.max(0, threshold));
+    }
+
+    /**
+     * 这个大小的消息体是否需要压缩
+     */
+    public boolean shouldCompress(int bodyLength) {
+        return compressorKey != ProtocolMessageCompressorEnum.NONE.getKey() && bodyLength >= threshold;
+    }
+}
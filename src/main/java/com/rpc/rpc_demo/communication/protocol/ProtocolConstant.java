@@ -9,7 +9,26 @@ public class ProtocolConstant {
     /**
      * 消息头长度 这个消息头长度与消息头的定义有关 ，如果定义出现变化 这个长度需要改
      */
-    public static int MESSAGE_HEADER_LENGTH = 17;
+    public static int MESSAGE_HEADER_LENGTH = 22;
+
+    /**
+     * 消息头中各个字段的偏移量，编码器、解码器、拆包器都使用这里的定义
+     * 消息体长度固定放在消息头的最后 4 个字节
+     */
+    public static final int MAGIC_OFFSET = 0;
+    public static final int VERSION_OFFSET = 1;
+    public static final int SERIALIZER_OFFSET = 2;
+    public static final int TYPE_OFFSET = 3;
+    public static final int STATUS_OFFSET = 4;
+    public static final int REQUEST_ID_OFFSET = 5;
+    public static final int COMPRESSOR_OFFSET = 13;
+    public static final int TIMEOUT_OFFSET = 14;
+    public static final int BODY_LENGTH_OFFSET = MESSAGE_HEADER_LENGTH - 4;
+
+    /**
+     * 单个消息体的最大长度，超过说明数据错乱或者是恶意数据
+     */
+    public static final int MAX_BODY_LENGTH = 16 * 1024 * 1024;
 
     /**
      * 魔数
@@ -17,7 +36,17 @@ public class ProtocolConstant {
     public static byte PROTOCOL_MAGIC = 0x01;
 
     /**
-     * 协议版本
+     * 协议版本（完整格式）：请求体是完整的 RpcRequest（服务名、方法名、参数类型列表、参数列表）
+     * 0x01、0x02 是旧的 17 字节消息头（没有压缩器、剩余时间字段，消息体长度在偏移 13 的位置），和现在的格式不兼容：
+     *      新旧两端不能互相通信，拆包器收到低于 PROTOCOL_VERSION 的消息时直接关闭连接，见 TcpBufferHandlerWrapper；
+     *      旧的一端读不懂新的消息头，同样会因为消息体长度错乱而断开连接，升级时服务提供者和消费者需要一起升级
+     * 之后的版本只能在消息体长度之后扩展消息头，拆包器读取的字段（魔数、版本号、消息体长度）的位置不能再变
+     */
+    public static byte PROTOCOL_VERSION = 0x03;
+
+    /**
+     * 协议版本（紧凑格式）：请求体是 4 字节的方法 ID + 参数列表，方法 ID 通过握手消息交换，见 MethodTable
+     * 只有请求的格式不同，响应、握手消息和完整格式相同
      */
-    public static byte PROTOCOL_VERSION = 0x01;
+    public static final byte PROTOCOL_VERSION_COMPACT = 0x04;
 }
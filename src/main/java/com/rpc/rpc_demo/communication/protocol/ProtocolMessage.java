@@ -25,7 +25,7 @@ public class ProtocolMessage<T> {
 
     /**
      * 协议消息头
-     * 和RpcConstant.MESSAGE_HEADER_LENGTH = 17; 关联
+     * 和RpcConstant.MESSAGE_HEADER_LENGTH = 22; 关联
      */
     @Data
     public static class Header {
@@ -59,6 +59,17 @@ public class ProtocolMessage<T> {
          */
         private long requestId;
 
+        /**
+         * 消息体的压缩器 见 ProtocolMessageCompressorEnum
+         */
+        private byte compressor;
+
+        /**
+         * 请求的剩余时间 ms，0 表示没有期限
+         * 用相对时间而不是绝对时间，服务端和客户端的时钟不需要同步；服务端从收到请求开始计算期限
+         */
+        private int timeout;
+
         /**
          * 消息体长度
          */
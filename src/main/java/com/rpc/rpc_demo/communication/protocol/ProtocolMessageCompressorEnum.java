@@ -0,0 +1,52 @@
+package com.rpc.rpc_demo.communication.protocol;
+
+import cn.hutool.core.util.ObjectUtil;
+import lombok.Getter;
+
+/**
+ * @Description 协议消息的压缩器枚举，key 写在消息头的 compressor 字段中
+ * @Author veritas
+ * @Data 2025/3/15 10:50
+ */
+@Getter
+public enum ProtocolMessageCompressorEnum {
+    NONE(0, "none"),
+    GZIP(1, "gzip"),
+    LZ4(2, "lz4");
+
+    private final int key;
+
+    private final String value;
+
+    ProtocolMessageCompressorEnum(int key, String value) {
+        this.key = key;
+        this.value = value;
+    }
+
+    /**
+     * 根据key获取枚举
+     */
+    public static ProtocolMessageCompressorEnum getEnumByKey(int key) {
+        for (ProtocolMessageCompressorEnum anEnum : ProtocolMessageCompressorEnum.values()) {
+            if (anEnum.key == key) {
+                return anEnum;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 根据value获取枚举
+     */
+    public static ProtocolMessageCompressorEnum getEnumByValue(String value) {
+        if (ObjectUtil.isEmpty(value)) {
+            return null;
+        }
+        for (ProtocolMessageCompressorEnum anEnum : ProtocolMessageCompressorEnum.values()) {
+            if (anEnum.value.equals(value)) {
+                return anEnum;
+            }
+        }
+        return null;
+    }
+}
@@ -1,5 +1,6 @@
 package com.rpc.rpc_demo.communication.protocol;
 
+import com.rpc.rpc_demo.compress.factory.CompressorFactory;
 import com.rpc.rpc_demo.model.RpcRequest;
 import com.rpc.rpc_demo.model.RpcResponse;
 import com.rpc.rpc_demo.serializer.Serializer;
@@ -7,9 +8,17 @@ import com.rpc.rpc_demo.serializer.factory.SerializerFactory;
 import io.vertx.core.buffer.Buffer;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * @Description 协议消息解码器
+ * <pre>
+ * 紧凑格式（ProtocolConstant.PROTOCOL_VERSION_COMPACT）的请求需要先根据方法 ID 找到参数类型才能反序列化参数，
+ * 所以由服务端分步解码：decodeHeader -> decodeBody -> getMethodId -> decodeCompactArgs；其他消息都可以直接 decode
+ * </pre>
  * @Author veritas
  * @Data 2025/3/9 10:41
  */
@@ -21,9 +30,57 @@ public class ProtocolMessageDecoder {
      * @return
      */
     public static ProtocolMessage decode(Buffer buffer) {
+        ProtocolMessage.Header header = decodeHeader(buffer);
+        ProtocolMessageTypeEnum messageTypeEnum = ProtocolMessageTypeEnum.getEnum(header.getType());
+        if (messageTypeEnum == null) {
+            throw new RuntimeException("序列化消息的类型不存在");
+        }
+        // 解决粘包问题，只读取指定长度的数据
+        // 消息体是原始数据上的视图，不拷贝，直接交给序列化器
+        ByteBuffer body = decodeBody(buffer, header);
+        // 解析消息体
+        Serializer serializer = getSerializer(header);
+        try {
+            switch (messageTypeEnum) {
+                case REQUEST:
+                    if (header.getVersion() == ProtocolConstant.PROTOCOL_VERSION_COMPACT) {
+                        throw new RuntimeException("紧凑格式的请求需要按方法 ID 解码");
+                    }
+                    RpcRequest request = serializer.deserialize(body, RpcRequest.class);
+                    return new ProtocolMessage<>(header, request);
+                case RESPONSE:
+                case STREAM_DATA:
+                case STREAM_END:
+                    RpcResponse response = serializer.deserialize(body, RpcResponse.class);
+                    return new ProtocolMessage<>(header, response);
+                case HANDSHAKE:
+                    // 握手请求没有消息体，握手响应的消息体是方法 ID 表，见 ProtocolMessageEncoder.encodeHandshake
+                    return new ProtocolMessage<>(header, header.getBodyLength() == 0 ? null : decodeMethodIds(body));
+                case STREAM_CREDIT:
+                    return new ProtocolMessage<>(header, body.getInt(body.position()));
+                case HEAT_BEAT:
+                case CANCEL:
+                    // 心跳、取消只有消息头
+                    return new ProtocolMessage<>(header, null);
+                case OTHER:
+                default:
+                    throw new RuntimeException("不支持的消息类型");
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 解码消息头
+     *
+     * @param buffer 一个完整的消息
+     * @return
+     */
+    public static ProtocolMessage.Header decodeHeader(Buffer buffer) {
         // 从指定位置 读取 buffer
         ProtocolMessage.Header header = new ProtocolMessage.Header();
-        byte magic = buffer.getByte(0);
+        byte magic = buffer.getByte(ProtocolConstant.MAGIC_OFFSET);
 
         if (magic != ProtocolConstant.PROTOCOL_MAGIC) {
             throw new RuntimeException("invalid magic!");
@@ -31,45 +88,104 @@ public class ProtocolMessageDecoder {
         // 得到魔数
         header.setMagic(magic);
         // 得到版本号
-        header.setVersion(buffer.getByte(1));
+        header.setVersion(buffer.getByte(ProtocolConstant.VERSION_OFFSET));
         // 得到序列化器
-        header.setSerializer(buffer.getByte(2));
+        header.setSerializer(buffer.getByte(ProtocolConstant.SERIALIZER_OFFSET));
         // 得到消息类型
-        header.setType(buffer.getByte(3));
+        header.setType(buffer.getByte(ProtocolConstant.TYPE_OFFSET));
         // 得到消息状态
-        header.setStatus(buffer.getByte(4));
+        header.setStatus(buffer.getByte(ProtocolConstant.STATUS_OFFSET));
         // 得到请求id
-        header.setRequestId(buffer.getLong(5));
-        header.setBodyLength(buffer.getInt(13));
-        // 13 + 4(因为int) = 17
-        // 解决粘包问题，只读取指定长度的数据
-        byte[] bodyBytes = buffer.getBytes(17, 17 + header.getBodyLength());
-        // 解析消息体
-        ProtocolMessageSerializerEnum serializerEnum = ProtocolMessageSerializerEnum.getEnumByKey(header.getSerializer());
-        if (serializerEnum == null) {
-            throw new RuntimeException("序列化消息的协议不存在");
+        header.setRequestId(buffer.getLong(ProtocolConstant.REQUEST_ID_OFFSET));
+        // 得到压缩器
+        header.setCompressor(buffer.getByte(ProtocolConstant.COMPRESSOR_OFFSET));
+        // 得到请求的剩余时间
+        header.setTimeout(buffer.getInt(ProtocolConstant.TIMEOUT_OFFSET));
+        header.setBodyLength(buffer.getInt(ProtocolConstant.BODY_LENGTH_OFFSET));
+        return header;
+    }
+
+    /**
+     * 消息体 没有压缩时是原始数据上的视图，压缩过的先解压
+     *
+     * @param buffer 一个完整的消息
+     * @param header 消息头
+     * @return 读取范围是 position ~ limit
+     */
+    public static ByteBuffer decodeBody(Buffer buffer, ProtocolMessage.Header header) {
+        ByteBuffer body = buffer.getByteBuf().nioBuffer(ProtocolConstant.MESSAGE_HEADER_LENGTH, header.getBodyLength());
+        if (header.getCompressor() == ProtocolMessageCompressorEnum.NONE.getKey()) {
+            return body;
         }
-        Serializer serializer = SerializerFactory.getInstance(serializerEnum.getValue());
-        ProtocolMessageTypeEnum messageTypeEnum = ProtocolMessageTypeEnum.getEnum(header.getType());
-        if (messageTypeEnum == null) {
-            throw new RuntimeException("序列化消息的类型不存在");
+        ProtocolMessageCompressorEnum compressorEnum = ProtocolMessageCompressorEnum.getEnumByKey(header.getCompressor());
+        if (compressorEnum == null) {
+            throw new RuntimeException("消息的压缩器不存在");
         }
         try {
-            switch (messageTypeEnum) {
-                case REQUEST:
-                    RpcRequest request = null;
-                    request = serializer.deserialize(bodyBytes, RpcRequest.class);
-                    return new ProtocolMessage<>(header, request);
-                case RESPONSE:
-                    RpcResponse response = serializer.deserialize(bodyBytes, RpcResponse.class);
-                    return new ProtocolMessage<>(header, response);
-                case HEAT_BEAT:
-                case OTHER:
-                default:
-                    throw new RuntimeException("不支持的消息类型");
+            return CompressorFactory.getInstance(compressorEnum.getValue()).decompress(body);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 读取握手响应中的方法 ID 表，格式见 ProtocolMessageEncoder.encodeHandshake
+     *
+     * @param body 消息体 见 decodeBody
+     * @return 方法键名 -> 方法 ID
+     */
+    private static Map<String, Integer> decodeMethodIds(ByteBuffer body) {
+        ByteBuffer in = body.duplicate();
+        int count = in.getInt();
+        if (count < 0 || count > in.remaining() / 8) {
+            throw new RuntimeException("方法 ID 表的长度非法:" + count);
+        }
+        Map<String, Integer> methodIds = new HashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            int length = in.getInt();
+            if (length < 0 || length > in.remaining()) {
+                throw new RuntimeException("方法键名的长度非法:" + length);
             }
+            byte[] methodKey = new byte[length];
+            in.get(methodKey);
+            methodIds.put(new String(methodKey, StandardCharsets.UTF_8), in.getInt());
+        }
+        return methodIds;
+    }
+
+    /**
+     * 读取紧凑格式请求的方法 ID
+     *
+     * @param body 消息体 见 decodeBody
+     * @return
+     */
+    public static int getMethodId(ByteBuffer body) {
+        return body.getInt(body.position());
+    }
+
+    /**
+     * 按参数类型反序列化紧凑格式请求的参数列表
+     *
+     * @param body           消息体 见 decodeBody
+     * @param header         消息头
+     * @param parameterTypes 方法 ID 对应的参数类型列表
+     * @return
+     */
+    public static Object[] decodeCompactArgs(ByteBuffer body, ProtocolMessage.Header header, Class<?>[] parameterTypes) {
+        ByteBuffer args = body.duplicate();
+        args.position(args.position() + 4);
+        try {
+            return getSerializer(header).deserializeArgs(args, parameterTypes);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
+
+    private static Serializer getSerializer(ProtocolMessage.Header header) {
+        ProtocolMessageSerializerEnum serializerEnum = ProtocolMessageSerializerEnum.getEnumByKey(header.getSerializer());
+        if (serializerEnum == null) {
+            throw new RuntimeException("序列化消息的协议不存在");
+        }
+        return SerializerFactory.getInstance(serializerEnum.getValue());
+    }
 }
@@ -1,30 +1,201 @@
 package com.rpc.rpc_demo.communication.protocol;
 
+import com.rpc.rpc_demo.compress.Compressor;
+import com.rpc.rpc_demo.compress.factory.CompressorFactory;
 import com.rpc.rpc_demo.serializer.Serializer;
 import com.rpc.rpc_demo.serializer.factory.SerializerFactory;
 import io.vertx.core.buffer.Buffer;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
 
 /**
- * @Description
+ * @Description 协议消息编码器
+ * <pre>
+ * 消息体直接序列化到要发送的 Buffer 中（见 Serializer.serialize(obj, OutputStream)），不再先序列化成 byte[] 再拷贝一次：
+ *      先写消息头，消息体长度的位置先写 0 占位
+ *      消息体序列化完成之后，根据 Buffer 增长的长度回填消息体长度
+ * Buffer 写出之后归网络层所有，不能复用，所以这里不做池化，而是根据最近消息的大小预估初始容量，避免写的过程中反复扩容
+ * 压缩：调用方传入压缩设置（ProtocolCompression，由连接、服务端处理器各自持有），消息体不小于阈值时，
+ *      把消息体压缩到一个新的 Buffer 中，压缩之后没有变小就还是发送原始的消息体；消息头的 compressor 字段标识实际使用的压缩器
+ *      心跳、取消、信用等控制消息很小，不压缩
+ * </pre>
  * @Author veritas
  * @Data 2025/3/9 10:33
  */
 public class ProtocolMessageEncoder {
+    /**
+     * 初始容量预估的上限
+     */
+    private static final int MAX_SIZE_HINT = 64 * 1024;
+
+    /**
+     * 根据最近编码的消息大小预估的初始容量，多线程下偶尔不准确也没有关系
+     */
+    private static volatile int sizeHint = 256;
+
+    private static final Object[] EMPTY_ARGS = new Object[0];
+
     /**
      * 编码 TODO 代码和解码器对应
+     * 消息体为 null 时（比如握手请求）只有消息头，消息体长度为 0
      *
      * @param message
      * @return
      */
     public static Buffer encode(ProtocolMessage<?> message) {
+        return encode(message, ProtocolCompression.NONE);
+    }
+
+    /**
+     * 编码，消息体达到压缩阈值时压缩
+     *
+     * @param message
+     * @param compression 压缩设置
+     * @return
+     */
+    public static Buffer encode(ProtocolMessage<?> message, ProtocolCompression compression) {
         if (message == null || message.getHeader() == null) {
             return Buffer.buffer();
         }
         ProtocolMessage.Header header = message.getHeader();
-        // 依次向缓冲区写入字节 TODO 和Decode相对应
-        Buffer buffer = Buffer.buffer();
+        // 获取序列化器
+        Serializer serializer = getSerializer(header);
+        Buffer buffer = Buffer.buffer(sizeHint);
+        writeHeader(buffer, header);
+        if (message.getBody() != null) {
+            try {
+                // 请求体 直接写到 buffer 后面
+                serializer.serialize(message.getBody(), new BufferOutputStream(buffer));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return finish(buffer, header, compression);
+    }
+
+    /**
+     * 编码紧凑格式（ProtocolConstant.PROTOCOL_VERSION_COMPACT）的请求：消息体是 4 字节的方法 ID + 参数列表
+     *
+     * @param header   消息头，版本号会被设置为紧凑格式
+     * @param methodId 方法 ID，见 MethodTable
+     * @param args     参数列表
+     * @return
+     */
+    public static Buffer encodeCompactRequest(ProtocolMessage.Header header, int methodId, Object[] args) {
+        return encodeCompactRequest(header, methodId, args, ProtocolCompression.NONE);
+    }
+
+    /**
+     * 编码紧凑格式的请求，消息体达到压缩阈值时压缩
+     *
+     * @param header      消息头，版本号会被设置为紧凑格式
+     * @param methodId    方法 ID，见 MethodTable
+     * @param args        参数列表
+     * @param compression 压缩设置
+     * @return
+     */
+    public static Buffer encodeCompactRequest(ProtocolMessage.Header header, int methodId, Object[] args,
+                                              ProtocolCompression compression) {
+        header.setVersion(ProtocolConstant.PROTOCOL_VERSION_COMPACT);
+        Serializer serializer = getSerializer(header);
+        Buffer buffer = Buffer.buffer(sizeHint);
+        writeHeader(buffer, header);
+        buffer.appendInt(methodId);
+        try {
+            serializer.serialize(args == null ? EMPTY_ARGS : args, new BufferOutputStream(buffer));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return finish(buffer, header, compression);
+    }
+
+    /**
+     * 编码握手响应：消息体是方法 ID 表，和 STREAM_CREDIT 一样直接按二进制写，不经过序列化器，
+     * 不依赖序列化器对 Map 的支持（比如 Kryo 不能把数据读成 Map 接口），任何序列化器的客户端都能读
+     * 格式：int 方法个数，每个方法：int 方法键名的长度 | 方法键名（UTF-8） | int 方法 ID
+     *
+     * @param header    握手请求的消息头，requestId、序列化器原样返回
+     * @param methodIds   方法键名 -> 方法 ID，见 MethodTable
+     * @param compression 压缩设置，服务方法很多时方法 ID 表也不小
+     * @return
+     */
+    public static Buffer encodeHandshake(ProtocolMessage.Header header, Map<String, Integer> methodIds,
+                                         ProtocolCompression compression) {
+        Buffer buffer = Buffer.buffer(sizeHint);
+        writeHeader(buffer, header);
+        buffer.appendInt(methodIds.size());
+        for (Map.Entry<String, Integer> methodId : methodIds.entrySet()) {
+            byte[] methodKey = methodId.getKey().getBytes(StandardCharsets.UTF_8);
+            buffer.appendInt(methodKey.length);
+            buffer.appendBytes(methodKey);
+            buffer.appendInt(methodId.getValue());
+        }
+        return finish(buffer, header, compression);
+    }
+
+    /**
+     * 编码心跳消息：只有消息头，客户端空闲时发送，服务端原样回复一个心跳
+     *
+     * @return
+     */
+    public static Buffer encodeHeartbeat() {
+        return encode(new ProtocolMessage<>(controlHeader(ProtocolMessageTypeEnum.HEAT_BEAT, 0), null));
+    }
+
+    /**
+     * 编码取消消息：只有消息头，通知服务端不再需要某个请求的响应
+     *
+     * @param requestId 被取消的请求
+     * @return
+     */
+    public static Buffer encodeCancel(long requestId) {
+        return encode(new ProtocolMessage<>(controlHeader(ProtocolMessageTypeEnum.CANCEL, requestId), null));
+    }
+
+    /**
+     * 编码流式响应的信用消息：消息体是 4 字节的 int
+     *
+     * @param requestId 流式请求的 requestId
+     * @param credit    服务端还可以再发送的元素个数
+     * @return
+     */
+    public static Buffer encodeStreamCredit(long requestId, int credit) {
+        ProtocolMessage.Header header = controlHeader(ProtocolMessageTypeEnum.STREAM_CREDIT, requestId);
+        Buffer buffer = Buffer.buffer(ProtocolConstant.MESSAGE_HEADER_LENGTH + 4);
+        writeHeader(buffer, header);
+        buffer.appendInt(credit);
+        return finish(buffer, header, ProtocolCompression.NONE);
+    }
+
+    /**
+     * 没有消息体的控制消息的消息头
+     */
+    private static ProtocolMessage.Header controlHeader(ProtocolMessageTypeEnum type, long requestId) {
+        ProtocolMessage.Header header = new ProtocolMessage.Header();
+        header.setMagic(ProtocolConstant.PROTOCOL_MAGIC);
+        header.setVersion(ProtocolConstant.PROTOCOL_VERSION);
+        // 没有消息体，序列化器只是占位
+        header.setSerializer((byte) ProtocolMessageSerializerEnum.JDK.getKey());
+        header.setType((byte) type.getKey());
+        header.setStatus((byte) ProtocolMessageStatusEnum.OK.getValue());
+        header.setRequestId(requestId);
+        return header;
+    }
+
+    private static Serializer getSerializer(ProtocolMessage.Header header) {
+        ProtocolMessageSerializerEnum serializerEnum = ProtocolMessageSerializerEnum.getEnumByKey(header.getSerializer());
+        if (serializerEnum == null) {
+            throw new RuntimeException("没有对应的序列化器");
+        }
+        return SerializerFactory.getInstance(serializerEnum.getValue());
+    }
+
+    /**
+     * 依次向缓冲区写入消息头 TODO 和Decode相对应
+     */
+    private static void writeHeader(Buffer buffer, ProtocolMessage.Header header) {
         // 魔数
         buffer.appendByte(header.getMagic());
         // 请求体版本
@@ -37,20 +208,63 @@ public class ProtocolMessageEncoder {
         buffer.appendByte(header.getStatus());
         // 请求id
         buffer.appendLong(header.getRequestId());
-        // 获取序列化器
-        ProtocolMessageSerializerEnum serializerEnum = ProtocolMessageSerializerEnum.getEnumByKey(header.getSerializer());
-        if (serializerEnum != null) {
-            throw new RuntimeException("没有对应的序列化器");
+        // 压缩器 先写不压缩，序列化之后再决定
+        buffer.appendByte((byte) ProtocolMessageCompressorEnum.NONE.getKey());
+        // 请求的剩余时间
+        buffer.appendInt(header.getTimeout());
+        // 请求体长度 先占位，序列化之后回填
+        buffer.appendInt(0);
+    }
+
+    /**
+     * 回填消息体长度，需要时压缩消息体
+     */
+    private static Buffer finish(Buffer buffer, ProtocolMessage.Header header, ProtocolCompression compression) {
+        int bodyLength = buffer.length() - ProtocolConstant.MESSAGE_HEADER_LENGTH;
+        updateSizeHint(buffer.length());
+        header.setCompressor((byte) ProtocolMessageCompressorEnum.NONE.getKey());
+        if (compression.shouldCompress(bodyLength)) {
+            byte key = compression.getCompressorKey();
+            Buffer compressed = compress(buffer, bodyLength, key);
+            if (compressed != null) {
+                header.setCompressor(key);
+                buffer = compressed;
+                bodyLength = buffer.length() - ProtocolConstant.MESSAGE_HEADER_LENGTH;
+            }
         }
-        Serializer serializer = SerializerFactory.getInstance(serializerEnum.getValue());
+        buffer.setInt(ProtocolConstant.BODY_LENGTH_OFFSET, bodyLength);
+        header.setBodyLength(bodyLength);
+        return buffer;
+    }
+
+    /**
+     * 把消息体压缩到一个新的 Buffer 中
+     *
+     * @return 压缩之后没有变小时返回 null
+     */
+    private static Buffer compress(Buffer buffer, int bodyLength, byte key) {
+        Compressor compressor = CompressorFactory.getInstance(ProtocolMessageCompressorEnum.getEnumByKey(key).getValue());
+        Buffer compressed = Buffer.buffer(ProtocolConstant.MESSAGE_HEADER_LENGTH + (bodyLength >> 1));
+        compressed.appendBuffer(buffer, 0, ProtocolConstant.MESSAGE_HEADER_LENGTH);
+        compressed.setByte(ProtocolConstant.COMPRESSOR_OFFSET, key);
         try {
-            byte[] bodyBytes = serializer.serialize(message.getBody());
-            //写入 请求体 长度 和 本体
-            buffer.appendInt(bodyBytes.length);
-            buffer.appendBytes(bodyBytes);
+            compressor.compress(buffer.getByteBuf().nioBuffer(ProtocolConstant.MESSAGE_HEADER_LENGTH, bodyLength),
+                    new BufferOutputStream(compressed));
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        return buffer;
+        return compressed.length() - ProtocolConstant.MESSAGE_HEADER_LENGTH < bodyLength ? compressed : null;
+    }
+
+    /**
+     * 消息变大时立即跟上，变小时慢慢回落
+     */
+    private static void updateSizeHint(int size) {
+        int hint = sizeHint;
+        if (size > hint) {
+            sizeHint = Math.min(size, MAX_SIZE_HINT);
+        } else if (size < hint) {
+            sizeHint = hint - ((hint - size) >> 4);
+        }
     }
 }
@@ -12,7 +12,27 @@ public enum ProtocolMessageTypeEnum {
     REQUEST(0),
     RESPONSE(1),
     HEAT_BEAT(2),
-    OTHER(3);
+    OTHER(3),
+    /**
+     * 握手：客户端在一条连接上第一次发请求时发送，服务端回复方法 ID 表，见 MethodTable
+     */
+    HANDSHAKE(4),
+    /**
+     * 取消：客户端不再等待某个请求的响应（超时或者调用方取消），requestId 是被取消的请求，只有消息头
+     */
+    CANCEL(5),
+    /**
+     * 流式响应的一个元素，消息体是 RpcResponse，data 是元素
+     */
+    STREAM_DATA(6),
+    /**
+     * 流式响应结束，消息体是 RpcResponse，exception 不为空表示出错结束
+     */
+    STREAM_END(7),
+    /**
+     * 流式响应的信用（客户端发送）：服务端还可以再发送多少个元素，消息体是 4 字节的 int，不经过序列化器
+     */
+    STREAM_CREDIT(8);
 
 
     private final int key;
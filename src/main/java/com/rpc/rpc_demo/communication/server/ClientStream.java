@@ -0,0 +1,197 @@
+package com.rpc.rpc_demo.communication.server;
+
+import com.rpc.rpc_demo.communication.protocol.ProtocolMessage;
+import com.rpc.rpc_demo.model.RpcResponse;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * @Description 流式响应（服务消费者用）：一个流式请求对应一个 ClientStream，以 Flow.Publisher 的形式交给调用方
+ * <pre>
+ * 冷启动：subscribe 之后才从连接池拿连接、发送请求，只能订阅一次
+ * Subscription.request(n) 转换成 STREAM_CREDIT 消息发给服务端，服务端最多再发送 n 个元素，见 OutboundStream
+ *      拿到连接之前的 request(n) 先积累起来，请求发出去之后一起发送
+ * Subscription.cancel() 发送 CANCEL 消息，服务端停止发送
+ * onNext / onComplete / onError 在连接的 event loop 线程上回调，订阅者不能阻塞；需要阻塞式读取时用 StreamIterator
+ * 流式请求没有超时时间，连接断开时以 onError 结束，失联的连接由心跳发现，见 TcpClientConnection
+ * 双向流：带有流式参数时，请求发出之后按服务端的信用上传流式参数，流式响应结束或者被取消时停止上传
+ * </pre>
+ * @Author veritas
+ * @Data 2025/3/16 11:05
+ */
+public class ClientStream implements Flow.Publisher<Object>, Flow.Subscription {
+    /**
+     * 流式请求的 requestId，所有 STREAM_DATA / STREAM_END 消息都用它关联
+     */
+    private final long requestId;
+
+    /**
+     * 请求消息
+     */
+    private final ProtocolMessage<?> protocolMessage;
+
+    /**
+     * 获取连接，subscribe 的时候才调用
+     */
+    private final Supplier<CompletableFuture<TcpClientConnection>> connectionSupplier;
+
+    /**
+     * 流式参数（双向流），没有时为 null
+     */
+    private final Object uploadSource;
+
+    private final AtomicBoolean subscribed = new AtomicBoolean(false);
+
+    /**
+     * 是否已经结束（正常结束、出错、被取消）
+     */
+    private final AtomicBoolean done = new AtomicBoolean(false);
+
+    /**
+     * 拿到连接之前积累的信用
+     */
+    private final AtomicLong pendingCredit = new AtomicLong();
+
+    private volatile Flow.Subscriber<? super Object> subscriber;
+
+    /**
+     * 请求已经发出去的连接，之前为 null
+     */
+    private volatile TcpClientConnection connection;
+
+    public ClientStream(long requestId, ProtocolMessage<?> protocolMessage,
+                        Supplier<CompletableFuture<TcpClientConnection>> connectionSupplier) {
+        this(requestId, protocolMessage, connectionSupplier, null);
+    }
+
+    /**
+     * @param uploadSource 流式参数：Iterator、Stream 或者 Flow.Publisher，为 null 时只有流式响应
+     */
+    public ClientStream(long requestId, ProtocolMessage<?> protocolMessage,
+                        Supplier<CompletableFuture<TcpClientConnection>> connectionSupplier, Object uploadSource) {
+        this.requestId = requestId;
+        this.protocolMessage = protocolMessage;
+        this.connectionSupplier = connectionSupplier;
+        this.uploadSource = uploadSource;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Object> subscriber) {
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(this);
+            subscriber.onError(new IllegalStateException("流式响应只能订阅一次"));
+            return;
+        }
+        this.subscriber = subscriber;
+        subscriber.onSubscribe(this);
+        if (done.get()) {
+            return;
+        }
+        connectionSupplier.get().whenComplete((tcpClientConnection, e) -> {
+            if (e != null) {
+                onError(e);
+                return;
+            }
+            if (!tcpClientConnection.openStream(this, protocolMessage)) {
+                return;
+            }
+            connection = tcpClientConnection;
+            if (done.get()) {
+                // 请求发出去之前就被取消了
+                tcpClientConnection.cancelStream(requestId);
+                return;
+            }
+            flushCredit(tcpClientConnection, pendingCredit.getAndSet(0));
+        });
+    }
+
+    @Override
+    public void request(long n) {
+        if (n <= 0) {
+            // Reactive Streams 规范 3.9：以 onError 结束，同时通知服务端停止发送
+            onError(new IllegalArgumentException("request 的个数必须大于 0:" + n));
+            TcpClientConnection current = connection;
+            if (current != null) {
+                current.cancelStream(requestId);
+            }
+            return;
+        }
+        if (done.get()) {
+            return;
+        }
+        TcpClientConnection current = connection;
+        if (current == null) {
+            pendingCredit.accumulateAndGet(n, (a, b) -> a + b < 0 ? Long.MAX_VALUE : a + b);
+            // 连接可能在上面的判断之后才拿到，再检查一次避免信用一直积累在这里
+            current = connection;
+            if (current == null) {
+                return;
+            }
+            n = pendingCredit.getAndSet(0);
+        }
+        flushCredit(current, n);
+    }
+
+    @Override
+    public void cancel() {
+        if (!done.compareAndSet(false, true)) {
+            return;
+        }
+        TcpClientConnection current = connection;
+        if (current != null) {
+            current.cancelStream(requestId);
+        }
+    }
+
+    public long getRequestId() {
+        return requestId;
+    }
+
+    Object getUploadSource() {
+        return uploadSource;
+    }
+
+    /**
+     * 收到一个元素，在 event loop 线程上调用
+     */
+    void onData(RpcResponse rpcResponse) {
+        if (!done.get()) {
+            subscriber.onNext(rpcResponse.getData());
+        }
+    }
+
+    /**
+     * 收到结束消息，在 event loop 线程上调用
+     */
+    void onEnd(RpcResponse rpcResponse) {
+        if (rpcResponse.getException() != null) {
+            onError(rpcResponse.getException());
+            return;
+        }
+        if (done.compareAndSet(false, true)) {
+            subscriber.onComplete();
+        }
+    }
+
+    /**
+     * 出错结束：发送失败、连接断开
+     */
+    void onError(Throwable e) {
+        if (done.compareAndSet(false, true)) {
+            subscriber.onError(e);
+        }
+    }
+
+    /**
+     * 信用按 int 发送，request(Long.MAX_VALUE) 这样的“不限制”按 Integer.MAX_VALUE 发送
+     */
+    private void flushCredit(TcpClientConnection current, long n) {
+        if (n > 0) {
+            current.sendCredit(requestId, (int) Math.min(n, Integer.MAX_VALUE));
+        }
+    }
+}
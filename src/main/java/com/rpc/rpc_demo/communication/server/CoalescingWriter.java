@@ -0,0 +1,144 @@
+package com.rpc.rpc_demo.communication.server;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.net.NetSocket;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * @Description 合并写（服务提供者和服务消费者共用）：一条连接上要发送的消息先放入队列，再批量写到 socket
+ * <pre>
+ * 每次 socket.write 都会触发一次 flush，也就是一次 write 系统调用，高并发下大量小消息会变成大量的系统调用和 TCP 分段
+ * 合并写的做法：
+ *      write 把消息放入队列，队列从空变成非空时向这条连接的 event loop 提交一次 flush 任务
+ *      flush 任务在 event loop 的下一轮执行，把这段时间内积累的所有消息拼成一个 Buffer，一次 socket.write 写出去
+ * 刷新窗口就是 event loop 的一轮：同一轮中（比如一次读事件解析出的多个请求的响应、多个业务线程同时发出的请求）写入的消息会被合并，
+ * 没有并发的时候 flush 任务立即执行，只多一次任务切换，不会像定时器那样额外增加延迟（Vert.x 的定时器最小粒度是 1 ms，不适合做微秒级的窗口）
+ * 一次合并的大小不超过 MAX_BATCH_BYTES，超过的部分下一次 write 再发，避免一次拷贝过多数据
+ * 消息的发送顺序和 write 的调用顺序一致
+ * </pre>
+ * @Author veritas
+ * @Data 2025/3/15 15:20
+ */
+public class CoalescingWriter {
+    /**
+     * 一次合并写的最大字节数
+     */
+    private static final int MAX_BATCH_BYTES = 64 * 1024;
+
+    private final NetSocket socket;
+
+    /**
+     * socket 所在的 event loop，为 null 时不合并，直接写
+     */
+    private final Context context;
+
+    /**
+     * 等待发送的消息
+     */
+    private final Queue<PendingWrite> queue = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 是否已经提交了 flush 任务
+     */
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+
+    /**
+     * @param socket   底层的 socket
+     * @param coalesce 是否合并写，false 时每条消息直接 socket.write
+     */
+    public CoalescingWriter(NetSocket socket, boolean coalesce) {
+        this.socket = socket;
+        // 在 socket 的 event loop 上创建（connectHandler、connect 回调中），当前上下文就是 socket 的上下文
+        this.context = coalesce ? Vertx.currentContext() : null;
+    }
+
+    public void write(Buffer buffer) {
+        write(buffer, null);
+    }
+
+    /**
+     * 发送一条消息
+     *
+     * @param buffer  编码之后的消息
+     * @param handler 写完成（或失败）时的回调，可以为 null
+     */
+    public void write(Buffer buffer, Handler<AsyncResult<Void>> handler) {
+        if (context == null) {
+            if (handler == null) {
+                socket.write(buffer);
+            } else {
+                socket.write(buffer, handler);
+            }
+            return;
+        }
+        queue.offer(new PendingWrite(buffer, handler));
+        if (flushScheduled.compareAndSet(false, true)) {
+            context.runOnContext(v -> flush());
+        }
+    }
+
+    /**
+     * 把队列中的消息合并写出，在 event loop 上执行
+     */
+    private void flush() {
+        // 先清除标记再取消息，取消息之后放入的消息会提交新的 flush 任务，不会丢
+        flushScheduled.set(false);
+        PendingWrite first;
+        while ((first = queue.poll()) != null) {
+            PendingWrite next = queue.peek();
+            if (next == null) {
+                // 只有一条消息，不需要拷贝
+                writeBatch(first.buffer, first.handler == null ? null : List.of(first.handler));
+                return;
+            }
+            Buffer batch = Buffer.buffer(Math.min(MAX_BATCH_BYTES, first.buffer.length() + next.buffer.length()));
+            List<Handler<AsyncResult<Void>>> handlers = null;
+            PendingWrite pendingWrite = first;
+            while (true) {
+                batch.appendBuffer(pendingWrite.buffer);
+                if (pendingWrite.handler != null) {
+                    if (handlers == null) {
+                        handlers = new ArrayList<>();
+                    }
+                    handlers.add(pendingWrite.handler);
+                }
+                next = queue.peek();
+                if (next == null || batch.length() + next.buffer.length() > MAX_BATCH_BYTES) {
+                    break;
+                }
+                pendingWrite = queue.poll();
+            }
+            writeBatch(batch, handlers);
+        }
+    }
+
+    private void writeBatch(Buffer batch, List<Handler<AsyncResult<Void>>> handlers) {
+        if (handlers == null) {
+            socket.write(batch);
+            return;
+        }
+        socket.write(batch, result -> handlers.forEach(handler -> handler.handle(result)));
+    }
+
+    /**
+     * 等待发送的一条消息
+     */
+    private static class PendingWrite {
+        private final Buffer buffer;
+        private final Handler<AsyncResult<Void>> handler;
+
+        PendingWrite(Buffer buffer, Handler<AsyncResult<Void>> handler) {
+            this.buffer = buffer;
+            this.handler = handler;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.rpc.rpc_demo.communication.server;
+
+/**
+ * @Description 服务提供者执行模型标识符常量
+ * <pre>
+ * 决定服务方法在哪个线程上执行：
+ *      eventLoop     直接在 Vert.x 的 event loop 线程上执行，没有线程切换，只适合非常快、不会阻塞的方法
+ *      workerPool    提交到有界的业务线程池，队列满了直接拒绝，返回服务端繁忙
+ *      virtualThread 每个请求一个虚拟线程，适合会阻塞（IO、锁）的方法
+ * </pre>
+ * @Author veritas
+ * @Data 2025/3/11 16:02
+ */
+public class ExecutionModeIdentifier {
+    /**
+     * 在 event loop 线程上直接执行
+     */
+    public static final String EVENT_LOOP = "eventLoop";
+
+    /**
+     * 在有界业务线程池中执行
+     */
+    public static final String WORKER_POOL = "workerPool";
+
+    /**
+     * 每个请求一个虚拟线程
+     */
+    public static final String VIRTUAL_THREAD = "virtualThread";
+}
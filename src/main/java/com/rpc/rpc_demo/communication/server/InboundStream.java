@@ -0,0 +1,175 @@
+package com.rpc.rpc_demo.communication.server;
+
+import com.rpc.rpc_demo.communication.protocol.ProtocolMessageEncoder;
+import com.rpc.rpc_demo.model.RpcResponse;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.BaseStream;
+
+/**
+ * @Description 流式请求的接收端（服务提供者用）：消费者上传的流式参数，以 Flow.Publisher 的形式交给服务方法
+ * <pre>
+ * 消费者把流式参数的元素逐个用 STREAM_DATA 消息发送过来，发送完成后发送 STREAM_END，见 OutboundStream
+ * Subscription.request(n) 转换成 STREAM_CREDIT 消息发给消费者，消费者最多再发送 n 个元素
+ * Subscription.cancel() 发送 CANCEL 消息，消费者停止上传；服务方法返回时还没读完的流也会这样取消
+ * 流式参数是 Iterator / Stream 时包装成 StreamIterator，服务方法阻塞式读取，见 adapt
+ * onNext / onComplete / onError 在连接的 event loop 线程上回调（订阅之前到达的结束消息在订阅时回调）
+ * 只能订阅一次
+ * </pre>
+ * @Author veritas
+ * @Data 2025/3/16 15:10
+ */
+class InboundStream implements Flow.Publisher<Object>, Flow.Subscription {
+    /**
+     * 正常结束的标记
+     */
+    private static final Object COMPLETED = new Object();
+
+    /**
+     * 流式请求的 requestId
+     */
+    private final long requestId;
+
+    private final CoalescingWriter writer;
+
+    /**
+     * 这条连接上所有的流式请求，结束时移除
+     */
+    private final Map<Long, InboundStream> streams;
+
+    private final AtomicBoolean subscribed = new AtomicBoolean(false);
+
+    /**
+     * 是否已经结束（正常结束、出错、被取消）
+     */
+    private final AtomicBoolean done = new AtomicBoolean(false);
+
+    private volatile Flow.Subscriber<? super Object> subscriber;
+
+    /**
+     * onSubscribe 是否已经返回，之前到达的结束信号先保存在 pendingTerminal
+     */
+    private boolean ready;
+
+    /**
+     * 订阅之前就到达的结束信号：null 表示还没结束，COMPLETED 表示正常结束，否则是异常
+     */
+    private Object pendingTerminal;
+
+    InboundStream(long requestId, CoalescingWriter writer, Map<Long, InboundStream> streams) {
+        this.requestId = requestId;
+        this.writer = writer;
+        this.streams = streams;
+    }
+
+    /**
+     * 按服务方法的参数类型包装
+     *
+     * @param parameterType 流式参数的类型：Iterator、Stream 或者 Flow.Publisher
+     * @param window        Iterator / Stream 的信用窗口，见 StreamIterator
+     * @return 传给服务方法的参数
+     */
+    Object adapt(Class<?> parameterType, int window) {
+        if (Iterator.class.isAssignableFrom(parameterType)) {
+            return new StreamIterator<>(this, window);
+        }
+        if (BaseStream.class.isAssignableFrom(parameterType)) {
+            return new StreamIterator<>(this, window).stream();
+        }
+        return this;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Object> subscriber) {
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(this);
+            subscriber.onError(new IllegalStateException("流式参数只能订阅一次"));
+            return;
+        }
+        // 先设置 subscriber 再回调 onSubscribe：onSubscribe 中发出的信用换来的元素可能马上就在 event loop 上到达
+        this.subscriber = subscriber;
+        subscriber.onSubscribe(this);
+        Object terminal;
+        synchronized (this) {
+            ready = true;
+            terminal = pendingTerminal;
+        }
+        if (terminal == COMPLETED) {
+            subscriber.onComplete();
+        } else if (terminal != null) {
+            subscriber.onError((Throwable) terminal);
+        }
+    }
+
+    @Override
+    public void request(long n) {
+        if (n <= 0) {
+            // Reactive Streams 规范 3.9：以 onError 结束，同时通知消费者停止上传
+            onError(new IllegalArgumentException("request 的个数必须大于 0:" + n));
+            writer.write(ProtocolMessageEncoder.encodeCancel(requestId));
+            return;
+        }
+        if (!done.get()) {
+            // request(Long.MAX_VALUE) 这样的“不限制”按 Integer.MAX_VALUE 发送
+            writer.write(ProtocolMessageEncoder.encodeStreamCredit(requestId, (int) Math.min(n, Integer.MAX_VALUE)));
+        }
+    }
+
+    /**
+     * 不再读取，通知消费者停止上传
+     */
+    @Override
+    public void cancel() {
+        if (done.compareAndSet(false, true)) {
+            streams.remove(requestId, this);
+            writer.write(ProtocolMessageEncoder.encodeCancel(requestId));
+        }
+    }
+
+    /**
+     * 收到一个元素，在 event loop 线程上调用
+     */
+    void onData(RpcResponse rpcResponse) {
+        Flow.Subscriber<? super Object> current = subscriber;
+        // 没有订阅就没有信用，消费者不会发送元素
+        if (!done.get() && current != null) {
+            current.onNext(rpcResponse.getData());
+        }
+    }
+
+    /**
+     * 收到结束消息，在 event loop 线程上调用
+     */
+    void onEnd(RpcResponse rpcResponse) {
+        terminate(rpcResponse.getException() == null ? COMPLETED : rpcResponse.getException());
+    }
+
+    /**
+     * 出错结束：消费者取消了调用、连接断开
+     */
+    void onError(Throwable e) {
+        terminate(e);
+    }
+
+    private void terminate(Object terminal) {
+        if (!done.compareAndSet(false, true)) {
+            return;
+        }
+        streams.remove(requestId, this);
+        synchronized (this) {
+            if (!ready) {
+                pendingTerminal = terminal;
+                return;
+            }
+        }
+        Flow.Subscriber<? super Object> current = subscriber;
+        if (terminal == COMPLETED) {
+            current.onComplete();
+        } else {
+            current.onError((Throwable) terminal);
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package com.rpc.rpc_demo.communication.server;
+
+import com.rpc.rpc_demo.communication.protocol.ProtocolCompression;
+import com.rpc.rpc_demo.communication.protocol.ProtocolConstant;
+import com.rpc.rpc_demo.communication.protocol.ProtocolMessage;
+import com.rpc.rpc_demo.communication.protocol.ProtocolMessageEncoder;
+import com.rpc.rpc_demo.communication.protocol.ProtocolMessageStatusEnum;
+import com.rpc.rpc_demo.communication.protocol.ProtocolMessageTypeEnum;
+import com.rpc.rpc_demo.model.RpcResponse;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.BaseStream;
+
+/**
+ * @Description 流的发送端：把本地的 Iterator / Stream / Flow.Publisher 逐个元素发送给对端
+ * <pre>
+ * 服务提供者用它发送流式响应（服务方法的返回值），服务消费者用它上传流式参数（见 TcpClientConnection.startUpload）
+ * 每个元素一个 STREAM_DATA 消息，发送完成后一个 STREAM_END 消息，都用请求的 requestId 关联
+ * 基于信用的背压：接收端通过 STREAM_CREDIT 消息告诉发送端还可以再发送多少个元素，信用用完就停下来等待，
+ *      发送端任何时候最多只有 信用个数 的元素在发送中，接收端处理得慢时两边的内存都是有界的
+ * Iterator / Stream：有信用时向 executor 提交一个 pump 任务（服务提供者按服务的执行模型执行，见 ProviderExecutor），
+ *      同一时刻最多一个 pump 任务，信用用完就退出，新的信用到达时再提交；迭代结束或出错时关闭 Stream / AutoCloseable
+ * Flow.Publisher：信用直接转换成 Subscription.request(n)，由 Publisher 自己控制发送节奏
+ * 接收端取消（CANCEL 消息）或者连接断开时停止发送，不再发送 STREAM_END
+ * </pre>
+ * @Author veritas
+ * @Data 2025/3/16 10:20
+ */
+@Slf4j
+class OutboundStream {
+    private final CoalescingWriter writer;
+
+    /**
+     * 元素消息的压缩设置
+     */
+    private final ProtocolCompression compression;
+
+    /**
+     * 流式请求的 requestId
+     */
+    private final long requestId;
+
+    /**
+     * 序列化器在协议消息头中的 key
+     */
+    private final byte serializer;
+
+    /**
+     * 这条连接上同一方向的所有流，结束时移除
+     */
+    private final Map<Long, OutboundStream> streams;
+
+    /**
+     * 执行 pump 任务，满了可以抛出 RejectedExecutionException
+     */
+    private final Executor executor;
+
+    /**
+     * 结束（包括被取消）时的回调
+     */
+    private volatile Runnable doneCallback;
+
+    /**
+     * 剩余的信用；Publisher 模式下是收到 Subscription 之前积累的信用
+     */
+    private final AtomicLong credit = new AtomicLong();
+
+    /**
+     * 是否已经有 pump 任务在执行
+     */
+    private final AtomicBoolean pumping = new AtomicBoolean(false);
+
+    /**
+     * 是否已经结束（正常结束、出错、被取消）
+     */
+    private final AtomicBoolean done = new AtomicBoolean(false);
+
+    /**
+     * 服务方法返回的结果：Iterator / Stream / Flow.Publisher，服务方法执行完之前为 null
+     */
+    private volatile Object source;
+
+    private volatile Iterator<?> iterator;
+
+    private volatile Flow.Subscription subscription;
+
+    OutboundStream(CoalescingWriter writer, ProtocolCompression compression, long requestId, byte serializer,
+                   Map<Long, OutboundStream> streams, Executor executor) {
+        this.writer = writer;
+        this.compression = compression;
+        this.requestId = requestId;
+        this.serializer = serializer;
+        this.streams = streams;
+        this.executor = executor;
+    }
+
+    /**
+     * 设置结束（包括被取消）时的回调，只会被调用一次
+     */
+    void onDone(Runnable doneCallback) {
+        this.doneCallback = doneCallback;
+        if (done.get()) {
+            runDoneCallback();
+        }
+    }
+
+    /**
+     * 开始发送
+     *
+     * @param result 要发送的 Iterator / Stream / Flow.Publisher，为 null 时直接结束
+     */
+    void start(Object result) {
+        if (result == null) {
+            end(null);
+            return;
+        }
+        source = result;
+        if (done.get()) {
+            // 开始之前已经被取消
+            close();
+            return;
+        }
+        if (result instanceof Flow.Publisher) {
+            ((Flow.Publisher<?>) result).subscribe(new StreamSubscriber());
+            return;
+        }
+        if (result instanceof Iterator) {
+            iterator = (Iterator<?>) result;
+        } else if (result instanceof BaseStream) {
+            iterator = ((BaseStream<?, ?>) result).iterator();
+        } else {
+            end(new IllegalStateException("不支持的流类型:" + result.getClass().getName()));
+            return;
+        }
+        schedulePump();
+    }
+
+    /**
+     * 收到接收端的信用
+     *
+     * @param n 还可以再发送的元素个数
+     */
+    void addCredit(int n) {
+        if (n <= 0 || done.get()) {
+            return;
+        }
+        Flow.Subscription current = subscription;
+        if (current != null) {
+            current.request(n);
+            return;
+        }
+        credit.accumulateAndGet(n, (a, b) -> a + b < 0 ? Long.MAX_VALUE : a + b);
+        if (source instanceof Flow.Publisher) {
+            // Subscription 可能在上面的判断之后才到，onSubscribe 会把积累的信用一起请求，这里再检查一次避免遗漏
+            drainCreditTo(subscription);
+            return;
+        }
+        schedulePump();
+    }
+
+    /**
+     * 接收端取消、连接断开或者调用已经结束，停止发送，不再发送 STREAM_END
+     */
+    void cancel() {
+        if (done.compareAndSet(false, true)) {
+            streams.remove(requestId, this);
+            close();
+            runDoneCallback();
+        }
+    }
+
+    /**
+     * 还没开始发送就失败了（比如服务方法本身执行失败），发送出错的 STREAM_END
+     */
+    void fail(Throwable e) {
+        end(e);
+    }
+
+    private void schedulePump() {
+        if (iterator == null || done.get() || credit.get() <= 0) {
+            return;
+        }
+        if (!pumping.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(this::pump);
+        } catch (RejectedExecutionException e) {
+            pumping.set(false);
+            end(new RuntimeException("服务端繁忙，请稍后重试", e));
+        }
+    }
+
+    /**
+     * 有信用就发送下一个元素，信用用完或者迭代结束就退出
+     */
+    private void pump() {
+        try {
+            while (!done.get() && credit.get() > 0) {
+                if (!iterator.hasNext()) {
+                    end(null);
+                    return;
+                }
+                Object element = iterator.next();
+                credit.decrementAndGet();
+                sendData(element);
+            }
+        } catch (Throwable e) {
+            end(e);
+            return;
+        } finally {
+            pumping.set(false);
+        }
+        // 退出循环和清除 pumping 之间可能刚好来了新的信用
+        schedulePump();
+    }
+
+    private void drainCreditTo(Flow.Subscription current) {
+        if (current == null) {
+            return;
+        }
+        long n = credit.getAndSet(0);
+        if (n > 0) {
+            current.request(n);
+        }
+    }
+
+    private void sendData(Object element) {
+        Class<?> dataType = element == null ? Object.class : element.getClass();
+        write(ProtocolMessageTypeEnum.STREAM_DATA, TcpServerHandler.successResponse(element, dataType));
+    }
+
+    /**
+     * 结束：发送 STREAM_END，e 不为空表示出错结束
+     */
+    private void end(Throwable e) {
+        if (!done.compareAndSet(false, true)) {
+            return;
+        }
+        streams.remove(requestId, this);
+        close();
+        write(ProtocolMessageTypeEnum.STREAM_END,
+                e == null ? TcpServerHandler.successResponse(null, Object.class) : TcpServerHandler.errorResponse(e));
+        runDoneCallback();
+    }
+
+    private void runDoneCallback() {
+        Runnable callback = doneCallback;
+        if (callback != null) {
+            doneCallback = null;
+            callback.run();
+        }
+    }
+
+    /**
+     * 释放服务方法返回的资源
+     */
+    private void close() {
+        Object current = source;
+        try {
+            if (current instanceof BaseStream) {
+                ((BaseStream<?, ?>) current).close();
+            } else if (current instanceof AutoCloseable) {
+                ((AutoCloseable) current).close();
+            }
+        } catch (Exception e) {
+            log.warn("Failed to close stream of request {}", requestId, e);
+        }
+        Flow.Subscription currentSubscription = subscription;
+        if (currentSubscription != null) {
+            currentSubscription.cancel();
+        }
+    }
+
+    private void write(ProtocolMessageTypeEnum type, RpcResponse rpcResponse) {
+        // 每个消息一个新的消息头，编码时会修改消息头
+        ProtocolMessage.Header header = new ProtocolMessage.Header();
+        header.setMagic(ProtocolConstant.PROTOCOL_MAGIC);
+        header.setVersion(ProtocolConstant.PROTOCOL_VERSION);
+        header.setSerializer(serializer);
+        header.setType((byte) type.getKey());
+        header.setStatus((byte) ProtocolMessageStatusEnum.OK.getValue());
+        header.setRequestId(requestId);
+        writer.write(ProtocolMessageEncoder.encode(new ProtocolMessage<>(header, rpcResponse), compression));
+    }
+
+    /**
+     * Flow.Publisher 模式的订阅者，Publisher 保证 onNext 不会并发调用
+     */
+    private class StreamSubscriber implements Flow.Subscriber<Object> {
+        @Override
+        public void onSubscribe(Flow.Subscription s) {
+            if (done.get()) {
+                s.cancel();
+                return;
+            }
+            subscription = s;
+            drainCreditTo(s);
+        }
+
+        @Override
+        public void onNext(Object item) {
+            if (!done.get()) {
+                sendData(item);
+            }
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            end(e);
+        }
+
+        @Override
+        public void onComplete() {
+            end(null);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.rpc.rpc_demo.communication.server;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @Description 服务提供者的执行器，按执行模型把请求分派到对应的线程上执行
+ * <pre>
+ * eventLoop     直接在当前线程（event loop）执行
+ * workerPool    有界线程池，队列满了抛出 RejectedExecutionException，由调用方返回错误响应，不会无限堆积
+ * virtualThread 每个任务一个虚拟线程
+ * 执行模型见 ExecutionModeIdentifier
+ * </pre>
+ * @Author veritas
+ * @Data 2025/3/11 16:10
+ */
+@Slf4j
+public class ProviderExecutor {
+    /**
+     * 业务线程池
+     */
+    private final ThreadPoolExecutor workerPool;
+
+    /**
+     * 业务线程池的队列容量
+     */
+    private final int queueCapacity;
+
+    /**
+     * 虚拟线程执行器
+     */
+    private final ExecutorService virtualThreadExecutor;
+
+    /**
+     * 默认执行模型 服务没有单独指定执行模型时使用
+     */
+    private final String defaultExecutionMode;
+
+    /**
+     * 正在执行的虚拟线程任务数
+     */
+    private final AtomicInteger inFlightVirtualThreads = new AtomicInteger();
+
+    /**
+     * 业务线程池队列长度的历史最大值
+     */
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+
+    /**
+     * 被拒绝的任务数
+     */
+    private final LongAdder rejectedTasks = new LongAdder();
+
+    public ProviderExecutor(String defaultExecutionMode, int workerThreads, int queueCapacity) {
+        this.defaultExecutionMode = defaultExecutionMode;
+        this.queueCapacity = Math.max(1, queueCapacity);
+        int threads = Math.max(1, workerThreads);
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.workerPool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(this.queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "rpc-provider-worker-" + threadIndex.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        this.virtualThreadExecutor = Executors.newThreadPerTaskExecutor(
+                Thread.ofVirtual().name("rpc-provider-vt-", 0).factory());
+    }
+
+    /**
+     * 按执行模型执行任务
+     *
+     * @param executionMode 执行模型 为空时使用默认执行模型
+     * @param task          任务
+     * @throws RejectedExecutionException 业务线程池满了
+     */
+    public void execute(String executionMode, Runnable task) {
+        String mode = executionMode == null || executionMode.isEmpty() ? defaultExecutionMode : executionMode;
+        switch (mode) {
+            case ExecutionModeIdentifier.EVENT_LOOP:
+                task.run();
+                break;
+            case ExecutionModeIdentifier.VIRTUAL_THREAD:
+                inFlightVirtualThreads.incrementAndGet();
+                try {
+                    virtualThreadExecutor.execute(() -> {
+                        try {
+                            task.run();
+                        } finally {
+                            inFlightVirtualThreads.decrementAndGet();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    inFlightVirtualThreads.decrementAndGet();
+                    rejectedTasks.increment();
+                    throw e;
+                }
+                break;
+            case ExecutionModeIdentifier.WORKER_POOL:
+                try {
+                    workerPool.execute(task);
+                } catch (RejectedExecutionException e) {
+                    rejectedTasks.increment();
+                    log.warn("provider worker pool is full, queue depth: {}", workerPool.getQueue().size());
+                    throw e;
+                }
+                maxQueueDepth.accumulateAndGet(workerPool.getQueue().size(), Math::max);
+                break;
+            default:
+                throw new IllegalArgumentException("不支持的执行模型:" + mode);
+        }
+    }
+
+    /**
+     * 获取指标快照
+     *
+     * @return
+     */
+    public ProviderExecutorMetrics getMetrics() {
+        return new ProviderExecutorMetrics(
+                workerPool.getQueue().size(),
+                maxQueueDepth.get(),
+                queueCapacity,
+                workerPool.getActiveCount(),
+                workerPool.getPoolSize(),
+                workerPool.getCompletedTaskCount(),
+                inFlightVirtualThreads.get(),
+                rejectedTasks.sum());
+    }
+
+    /**
+     * 关闭执行器
+     */
+    public void shutdown() {
+        workerPool.shutdown();
+        virtualThreadExecutor.shutdown();
+    }
+}
@@ -0,0 +1,57 @@
+package com.rpc.rpc_demo.communication.server;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * @Description 服务提供者执行器的指标快照，用来评估业务线程池的大小和队列长度是否合适
+ * <pre>
+ * 队列长度经常接近容量、拒绝数在增长：线程数不够 或者 方法太慢，考虑加线程或者换成 virtualThread
+ * 队列一直是空的、活跃线程数很少：线程池可以调小
+ * </pre>
+ * @Author veritas
+ * @Data 2025/3/11 16:20
+ */
+@Data
+@AllArgsConstructor
+public class ProviderExecutorMetrics {
+    /**
+     * 业务线程池当前排队的任务数
+     */
+    private int queueDepth;
+
+    /**
+     * 业务线程池队列长度的历史最大值
+     */
+    private int maxQueueDepth;
+
+    /**
+     * 业务线程池的队列容量
+     */
+    private int queueCapacity;
+
+    /**
+     * 业务线程池正在执行任务的线程数
+     */
+    private int activeWorkers;
+
+    /**
+     * 业务线程池当前的线程数
+     */
+    private int poolSize;
+
+    /**
+     * 业务线程池已经完成的任务数
+     */
+    private long completedTasks;
+
+    /**
+     * 正在执行的虚拟线程任务数
+     */
+    private int inFlightVirtualThreads;
+
+    /**
+     * 因为业务线程池满了被拒绝的请求数
+     */
+    private long rejectedTasks;
+}
@@ -0,0 +1,176 @@
+package com.rpc.rpc_demo.communication.server;
+
+import io.vertx.core.Context;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * @Description 流的阻塞式迭代器
+ * <pre>
+ * 服务消费者：服务接口方法的返回值是 Iterator / Stream 时由代理返回
+ * 服务提供者：服务方法的流式参数是 Iterator / Stream 时作为参数传入，见 InboundStream
+ * 订阅时先请求 window 个元素，之后每消费掉 window / 2 个元素再请求同样多个，
+ * 发送端最多只会多发 window 个元素，所以队列中的元素个数不会超过 window，内存是有界的
+ * hasNext 会阻塞到下一个元素到达或者流结束；发送端出错时 hasNext 抛出 RuntimeException
+ *      元素是在 event loop 线程上放入队列的，在 event loop 线程上等待会死锁，这种情况下 hasNext 直接抛出 IllegalStateException
+ * 没有读完就不再需要时应该调用 close()，发送端会停止发送（Stream 的 close 也会调用它）
+ * 不是线程安全的，和普通的 Iterator 一样只能由一个线程使用
+ * </pre>
+ * @Author veritas
+ * @Data 2025/3/16 11:40
+ */
+public class StreamIterator<T> implements Iterator<T>, AutoCloseable, Flow.Subscriber<Object> {
+    /**
+     * 流结束的标记
+     */
+    private static final Object END = new Object();
+
+    /**
+     * 元素为 null 的标记，BlockingQueue 不能放 null
+     */
+    private static final Object NULL = new Object();
+
+    /**
+     * 已经到达、还没被消费的元素
+     */
+    private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+
+    /**
+     * 信用窗口
+     */
+    private final int window;
+
+    private volatile Flow.Subscription subscription;
+
+    /**
+     * 已经消费、还没有补充信用的元素个数
+     */
+    private int consumed;
+
+    /**
+     * hasNext 取出来、还没被 next 返回的元素
+     */
+    private Object next;
+
+    private boolean finished;
+
+    public StreamIterator(Flow.Publisher<?> publisher, int window) {
+        this.window = Math.max(1, window);
+        publisher.subscribe(this);
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription s) {
+        subscription = s;
+        s.request(window);
+    }
+
+    @Override
+    public void onNext(Object item) {
+        queue.add(item == null ? NULL : item);
+    }
+
+    @Override
+    public void onError(Throwable e) {
+        queue.add(new Failure(e));
+    }
+
+    @Override
+    public void onComplete() {
+        queue.add(END);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next != null) {
+            return true;
+        }
+        if (finished) {
+            return false;
+        }
+        Object item = queue.poll();
+        if (item == null && Context.isOnEventLoopThread()) {
+            throw new IllegalStateException("不能在 event loop 线程上阻塞等待流式数据，请使用 Flow.Publisher 或者其他执行模型");
+        }
+        try {
+            if (item == null) {
+                item = queue.take();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new RuntimeException("等待流式数据时被中断", e);
+        }
+        if (item == END) {
+            finished = true;
+            return false;
+        }
+        if (item instanceof Failure) {
+            finished = true;
+            Throwable cause = ((Failure) item).cause;
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+        }
+        next = item;
+        return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Object item = next;
+        next = null;
+        // 消费掉半个窗口就补充信用，服务端不用等到信用完全用完才继续发送
+        if (++consumed >= Math.max(1, window / 2)) {
+            subscription.request(consumed);
+            consumed = 0;
+        }
+        return item == NULL ? null : (T) item;
+    }
+
+    /**
+     * 转换成 Stream，Stream 关闭时取消流式响应
+     */
+    public Stream<T> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED), false)
+                .onClose(this::close);
+    }
+
+    /**
+     * 不再读取，通知服务端停止发送
+     */
+    @Override
+    public void close() {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        next = null;
+        queue.clear();
+        Flow.Subscription current = subscription;
+        if (current != null) {
+            current.cancel();
+        }
+    }
+
+    /**
+     * 出错结束
+     */
+    private static class Failure {
+        private final Throwable cause;
+
+        Failure(Throwable cause) {
+            this.cause = cause;
+        }
+    }
+}
@@ -0,0 +1,526 @@
+package com.rpc.rpc_demo.communication.server;
+
+import com.rpc.rpc_demo.communication.protocol.MethodTable;
+import com.rpc.rpc_demo.communication.protocol.ProtocolCompression;
+import com.rpc.rpc_demo.communication.protocol.ProtocolConstant;
+import com.rpc.rpc_demo.communication.protocol.ProtocolMessage;
+import com.rpc.rpc_demo.communication.protocol.ProtocolMessageDecoder;
+import com.rpc.rpc_demo.communication.protocol.ProtocolMessageEncoder;
+import com.rpc.rpc_demo.communication.protocol.ProtocolMessageTypeEnum;
+import com.rpc.rpc_demo.model.RpcRequest;
+import com.rpc.rpc_demo.model.RpcResponse;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.net.NetSocket;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * @Description 客户端长连接（服务消费者用）
+ * <pre>
+ * 一个 TcpClientConnection 对应一条到服务提供者的 TCP 长连接，连接建立后不再关闭，供多个请求复用
+ * 多路复用：
+ *      同一条连接上可以同时存在多个未完成的请求，每个请求都以消息头中的 requestId 作为唯一标识，
+ *      发送前把 requestId -> CompletableFuture 放入 pendingRequests，
+ *      收到响应后根据响应消息头中的 requestId 找回对应的 CompletableFuture 并完成它
+ * 连接断开时，所有未完成的请求都会立即失败，而不是傻等到超时
+ * 超时和取消：超时时间写在消息头的 timeout 中，服务端不再执行已经超时的请求；
+ *      请求超时或者被调用方取消时，发送一个 CANCEL 消息，服务端收到后丢弃还没执行的请求、中断正在执行的请求
+ * 紧凑格式：第一次发请求时顺带发送握手消息，收到服务端的方法 ID 表之后，请求改用紧凑格式发送，见 MethodTable
+ * 流式响应：STREAM_DATA / STREAM_END 消息按 requestId 交给对应的 ClientStream，信用和取消也通过这条连接发送
+ * 流式请求：请求发出之后，流式参数的元素按服务端发来的信用（STREAM_CREDIT）逐个用 STREAM_DATA 上传，见 OutboundStream；
+ *      Iterator / Stream 的读取在虚拟线程上进行，读取可以阻塞（比如读文件）；
+ *      调用结束（收到响应、流式响应结束、被取消）或者服务端发来 CANCEL 时停止上传
+ *      同一个 requestId 上两个方向的流（双向流）不会混淆：客户端收到的 STREAM_DATA / STREAM_END 一定属于流式响应，
+ *      STREAM_CREDIT / CANCEL 一定属于流式请求
+ * 合并写：多个线程同时发出的请求在 event loop 的同一轮中合并成一次写，见 CoalescingWriter
+ * 心跳：每隔 heartbeatInterval 检查一次，这段时间内没有收到任何数据就发送一个心跳，服务端会回复心跳；
+ *      超过 idleTimeout 没有收到任何数据（对端宕机、网络中断导致的半开连接），关闭连接并让所有等待中的请求立即失败，
+ *      连接池下一次用到这个槽位时会重新建立连接，新请求不会再发到失联的连接上
+ * </pre>
+ * @Author veritas
+ * @Data 2025/3/10 10:12
+ */
+@Slf4j
+public class TcpClientConnection {
+    /**
+     * 读取流式参数（Iterator / Stream）的执行器，所有连接共享
+     */
+    private static final Executor UPLOAD_EXECUTOR =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("rpc-stream-upload-", 0).factory());
+
+    /**
+     * 底层的 socket
+     */
+    private final NetSocket socket;
+
+    /**
+     * 请求、握手、取消、心跳都通过 writer 发送，保证顺序
+     */
+    private final CoalescingWriter writer;
+
+    /**
+     * 请求、流式参数的压缩设置
+     */
+    private final ProtocolCompression compression;
+
+    /**
+     * 连接的目标地址 host:port，仅用于日志
+     */
+    private final String endpoint;
+
+    /**
+     * 未完成的请求：requestId -> 响应
+     */
+    private final Map<Long, CompletableFuture<RpcResponse>> pendingRequests = new ConcurrentHashMap<>();
+
+    /**
+     * 未结束的流式响应：requestId -> 流
+     */
+    private final Map<Long, ClientStream> streams = new ConcurrentHashMap<>();
+
+    /**
+     * 未结束的流式请求：requestId -> 流式参数的发送端
+     */
+    private final Map<Long, OutboundStream> uploads = new ConcurrentHashMap<>();
+
+    /**
+     * 连接是否已关闭
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * 连接断开（closeHandler 回调）时完成，连接池用它来清掉槽位
+     */
+    private final CompletableFuture<Void> closeFuture = new CompletableFuture<>();
+
+    /**
+     * 是否已经发送过握手消息
+     */
+    private final AtomicBoolean handshakeSent = new AtomicBoolean(false);
+
+    /**
+     * 服务端的方法 ID 表，收到握手响应之前为 null
+     */
+    private volatile MethodTable methodTable;
+
+    /**
+     * 最近一次收到数据的时间 System.nanoTime()
+     */
+    private volatile long lastReadTime = System.nanoTime();
+
+    /**
+     * 心跳定时器，没有开启心跳时为 -1
+     */
+    private final long heartbeatTimerId;
+
+    private final Vertx vertx;
+
+    public TcpClientConnection(NetSocket socket, String endpoint) {
+        this(socket, endpoint, null, 0, 0, false, ProtocolCompression.NONE);
+    }
+
+    /**
+     * @param socket                  底层的 socket
+     * @param endpoint                连接的目标地址 host:port
+     * @param vertx                   用来设置心跳定时器，为 null 时不发送心跳
+     * @param heartbeatIntervalMillis 心跳间隔 ms，0 表示不发送心跳
+     * @param idleTimeoutMillis       空闲超时 ms，0 表示不检测
+     * @param writeCoalescing         是否合并写，需要在 socket 的 event loop 上创建
+     * @param compression             请求的压缩设置
+     */
+    public TcpClientConnection(NetSocket socket, String endpoint, Vertx vertx,
+                               long heartbeatIntervalMillis, long idleTimeoutMillis, boolean writeCoalescing,
+                               ProtocolCompression compression) {
+        this.socket = socket;
+        this.writer = new CoalescingWriter(socket, writeCoalescing);
+        this.compression = compression;
+        this.endpoint = endpoint;
+        this.vertx = vertx;
+        // 同一条连接上可能连续收到多个响应，TcpBufferHandlerWrapper 负责拆包，每拆出一个完整的消息就回调一次
+        socket.handler(new TcpBufferHandlerWrapper(socket, this::handleResponse));
+        // 连接断开，所有等待中的请求立即失败
+        socket.closeHandler(v -> {
+            closed = true;
+            log.warn("TCP connection to {} closed, {} pending requests failed", endpoint, pendingRequests.size());
+            failAllPendingRequests(new IllegalStateException("连接已断开:" + endpoint));
+            closeFuture.complete(null);
+        });
+        socket.exceptionHandler(e -> {
+            log.error("TCP connection to {} error", endpoint, e);
+            socket.close();
+        });
+        if (vertx != null && heartbeatIntervalMillis > 0) {
+            long heartbeatIntervalNanos = TimeUnit.MILLISECONDS.toNanos(heartbeatIntervalMillis);
+            long idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+            this.heartbeatTimerId = vertx.setPeriodic(heartbeatIntervalMillis,
+                    timerId -> checkIdle(heartbeatIntervalNanos, idleTimeoutNanos));
+        } else {
+            this.heartbeatTimerId = -1;
+        }
+    }
+
+    /**
+     * 发送请求，返回的 CompletableFuture 在收到对应 requestId 的响应、连接断开或超时的时候完成
+     * 调用方可以 cancel 返回的 CompletableFuture，服务端会收到取消消息
+     *
+     * @param protocolMessage 协议消息，消息头中的 requestId 必须已经设置好
+     * @param timeoutMillis   超时时间 ms，同时写入消息头，0 表示不超时
+     * @return
+     */
+    public CompletableFuture<RpcResponse> send(ProtocolMessage<?> protocolMessage, long timeoutMillis) {
+        long requestId = protocolMessage.getHeader().getRequestId();
+        protocolMessage.getHeader().setTimeout((int) Math.min(Math.max(timeoutMillis, 0), Integer.MAX_VALUE));
+        CompletableFuture<RpcResponse> responseFuture = new CompletableFuture<>();
+        if (closed) {
+            responseFuture.completeExceptionally(new IllegalStateException("连接已断开:" + endpoint));
+            return responseFuture;
+        }
+        pendingRequests.put(requestId, responseFuture);
+        if (timeoutMillis > 0) {
+            responseFuture.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        // 无论成功、失败还是超时，都要把请求从 pendingRequests 中移除，避免内存泄漏
+        responseFuture.whenComplete((response, e) -> {
+            if (pendingRequests.remove(requestId) != null
+                    && (e instanceof TimeoutException || e instanceof CancellationException)) {
+                // 不再等待响应，通知服务端不用再执行这个请求了
+                cancel(requestId);
+            }
+        });
+        // 放入 pendingRequests 之后连接恰好断开，closeHandler 可能已经执行完了，这里再检查一次
+        if (closed) {
+            responseFuture.completeExceptionally(new IllegalStateException("连接已断开:" + endpoint));
+            return responseFuture;
+        }
+        try {
+            Buffer encodeBuffer = encode(protocolMessage);
+            writer.write(encodeBuffer, result -> {
+                if (result.failed()) {
+                    responseFuture.completeExceptionally(result.cause());
+                }
+            });
+        } catch (Exception e) {
+            responseFuture.completeExceptionally(e);
+        }
+        return responseFuture;
+    }
+
+    /**
+     * 发送流式请求（客户端流），请求发出之后按服务端的信用上传流式参数，返回的 CompletableFuture 在收到响应时完成
+     * 超时或者调用方 cancel 返回的 CompletableFuture 时，通知服务端取消调用，停止上传
+     *
+     * @param protocolMessage 协议消息，流式参数在 args 中的位置为 null
+     * @param uploadSource    流式参数：Iterator、Stream 或者 Flow.Publisher
+     * @param timeoutMillis   整个调用（上传 + 服务方法执行）的超时时间 ms，0 表示不超时
+     * @return
+     */
+    public CompletableFuture<RpcResponse> send(ProtocolMessage<?> protocolMessage, Object uploadSource,
+                                               long timeoutMillis) {
+        long requestId = protocolMessage.getHeader().getRequestId();
+        // 先登记再发请求：服务端收到请求马上就会发来信用，登记晚了信用会被当作未知的请求丢掉，上传永远不会开始
+        OutboundStream upload = registerUpload(requestId, protocolMessage.getHeader().getSerializer());
+        CompletableFuture<RpcResponse> responseFuture = send(protocolMessage, timeoutMillis);
+        // 收到响应（或者失败）时服务端已经不再读取，停止上传；已经完成时会马上执行，关闭流式参数
+        responseFuture.whenComplete((response, e) -> stopUpload(requestId));
+        // 请求发出去之前到达的信用已经积累在 upload 中，开始之后一起使用
+        upload.start(uploadSource);
+        return responseFuture;
+    }
+
+    /**
+     * 发送流式响应的请求，之后这个 requestId 的 STREAM_DATA / STREAM_END 消息都交给 stream
+     * stream 带有流式参数时（双向流）请求发出之后开始上传
+     * 流式请求没有超时时间
+     *
+     * @param stream          流
+     * @param protocolMessage 请求消息
+     * @return 连接已经断开时返回 false，stream 已经以 onError 结束
+     */
+    boolean openStream(ClientStream stream, ProtocolMessage<?> protocolMessage) {
+        long requestId = stream.getRequestId();
+        if (closed) {
+            stream.onError(new IllegalStateException("连接已断开:" + endpoint));
+            return false;
+        }
+        streams.put(requestId, stream);
+        // 放入 streams 之后连接恰好断开，closeHandler 可能已经执行完了，这里再检查一次
+        if (closed) {
+            streams.remove(requestId);
+            stream.onError(new IllegalStateException("连接已断开:" + endpoint));
+            return false;
+        }
+        protocolMessage.getHeader().setTimeout(0);
+        // 双向流：和客户端流一样，先登记再发请求，不会丢掉服务端马上发来的信用
+        OutboundStream upload = stream.getUploadSource() == null
+                ? null : registerUpload(requestId, protocolMessage.getHeader().getSerializer());
+        try {
+            writer.write(encode(protocolMessage), result -> {
+                if (result.failed() && streams.remove(requestId) != null) {
+                    stopUpload(requestId);
+                    stream.onError(result.cause());
+                }
+            });
+        } catch (Exception e) {
+            streams.remove(requestId);
+            stopUpload(requestId);
+            stream.onError(e);
+            return false;
+        }
+        if (upload != null) {
+            upload.start(stream.getUploadSource());
+        }
+        return true;
+    }
+
+    /**
+     * 登记流式参数的发送端，之后到达的信用先积累起来，start 之后才会真正发送元素
+     */
+    private OutboundStream registerUpload(long requestId, byte serializer) {
+        OutboundStream upload = new OutboundStream(writer, compression, requestId, serializer, uploads, UPLOAD_EXECUTOR);
+        uploads.put(requestId, upload);
+        return upload;
+    }
+
+    /**
+     * 停止上传流式参数，不通知服务端
+     */
+    private void stopUpload(long requestId) {
+        OutboundStream upload = uploads.get(requestId);
+        if (upload != null) {
+            upload.cancel();
+        }
+    }
+
+    /**
+     * 发送流式响应的信用
+     */
+    void sendCredit(long requestId, int credit) {
+        if (!closed) {
+            writer.write(ProtocolMessageEncoder.encodeStreamCredit(requestId, credit));
+        }
+    }
+
+    /**
+     * 取消流式响应
+     */
+    void cancelStream(long requestId) {
+        stopUpload(requestId);
+        if (streams.remove(requestId) != null) {
+            cancel(requestId);
+        }
+    }
+
+    /**
+     * 发送取消消息
+     */
+    private void cancel(long requestId) {
+        if (closed) {
+            return;
+        }
+        try {
+            writer.write(ProtocolMessageEncoder.encodeCancel(requestId));
+        } catch (Exception e) {
+            log.warn("Failed to cancel request {} on {}", requestId, endpoint, e);
+        }
+    }
+
+    /**
+     * 编码请求 能找到方法 ID 时使用紧凑格式，否则使用完整格式
+     */
+    private Buffer encode(ProtocolMessage<?> protocolMessage) {
+        if (protocolMessage.getBody() instanceof RpcRequest) {
+            MethodTable table = methodTable;
+            if (table == null) {
+                handshake(protocolMessage.getHeader().getSerializer());
+            } else {
+                RpcRequest rpcRequest = (RpcRequest) protocolMessage.getBody();
+                int methodId = table.getMethodId(rpcRequest.getServiceName(), rpcRequest.getMethodName(),
+                        rpcRequest.getParameterTypes());
+                if (methodId >= 0) {
+                    return ProtocolMessageEncoder.encodeCompactRequest(protocolMessage.getHeader(), methodId,
+                            rpcRequest.getArgs(), compression);
+                }
+            }
+        }
+        return ProtocolMessageEncoder.encode(protocolMessage, compression);
+    }
+
+    /**
+     * 发送握手消息，每条连接只发一次，消息头中的版本号是客户端支持的最高版本
+     */
+    private void handshake(byte serializerKey) {
+        if (!handshakeSent.compareAndSet(false, true)) {
+            return;
+        }
+        ProtocolMessage.Header header = new ProtocolMessage.Header();
+        header.setMagic(ProtocolConstant.PROTOCOL_MAGIC);
+        header.setVersion(ProtocolConstant.PROTOCOL_VERSION_COMPACT);
+        header.setSerializer(serializerKey);
+        header.setType((byte) ProtocolMessageTypeEnum.HANDSHAKE.getKey());
+        writer.write(ProtocolMessageEncoder.encode(new ProtocolMessage<>(header, null)));
+    }
+
+    /**
+     * 处理服务端返回的一个完整的消息
+     *
+     * @param buffer
+     */
+    private void handleResponse(Buffer buffer) {
+        lastReadTime = System.nanoTime();
+        ProtocolMessage<?> protocolMessage;
+        try {
+            protocolMessage = ProtocolMessageDecoder.decode(buffer);
+        } catch (Exception e) {
+            // 解码失败说明这条连接上的数据已经错乱，后续的数据也无法正确拆包，直接关闭连接
+            log.error("协议消息解码错误, close connection to {}", endpoint, e);
+            socket.close();
+            return;
+        }
+        ProtocolMessage.Header header = protocolMessage.getHeader();
+        if (header.getType() == ProtocolMessageTypeEnum.HANDSHAKE.getKey()) {
+            handleHandshake((Map<String, Integer>) protocolMessage.getBody());
+            return;
+        }
+        if (header.getType() == ProtocolMessageTypeEnum.HEAT_BEAT.getKey()) {
+            // 心跳回复只用来刷新 lastReadTime
+            return;
+        }
+        if (header.getType() == ProtocolMessageTypeEnum.STREAM_DATA.getKey()) {
+            ClientStream stream = streams.get(header.getRequestId());
+            if (stream != null) {
+                stream.onData((RpcResponse) protocolMessage.getBody());
+            }
+            return;
+        }
+        if (header.getType() == ProtocolMessageTypeEnum.STREAM_END.getKey()) {
+            // 双向流：流式响应结束时服务端已经不再读取流式参数
+            stopUpload(header.getRequestId());
+            ClientStream stream = streams.remove(header.getRequestId());
+            if (stream != null) {
+                stream.onEnd((RpcResponse) protocolMessage.getBody());
+            }
+            return;
+        }
+        if (header.getType() == ProtocolMessageTypeEnum.STREAM_CREDIT.getKey()) {
+            OutboundStream upload = uploads.get(header.getRequestId());
+            if (upload != null) {
+                upload.addCredit((Integer) protocolMessage.getBody());
+            }
+            return;
+        }
+        if (header.getType() == ProtocolMessageTypeEnum.CANCEL.getKey()) {
+            // 服务端不再读取流式参数
+            stopUpload(header.getRequestId());
+            return;
+        }
+        if (header.getType() != ProtocolMessageTypeEnum.RESPONSE.getKey()) {
+            return;
+        }
+        CompletableFuture<RpcResponse> responseFuture = pendingRequests.remove(header.getRequestId());
+        if (responseFuture == null) {
+            // 请求已经超时被移除了，响应直接丢弃
+            log.warn("Discard response of unknown or expired request {}", header.getRequestId());
+            return;
+        }
+        responseFuture.complete((RpcResponse) protocolMessage.getBody());
+    }
+
+    /**
+     * 处理握手响应，保存服务端的方法 ID 表
+     */
+    private void handleHandshake(Map<String, Integer> methodIds) {
+        if (methodIds == null) {
+            methodIds = Collections.emptyMap();
+        }
+        methodTable = new MethodTable(methodIds);
+        log.info("Handshake with {} done, {} methods available in compact protocol", endpoint, methodIds.size());
+    }
+
+    /**
+     * 心跳定时器回调：空闲超时就关闭连接，空闲超过一个心跳间隔就发送心跳
+     */
+    private void checkIdle(long heartbeatIntervalNanos, long idleTimeoutNanos) {
+        if (closed) {
+            vertx.cancelTimer(heartbeatTimerId);
+            return;
+        }
+        long idleNanos = System.nanoTime() - lastReadTime;
+        if (idleTimeoutNanos > 0 && idleNanos >= idleTimeoutNanos) {
+            log.warn("No data from {} for {} ms, close connection, {} pending requests failed", endpoint,
+                    TimeUnit.NANOSECONDS.toMillis(idleNanos), pendingRequests.size());
+            // 半开的连接上 closeHandler 不一定会被及时回调，这里直接让等待中的请求失败
+            failAllPendingRequests(new IllegalStateException("连接空闲超时:" + endpoint));
+            close();
+            return;
+        }
+        if (idleNanos >= heartbeatIntervalNanos) {
+            writer.write(ProtocolMessageEncoder.encodeHeartbeat());
+        }
+    }
+
+    private void failAllPendingRequests(Throwable cause) {
+        for (Long requestId : pendingRequests.keySet()) {
+            CompletableFuture<RpcResponse> responseFuture = pendingRequests.remove(requestId);
+            if (responseFuture != null) {
+                responseFuture.completeExceptionally(cause);
+            }
+        }
+        for (Long requestId : streams.keySet()) {
+            ClientStream stream = streams.remove(requestId);
+            if (stream != null) {
+                stream.onError(cause);
+            }
+        }
+        uploads.values().forEach(OutboundStream::cancel);
+    }
+
+    /**
+     * 连接是否可用
+     */
+    public boolean isActive() {
+        return !closed;
+    }
+
+    /**
+     * 连接断开时完成
+     */
+    public CompletableFuture<Void> closeFuture() {
+        return closeFuture;
+    }
+
+    /**
+     * 连接上没有未完成的请求、流式响应和流式请求
+     */
+    public boolean isIdle() {
+        return pendingRequests.isEmpty() && streams.isEmpty() && uploads.isEmpty();
+    }
+
+    /**
+     * 当前连接上未完成的请求数
+     */
+    public int getPendingRequestCount() {
+        return pendingRequests.size();
+    }
+
+    /**
+     * 关闭连接
+     */
+    public void close() {
+        closed = true;
+        if (heartbeatTimerId >= 0) {
+            vertx.cancelTimer(heartbeatTimerId);
+        }
+        socket.close();
+    }
+}
@@ -0,0 +1,314 @@
+package com.rpc.rpc_demo.communication.server;
+
+import com.rpc.rpc_demo.communication.protocol.ProtocolCompression;
+import com.rpc.rpc_demo.model.ServiceMetaData;
+import io.vertx.core.Vertx;
+import io.vertx.core.net.NetClient;
+import io.vertx.core.net.NetClientOptions;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * @Description 客户端连接池（服务消费者用）
+ * <pre>
+ * 以服务提供者的 host:port 为 key，每个服务提供者最多维持 maxConnectionsPerEndpoint 条长连接
+ * 每次获取连接时在这几条连接之间轮询，请求通过 requestId 在连接上多路复用，见 TcpClientConnection
+ * 连接是懒加载的：第一次用到某个槽位的时候才去建立连接；
+ * 连接断开或者建立失败后清空槽位，下一次轮询到这个槽位时会重新建立连接
+ * 服务提供者的移除：
+ *      所有槽位都空了（连接全部断开、建立失败）就把这个服务提供者从连接池中移除，下线的服务提供者不会一直占着一项
+ *      配置了 endpointIdleTimeout 时定期检查，超过这个时间没有获取过连接、连接上也没有未完成请求的服务提供者，
+ *      关闭它的所有连接并移除（还在线但已经不再调用的服务提供者，心跳会让连接一直保持）
+ *      被移除之后再获取连接会重新创建，移除和建立新连接之间加锁，不会有连接遗漏在连接池之外
+ * 合并写：writeCoalescing 打开时每条连接上的请求合并写，见 CoalescingWriter
+ * 压缩：每条连接按 compression 压缩请求，见 ProtocolCompression
+ * 心跳：配置了 heartbeatInterval 时每条连接都会在空闲时发送心跳，超过 idleTimeout 没有收到数据就关闭，见 TcpClientConnection
+ * </pre>
+ * @Author veritas
+ * @Data 2025/3/10 10:35
+ */
+@Slf4j
+public class TcpConnectionPool {
+    /**
+     * 所有连接共用的 TCP 客户端
+     */
+    private final NetClient netClient;
+
+    /**
+     * 每个服务提供者的最大连接数
+     */
+    private final int maxConnectionsPerEndpoint;
+
+    /**
+     * host:port -> 该服务提供者的连接槽位
+     */
+    private final Map<String, EndpointConnections> endpointConnectionsMap = new ConcurrentHashMap<>();
+
+    private final Vertx vertx;
+
+    /**
+     * 心跳间隔 ms，0 表示不发送心跳
+     */
+    private final long heartbeatIntervalMillis;
+
+    /**
+     * 空闲超时 ms，0 表示不检测
+     */
+    private final long idleTimeoutMillis;
+
+    /**
+     * 是否合并写
+     */
+    private final boolean writeCoalescing;
+
+    /**
+     * 请求的压缩设置
+     */
+    private final ProtocolCompression compression;
+
+    /**
+     * 清理空闲服务提供者的定时器，没有开启时为 -1
+     */
+    private final long evictTimerId;
+
+    public TcpConnectionPool(Vertx vertx, int maxConnectionsPerEndpoint, int connectTimeoutMillis) {
+        this(vertx, maxConnectionsPerEndpoint, new NetClientOptions()
+                .setConnectTimeout(connectTimeoutMillis)
+                .setTcpNoDelay(true)
+                .setTcpKeepAlive(true));
+    }
+
+    public TcpConnectionPool(Vertx vertx, int maxConnectionsPerEndpoint, NetClientOptions netClientOptions) {
+        this(vertx, maxConnectionsPerEndpoint, netClientOptions, 0, 0, false, ProtocolCompression.NONE, 0);
+    }
+
+    /**
+     * @param vertx                     所有连接共用的 Vert.x 实例
+     * @param maxConnectionsPerEndpoint 每个服务提供者的最大连接数
+     * @param netClientOptions          TCP 选项
+     * @param heartbeatIntervalMillis   心跳间隔 ms，0 表示不发送心跳
+     * @param idleTimeoutMillis         连接的空闲超时 ms，0 表示不检测
+     * @param writeCoalescing           是否合并写
+     * @param compression               请求的压缩设置
+     * @param endpointIdleTimeoutMillis 服务提供者超过这个时间没有获取过连接就移除 ms，0 表示不移除
+     */
+    public TcpConnectionPool(Vertx vertx, int maxConnectionsPerEndpoint, NetClientOptions netClientOptions,
+                             long heartbeatIntervalMillis, long idleTimeoutMillis, boolean writeCoalescing,
+                             ProtocolCompression compression, long endpointIdleTimeoutMillis) {
+        this.vertx = vertx;
+        this.netClient = vertx.createNetClient(netClientOptions);
+        this.maxConnectionsPerEndpoint = Math.max(1, maxConnectionsPerEndpoint);
+        this.heartbeatIntervalMillis = heartbeatIntervalMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.writeCoalescing = writeCoalescing;
+        this.compression = compression;
+        if (endpointIdleTimeoutMillis > 0) {
+            long endpointIdleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(endpointIdleTimeoutMillis);
+            this.evictTimerId = vertx.setPeriodic(Math.max(1000, endpointIdleTimeoutMillis / 2),
+                    timerId -> evictIdleEndpoints(endpointIdleTimeoutNanos));
+        } else {
+            this.evictTimerId = -1;
+        }
+    }
+
+    /**
+     * 获取一条到指定服务提供者的连接
+     *
+     * @param metaData 服务提供者信息
+     * @return
+     */
+    public CompletableFuture<TcpClientConnection> acquire(ServiceMetaData metaData) {
+        String endpoint = metaData.getServiceHost() + ":" + metaData.getServicePort();
+        while (true) {
+            EndpointConnections endpointConnections = endpointConnectionsMap.computeIfAbsent(endpoint,
+                    key -> new EndpointConnections(metaData.getServiceHost(), metaData.getServicePort(), key));
+            CompletableFuture<TcpClientConnection> connectionFuture = endpointConnections.next();
+            // 拿到的是刚被移除的服务提供者，重新创建
+            if (connectionFuture != null) {
+                return connectionFuture;
+            }
+        }
+    }
+
+    /**
+     * 当前连接池中的服务提供者个数
+     */
+    public int getEndpointCount() {
+        return endpointConnectionsMap.size();
+    }
+
+    /**
+     * 移除空闲的服务提供者
+     */
+    private void evictIdleEndpoints(long endpointIdleTimeoutNanos) {
+        long now = System.nanoTime();
+        for (EndpointConnections endpointConnections : endpointConnectionsMap.values()) {
+            if (now - endpointConnections.lastAcquireTime >= endpointIdleTimeoutNanos) {
+                endpointConnections.evictIfIdle();
+            }
+        }
+    }
+
+    /**
+     * 关闭所有连接
+     */
+    public void close() {
+        if (evictTimerId >= 0) {
+            vertx.cancelTimer(evictTimerId);
+        }
+        endpointConnectionsMap.values().forEach(EndpointConnections::close);
+        endpointConnectionsMap.clear();
+        netClient.close();
+    }
+
+    /**
+     * 某一个服务提供者的所有连接
+     */
+    private class EndpointConnections {
+        private final String host;
+        private final int port;
+        private final String endpoint;
+        /**
+         * 连接槽位，槽位里放的是 正在建立 或者 已经建立 的连接
+         */
+        private final AtomicReferenceArray<CompletableFuture<TcpClientConnection>> slots;
+        /**
+         * 轮询计数器
+         */
+        private final AtomicInteger index = new AtomicInteger(0);
+        /**
+         * 最近一次获取连接的时间 System.nanoTime()
+         */
+        private volatile long lastAcquireTime = System.nanoTime();
+        /**
+         * 已经从连接池中移除，不能再建立新的连接，只在持有 this 的锁时修改
+         */
+        private volatile boolean evicted;
+
+        EndpointConnections(String host, int port, String endpoint) {
+            this.host = host;
+            this.port = port;
+            this.endpoint = endpoint;
+            this.slots = new AtomicReferenceArray<>(maxConnectionsPerEndpoint);
+        }
+
+        /**
+         * 轮询获取一条连接
+         *
+         * @return 已经被移除时返回 null
+         */
+        CompletableFuture<TcpClientConnection> next() {
+            lastAcquireTime = System.nanoTime();
+            int slot = Math.floorMod(index.getAndIncrement(), maxConnectionsPerEndpoint);
+            while (true) {
+                CompletableFuture<TcpClientConnection> current = slots.get(slot);
+                if (current != null && isUsable(current)) {
+                    return evicted ? null : current;
+                }
+                // 槽位为空 或者 连接已经不可用，重新建立连接；CAS 保证并发时同一个槽位只会建立一条连接
+                // 和移除互斥：移除之后不会再建立连接，建立了连接的服务提供者也不会被当成空的移除
+                CompletableFuture<TcpClientConnection> connecting = new CompletableFuture<>();
+                synchronized (this) {
+                    if (evicted) {
+                        return null;
+                    }
+                    if (!slots.compareAndSet(slot, current, connecting)) {
+                        continue;
+                    }
+                }
+                connect(slot, connecting);
+                return connecting;
+            }
+        }
+
+        /**
+         * 正在建立中 或者 已经建立且未断开 的连接都是可用的
+         */
+        private boolean isUsable(CompletableFuture<TcpClientConnection> connectionFuture) {
+            if (!connectionFuture.isDone()) {
+                return true;
+            }
+            if (connectionFuture.isCompletedExceptionally()) {
+                return false;
+            }
+            return connectionFuture.join().isActive();
+        }
+
+        private void connect(int slot, CompletableFuture<TcpClientConnection> connecting) {
+            netClient.connect(port, host, result -> {
+                if (result.succeeded()) {
+                    log.info("Connected to TCP server {}", endpoint);
+                    TcpClientConnection connection = new TcpClientConnection(result.result(), endpoint, vertx,
+                            heartbeatIntervalMillis, idleTimeoutMillis, writeCoalescing, compression);
+                    // 连接断开时清空槽位
+                    connection.closeFuture().thenRun(() -> release(slot, connecting));
+                    connecting.complete(connection);
+                } else {
+                    log.error("Failed to connect to TCP server {}", endpoint, result.cause());
+                    connecting.completeExceptionally(result.cause());
+                    release(slot, connecting);
+                }
+            });
+        }
+
+        /**
+         * 清空槽位（槽位里还是这条连接的时候），所有槽位都空了就把这个服务提供者移除
+         */
+        private void release(int slot, CompletableFuture<TcpClientConnection> connectionFuture) {
+            if (!slots.compareAndSet(slot, connectionFuture, null)) {
+                return;
+            }
+            synchronized (this) {
+                if (evicted) {
+                    return;
+                }
+                for (int i = 0; i < slots.length(); i++) {
+                    if (slots.get(i) != null) {
+                        return;
+                    }
+                }
+                evicted = true;
+            }
+            endpointConnectionsMap.remove(endpoint, this);
+            log.info("No connection to {} left, remove it from the connection pool", endpoint);
+        }
+
+        /**
+         * 所有连接上都没有未完成的请求时，关闭所有连接并移除
+         */
+        void evictIfIdle() {
+            synchronized (this) {
+                if (evicted) {
+                    return;
+                }
+                for (int i = 0; i < slots.length(); i++) {
+                    CompletableFuture<TcpClientConnection> connectionFuture = slots.get(i);
+                    // 正在建立的连接马上就要用到
+                    if (connectionFuture != null && (!connectionFuture.isDone()
+                            || !connectionFuture.isCompletedExceptionally() && !connectionFuture.join().isIdle())) {
+                        return;
+                    }
+                }
+                evicted = true;
+            }
+            endpointConnectionsMap.remove(endpoint, this);
+            log.info("Connection pool to {} has been idle, close and remove it", endpoint);
+            close();
+        }
+
+        void close() {
+            for (int i = 0; i < slots.length(); i++) {
+                CompletableFuture<TcpClientConnection> connectionFuture = slots.getAndSet(i, null);
+                if (connectionFuture != null) {
+                    connectionFuture.thenAccept(TcpClientConnection::close);
+                }
+            }
+        }
+    }
+}
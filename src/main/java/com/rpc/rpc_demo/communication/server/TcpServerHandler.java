@@ -1,22 +1,90 @@
 package com.rpc.rpc_demo.communication.server;
 
 import com.rpc.rpc_demo.communication.protocol.*;
+import com.rpc.rpc_demo.config.RpcConfig;
 import com.rpc.rpc_demo.model.RpcRequest;
 import com.rpc.rpc_demo.model.RpcResponse;
 import com.rpc.rpc_demo.registry.LocalRegistry;
+import com.rpc.rpc_demo.registry.LocalService;
+import com.rpc.rpc_demo.registry.ServiceMethodInvoker;
+import io.vertx.core.Context;
 import io.vertx.core.Handler;
 import io.vertx.core.buffer.Buffer;
 import io.vertx.core.net.NetSocket;
+import lombok.extern.slf4j.Slf4j;
 
-import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @Description 请求处理器（服务提供者用）
- * 请求处理器的主要作用是接受请求，通过反射调用对应的服务实现类
+ * 请求处理器的主要作用是接受请求，通过 LocalRegistry 中的分派表调用对应的服务实例
+ * 服务方法在哪个线程上执行由服务的执行模型决定，见 ProviderExecutor
+ * 支持完整格式和紧凑格式两种请求，紧凑格式按方法 ID 查找调用器，见 MethodTable
+ * 收到客户端的心跳时回复一个心跳；客户端长时间没有任何数据时连接由 Vert.x 关闭，见 TransportConfig.idleTimeout
+ * 超时和取消：
+ *      请求消息头中的 timeout 是客户端剩余的等待时间，从收到请求开始计算期限，
+ *      请求在业务线程池中排队超过期限时直接丢弃，不再执行（客户端已经不等了，执行了也是浪费）
+ *      收到 CANCEL 消息或者连接断开时，还没执行的请求不再执行，正在业务线程 / 虚拟线程上执行的请求会被中断，
+ *      异步方法返回的 CompletableFuture 会被取消；被取消的请求不再发送响应
+ *      在 event loop 上执行的请求不会被中断
+ * 流式响应：返回值是 Iterator / Stream / Flow.Publisher 的方法，按消费者发来的信用（STREAM_CREDIT）逐个发送元素，见 OutboundStream
+ * 流式请求：有 Iterator / Stream / Flow.Publisher 类型参数的方法，参数的元素由消费者用 STREAM_DATA 逐个上传，
+ *      服务端按 streamWindow 发放信用，见 InboundStream；服务方法返回（或者流式响应结束）时还没读完的流式参数会被取消
+ *      流式参数是 Iterator / Stream 时服务方法会阻塞等待元素，不能在 event loop 上执行，这种服务应该用 workerPool / virtualThread
+ * 同一个 requestId 上两个方向的流（双向流）不会混淆：服务端收到的 STREAM_DATA / STREAM_END 一定属于流式请求，STREAM_CREDIT 一定属于流式响应
  * @Author veritas
  * @Data 2025/3/9 11:11
  */
+@Slf4j
 public class TcpServerHandler implements Handler<NetSocket> {
+    /**
+     * 执行服务方法的执行器
+     */
+    private final ProviderExecutor providerExecutor;
+
+    /**
+     * 响应是否合并写，见 CoalescingWriter
+     */
+    private final boolean writeCoalescing;
+
+    /**
+     * Iterator / Stream 类型的流式参数的信用窗口
+     */
+    private final int streamWindow;
+
+    /**
+     * 响应、握手的压缩设置
+     */
+    private final ProtocolCompression compression;
+
+    public TcpServerHandler(ProviderExecutor providerExecutor) {
+        this(providerExecutor, false);
+    }
+
+    public TcpServerHandler(ProviderExecutor providerExecutor, boolean writeCoalescing) {
+        this(providerExecutor, writeCoalescing, new RpcConfig().getStreamWindow());
+    }
+
+    public TcpServerHandler(ProviderExecutor providerExecutor, boolean writeCoalescing, int streamWindow) {
+        this(providerExecutor, writeCoalescing, streamWindow, ProtocolCompression.NONE);
+    }
+
+    public TcpServerHandler(ProviderExecutor providerExecutor, boolean writeCoalescing, int streamWindow,
+                            ProtocolCompression compression) {
+        this.providerExecutor = providerExecutor;
+        this.writeCoalescing = writeCoalescing;
+        this.streamWindow = streamWindow;
+        this.compression = compression;
+    }
+
     /**
      * 处理请求
      *
@@ -24,52 +92,390 @@ public class TcpServerHandler implements Handler<NetSocket> {
      */
     @Override
     public void handle(NetSocket socket) {
-        TcpBufferHandlerWrapper tcpBufferHandlerWrapper = new TcpBufferHandlerWrapper(buffer -> {
+        // 这条连接上所有的响应、握手、心跳都通过 writer 发送，保证顺序
+        CoalescingWriter writer = new CoalescingWriter(socket, writeCoalescing);
+        // 这条连接上还没有发送响应的请求：requestId -> 请求的执行状态
+        Map<Long, InFlightRequest> inFlightRequests = new ConcurrentHashMap<>();
+        // 这条连接上还没有结束的流式响应：requestId -> 流
+        Map<Long, OutboundStream> streams = new ConcurrentHashMap<>();
+        // 这条连接上还没有结束的流式请求：requestId -> 流式参数
+        Map<Long, InboundStream> uploads = new ConcurrentHashMap<>();
+        // 连接断开，客户端收不到响应了，取消所有请求
+        socket.closeHandler(v -> {
+            inFlightRequests.values().forEach(InFlightRequest::cancel);
+            inFlightRequests.clear();
+            streams.values().forEach(OutboundStream::cancel);
+            streams.clear();
+            uploads.values().forEach(upload -> upload.onError(new RuntimeException("连接已断开")));
+            uploads.clear();
+        });
+        TcpBufferHandlerWrapper tcpBufferHandlerWrapper = new TcpBufferHandlerWrapper(socket, buffer -> {
             // 接受 请求， 解码
-            ProtocolMessage<RpcRequest> protocolMessage;
+            ProtocolMessage.Header header;
             try {
-                protocolMessage = (ProtocolMessage<RpcRequest>) ProtocolMessageDecoder.decode(buffer);
+                header = ProtocolMessageDecoder.decodeHeader(buffer);
             } catch (Exception e) {
-                throw new RuntimeException("协议消息解码错误");
+                // 消息头都不对（魔数错误），不是本协议的数据，关闭连接
+                log.error("协议消息解码错误, close connection {}", socket.remoteAddress(), e);
+                socket.close();
+                return;
             }
-            RpcRequest rpcRequest = protocolMessage.getBody();
-            ProtocolMessage.Header header = protocolMessage.getHeader();
-
-            // 处理请求
-            // 构造响应结果对象
-            RpcResponse rpcResponse = new RpcResponse();
+            ServiceMethodInvoker invoker;
+            Object[] args;
             try {
-                // 获取要调用的服务实现类，通过反射调用
-                // 找到 服务提供者 所需要调用的方法的所属类
-                Class<?> serviceImplementClass = LocalRegistry.get(rpcRequest.getServiceName());
-                // 找到 服务提供者 所需要调用的方法
-                Method method = serviceImplementClass.getMethod(rpcRequest.getMethodName(), rpcRequest.getParameterTypes());
-                // 真正调用
-                Object result = method.invoke(serviceImplementClass.newInstance(), rpcRequest.getArgs());
-                // 封装响应
-                rpcResponse.setData(result);
-                // 数据类型 = 方法类型
-                rpcResponse.setDataType(method.getReturnType());
-                rpcResponse.setMessage("ok");
+                if (header.getType() == ProtocolMessageTypeEnum.HANDSHAKE.getKey()) {
+                    doHandshake(writer, header, compression);
+                    return;
+                }
+                if (header.getType() == ProtocolMessageTypeEnum.HEAT_BEAT.getKey()) {
+                    // 心跳直接在 event loop 上回复，不经过业务线程池，服务端再忙也能及时回复
+                    writer.write(ProtocolMessageEncoder.encodeHeartbeat());
+                    return;
+                }
+                if (header.getType() == ProtocolMessageTypeEnum.CANCEL.getKey()) {
+                    InFlightRequest inFlightRequest = inFlightRequests.remove(header.getRequestId());
+                    if (inFlightRequest != null) {
+                        inFlightRequest.cancel();
+                    }
+                    OutboundStream outboundStream = streams.get(header.getRequestId());
+                    if (outboundStream != null) {
+                        outboundStream.cancel();
+                    }
+                    InboundStream upload = uploads.get(header.getRequestId());
+                    if (upload != null) {
+                        upload.onError(new CancellationException("消费者取消了调用"));
+                    }
+                    return;
+                }
+                if (header.getType() == ProtocolMessageTypeEnum.STREAM_CREDIT.getKey()) {
+                    OutboundStream outboundStream = streams.get(header.getRequestId());
+                    if (outboundStream != null) {
+                        outboundStream.addCredit((Integer) ProtocolMessageDecoder.decode(buffer).getBody());
+                    }
+                    return;
+                }
+                if (header.getType() == ProtocolMessageTypeEnum.STREAM_DATA.getKey()
+                        || header.getType() == ProtocolMessageTypeEnum.STREAM_END.getKey()) {
+                    InboundStream upload = uploads.get(header.getRequestId());
+                    // 服务方法已经返回，流式参数已经取消，之后到达的元素直接丢弃
+                    if (upload == null) {
+                        return;
+                    }
+                    RpcResponse element = (RpcResponse) ProtocolMessageDecoder.decode(buffer).getBody();
+                    if (header.getType() == ProtocolMessageTypeEnum.STREAM_DATA.getKey()) {
+                        upload.onData(element);
+                    } else {
+                        upload.onEnd(element);
+                    }
+                    return;
+                }
+                if (header.getVersion() == ProtocolConstant.PROTOCOL_VERSION_COMPACT) {
+                    // 紧凑格式：按方法 ID 直接找到调用器，再按参数类型反序列化参数
+                    ByteBuffer body = ProtocolMessageDecoder.decodeBody(buffer, header);
+                    int methodId = ProtocolMessageDecoder.getMethodId(body);
+                    invoker = LocalRegistry.getInvoker(methodId);
+                    if (invoker == null) {
+                        doResponse(writer, header, compression, errorResponse(new RuntimeException("服务方法不存在:methodId=" + methodId)));
+                        return;
+                    }
+                    args = ProtocolMessageDecoder.decodeCompactArgs(body, header, invoker.getParameterTypes());
+                } else {
+                    RpcRequest rpcRequest = (RpcRequest) ProtocolMessageDecoder.decode(buffer).getBody();
+                    LocalService localService = LocalRegistry.get(rpcRequest.getServiceName());
+                    invoker = localService == null ? null
+                            : localService.getInvoker(rpcRequest.getMethodName(), rpcRequest.getParameterTypes());
+                    if (invoker == null) {
+                        doResponse(writer, header, compression, errorResponse(new RuntimeException(
+                                "服务方法不存在:" + rpcRequest.getServiceName() + "#" + rpcRequest.getMethodName())));
+                        return;
+                    }
+                    args = rpcRequest.getArgs();
+                }
             } catch (Exception e) {
-                e.printStackTrace();
-                rpcResponse.setMessage(e.getMessage());
-                rpcResponse.setException(e);
-            }
-            // 设置消息头
-            header.setType((byte) ProtocolMessageTypeEnum.RESPONSE.getKey());
-            header.setStatus((byte) ProtocolMessageStatusEnum.OK.getValue());
-            // 发送响应
-            ProtocolMessage<RpcResponse> rpcResponseProtocolMessage = new ProtocolMessage<>(header, rpcResponse);
+                // 消息头是好的，只影响这一个请求：请求回复错误响应，流式参数以错误结束，调用方不用等到超时
+                log.error("协议消息解码错误, requestId={}", header.getRequestId(), e);
+                RuntimeException decodeException = new RuntimeException("协议消息解码错误", e);
+                if (header.getType() == ProtocolMessageTypeEnum.REQUEST.getKey()) {
+                    doResponse(writer, header, compression, errorResponse(decodeException));
+                } else {
+                    InboundStream upload = uploads.get(header.getRequestId());
+                    if (upload != null) {
+                        upload.onError(decodeException);
+                    }
+                }
+                return;
+            }
+
+            // 流式请求：先登记，参数是 Iterator / Stream 时马上就会发放第一批信用
+            InboundStream upload = null;
+            int streamArgIndex = invoker.getStreamArgIndex();
+            if (streamArgIndex >= 0) {
+                upload = new InboundStream(header.getRequestId(), writer, uploads);
+                uploads.put(header.getRequestId(), upload);
+                args[streamArgIndex] = upload.adapt(invoker.getParameterTypes()[streamArgIndex], streamWindow);
+            }
+
+            // 处理请求
+            // 按服务的执行模型分派到对应的线程上执行
+            if (invoker.isStream()) {
+                // 流式响应：先登记，服务方法执行期间到达的信用也不会丢
+                String executionMode = invoker.getExecutionMode();
+                OutboundStream outboundStream = new OutboundStream(writer, compression, header.getRequestId(),
+                        header.getSerializer(), streams, task -> providerExecutor.execute(executionMode, task));
+                streams.put(header.getRequestId(), outboundStream);
+                if (upload != null) {
+                    // 双向流：流式响应结束时不再接收流式参数
+                    outboundStream.onDone(upload::cancel);
+                }
+                try {
+                    providerExecutor.execute(executionMode, () -> invokeStream(outboundStream, invoker, args));
+                } catch (RejectedExecutionException e) {
+                    outboundStream.fail(new RuntimeException("服务端繁忙，请稍后重试", e));
+                } catch (RuntimeException e) {
+                    outboundStream.fail(e);
+                }
+                return;
+            }
+            InFlightRequest inFlightRequest = new InFlightRequest(writer, compression, header, inFlightRequests, upload);
+            inFlightRequests.put(header.getRequestId(), inFlightRequest);
             try {
-                // 编码
-                Buffer encode = ProtocolMessageEncoder.encode(rpcResponseProtocolMessage);
-                // 通过 socket.write() 方法写回给客户端
-                socket.write(encode);
-            } catch (Exception e) {
-                throw new RuntimeException("协议消息编码错误");
+                providerExecutor.execute(invoker.getExecutionMode(),
+                        () -> invoke(inFlightRequest, invoker, args));
+            } catch (RejectedExecutionException e) {
+                inFlightRequest.respond(errorResponse(new RuntimeException("服务端繁忙，请稍后重试", e)));
+            } catch (RuntimeException e) {
+                inFlightRequest.respond(errorResponse(e));
             }
         });
         socket.handler(tcpBufferHandlerWrapper);
     }
+
+    /**
+     * 握手：客户端支持紧凑格式时回复方法 ID 表，否则不回复，客户端继续使用完整格式
+     */
+    private static void doHandshake(CoalescingWriter writer, ProtocolMessage.Header header,
+                                    ProtocolCompression compression) {
+        if (header.getVersion() < ProtocolConstant.PROTOCOL_VERSION_COMPACT) {
+            return;
+        }
+        header.setVersion(ProtocolConstant.PROTOCOL_VERSION_COMPACT);
+        header.setStatus((byte) ProtocolMessageStatusEnum.OK.getValue());
+        writer.write(ProtocolMessageEncoder.encodeHandshake(header, LocalRegistry.getMethodTable(), compression));
+    }
+
+    /**
+     * 调用服务方法并发送响应
+     */
+    private static void invoke(InFlightRequest inFlightRequest, ServiceMethodInvoker invoker, Object[] args) {
+        // 排队期间已经超时或者被取消，不再执行
+        if (!inFlightRequest.start()) {
+            return;
+        }
+        try {
+            // 真正调用
+            Object result = invoker.invoke(args);
+            if (invoker.isAsync()) {
+                // 异步方法：等结果完成之后再发送响应，不阻塞当前线程
+                Class<?> dataType = invoker.getDataType();
+                CompletableFuture<?> future = ((CompletionStage<?>) result).toCompletableFuture();
+                inFlightRequest.setAsyncResult(future);
+                future.whenComplete((data, e) -> {
+                    if (e != null) {
+                        inFlightRequest.respond(errorResponse(e));
+                    } else {
+                        inFlightRequest.respond(successResponse(data, dataType));
+                    }
+                });
+                return;
+            }
+            // 数据类型 = 方法类型
+            inFlightRequest.respond(successResponse(result, invoker.getDataType()));
+        } catch (Throwable e) {
+            if (!inFlightRequest.isCancelled()) {
+                e.printStackTrace();
+            }
+            inFlightRequest.respond(errorResponse(e));
+        } finally {
+            inFlightRequest.finish();
+        }
+    }
+
+    /**
+     * 调用返回流式响应的服务方法，然后按信用发送元素
+     */
+    private static void invokeStream(OutboundStream outboundStream, ServiceMethodInvoker invoker, Object[] args) {
+        try {
+            outboundStream.start(invoker.invoke(args));
+        } catch (Throwable e) {
+            outboundStream.fail(e);
+        }
+    }
+
+    /**
+     * 构造成功的响应
+     */
+    static RpcResponse successResponse(Object data, Class<?> dataType) {
+        // 构造响应结果对象
+        RpcResponse rpcResponse = new RpcResponse();
+        // 封装响应
+        rpcResponse.setData(data);
+        rpcResponse.setDataType(dataType);
+        rpcResponse.setMessage("ok");
+        return rpcResponse;
+    }
+
+    /**
+     * 构造失败的响应
+     */
+    static RpcResponse errorResponse(Throwable e) {
+        if (e instanceof CompletionException && e.getCause() != null) {
+            e = e.getCause();
+        }
+        RpcResponse rpcResponse = new RpcResponse();
+        rpcResponse.setMessage(e.getMessage());
+        rpcResponse.setException(e instanceof Exception ? (Exception) e : new RuntimeException(e));
+        return rpcResponse;
+    }
+
+    /**
+     * 发送响应
+     *
+     * @param writer      连接的写入器
+     * @param header      请求的消息头，响应复用请求的 requestId
+     * @param compression 压缩设置
+     * @param rpcResponse 响应
+     */
+    private static void doResponse(CoalescingWriter writer, ProtocolMessage.Header header,
+                                   ProtocolCompression compression, RpcResponse rpcResponse) {
+        // 设置消息头 响应都是完整格式
+        header.setVersion(ProtocolConstant.PROTOCOL_VERSION);
+        header.setTimeout(0);
+        header.setType((byte) ProtocolMessageTypeEnum.RESPONSE.getKey());
+        header.setStatus((byte) ProtocolMessageStatusEnum.OK.getValue());
+        // 发送响应
+        ProtocolMessage<RpcResponse> rpcResponseProtocolMessage = new ProtocolMessage<>(header, rpcResponse);
+        try {
+            // 编码
+            Buffer encode = ProtocolMessageEncoder.encode(rpcResponseProtocolMessage, compression);
+            // 写回给客户端，同一轮 event loop 中的多个响应会合并成一次写
+            writer.write(encode);
+        } catch (Exception e) {
+            throw new RuntimeException("协议消息编码错误", e);
+        }
+    }
+
+    /**
+     * 一个请求从收到到发送响应之间的状态，请求的期限、取消、中断都在这里处理
+     */
+    private static class InFlightRequest {
+        private final CoalescingWriter writer;
+
+        private final ProtocolCompression compression;
+
+        private final ProtocolMessage.Header header;
+
+        private final Map<Long, InFlightRequest> inFlightRequests;
+
+        /**
+         * 流式参数，没有时为 null
+         */
+        private final InboundStream upload;
+
+        /**
+         * 期限 System.nanoTime()，0 表示没有期限
+         */
+        private final long deadline;
+
+        private boolean cancelled;
+
+        /**
+         * 正在执行这个请求的线程，只记录业务线程 / 虚拟线程，event loop 线程不能被中断
+         */
+        private Thread runner;
+
+        /**
+         * 异步方法返回的结果
+         */
+        private CompletableFuture<?> asyncResult;
+
+        InFlightRequest(CoalescingWriter writer, ProtocolCompression compression, ProtocolMessage.Header header,
+                        Map<Long, InFlightRequest> inFlightRequests, InboundStream upload) {
+            this.writer = writer;
+            this.compression = compression;
+            this.header = header;
+            this.inFlightRequests = inFlightRequests;
+            this.upload = upload;
+            this.deadline = header.getTimeout() > 0
+                    ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(header.getTimeout()) : 0;
+        }
+
+        /**
+         * 开始执行
+         *
+         * @return 已经超时或者被取消时返回 false，请求不再执行
+         */
+        synchronized boolean start() {
+            if (cancelled) {
+                return false;
+            }
+            if (deadline != 0 && System.nanoTime() - deadline >= 0) {
+                inFlightRequests.remove(header.getRequestId(), this);
+                log.debug("Skip expired request {}", header.getRequestId());
+                return false;
+            }
+            if (!Context.isOnEventLoopThread()) {
+                runner = Thread.currentThread();
+            }
+            return true;
+        }
+
+        /**
+         * 同步部分执行结束，之后不能再中断这个线程
+         */
+        void finish() {
+            synchronized (this) {
+                runner = null;
+            }
+            // 取消时的中断可能刚好发生在方法返回之后，清掉中断标记，避免影响线程上的下一个任务
+            if (!Context.isOnEventLoopThread()) {
+                Thread.interrupted();
+            }
+        }
+
+        synchronized void setAsyncResult(CompletableFuture<?> asyncResult) {
+            if (cancelled) {
+                asyncResult.cancel(true);
+            }
+            this.asyncResult = asyncResult;
+        }
+
+        synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * 取消：还没执行的不再执行，正在执行的中断，异步结果取消
+         */
+        synchronized void cancel() {
+            cancelled = true;
+            if (runner != null) {
+                runner.interrupt();
+            }
+            if (asyncResult != null) {
+                asyncResult.cancel(true);
+            }
+        }
+
+        /**
+         * 发送响应，被取消的请求不再发送；还没读完的流式参数不再接收
+         */
+        void respond(RpcResponse rpcResponse) {
+            if (upload != null) {
+                upload.cancel();
+            }
+            if (inFlightRequests.remove(header.getRequestId(), this)) {
+                doResponse(writer, header, compression, rpcResponse);
+            }
+        }
+    }
 }
@@ -0,0 +1,94 @@
+package com.rpc.rpc_demo.communication.server;
+
+import com.rpc.rpc_demo.communication.protocol.ProtocolCompression;
+import com.rpc.rpc_demo.config.RpcConfig;
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Promise;
+import io.vertx.core.net.NetServer;
+import io.vertx.core.net.NetServerOptions;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @Description TCP服务器 Verticle（服务提供者用）
+ * <pre>
+ * 每个实例创建一个 NetServer 并监听同一个端口，Vert.x 发现多个 NetServer 监听同一个端口时会共享底层的监听 socket，
+ * 新连接在各个实例之间轮询分配；每个实例绑定一个 event loop，这条连接之后的读写都在这个 event loop 上完成
+ * 部署 N 个实例 = N 个 event loop 并行处理连接，见 VertxTcpServer
+ * </pre>
+ * @Author veritas
+ * @Data 2025/3/12 10:05
+ */
+@Slf4j
+public class TcpServerVerticle extends AbstractVerticle {
+    /**
+     * 监听端口
+     */
+    private final int port;
+
+    /**
+     * TCP 选项
+     */
+    private final NetServerOptions netServerOptions;
+
+    /**
+     * 执行服务方法的执行器，所有实例共享
+     */
+    private final ProviderExecutor providerExecutor;
+
+    /**
+     * 响应是否合并写
+     */
+    private final boolean writeCoalescing;
+
+    /**
+     * 流式参数的信用窗口
+     */
+    private final int streamWindow;
+
+    /**
+     * 响应的压缩设置
+     */
+    private final ProtocolCompression compression;
+
+    public TcpServerVerticle(int port, NetServerOptions netServerOptions, ProviderExecutor providerExecutor) {
+        this(port, netServerOptions, providerExecutor, false);
+    }
+
+    public TcpServerVerticle(int port, NetServerOptions netServerOptions, ProviderExecutor providerExecutor,
+                             boolean writeCoalescing) {
+        this(port, netServerOptions, providerExecutor, writeCoalescing, new RpcConfig().getStreamWindow());
+    }
+
+    public TcpServerVerticle(int port, NetServerOptions netServerOptions, ProviderExecutor providerExecutor,
+                             boolean writeCoalescing, int streamWindow) {
+        this(port, netServerOptions, providerExecutor, writeCoalescing, streamWindow, ProtocolCompression.NONE);
+    }
+
+    public TcpServerVerticle(int port, NetServerOptions netServerOptions, ProviderExecutor providerExecutor,
+                             boolean writeCoalescing, int streamWindow, ProtocolCompression compression) {
+        this.port = port;
+        this.netServerOptions = netServerOptions;
+        this.providerExecutor = providerExecutor;
+        this.writeCoalescing = writeCoalescing;
+        this.streamWindow = streamWindow;
+        this.compression = compression;
+    }
+
+    @Override
+    public void start(Promise<Void> startPromise) {
+        // 创建一个TCP服务器
+        NetServer tcpServer = vertx.createNetServer(netServerOptions);
+        // 处理连接请求
+        // 主要涉及半包、粘包等问题的处理
+        tcpServer.connectHandler(new TcpServerHandler(providerExecutor, writeCoalescing, streamWindow, compression));
+        // 启动TCP服务器并监听指定端口
+        tcpServer.listen(port, result -> {
+            if (result.succeeded()) {
+                log.debug("TCP server verticle is listening on port:{}", tcpServer.actualPort());
+                startPromise.complete();
+            } else {
+                startPromise.fail(result.cause());
+            }
+        });
+    }
+}
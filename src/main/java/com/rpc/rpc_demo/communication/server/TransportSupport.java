@@ -0,0 +1,78 @@
+package com.rpc.rpc_demo.communication.server;
+
+import com.rpc.rpc_demo.config.TransportConfig;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.net.NetClientOptions;
+import io.vertx.core.net.NetServerOptions;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Description 根据传输层配置 TransportConfig 创建 Vert.x 实例和 TCP 选项（服务提供者和服务消费者共用）
+ * <pre>
+ * 原生传输由 Vert.x 负责加载：preferNativeTransport 打开并且 classpath 上有 netty-transport-native-epoll 时使用 epoll，
+ * 加载失败时 Vert.x 自动退回 NIO，这里只负责打印退回的原因
+ * </pre>
+ * @Author veritas
+ * @Data 2025/3/12 14:25
+ */
+@Slf4j
+public class TransportSupport {
+
+    /**
+     * 创建 Vert.x 实例
+     *
+     * @param vertxOptions    其他选项（event loop 线程数等）
+     * @param transportConfig 传输层配置
+     * @return
+     */
+    public static Vertx createVertx(VertxOptions vertxOptions, TransportConfig transportConfig) {
+        vertxOptions.setPreferNativeTransport(transportConfig.isPreferNativeTransport());
+        Vertx vertx = Vertx.vertx(vertxOptions);
+        if (transportConfig.isPreferNativeTransport() && !vertx.isNativeTransportEnabled()) {
+            log.warn("native transport is not available, fall back to NIO", vertx.unavailableNativeTransportCause());
+        } else {
+            log.info("vertx transport: {}", vertx.isNativeTransportEnabled() ? "native" : "NIO");
+        }
+        return vertx;
+    }
+
+    /**
+     * 服务提供者的 TCP 选项
+     *
+     * @param transportConfig 传输层配置
+     * @return
+     */
+    public static NetServerOptions serverOptions(TransportConfig transportConfig) {
+        NetServerOptions netServerOptions = new NetServerOptions()
+                .setTcpNoDelay(transportConfig.isTcpNoDelay())
+                .setTcpQuickAck(transportConfig.isTcpQuickAck())
+                .setReusePort(transportConfig.isReusePort())
+                .setTcpFastOpen(transportConfig.isTcpFastOpen());
+        if (transportConfig.getIdleTimeout() > 0) {
+            // 读空闲超时：超过这个时间没有收到客户端的任何数据（请求或心跳）就关闭连接
+            netServerOptions.setReadIdleTimeout(transportConfig.getIdleTimeout())
+                    .setIdleTimeoutUnit(TimeUnit.MILLISECONDS);
+        }
+        return netServerOptions;
+    }
+
+    /**
+     * 服务消费者的 TCP 选项
+     *
+     * @param transportConfig      传输层配置
+     * @param connectTimeoutMillis 建立连接的超时时间 ms
+     * @return
+     */
+    public static NetClientOptions clientOptions(TransportConfig transportConfig, int connectTimeoutMillis) {
+        return new NetClientOptions()
+                .setConnectTimeout(connectTimeoutMillis)
+                .setTcpKeepAlive(true)
+                .setTcpNoDelay(transportConfig.isTcpNoDelay())
+                .setTcpQuickAck(transportConfig.isTcpQuickAck())
+                .setReusePort(transportConfig.isReusePort())
+                .setTcpFastOpen(transportConfig.isTcpFastOpen());
+    }
+}
@@ -6,10 +6,9 @@ import com.rpc.rpc_demo.communication.protocol.*;
 import com.rpc.rpc_demo.model.RpcRequest;
 import com.rpc.rpc_demo.model.RpcResponse;
 import com.rpc.rpc_demo.model.ServiceMetaData;
-import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
 import io.vertx.core.buffer.Buffer;
-import io.vertx.core.net.NetClient;
 import io.vertx.core.net.NetSocket;
 import lombok.extern.slf4j.Slf4j;
 
@@ -19,12 +18,49 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 /**
- * @Description
+ * @Description TCP 客户端（服务消费者用）
+ * <pre>
+ * 所有请求共用同一个 Vert.x 实例和同一个连接池，不再每次请求都创建 Vert.x 实例、建立连接、关闭连接
+ * 到同一个服务提供者的请求会复用少量的长连接，并通过消息头中的 requestId 匹配响应，见 TcpConnectionPool
+ * </pre>
  * @Author veritas
  * @Data 2025/3/9 11:10
  */
 @Slf4j
 public class VertxTcpClient {
+    /**
+     * 客户端运行时，第一次发请求时才初始化（静态内部类实现懒加载单例）
+     */
+    private static class ClientRuntimeHolder {
+        /**
+         * 所有请求共用的 Vert.x 实例
+         */
+        private static final Vertx VERTX = TransportSupport.createVertx(
+                new VertxOptions(), RpcContext.getRpcConfig().getTransportConfig());
+
+        /**
+         * 所有请求共用的连接池
+         */
+        private static final TcpConnectionPool CONNECTION_POOL = new TcpConnectionPool(
+                VERTX,
+                RpcContext.getRpcConfig().getMaxConnectionsPerEndpoint(),
+                TransportSupport.clientOptions(RpcContext.getRpcConfig().getTransportConfig(),
+                        RpcContext.getRpcConfig().getConnectTimeout()),
+                RpcContext.getRpcConfig().getTransportConfig().getHeartbeatInterval(),
+                RpcContext.getRpcConfig().getTransportConfig().getIdleTimeout(),
+                RpcContext.getRpcConfig().getTransportConfig().isWriteCoalescing(),
+                ProtocolCompression.of(RpcContext.getRpcConfig().getCompressor(),
+                        RpcContext.getRpcConfig().getCompressThreshold()),
+                RpcContext.getRpcConfig().getEndpointIdleTimeout());
+
+        /**
+         * 配置的序列化器在协议消息头中的 key
+         */
+        private static final byte SERIALIZER_KEY = (byte) ProtocolMessageSerializerEnum
+                .getEnumByValue(RpcContext.getRpcConfig().getSerializer())
+                .getKey();
+    }
+
     /**
      * 发送RPC请求，并等待返回响应
      *
@@ -34,92 +70,130 @@ public class VertxTcpClient {
      * @throws Exception
      */
     public static RpcResponse doRequest(RpcRequest rpcRequest, ServiceMetaData metaData) throws Exception {
-        // 创建Vert.x实例，用于异步事件处理和网络操作
-        Vertx vertx = Vertx.vertx();
-        // 创建TCP客户端，用于建立连接
-        NetClient netClient = vertx.createNetClient();
-        // 创建CompletableFuture，用于异步接收RPC响应
-        CompletableFuture<RpcResponse> responseFuture = new CompletableFuture<>();
-        // 尝试连接到目标服务，metaData中包含服务的主机和端口信息
-        netClient.connect(metaData.getServicePort(), metaData.getServiceHost(), result -> {
-            // 如果连接失败，则输出错误信息
-            if (!result.succeeded()) {
-                log.error("Failed to connect to TCP server");
-                return; // 连接失败时直接返回，不继续执行后续代码
-            }
-            // 连接成功，打印成功提示
-            log.info("Connected to TCP server");
-            // 获取建立的NetSocket实例，用于数据收发
-            NetSocket socket = result.result();
-
-            // 构造协议消息对象，该对象封装了请求数据和消息头信息
-            ProtocolMessage<Object> protocolMessage = new ProtocolMessage<>();
-            ProtocolMessage.Header header = new ProtocolMessage.Header();
-            // 设置协议魔数，用于标识协议格式
-            header.setMagic(ProtocolConstant.PROTOCOL_MAGIC);
-            // 设置协议版本
-            header.setVersion(ProtocolConstant.PROTOCOL_VERSION);
-            // 设置序列化方式，这里通过配置获取对应的序列化器key
-            header.setSerializer((byte) ProtocolMessageSerializerEnum
-                    .getEnumByValue(RpcContext.getRpcConfig().getSerializer())
-                    .getKey());
-            // 设置消息类型，这里表示为请求消息
-            header.setType((byte) ProtocolMessageTypeEnum.REQUEST.getKey());
-            // 生成并设置请求ID，用于唯一标识一次请求
-            header.setRequestId(IdUtil.getSnowflakeNextId());
-            // 将构造好的消息头设置到协议消息中
-            protocolMessage.setHeader(header);
-            // 将实际的RPC请求数据设置到协议消息中
-            protocolMessage.setBody(rpcRequest);
-
-            // 尝试对协议消息进行编码，并写入TCP连接中发送出去
-            try {
-                // 编码后的Buffer数据，准备发送到服务端
-                Buffer encodeBuffer = ProtocolMessageEncoder.encode(protocolMessage);
-                // 将编码后的数据写入到socket
-                socket.write(encodeBuffer);
-            } catch (Exception e) {
-                // 如果编码或发送过程中出现异常，则抛出运行时异常
-                throw new RuntimeException(e);
-            }
-            // 创建一个TCP缓冲区处理包装器，用于处理服务端返回的响应数据
-            // 给包装类传入一个匿名实现类，这个匿名实现类的方法 是在当消息体数据接收完成后 执行的
-            TcpBufferHandlerWrapper tcpBufferHandlerWrapper = new TcpBufferHandlerWrapper(new Handler<Buffer>() {
-                // buffer 是服务器返回的数据（字节流）。
-                @Override
-                public void handle(Buffer buffer) {
-                    try {
-                        // 解码接收到的Buffer数据，得到协议消息对象（包含响应数据）
-                        ProtocolMessage<RpcResponse> responseProtocolMessage =
-                                (ProtocolMessage<RpcResponse>) ProtocolMessageDecoder.decode(buffer);
-                        // 将响应数据传递给CompletableFuture，完成异步调用
-                        responseFuture.complete(responseProtocolMessage.getBody());
-                    } catch (Exception e) {
-                        // 如果解码过程中出现异常，则抛出运行时异常，提示协议消息编码错误
-                        throw new RuntimeException("协议消息码错误");
-                    }
-                }
-            });
-
-            // 将上面的处理器设置到socket上，用于处理接收到的数据
-            socket.handler(tcpBufferHandlerWrapper);
-        });
-
-        log.info("Waiting for response");
-        // 定义响应消息
-        RpcResponse rpcResponse = null;
-        // ("Waiting for response");
+        CompletableFuture<RpcResponse> responseFuture = doRequestAsync(rpcRequest, metaData);
+        log.debug("Waiting for response");
         try {
-            rpcResponse = responseFuture.get(5, TimeUnit.SECONDS);
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+            // 超时由连接负责，这里的超时只是兜底
+            return responseFuture.get(RpcContext.getRpcConfig().getRequestTimeout()
+                    + RpcContext.getRpcConfig().getConnectTimeout(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } catch (TimeoutException e) {
+            throw new RuntimeException("请求超时", e);
         }
-        // 打印提示信息，表示响应已接收到
-        log.info("Received response");
-        // 关闭TCP客户端连接
-        netClient.close();
-        // 返回接收到的RPC响应
-        return rpcResponse;
+    }
+
+    /**
+     * 异步发送RPC请求，不阻塞调用线程
+     * 返回的 CompletableFuture 在收到响应、连接失败或者超时的时候完成，完成动作发生在 Vert.x 的 event loop 线程上
+     *
+     * @param rpcRequest
+     * @param metaData
+     * @return
+     */
+    public static CompletableFuture<RpcResponse> doRequestAsync(RpcRequest rpcRequest, ServiceMetaData metaData) {
+        return doRequestAsync(rpcRequest, metaData, ClientRuntimeHolder.SERIALIZER_KEY);
+    }
+
+    /**
+     * 异步发送RPC请求，使用指定的序列化器
+     *
+     * @param rpcRequest
+     * @param metaData
+     * @param serializerKey 序列化器在协议消息头中的 key
+     * @return
+     */
+    public static CompletableFuture<RpcResponse> doRequestAsync(RpcRequest rpcRequest, ServiceMetaData metaData,
+                                                                byte serializerKey) {
+        return doRequestAsync(rpcRequest, metaData, serializerKey, RpcContext.getRpcConfig().getRequestTimeout());
+    }
+
+    /**
+     * 异步发送RPC请求，使用指定的序列化器和超时时间
+     * 超时时间随请求发给服务提供者，超时之后客户端会发送取消消息，服务提供者不再执行或者中断这个请求
+     *
+     * @param rpcRequest
+     * @param metaData
+     * @param serializerKey 序列化器在协议消息头中的 key
+     * @param timeoutMillis 超时时间 ms
+     * @return
+     */
+    public static CompletableFuture<RpcResponse> doRequestAsync(RpcRequest rpcRequest, ServiceMetaData metaData,
+                                                                byte serializerKey, long timeoutMillis) {
+        // 构造协议消息对象，该对象封装了请求数据和消息头信息
+        ProtocolMessage<Object> protocolMessage = newRequestMessage(rpcRequest, serializerKey);
+
+        // 从连接池拿到一条连接（可能需要先建立连接），然后在这条连接上发送请求
+        return ClientRuntimeHolder.CONNECTION_POOL.acquire(metaData)
+                .thenCompose(connection -> connection.send(protocolMessage, timeoutMillis));
+    }
+
+    /**
+     * 流式请求（客户端流）：请求发出之后按服务端的信用逐个上传流式参数的元素，服务方法返回之后响应才会到达
+     * 超时时间是 RpcConfig.uploadTimeout，不会重试（流式参数只能读一次）
+     *
+     * @param rpcRequest    流式参数在 args 中的位置为 null
+     * @param metaData
+     * @param serializerKey 序列化器在协议消息头中的 key
+     * @param uploadSource  流式参数：Iterator、Stream 或者 Flow.Publisher
+     * @return
+     */
+    public static CompletableFuture<RpcResponse> doUploadAsync(RpcRequest rpcRequest, ServiceMetaData metaData,
+                                                               byte serializerKey, Object uploadSource) {
+        ProtocolMessage<Object> protocolMessage = newRequestMessage(rpcRequest, serializerKey);
+        return ClientRuntimeHolder.CONNECTION_POOL.acquire(metaData)
+                .thenCompose(connection -> connection.send(protocolMessage, uploadSource,
+                        RpcContext.getRpcConfig().getUploadTimeout()));
+    }
+
+    /**
+     * 流式响应的请求，返回的 ClientStream 被订阅之后才真正发送请求
+     *
+     * @param rpcRequest
+     * @param metaData
+     * @param serializerKey 序列化器在协议消息头中的 key
+     * @return
+     */
+    public static ClientStream openStream(RpcRequest rpcRequest, ServiceMetaData metaData, byte serializerKey) {
+        return openStream(rpcRequest, metaData, serializerKey, null);
+    }
+
+    /**
+     * 双向流：返回的 ClientStream 被订阅之后才真正发送请求，请求发出之后开始上传流式参数
+     *
+     * @param rpcRequest    流式参数在 args 中的位置为 null
+     * @param metaData
+     * @param serializerKey 序列化器在协议消息头中的 key
+     * @param uploadSource  流式参数：Iterator、Stream 或者 Flow.Publisher，为 null 时只有流式响应
+     * @return
+     */
+    public static ClientStream openStream(RpcRequest rpcRequest, ServiceMetaData metaData, byte serializerKey,
+                                          Object uploadSource) {
+        ProtocolMessage<Object> protocolMessage = newRequestMessage(rpcRequest, serializerKey);
+        return new ClientStream(protocolMessage.getHeader().getRequestId(), protocolMessage,
+                () -> ClientRuntimeHolder.CONNECTION_POOL.acquire(metaData), uploadSource);
+    }
+
+    /**
+     * 构造请求的协议消息，普通请求、流式请求、流式响应的请求共用
+     *
+     * @param rpcRequest
+     * @param serializerKey 序列化器在协议消息头中的 key
+     * @return
+     */
+    private static ProtocolMessage<Object> newRequestMessage(RpcRequest rpcRequest, byte serializerKey) {
+        ProtocolMessage.Header header = new ProtocolMessage.Header();
+        // 设置协议魔数，用于标识协议格式
+        header.setMagic(ProtocolConstant.PROTOCOL_MAGIC);
+        // 设置协议版本
+        header.setVersion(ProtocolConstant.PROTOCOL_VERSION);
+        // 设置序列化方式
+        header.setSerializer(serializerKey);
+        // 设置消息类型，这里表示为请求消息
+        header.setType((byte) ProtocolMessageTypeEnum.REQUEST.getKey());
+        // 生成并设置请求ID，用于唯一标识一次请求，也是响应和请求在同一条连接上匹配的依据
+        header.setRequestId(IdUtil.getSnowflakeNextId());
+        return new ProtocolMessage<>(header, rpcRequest);
     }
 
     // 启动TCP客户端连接，并发送多个请求示例
@@ -1,36 +1,102 @@
 package com.rpc.rpc_demo.communication.server;
 
 
+import com.rpc.rpc_demo.RpcContext;
+import com.rpc.rpc_demo.communication.protocol.ProtocolCompression;
+import com.rpc.rpc_demo.config.RpcConfig;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
 import io.vertx.core.Vertx;
-import io.vertx.core.net.NetServer;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.net.NetServerOptions;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
 /**
  * @Description Vert.x创建一个TCP服务器实现
+ * <pre>
+ * 部署 serverInstances 个 TcpServerVerticle，共享同一个端口，每个实例绑定一个 event loop，连接在实例之间轮询分配
+ * event loop 线程数由 eventLoopThreads 决定，应该不小于 serverInstances，否则多个实例会挤在同一个 event loop 上
+ * 注意：Vert.x 4 中 accept 新连接固定由一个 acceptor 线程完成，数量不可配置；
+ * 对长连接的 RPC 来说 accept 不是瓶颈，连接建立之后的读写才是，读写由各个实例的 event loop 分担
+ * </pre>
  * @Author veritas
  * @Data 2025/3/9 11:04
  */
 @Slf4j
 public class VertxTcpServer implements HttpServer {
+    /**
+     * 配置 为空时使用全局配置
+     */
+    private final RpcConfig rpcConfig;
+
+    /**
+     * 执行服务方法的执行器，可以通过 getMetrics() 查看业务线程池的排队情况
+     */
+    @Getter
+    private ProviderExecutor providerExecutor;
+
+    /**
+     * vertx实例
+     */
+    @Getter
+    private Vertx vertx;
+
+    public VertxTcpServer() {
+        this(null);
+    }
+
+    public VertxTcpServer(RpcConfig rpcConfig) {
+        this.rpcConfig = rpcConfig;
+    }
+
     @Override
     public void doStart(int port) {
-        // 创建一个vertx实例
-        Vertx vertx = Vertx.vertx();
-        // 创建一个TCP服务器
-        NetServer tcpServer = vertx.createNetServer();
-        // 处理连接请求
-        // 主要涉及半包、粘包等问题的处理
-        tcpServer.connectHandler(new TcpServerHandler());
-        // 启动TCP服务器并监听指定端口
-        tcpServer.listen(port, result -> {
-            if(result.succeeded()) {
-                log.info("TCP server is now listening on actual port:" +tcpServer.actualPort());
-            }else {
-                log.error("TCP server failed to listen on port:" +tcpServer.actualPort());
+        start(port).onComplete(result -> {
+            if (result.succeeded()) {
+                log.info("TCP server is now listening on actual port:" + port);
+            } else {
+                log.error("TCP server failed to listen on port:" + port, result.cause());
             }
         });
     }
 
+    /**
+     * 启动服务器，所有实例都监听成功后返回的 Future 才会完成
+     *
+     * @param port 端口
+     * @return 部署ID
+     */
+    public Future<String> start(int port) {
+        RpcConfig config = rpcConfig != null ? rpcConfig : RpcContext.getRpcConfig();
+        providerExecutor = new ProviderExecutor(config.getExecutionMode(),
+                config.getWorkerThreads(), config.getWorkerQueueCapacity());
+        int instances = Math.max(1, config.getServerInstances());
+        // 创建一个vertx实例
+        vertx = TransportSupport.createVertx(new VertxOptions()
+                .setEventLoopPoolSize(Math.max(instances, config.getEventLoopThreads())), config.getTransportConfig());
+        NetServerOptions netServerOptions = TransportSupport.serverOptions(config.getTransportConfig());
+        // 部署多个实例，共享同一个端口
+        boolean writeCoalescing = config.getTransportConfig().isWriteCoalescing();
+        int streamWindow = config.getStreamWindow();
+        ProtocolCompression compression = ProtocolCompression.of(config.getCompressor(), config.getCompressThreshold());
+        return vertx.deployVerticle(() -> new TcpServerVerticle(port, netServerOptions, providerExecutor, writeCoalescing,
+                        streamWindow, compression),
+                new DeploymentOptions().setInstances(instances));
+    }
+
+    /**
+     * 关闭服务器
+     *
+     * @return
+     */
+    public Future<Void> close() {
+        if (providerExecutor != null) {
+            providerExecutor.shutdown();
+        }
+        return vertx == null ? Future.succeededFuture() : vertx.close();
+    }
+
     public static void main(String[] args) {
         new VertxTcpServer().doStart(8080);
     }
@@ -0,0 +1,35 @@
+package com.rpc.rpc_demo.compress;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * @Description 压缩器接口，对协议消息的消息体进行压缩
+ * <pre>
+ * 是否压缩、用哪个压缩器由协议消息头中的 compressor 字段标识，见 ProtocolMessageCompressorEnum
+ * 只有消息体超过阈值（RpcConfig.compressThreshold）并且压缩之后确实变小了才会压缩，见 ProtocolMessageEncoder
+ * </pre>
+ * @Author veritas
+ * @Data 2025/3/15 10:10
+ */
+public interface Compressor {
+    /**
+     * 压缩 读取范围是 position ~ limit，压缩后的数据写到输出流中
+     * 实现不应该关闭输出流，也不应该修改 src 的 position
+     *
+     * @param src          原始数据
+     * @param outputStream 输出流
+     * @throws IOException 压缩异常
+     */
+    void compress(ByteBuffer src, OutputStream outputStream) throws IOException;
+
+    /**
+     * 解压 读取范围是 position ~ limit
+     *
+     * @param src 压缩后的数据
+     * @return 原始数据
+     * @throws IOException 解压异常
+     */
+    ByteBuffer decompress(ByteBuffer src) throws IOException;
+}
@@ -0,0 +1,11 @@
+package com.rpc.rpc_demo.compress;
+
+/**
+ * 压缩器的key
+ */
+public class CompressorType {
+    public static String NONE = "none";
+    public static String GZIP = "gzip";
+    public static String LZ4 = "lz4";
+
+}
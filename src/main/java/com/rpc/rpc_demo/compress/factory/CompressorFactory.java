@@ -0,0 +1,22 @@
+package com.rpc.rpc_demo.compress.factory;
+
+import com.rpc.rpc_demo.compress.Compressor;
+import com.rpc.rpc_demo.spi.SPILoader;
+
+/**
+ * @Description 压缩器工厂
+ * @Author veritas
+ * @Data 2025/3/15 10:20
+ */
+public class CompressorFactory {
+    static {
+        SPILoader.load(Compressor.class);
+    }
+
+    /**
+     * 获取压缩器
+     */
+    public static Compressor getInstance(String key) {
+        return SPILoader.getInstance(Compressor.class, key);
+    }
+}
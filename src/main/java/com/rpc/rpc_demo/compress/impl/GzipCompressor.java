@@ -0,0 +1,68 @@
+package com.rpc.rpc_demo.compress.impl;
+
+import com.rpc.rpc_demo.communication.protocol.ProtocolConstant;
+import com.rpc.rpc_demo.compress.Compressor;
+import com.rpc.rpc_demo.serializer.ByteBufferInputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * @Description gzip 压缩器，压缩率高但是比较慢，适合带宽很小的链路
+ * <pre>
+ * 解压的是网络上收到的数据，不能信任：很小的压缩数据可以解压出非常大的数据（gzip 炸弹），
+ *      所以解压时边读边检查，解压后超过 MAX_BODY_LENGTH 直接失败
+ * </pre>
+ * @Author veritas
+ * @Data 2025/3/15 10:30
+ */
+public class GzipCompressor implements Compressor {
+    private static final int BUFFER_SIZE = 8192;
+
+    @Override
+    public void compress(ByteBuffer src, OutputStream outputStream) throws IOException {
+        // GZIPOutputStream 关闭时会关闭底层的流，这里挡一下，只 flush 不 close
+        OutputStream target = new FilterOutputStream(outputStream) {
+            @Override
+            public void write(byte[] bytes, int offset, int length) throws IOException {
+                out.write(bytes, offset, length);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+        try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(target, BUFFER_SIZE)) {
+            if (src.hasArray()) {
+                gzipOutputStream.write(src.array(), src.arrayOffset() + src.position(), src.remaining());
+            } else {
+                byte[] bytes = new byte[src.remaining()];
+                src.duplicate().get(bytes);
+                gzipOutputStream.write(bytes);
+            }
+        }
+    }
+
+    @Override
+    public ByteBuffer decompress(ByteBuffer src) throws IOException {
+        try (GZIPInputStream gzipInputStream = new GZIPInputStream(new ByteBufferInputStream(src.duplicate()), BUFFER_SIZE)) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream(
+                    Math.max(BUFFER_SIZE, Math.min(src.remaining() * 4, ProtocolConstant.MAX_BODY_LENGTH)));
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = gzipInputStream.read(buffer)) != -1) {
+                if (outputStream.size() + read > ProtocolConstant.MAX_BODY_LENGTH) {
+                    throw new IOException("gzip data exceeds max body length:" + ProtocolConstant.MAX_BODY_LENGTH);
+                }
+                outputStream.write(buffer, 0, read);
+            }
+            return ByteBuffer.wrap(outputStream.toByteArray());
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.rpc.rpc_demo.compress.impl;
+
+import com.rpc.rpc_demo.communication.protocol.ProtocolConstant;
+import com.rpc.rpc_demo.compress.Compressor;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * @Description LZ4 压缩器，压缩率一般但是非常快，适合普通的内网链路
+ * <pre>
+ * 使用块格式而不是帧格式（LZ4FrameOutputStream 每次都要分配一整块的缓冲区）：
+ *      4 字节的原始长度 + 压缩后的数据
+ * 有 JNI 实现时用 JNI，否则退化为纯 Java 实现
+ * 解压的是网络上收到的数据，不能信任：原始长度不能超过 MAX_BODY_LENGTH，
+ *      并且用 safeDecompressor（fastDecompressor 遇到恶意数据可能越界读取）
+ * </pre>
+ * @Author veritas
+ * @Data 2025/3/15 10:40
+ */
+public class Lz4Compressor implements Compressor {
+    private static final LZ4Factory LZ4_FACTORY = LZ4Factory.fastestInstance();
+
+    private final LZ4Compressor compressor = LZ4_FACTORY.fastCompressor();
+
+    private final LZ4SafeDecompressor decompressor = LZ4_FACTORY.safeDecompressor();
+
+    @Override
+    public void compress(ByteBuffer src, OutputStream outputStream) throws IOException {
+        int length = src.remaining();
+        ByteBuffer dest = ByteBuffer.allocate(4 + compressor.maxCompressedLength(length));
+        dest.putInt(0, length);
+        int compressedLength = compressor.compress(src, src.position(), length, dest, 4, dest.capacity() - 4);
+        outputStream.write(dest.array(), 0, 4 + compressedLength);
+    }
+
+    @Override
+    public ByteBuffer decompress(ByteBuffer src) throws IOException {
+        if (src.remaining() < 4) {
+            throw new IOException("invalid lz4 data, remaining:" + src.remaining());
+        }
+        int length = src.getInt(src.position());
+        if (length < 0 || length > ProtocolConstant.MAX_BODY_LENGTH) {
+            throw new IOException("invalid lz4 length:" + length);
+        }
+        ByteBuffer dest = ByteBuffer.allocate(length);
+        int decompressedLength;
+        try {
+            decompressedLength = decompressor.decompress(src, src.position() + 4, src.remaining() - 4, dest, 0, length);
+        } catch (LZ4Exception e) {
+            throw new IOException("invalid lz4 data", e);
+        }
+        if (decompressedLength != length) {
+            throw new IOException("invalid lz4 data, expect " + length + " bytes but got " + decompressedLength);
+        }
+        return dest;
+    }
+}
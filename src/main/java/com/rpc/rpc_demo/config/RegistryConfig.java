@@ -33,4 +33,17 @@ public class RegistryConfig {
      * 超时时间 ms
      */
     private Long timeout = 10000L;
+
+    /**
+     * 服务列表的本地快照文件，默认为空，不保存
+     * 消费者把每个服务最后一次知道的服务列表保存在这里，启动时注册中心还连不上、运行中注册中心不可用时用它继续调用
+     * 写文件时整个文件替换，每个进程要用自己的文件，多个进程共用一个文件时后写的会覆盖先写的
+     */
+    private String snapshotFile;
+
+    /**
+     * 最后一次知道的服务列表最多能用多久 ms，小于等于 0 时不限制
+     * 从最后一次和注册中心确认开始计算，超过之后注册中心不可用时不再用它兜底，服务发现直接失败
+     */
+    private long lastKnownMaxAge = 24 * 60 * 60 * 1000L;
 }
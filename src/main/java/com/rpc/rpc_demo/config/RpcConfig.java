@@ -1,6 +1,8 @@
 package com.rpc.rpc_demo.config;
 
 
+import com.rpc.rpc_demo.communication.server.ExecutionModeIdentifier;
+import com.rpc.rpc_demo.compress.CompressorType;
 import com.rpc.rpc_demo.fault.retry.RetryStrategyIdentifier;
 import com.rpc.rpc_demo.fault.tolerant.TolerantStrategyIdentifier;
 import com.rpc.rpc_demo.loadbalancer.LoadBalancerIdentifier;
@@ -46,11 +48,32 @@ public class RpcConfig {
      */
     private String serializer = SerializerType.JDK;
 
+    /**
+     * 消息体的压缩器，见 CompressorType，none 表示不压缩
+     */
+    private String compressor = CompressorType.NONE;
+
+    /**
+     * 消息体达到这个大小（字节）才压缩，太小的消息压缩的耗时比省下的传输时间多
+     */
+    private int compressThreshold = 8 * 1024;
+
+    /**
+     * Kryo 预注册的业务类，全类名，逗号分隔
+     * 服务提供者和服务消费者必须配置相同的类，并且顺序一致
+     */
+    private String kryoRegistrationClasses = "";
+
     /**
      * 注册中心配置
      */
     private RegistryConfig registryConfig = new RegistryConfig();
 
+    /**
+     * 传输层配置
+     */
+    private TransportConfig transportConfig = new TransportConfig();
+
     /**
      * 负载均衡器
      */
@@ -65,5 +88,64 @@ public class RpcConfig {
      * 容错策略
      */
     private String tolerantStrategy = TolerantStrategyIdentifier.FAIL_FAST;
+
+    /**
+     * 消费者到每个服务提供者的最大长连接数，同一个服务提供者的请求在这些连接上多路复用
+     */
+    private int maxConnectionsPerEndpoint = 2;
+
+    /**
+     * 消费者建立连接的超时时间 ms
+     */
+    private int connectTimeout = 3000;
+
+    /**
+     * 服务提供者空闲超时 ms（消费者），超过这个时间没有向某个服务提供者发送过请求，就关闭到它的所有连接并从连接池中移除，
+     * 0 表示不移除（连接全部断开的服务提供者总是会被移除），见 TcpConnectionPool
+     */
+    private int endpointIdleTimeout = 5 * 60 * 1000;
+
+    /**
+     * 消费者的请求超时时间 ms，会随请求发给服务提供者，服务提供者不再执行已经超时的请求
+     */
+    private int requestTimeout = 5000;
+
+    /**
+     * 客户端流调用（带流式参数、返回普通结果）的超时时间 ms，0 表示不超时
+     * 包括上传流式参数和服务方法执行的整个过程，所以比 requestTimeout 长；超时后消费者取消调用，停止上传
+     */
+    private int uploadTimeout = 60000;
+
+    /**
+     * 流的信用窗口：接收端最多缓存多少个还没处理的元素，见 StreamIterator
+     * 消费者读取流式响应、服务提供者读取 Iterator / Stream 类型的流式参数都用这个窗口
+     */
+    private int streamWindow = 256;
+
+    /**
+     * 服务提供者的 event loop 线程数
+     */
+    private int eventLoopThreads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * 服务提供者部署的 TCP 服务器实例数，每个实例绑定一个 event loop，共享同一个端口
+     */
+    private int serverInstances = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * 服务提供者的默认执行模型，见 ExecutionModeIdentifier
+     * 可以通过 @RpcService(executionMode = ...) 为单个服务指定
+     */
+    private String executionMode = ExecutionModeIdentifier.WORKER_POOL;
+
+    /**
+     * 服务提供者业务线程池的线程数
+     */
+    private int workerThreads = Runtime.getRuntime().availableProcessors() * 2;
+
+    /**
+     * 服务提供者业务线程池的队列容量，队列满了之后的请求直接返回服务端繁忙
+     */
+    private int workerQueueCapacity = 1024;
 }
 
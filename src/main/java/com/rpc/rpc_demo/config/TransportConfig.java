@@ -0,0 +1,59 @@
+package com.rpc.rpc_demo.config;
+
+import lombok.Data;
+
+/**
+ * @Description RPC传输层配置（服务提供者和服务消费者共用）
+ * <pre>
+ * preferNativeTransport 打开后，Linux 上使用 epoll 原生传输，拿不到原生库（非 Linux、缺少依赖）时自动退回 NIO
+ * tcpQuickAck、reusePort、tcpFastOpen 只有原生传输才支持，NIO 下会被忽略
+ * heartbeatInterval、idleTimeout 用来尽快发现半开的连接（对端宕机、网络中断但没有收到 FIN/RST），
+ * 避免请求发到已经失联的连接上，一直等到请求超时
+ * </pre>
+ * @Author veritas
+ * @Data 2025/3/12 14:10
+ */
+@Data
+public class TransportConfig {
+    /**
+     * 优先使用原生传输（Linux epoll）
+     */
+    private boolean preferNativeTransport = false;
+
+    /**
+     * TCP_NODELAY 关闭 Nagle 算法，小包立即发送
+     */
+    private boolean tcpNoDelay = true;
+
+    /**
+     * TCP_QUICKACK 立即回复 ACK，不等待延迟确认（仅原生传输）
+     */
+    private boolean tcpQuickAck = false;
+
+    /**
+     * SO_REUSEPORT 多个监听 socket 绑定同一个端口，由内核分配连接（仅原生传输）
+     */
+    private boolean reusePort = false;
+
+    /**
+     * TCP_FASTOPEN 建立连接的 SYN 包中携带数据，少一个 RTT（仅原生传输，需要内核开启 net.ipv4.tcp_fastopen）
+     */
+    private boolean tcpFastOpen = false;
+
+    /**
+     * 心跳间隔 ms，客户端连接超过这个时间没有收到数据就发送一个心跳，0 表示不发送心跳
+     */
+    private int heartbeatInterval = 2000;
+
+    /**
+     * 空闲超时 ms，连接超过这个时间没有收到任何数据（包括心跳）就认为对端已经失联并关闭连接，0 表示不检测
+     * 客户端：关闭之后连接池下一次用到这个槽位时重新建立连接
+     * 服务端：客户端空闲时会定期发送心跳，正常的客户端不会触发
+     */
+    private int idleTimeout = 6000;
+
+    /**
+     * 合并写：一条连接上同一轮 event loop 中要发送的多条消息合并成一次写，减少系统调用，见 CoalescingWriter
+     */
+    private boolean writeCoalescing = true;
+}
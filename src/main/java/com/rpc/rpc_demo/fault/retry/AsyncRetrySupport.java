@@ -0,0 +1,69 @@
+package com.rpc.rpc_demo.fault.retry;
+
+import com.rpc.rpc_demo.model.RpcResponse;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongUnaryOperator;
+import java.util.function.Supplier;
+
+/**
+ * @Description 异步重试的公共实现
+ * <pre>
+ * 和同步重试的区别：
+ *      同步重试在失败后通过 Thread.sleep() 等待，等待期间调用线程一直被占用；
+ *      异步重试在失败后通过 CompletableFuture.delayedExecutor() 在退避时间之后再发起下一次调用，等待期间不占用任何线程
+ * 每次调用返回的 CompletableFuture 完成后，根据结果决定 完成最终结果 还是 安排下一次调用
+ * </pre>
+ * @Author veritas
+ * @Data 2025/3/10 15:20
+ */
+@Slf4j
+class AsyncRetrySupport {
+
+    /**
+     * 异步重试
+     *
+     * @param action      一次调用 本质就是发请求
+     * @param maxAttempts 最多调用次数（包括第一次调用）
+     * @param backOff     第 n 次失败后，到下一次调用之间的退避时间 ms
+     * @return
+     */
+    static CompletableFuture<RpcResponse> retry(Supplier<CompletableFuture<RpcResponse>> action,
+                                                int maxAttempts,
+                                                LongUnaryOperator backOff) {
+        CompletableFuture<RpcResponse> result = new CompletableFuture<>();
+        attempt(action, 1, maxAttempts, backOff, result);
+        return result;
+    }
+
+    private static void attempt(Supplier<CompletableFuture<RpcResponse>> action,
+                                int attemptTimes,
+                                int maxAttempts,
+                                LongUnaryOperator backOff,
+                                CompletableFuture<RpcResponse> result) {
+        CompletableFuture<RpcResponse> responseFuture;
+        try {
+            responseFuture = action.get();
+        } catch (Throwable e) {
+            responseFuture = CompletableFuture.failedFuture(e);
+        }
+        responseFuture.whenComplete((response, e) -> {
+            if (e == null) {
+                result.complete(response);
+                return;
+            }
+            if (attemptTimes >= maxAttempts) {
+                // 如果超过最大重试次数后仍未成功，则失败，提示重试次数已超出限制
+                result.completeExceptionally(new Exception("Maximum retry times exceeded, giving up.", e));
+                return;
+            }
+            long sleepTime = Math.max(0, backOff.applyAsLong(attemptTimes));
+            log.warn("RPC call failed,retrying.. current retry times: {}, backing off for {} ms", attemptTimes, sleepTime, e);
+            // 退避时间到了之后再发起下一次调用，期间不占用线程
+            CompletableFuture.delayedExecutor(sleepTime, TimeUnit.MILLISECONDS)
+                    .execute(() -> attempt(action, attemptTimes + 1, maxAttempts, backOff, result));
+        });
+    }
+}
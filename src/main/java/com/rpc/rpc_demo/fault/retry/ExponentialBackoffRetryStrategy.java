@@ -6,7 +6,9 @@ import lombok.extern.slf4j.Slf4j;
 
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 /**
  * @Description 指数退避重试策略
@@ -77,4 +79,16 @@ public class ExponentialBackoffRetryStrategy implements RetryStrategy {
         // 如果超过最大重试次数后仍未成功，则抛出异常，提示重试次数已超出限制
         throw new Exception("Maximum retry times exceeded, giving up.");
     }
+
+    /**
+     * 异步版本，退避时间和同步版本一致：初始 100 毫秒，每次重试翻倍
+     *
+     * @param supplier 重试的方法 代表一个异步任务
+     * @return
+     */
+    @Override
+    public CompletableFuture<RpcResponse> doRetryAsync(Supplier<CompletableFuture<RpcResponse>> supplier) {
+        return AsyncRetrySupport.retry(supplier, MAX_RETRY_TIMES,
+                retryTimes -> INITIAL_BACKOFF_INTERVAL << (retryTimes - 1));
+    }
 }
@@ -5,7 +5,9 @@ import com.rpc.rpc_demo.model.RpcResponse;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 /**
  * @Description 固定重试间隔策略
@@ -39,4 +41,15 @@ public class FixedIntervalRetryStrategy implements RetryStrategy {
         // 最后调用 retryer.call(callable) 执行重试操作,并返回最终的调用结果 RpcResponse
         return retryer.call(callable);
     }
+
+    /**
+     * 异步版本，和同步版本一样：最多调用 3 次，每次之间固定间隔 3 秒
+     *
+     * @param supplier 重试的方法 代表一个异步任务
+     * @return
+     */
+    @Override
+    public CompletableFuture<RpcResponse> doRetryAsync(Supplier<CompletableFuture<RpcResponse>> supplier) {
+        return AsyncRetrySupport.retry(supplier, 3, retryTimes -> TimeUnit.SECONDS.toMillis(3L));
+    }
 }
@@ -5,7 +5,9 @@ import com.rpc.rpc_demo.model.RpcResponse;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 /**
  * @Description 线性重试策略
@@ -81,4 +83,16 @@ public class LinearRetryStrategy implements RetryStrategy {
         // 如果重试次数达到上限仍未成功，则抛出异常，提示重试次数已超出限制
         throw new Exception("Maximum retry times exceeded, giving up.");
     }
+
+    /**
+     * 异步版本，退避时间和同步版本一致：初始 1 秒，每次重试增加 1 秒
+     *
+     * @param supplier 重试的方法 代表一个异步任务
+     * @return
+     */
+    @Override
+    public CompletableFuture<RpcResponse> doRetryAsync(Supplier<CompletableFuture<RpcResponse>> supplier) {
+        return AsyncRetrySupport.retry(supplier, MAX_RETRY_TIMES,
+                retryTimes -> INITIAL_BACKOFF_INTERVAL * retryTimes);
+    }
 }
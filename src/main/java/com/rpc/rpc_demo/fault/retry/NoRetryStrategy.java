@@ -3,6 +3,8 @@ package com.rpc.rpc_demo.fault.retry;
 import com.rpc.rpc_demo.model.RpcResponse;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
 /**
  * @Description 该策略 就是不重试
@@ -21,4 +23,9 @@ public class NoRetryStrategy implements RetryStrategy{
     public RpcResponse doRetry(Callable<RpcResponse> callable) throws Exception {
         return callable.call();
     }
+
+    @Override
+    public CompletableFuture<RpcResponse> doRetryAsync(Supplier<CompletableFuture<RpcResponse>> supplier) {
+        return supplier.get();
+    }
 }
@@ -3,6 +3,8 @@ package com.rpc.rpc_demo.fault.retry;
 import com.rpc.rpc_demo.model.RpcResponse;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
 /**
  * @Description
@@ -22,4 +24,25 @@ public interface RetryStrategy {
      * @throws Exception
      */
     RpcResponse doRetry(Callable<RpcResponse> callable) throws Exception;
+
+    /**
+     * 异步重试，重试的等待期间不占用线程
+     * <p>
+     * 每调用一次 supplier 就会发起一次异步请求，返回的 CompletableFuture 失败了就按策略决定是否再次调用 supplier
+     * <p>
+     * 默认实现是为了兼容只实现了同步 doRetry 的自定义策略：把同步重试放到虚拟线程上执行，
+     * 内置的策略都重写了该方法，不会占用线程
+     *
+     * @param supplier 重试的方法 代表一个异步任务  本质这个任务就是发请求
+     * @return
+     */
+    default CompletableFuture<RpcResponse> doRetryAsync(Supplier<CompletableFuture<RpcResponse>> supplier) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return doRetry(() -> supplier.get().get());
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }, Thread::startVirtualThread);
+    }
 }
@@ -11,6 +11,7 @@ import lombok.extern.slf4j.Slf4j;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * @Description 这种策略和故障恢复差不多，都是尝试其他服务，
@@ -30,7 +31,7 @@ public class FailBackTolerantStrategy implements TolerantStrategy {
         RpcRequest rpcRequest = (RpcRequest) context.get(TolerantStrategyConstant.RPC_REQUEST);
 
         if (serviceMetaDataList == null || serviceMetaDataList.isEmpty()) {
-            log.error("FailOverTolerantStrategy doTolerant metaInfos is empty");
+            log.error("FailBackTolerantStrategy doTolerant metaInfos is empty");
             return null;
         }
         // 重试 serviceMetaDataList之外的其他服务
@@ -47,10 +48,22 @@ public class FailBackTolerantStrategy implements TolerantStrategy {
                 });
             } catch (Exception exception) {
                 // 如果重试再失败，继续重试下一个
-                log.error("FailOverTolerantStrategy doTolerant retry fail");
+                log.error("FailBackTolerantStrategy doTolerant retry fail");
             }
         }
         // 所有服务都重试失败
-        throw new RuntimeException("FailOverTolerantStrategy doTolerant all retry fail");
+        throw new RuntimeException("FailBackTolerantStrategy doTolerant all retry fail");
+    }
+
+    /**
+     * 异步版本：依次对其他服务实例发请求，前一个失败了才会去请求下一个，整个过程不占用调用线程，见 TolerantStrategySupport
+     *
+     * @param context 上下文，用于传递数据
+     * @param e       异常
+     * @return
+     */
+    @Override
+    public CompletableFuture<RpcResponse> doTolerantAsync(Map<String, Object> context, Throwable e) {
+        return TolerantStrategySupport.retryOtherServicesAsync("FailBackTolerantStrategy", context, e);
     }
 }
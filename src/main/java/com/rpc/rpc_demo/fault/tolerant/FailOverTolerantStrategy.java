@@ -11,6 +11,7 @@ import lombok.extern.slf4j.Slf4j;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * @Description 故障恢复策略
@@ -71,4 +72,16 @@ public class FailOverTolerantStrategy implements TolerantStrategy {
         // 所有服务都重试失败
         throw new RuntimeException("FailOverTolerantStrategy doTolerant all retry fail");
     }
+
+    /**
+     * 异步版本：依次对其他服务实例发请求，前一个失败了才会去请求下一个，整个过程不占用调用线程，见 TolerantStrategySupport
+     *
+     * @param context 上下文，用于传递数据
+     * @param e       异常
+     * @return
+     */
+    @Override
+    public CompletableFuture<RpcResponse> doTolerantAsync(Map<String, Object> context, Throwable e) {
+        return TolerantStrategySupport.retryOtherServicesAsync("FailOverTolerantStrategy", context, e);
+    }
 }
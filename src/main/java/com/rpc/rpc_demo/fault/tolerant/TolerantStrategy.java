@@ -3,6 +3,7 @@ package com.rpc.rpc_demo.fault.tolerant;
 import com.rpc.rpc_demo.model.RpcResponse;
 
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * @Description
@@ -32,4 +33,23 @@ public interface TolerantStrategy {
      * @return
      */
     RpcResponse doTolerant(Map<String, Object> context, Exception e);
+
+    /**
+     * 异步容错，返回的 CompletableFuture 完成之前不占用调用线程
+     * <p>
+     * 默认实现直接调用同步的 doTolerant，适用于 快速失败、静默处理 这类不需要再发请求的策略；
+     * 需要对其他服务实例再发请求的策略（故障转移、故障恢复）重写了该方法
+     *
+     * @param context 上下文，用于传递数据，同 doTolerant
+     * @param e       异常
+     * @return
+     */
+    default CompletableFuture<RpcResponse> doTolerantAsync(Map<String, Object> context, Throwable e) {
+        try {
+            Exception exception = e instanceof Exception ? (Exception) e : new RuntimeException(e);
+            return CompletableFuture.completedFuture(doTolerant(context, exception));
+        } catch (Exception exception) {
+            return CompletableFuture.failedFuture(exception);
+        }
+    }
 }
@@ -0,0 +1,65 @@
+package com.rpc.rpc_demo.fault.tolerant;
+
+import com.rpc.rpc_demo.RpcContext;
+import com.rpc.rpc_demo.communication.server.VertxTcpClient;
+import com.rpc.rpc_demo.fault.retry.RetryStrategy;
+import com.rpc.rpc_demo.fault.retry.RetryStrategyFactory;
+import com.rpc.rpc_demo.model.RpcRequest;
+import com.rpc.rpc_demo.model.RpcResponse;
+import com.rpc.rpc_demo.model.ServiceMetaData;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * @Description 容错策略共用的逻辑
+ * @Author veritas
+ * @Data 2025/3/10 10:05
+ */
+@Slf4j
+final class TolerantStrategySupport {
+    private TolerantStrategySupport() {
+    }
+
+    /**
+     * 异步地依次对其他服务实例发请求，前一个失败了才会去请求下一个，整个过程不占用调用线程
+     * 故障转移、故障恢复共用
+     *
+     * @param strategyName 容错策略的名字，用于日志
+     * @param context      上下文，用于传递数据
+     * @param e            异常
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    static CompletableFuture<RpcResponse> retryOtherServicesAsync(String strategyName, Map<String, Object> context, Throwable e) {
+        // 服务列表 用于容错策略
+        List<ServiceMetaData> serviceMetaDataList = (List<ServiceMetaData>) context.get(TolerantStrategyConstant.SERVICE_LIST);
+        // 当前正在调用的服务
+        ServiceMetaData currentServiceMetaData = (ServiceMetaData) context.get(TolerantStrategyConstant.CURRENT_SERVICE);
+        // rpc请求
+        RpcRequest rpcRequest = (RpcRequest) context.get(TolerantStrategyConstant.RPC_REQUEST);
+
+        if (serviceMetaDataList == null || serviceMetaDataList.isEmpty()) {
+            log.error("{} doTolerant metaInfos is empty", strategyName);
+            return CompletableFuture.completedFuture(null);
+        }
+        RetryStrategy retryStrategy = RetryStrategyFactory.getInstance(RpcContext.getRpcConfig().getRetryStrategy());
+        // 从一个失败的结果开始，每个其他服务实例都接在前一个的失败之后
+        CompletableFuture<RpcResponse> responseFuture = CompletableFuture.failedFuture(e);
+        for (ServiceMetaData serviceMetaData : serviceMetaDataList) {
+            if (serviceMetaData.equals(currentServiceMetaData)) {
+                continue;
+            }
+            responseFuture = responseFuture.exceptionallyCompose(exception -> {
+                log.warn("{} doTolerant try {}", strategyName, serviceMetaData.getServiceAddress());
+                // 通过重试策略 对当前的服务实例 发请求
+                return retryStrategy.doRetryAsync(() -> VertxTcpClient.doRequestAsync(rpcRequest, serviceMetaData));
+            });
+        }
+        // 所有服务都重试失败
+        return responseFuture.exceptionallyCompose(exception -> CompletableFuture.failedFuture(
+                new RuntimeException(strategyName + " doTolerant all retry fail", exception)));
+    }
+}
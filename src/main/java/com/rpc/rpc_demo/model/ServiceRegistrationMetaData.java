@@ -22,4 +22,14 @@ public class ServiceRegistrationMetaData<T> {
      * 服务实现类
      */
     private Class<? extends T> serviceImplementClass;
+
+    /**
+     * 执行模型 为空时使用全局配置，见 ExecutionModeIdentifier
+     */
+    private String executionMode;
+
+    public ServiceRegistrationMetaData(String serviceName, Class<? extends T> serviceImplementClass) {
+        this.serviceName = serviceName;
+        this.serviceImplementClass = serviceImplementClass;
+    }
 }
@@ -0,0 +1,52 @@
+package com.rpc.rpc_demo.proxy;
+
+import com.rpc.rpc_demo.model.RpcRequest;
+import com.rpc.rpc_demo.model.RpcResponse;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * @Description 泛化异步调用（服务消费者用）
+ * <pre>
+ * 不需要服务接口，直接通过 服务名 + 方法名 + 参数类型 + 参数 发起调用，返回 CompletableFuture，不占用调用线程
+ * eg:
+ *      GenericServiceInvoker.invokeAsync(UserService.class.getName(), "getUser",
+ *              new Class[]{User.class}, new Object[]{user})
+ *              .thenAccept(result -> ...);
+ * </pre>
+ * @Author veritas
+ * @Data 2025/3/10 16:02
+ */
+public class GenericServiceInvoker {
+
+    /**
+     * 异步调用，返回结果数据
+     *
+     * @param serviceName    服务名称（服务接口的全类名）
+     * @param methodName     方法名称
+     * @param parameterTypes 参数类型列表
+     * @param args           参数列表
+     * @param <T>            返回值类型
+     * @return
+     */
+    public static <T> CompletableFuture<T> invokeAsync(String serviceName, String methodName,
+                                                       Class<?>[] parameterTypes, Object[] args) {
+        RpcRequest rpcRequest = RpcRequest.builder()
+                .serviceName(serviceName)
+                .methodName(methodName)
+                .parameterTypes(parameterTypes)
+                .args(args)
+                .build();
+        return invokeAsync(rpcRequest).thenApply(rpcResponse -> (T) rpcResponse.getData());
+    }
+
+    /**
+     * 异步调用，返回完整的响应
+     *
+     * @param rpcRequest 请求
+     * @return
+     */
+    public static CompletableFuture<RpcResponse> invokeAsync(RpcRequest rpcRequest) {
+        return ServiceProxy.invokeAsync(rpcRequest);
+    }
+}
@@ -0,0 +1,176 @@
+package com.rpc.rpc_demo.proxy;
+
+import com.rpc.rpc_demo.communication.protocol.ProtocolMessageSerializerEnum;
+import com.rpc.rpc_demo.config.RpcConfig;
+import com.rpc.rpc_demo.constant.RpcConstant;
+import com.rpc.rpc_demo.fault.retry.RetryStrategy;
+import com.rpc.rpc_demo.fault.retry.RetryStrategyFactory;
+import com.rpc.rpc_demo.fault.tolerant.TolerantStrategy;
+import com.rpc.rpc_demo.fault.tolerant.TolerantStrategyFactory;
+import com.rpc.rpc_demo.loadbalancer.LoadBalancer;
+import com.rpc.rpc_demo.loadbalancer.LoadBalancerFactory;
+import com.rpc.rpc_demo.model.RpcRequest;
+import com.rpc.rpc_demo.model.ServiceMetaData;
+import com.rpc.rpc_demo.registry.Registry;
+import com.rpc.rpc_demo.registry.RegistryFactory;
+import com.rpc.rpc_demo.registry.ServiceMethodInvoker;
+import lombok.Getter;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * @Description 方法调用计划（服务消费者用）
+ * <pre>
+ * 每个接口方法在创建代理的时候就把调用需要的东西都准备好，而不是每次调用都重新计算：
+ *      服务键名 serviceName:serviceVersion（原来每次调用都要 new ServiceMetaData 再 String.format）
+ *      注册中心、负载均衡器、重试策略、容错策略、序列化器在消息头中的 key（原来每次调用都要去 SPILoader 的 map 里查）
+ *      参数类型列表（Method.getParameterTypes() 每次调用都会复制一份数组）
+ *      负载均衡的请求参数（原来每次调用都要 new HashMap）
+ *      返回值是不是异步结果、流式响应，有没有流式参数
+ * 这样每次调用只剩下：封装参数、负载均衡选择服务实例、发送请求
+ * 调用计划创建好之后不会再修改，可以被多个线程共享
+ * </pre>
+ * @Author veritas
+ * @Data 2025/3/11 10:05
+ */
+@Getter
+public class MethodInvocationPlan {
+    /**
+     * 服务名称（服务接口的全类名）
+     */
+    private final String serviceName;
+
+    /**
+     * 方法名称
+     */
+    private final String methodName;
+
+    /**
+     * 参数类型列表，所有请求共享同一个数组，不能修改
+     */
+    private final Class<?>[] parameterTypes;
+
+    /**
+     * 服务键名 serviceName:serviceVersion
+     */
+    private final String serviceIdentifier;
+
+    /**
+     * 方法的返回值是不是 CompletableFuture / CompletionStage
+     */
+    private final boolean async;
+
+    /**
+     * 流式响应的返回值类型 Iterator / Stream / Flow.Publisher，不是流式响应时为 null
+     */
+    private final Class<?> streamType;
+
+    /**
+     * 流式参数的下标，-1 表示没有流式参数
+     */
+    private final int streamArgIndex;
+
+    /**
+     * 流式响应的信用窗口
+     */
+    private final int streamWindow;
+
+    /**
+     * 负载均衡的请求参数，不可修改
+     */
+    private final Map<String, Object> requestParams;
+
+    /**
+     * 注册中心
+     */
+    private final Registry registry;
+
+    /**
+     * 负载均衡器
+     */
+    private final LoadBalancer loadBalancer;
+
+    /**
+     * 重试策略
+     */
+    private final RetryStrategy retryStrategy;
+
+    /**
+     * 容错策略
+     */
+    private final TolerantStrategy tolerantStrategy;
+
+    /**
+     * 序列化器在协议消息头中的 key
+     */
+    private final byte serializerKey;
+
+    private MethodInvocationPlan(String serviceName, String methodName, Class<?>[] parameterTypes,
+                                 boolean async, Class<?> streamType, RpcConfig rpcConfig) {
+        this.serviceName = serviceName;
+        this.methodName = methodName;
+        this.parameterTypes = parameterTypes;
+        this.async = async;
+        this.streamType = streamType;
+        this.streamArgIndex = ServiceMethodInvoker.streamArgIndex(parameterTypes);
+        this.streamWindow = rpcConfig.getStreamWindow();
+        ServiceMetaData serviceMetaData = new ServiceMetaData();
+        serviceMetaData.setServiceName(serviceName);
+        serviceMetaData.setServiceVersion(RpcConstant.DEFAULT_SERVICE_VERSION);
+        this.serviceIdentifier = serviceMetaData.getServiceIdentifier();
+        this.requestParams = Collections.singletonMap("methodName", methodName);
+        this.registry = RegistryFactory.getInstance(rpcConfig.getRegistryConfig().getRegistry());
+        this.loadBalancer = LoadBalancerFactory.getInstance(rpcConfig.getLoadBalancer());
+        this.retryStrategy = RetryStrategyFactory.getInstance(rpcConfig.getRetryStrategy());
+        this.tolerantStrategy = TolerantStrategyFactory.getInstance(rpcConfig.getTolerantStrategy());
+        ProtocolMessageSerializerEnum serializerEnum = ProtocolMessageSerializerEnum.getEnumByValue(rpcConfig.getSerializer());
+        if (serializerEnum == null) {
+            throw new RuntimeException("没有对应的序列化器:" + rpcConfig.getSerializer());
+        }
+        this.serializerKey = (byte) serializerEnum.getKey();
+    }
+
+    /**
+     * 根据接口方法创建调用计划
+     *
+     * @param method    接口方法
+     * @param rpcConfig 全局配置
+     * @return
+     */
+    public static MethodInvocationPlan of(Method method, RpcConfig rpcConfig) {
+        return new MethodInvocationPlan(
+                method.getDeclaringClass().getName(),
+                method.getName(),
+                method.getParameterTypes(),
+                CompletionStage.class.isAssignableFrom(method.getReturnType()),
+                ServiceMethodInvoker.isStreamType(method.getReturnType()) ? method.getReturnType() : null,
+                rpcConfig);
+    }
+
+    /**
+     * 泛化调用没有接口方法，根据 服务名 + 方法名 + 参数类型 创建调用计划
+     *
+     * @param serviceName    服务名称
+     * @param methodName     方法名称
+     * @param parameterTypes 参数类型列表
+     * @param rpcConfig      全局配置
+     * @return
+     */
+    public static MethodInvocationPlan of(String serviceName, String methodName, Class<?>[] parameterTypes,
+                                          RpcConfig rpcConfig) {
+        return new MethodInvocationPlan(serviceName, methodName, parameterTypes, true, null, rpcConfig);
+    }
+
+    /**
+     * 构造请求，只需要填入本次调用的参数
+     *
+     * @param args 参数列表
+     * @return
+     */
+    public RpcRequest newRequest(Object[] args) {
+        return new RpcRequest(serviceName, methodName, parameterTypes, args, RpcConstant.DEFAULT_SERVICE_VERSION);
+    }
+}
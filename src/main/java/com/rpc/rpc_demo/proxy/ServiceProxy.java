@@ -2,86 +2,229 @@ package com.rpc.rpc_demo.proxy;
 
 import cn.hutool.core.collection.CollUtil;
 import com.rpc.rpc_demo.RpcContext;
+import com.rpc.rpc_demo.communication.server.ClientStream;
+import com.rpc.rpc_demo.communication.server.StreamIterator;
 import com.rpc.rpc_demo.communication.server.VertxTcpClient;
 import com.rpc.rpc_demo.config.RpcConfig;
-import com.rpc.rpc_demo.constant.RpcConstant;
 import com.rpc.rpc_demo.constant.TolerantStrategyConstant;
-import com.rpc.rpc_demo.fault.retry.RetryStrategy;
-import com.rpc.rpc_demo.fault.retry.RetryStrategyFactory;
-import com.rpc.rpc_demo.fault.tolerant.TolerantStrategy;
-import com.rpc.rpc_demo.fault.tolerant.TolerantStrategyFactory;
-import com.rpc.rpc_demo.loadbalancer.LoadBalancer;
-import com.rpc.rpc_demo.loadbalancer.LoadBalancerFactory;
 import com.rpc.rpc_demo.model.RpcRequest;
 import com.rpc.rpc_demo.model.RpcResponse;
 import com.rpc.rpc_demo.model.ServiceMetaData;
-import com.rpc.rpc_demo.registry.Registry;
-import com.rpc.rpc_demo.registry.RegistryFactory;
-import com.rpc.rpc_demo.serializer.Serializer;
-import com.rpc.rpc_demo.serializer.factory.SerializerFactory;
 
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.stream.BaseStream;
 
 /**
  * @Description 请求发送（服务消费者）
+ * <pre>
+ * 整个调用链路（服务发现 -> 负载均衡 -> 发请求 -> 重试 -> 容错）都是异步的，见 invokeAsync
+ * 如果接口方法的返回值是 CompletableFuture（或 CompletionStage），直接把异步结果返回给调用方，不占用调用线程；
+ * 否则在调用线程上等待结果
+ * 返回值是 Iterator / Stream / Flow.Publisher 的方法是流式响应，元素按信用逐个从服务端拉取，见 ClientStream、StreamIterator
+ * 有 Iterator / Stream / Flow.Publisher 类型参数的方法是流式请求（客户端流），参数不随请求一起序列化，
+ *      请求发出之后按服务端的信用逐个上传，内存占用和参数的元素个数无关；两者都有就是双向流
+ * 创建代理的时候就为接口的每个方法准备好调用计划 MethodInvocationPlan，每次调用只需要取出来用
+ * </pre>
  * @Author veritas
  * @Data 2025/3/9 18:06
  */
 public class ServiceProxy  implements InvocationHandler {
-    // 指定序列化器
-    final Serializer serializer = SerializerFactory.getInstance(RpcContext.getRpcConfig().getSerializer());
+    /**
+     * 服务接口
+     */
+    private final Class<?> serviceClass;
+
+    /**
+     * 接口方法 -> 调用计划，创建之后只读
+     */
+    private final Map<Method, MethodInvocationPlan> invocationPlanMap;
+
+    public ServiceProxy(Class<?> serviceClass) {
+        this.serviceClass = serviceClass;
+        RpcConfig rpcConfig = RpcContext.getRpcConfig();
+        Map<Method, MethodInvocationPlan> planMap = new HashMap<>();
+        for (Method method : serviceClass.getMethods()) {
+            planMap.put(method, MethodInvocationPlan.of(method, rpcConfig));
+        }
+        this.invocationPlanMap = planMap;
+    }
+
     @Override
     public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        MethodInvocationPlan plan = invocationPlanMap.get(method);
+        if (plan == null) {
+            // 不是服务接口的方法（toString、hashCode、equals），不需要远程调用
+            return invokeObjectMethod(proxy, method, args);
+        }
+        // 流式参数不放进请求，请求发出之后再逐个上传
+        int streamArgIndex = plan.getStreamArgIndex();
+        Object uploadSource = null;
+        if (streamArgIndex >= 0) {
+            uploadSource = args[streamArgIndex];
+            args = args.clone();
+            args[streamArgIndex] = null;
+        }
         // 1.构造请求
-        RpcRequest rpcRequest = RpcRequest.builder()
-                .serviceName(method.getDeclaringClass().getName())
-                .methodName(method.getName())
-                .parameterTypes(method.getParameterTypes())
-                .args(args)
-                .build();
+        RpcRequest rpcRequest = plan.newRequest(args);
 
+        // 流式响应：不等待结果，返回的 Iterator / Stream / Flow.Publisher 在读取时逐个拉取元素
+        if (plan.getStreamType() != null) {
+            return invokeStream(plan, rpcRequest, uploadSource);
+        }
+        CompletableFuture<RpcResponse> responseFuture = streamArgIndex >= 0
+                ? invokeUpload(plan, rpcRequest, uploadSource)
+                : invokeAsync(plan, rpcRequest);
+        // 异步方法：直接返回，由调用方决定如何等待结果
+        if (plan.isAsync()) {
+            return responseFuture.thenApply(RpcResponse::getData);
+        }
+        // 同步方法：在调用线程上等待结果
+        try {
+            return responseFuture.get().getData();
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    /**
+     * 异步调用，没有调用计划时（泛化调用）临时创建一个
+     *
+     * @param rpcRequest 请求
+     * @return 响应
+     */
+    public static CompletableFuture<RpcResponse> invokeAsync(RpcRequest rpcRequest) {
+        MethodInvocationPlan plan;
+        try {
+            plan = MethodInvocationPlan.of(rpcRequest.getServiceName(), rpcRequest.getMethodName(),
+                    rpcRequest.getParameterTypes(), RpcContext.getRpcConfig());
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return invokeAsync(plan, rpcRequest);
+    }
+
+    /**
+     * 异步调用，服务发现、负载均衡之后发送请求，重试和容错都作为异步的阶段串起来，不占用调用线程
+     *
+     * @param plan       调用计划
+     * @param rpcRequest 请求
+     * @return 响应
+     */
+    static CompletableFuture<RpcResponse> invokeAsync(MethodInvocationPlan plan, RpcRequest rpcRequest) {
         // 2.从注册中心获取 服务提供者的请求地址
-        // 从上下文拿到核心配置
-        RpcConfig rpcConfig = RpcContext.getRpcConfig();
-        // 获取注册中心
-        Registry registry = RegistryFactory.getInstance(rpcConfig.getRegistryConfig().getRegistry());
-        ServiceMetaData serviceMetaData = new ServiceMetaData();
-        // 构造请求
-        // 这里服务名就是方法名字
-        String serviceName = method.getDeclaringClass().getName();
-        serviceMetaData.setServiceName(serviceName);
-        serviceMetaData.setServiceVersion(RpcConstant.DEFAULT_SERVICE_VERSION);
         // 找到 服务实例 列表
-        List<ServiceMetaData> serviceMetaDataList = registry.serviceDiscovery(serviceMetaData.getServiceIdentifier());
+        List<ServiceMetaData> serviceMetaDataList;
+        try {
+            serviceMetaDataList = plan.getRegistry().serviceDiscovery(plan.getServiceIdentifier());
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
         if (CollUtil.isEmpty(serviceMetaDataList)) {
-            throw new RuntimeException("暂无可用服务提供者");
+            return CompletableFuture.failedFuture(new RuntimeException("暂无可用服务提供者"));
         }
         // 3.负载均衡
-        LoadBalancer loadBalancer = LoadBalancerFactory.getInstance(rpcConfig.getLoadBalancer());
-        HashMap<String, Object> requestParams = new HashMap<>();
-        requestParams.put("methodName", rpcRequest.getMethodName());
-        ServiceMetaData metaData = loadBalancer.select(requestParams, serviceMetaDataList);
+        ServiceMetaData metaData = plan.getLoadBalancer().select(plan.getRequestParams(), serviceMetaDataList);
 
         // 发送TCP请求 (使用重试策略)
-        RpcResponse response ;
+        byte serializerKey = plan.getSerializerKey();
+        return plan.getRetryStrategy()
+                .doRetryAsync(() -> VertxTcpClient.doRequestAsync(rpcRequest, metaData, serializerKey))
+                .exceptionallyCompose(e -> {
+                    // 构造上下文
+                    Map<String, Object> context = new HashMap<>();
+                    context.put(TolerantStrategyConstant.SERVICE_LIST, serviceMetaDataList);
+                    context.put(TolerantStrategyConstant.CURRENT_SERVICE, metaData);
+                    context.put(TolerantStrategyConstant.RPC_REQUEST, rpcRequest);
+                    return plan.getTolerantStrategy().doTolerantAsync(context, unwrap(e));
+                });
+    }
+
+    /**
+     * 流式请求（客户端流）：服务发现、负载均衡之后发送请求并上传流式参数
+     * 流式参数只能读一次，所以不做重试和容错
+     *
+     * @param plan         调用计划
+     * @param rpcRequest   请求，流式参数的位置为 null
+     * @param uploadSource 流式参数
+     * @return 响应
+     */
+    private static CompletableFuture<RpcResponse> invokeUpload(MethodInvocationPlan plan, RpcRequest rpcRequest,
+                                                               Object uploadSource) {
+        ServiceMetaData metaData;
         try {
-            RetryStrategy retryStrategy = RetryStrategyFactory.getInstance(rpcConfig.getRetryStrategy());
-            response = retryStrategy.doRetry(() -> {
-                return VertxTcpClient.doRequest(rpcRequest, metaData);
-            });
+            metaData = selectProvider(plan);
         } catch (Exception e) {
-            TolerantStrategy strategy = TolerantStrategyFactory.getInstance(rpcConfig.getTolerantStrategy());
-            // 构造上下文
-            Map<String, Object> context = new HashMap<>();
-            context.put(TolerantStrategyConstant.SERVICE_LIST, serviceMetaDataList);
-            context.put(TolerantStrategyConstant.CURRENT_SERVICE, metaData);
-            context.put(TolerantStrategyConstant.RPC_REQUEST, rpcRequest);
-            response = strategy.doTolerant(context, e);
+            return CompletableFuture.failedFuture(e);
+        }
+        return VertxTcpClient.doUploadAsync(rpcRequest, metaData, plan.getSerializerKey(), uploadSource);
+    }
+
+    /**
+     * 流式调用：服务发现、负载均衡之后打开一个流式响应，按接口方法的返回值类型包装
+     * 流式响应已经发出去的元素不能撤回，所以不做重试和容错
+     *
+     * @param plan         调用计划
+     * @param rpcRequest   请求
+     * @param uploadSource 流式参数（双向流），没有时为 null
+     * @return Iterator / Stream / Flow.Publisher
+     */
+    private static Object invokeStream(MethodInvocationPlan plan, RpcRequest rpcRequest, Object uploadSource) {
+        ServiceMetaData metaData = selectProvider(plan);
+        ClientStream clientStream = VertxTcpClient.openStream(rpcRequest, metaData, plan.getSerializerKey(),
+                uploadSource);
+        Class<?> streamType = plan.getStreamType();
+        if (Flow.Publisher.class.isAssignableFrom(streamType)) {
+            return clientStream;
+        }
+        StreamIterator<Object> streamIterator = new StreamIterator<>(clientStream, plan.getStreamWindow());
+        if (BaseStream.class.isAssignableFrom(streamType)) {
+            return streamIterator.stream();
+        }
+        return streamIterator;
+    }
+
+    /**
+     * 服务发现 + 负载均衡，选出一个服务提供者
+     */
+    private static ServiceMetaData selectProvider(MethodInvocationPlan plan) {
+        List<ServiceMetaData> serviceMetaDataList = plan.getRegistry().serviceDiscovery(plan.getServiceIdentifier());
+        if (CollUtil.isEmpty(serviceMetaDataList)) {
+            throw new RuntimeException("暂无可用服务提供者");
+        }
+        return plan.getLoadBalancer().select(plan.getRequestParams(), serviceMetaDataList);
+    }
+
+    /**
+     * Object 中声明的方法在本地处理
+     */
+    private Object invokeObjectMethod(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return "ServiceProxy(" + serviceClass.getName() + ")";
+            default:
+                throw new UnsupportedOperationException(method.toString());
+        }
+    }
+
+    /**
+     * 去掉 CompletableFuture 包装的异常，拿到真正的异常
+     */
+    private static Throwable unwrap(Throwable e) {
+        while ((e instanceof CompletionException || e instanceof ExecutionException) && e.getCause() != null) {
+            e = e.getCause();
         }
-        return response.getData();
+        return e;
     }
 }
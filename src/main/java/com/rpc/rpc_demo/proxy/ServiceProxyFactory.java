@@ -40,6 +40,6 @@ public class ServiceProxyFactory {
             return getMockProxy(serviceClass);
         }
         return (T) Proxy.newProxyInstance(serviceClass.getClassLoader(),
-                new Class[]{serviceClass}, new ServiceProxy());
+                new Class[]{serviceClass}, new ServiceProxy(serviceClass));
     }
 }
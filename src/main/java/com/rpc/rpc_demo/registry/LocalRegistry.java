@@ -1,26 +1,110 @@
 package com.rpc.rpc_demo.registry;
 
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author jiahao.liu
- * @description
+ * @description 本地注册中心（服务提供者用）
+ * 保存的是服务的单例实例和方法分派表 LocalService，处理请求时直接查表调用，不需要每次反射查找方法、创建实例
+ * 注册时还会给每个方法分配一个方法 ID，紧凑格式的请求直接按 ID 找到调用器，见 MethodTable
+ *      同一个方法（方法键名相同）重新注册之后 ID 不变，客户端已经拿到的方法 ID 表仍然有效
+ *      重新注册一个服务时先清掉旧的服务所有方法的调用器，新的服务中没有的方法不会再调用到旧的实例
  * @date 2025/03/08 17:49
  */
 public class LocalRegistry {
     /**
      * 注册信息存储
      */
-    private static final Map<String, Class<?>> map = new ConcurrentHashMap<>();
+    private static final Map<String, LocalService> map = new ConcurrentHashMap<>();
 
     /**
-     * 注册服务
+     * 方法键名 -> 方法 ID，只在注册时（加锁）修改
+     */
+    private static final Map<String, Integer> methodIdMap = new HashMap<>();
+
+    /**
+     * 方法 ID -> 调用器，写时复制，读的时候不加锁
+     */
+    private static volatile ServiceMethodInvoker[] invokers = new ServiceMethodInvoker[0];
+
+    /**
+     * 方法 ID 表 方法键名 -> 方法 ID，握手时发给客户端，注册时重新生成
+     */
+    private static volatile Map<String, Integer> methodTable = new HashMap<>();
+
+    /**
+     * 注册服务 由框架创建服务实例（实现类需要有无参构造器）
      * @param serviceName
      * @param implClass
      */
     public static void register(String serviceName,Class<?> implClass){
-        map.put(serviceName,implClass);
+        register(serviceName, implClass, null);
+    }
+
+    /**
+     * 注册服务 由框架创建服务实例，并指定执行模型
+     * @param serviceName
+     * @param implClass
+     * @param executionMode 执行模型 为空时使用全局配置
+     */
+    public static void register(String serviceName,Class<?> implClass,String executionMode){
+        Object serviceInstance;
+        try {
+            serviceInstance = implClass.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException("服务实例化失败:" + implClass.getName(), e);
+        }
+        register(serviceName, serviceInstance, executionMode);
+    }
+
+    /**
+     * 注册服务 使用已经创建好的服务实例（比如 Spring 的 Bean）
+     * @param serviceName
+     * @param serviceInstance
+     */
+    public static void register(String serviceName,Object serviceInstance){
+        register(serviceName, serviceInstance, null);
+    }
+
+    /**
+     * 注册服务 使用已经创建好的服务实例，并指定执行模型
+     * @param serviceName
+     * @param serviceInstance
+     * @param executionMode 执行模型 为空时使用全局配置
+     */
+    public static void register(String serviceName,Object serviceInstance,String executionMode){
+        register(serviceName, null, serviceInstance, executionMode);
+    }
+
+    /**
+     * 注册服务 使用已经创建好的服务实例，并指定服务接口：只有服务接口中的方法对外提供
+     * @param serviceName
+     * @param serviceInterface 服务接口 为空时按服务名称在实例实现的接口中查找，见 LocalService
+     * @param serviceInstance
+     * @param executionMode 执行模型 为空时使用全局配置
+     */
+    public static void register(String serviceName,Class<?> serviceInterface,Object serviceInstance,String executionMode){
+        LocalService localService = new LocalService(serviceName, serviceInterface, serviceInstance, executionMode);
+        synchronized (LocalRegistry.class) {
+            LocalService previous = map.put(serviceName, localService);
+            ServiceMethodInvoker[] newInvokers = invokers.clone();
+            if (previous != null) {
+                // 重新注册，旧的服务的方法先全部清掉，新的服务中没有的方法不能再调用到旧的实例
+                clearInvokers(newInvokers, previous);
+            }
+            for (ServiceMethodInvoker invoker : localService.getInvokers()) {
+                int methodId = methodIdMap.computeIfAbsent(invoker.getMethodKey(), key -> methodIdMap.size());
+                if (methodId >= newInvokers.length) {
+                    newInvokers = Arrays.copyOf(newInvokers, methodId + 1);
+                }
+                newInvokers[methodId] = invoker;
+            }
+            invokers = newInvokers;
+            rebuildMethodTable();
+        }
     }
 
     /**
@@ -28,7 +112,7 @@ public class LocalRegistry {
      * @param serviceName
      * @return
      */
-    public static Class<?> get (String serviceName){
+    public static LocalService get (String serviceName){
         return map.get(serviceName);
     }
 
@@ -37,6 +121,54 @@ public class LocalRegistry {
      * @param serviceName
      */
     public static void remove(String serviceName){
-        map.remove(serviceName);
+        synchronized (LocalRegistry.class) {
+            LocalService localService = map.remove(serviceName);
+            if (localService == null) {
+                return;
+            }
+            // 方法 ID 保留，重新注册时复用
+            ServiceMethodInvoker[] newInvokers = invokers.clone();
+            clearInvokers(newInvokers, localService);
+            invokers = newInvokers;
+            rebuildMethodTable();
+        }
+    }
+
+    /**
+     * 根据方法 ID 获取调用器
+     * @param methodId
+     * @return 找不到时返回 null
+     */
+    public static ServiceMethodInvoker getInvoker(int methodId){
+        ServiceMethodInvoker[] current = invokers;
+        return methodId >= 0 && methodId < current.length ? current[methodId] : null;
+    }
+
+    /**
+     * 获取方法 ID 表 方法键名 -> 方法 ID，只包含当前已注册的方法，返回的 Map 不能修改
+     * @return
+     */
+    public static Map<String, Integer> getMethodTable(){
+        return methodTable;
+    }
+
+    /**
+     * 清掉一个服务所有方法的调用器
+     */
+    private static void clearInvokers(ServiceMethodInvoker[] newInvokers, LocalService localService) {
+        for (ServiceMethodInvoker invoker : localService.getInvokers()) {
+            newInvokers[methodIdMap.get(invoker.getMethodKey())] = null;
+        }
+    }
+
+    private static void rebuildMethodTable() {
+        Map<String, Integer> table = new HashMap<>();
+        ServiceMethodInvoker[] current = invokers;
+        methodIdMap.forEach((methodKey, methodId) -> {
+            if (methodId < current.length && current[methodId] != null) {
+                table.put(methodKey, methodId);
+            }
+        });
+        methodTable = table;
     }
 }
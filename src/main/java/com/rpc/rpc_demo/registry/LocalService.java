@@ -0,0 +1,147 @@
+package com.rpc.rpc_demo.registry;
+
+import lombok.Getter;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @Description 本地注册的服务（服务提供者用）
+ * <pre>
+ * 一个服务只有一个实例，所有请求共用；注册的时候就把服务接口中所有方法的调用器准备好
+ * 扫描的是服务接口（名字等于服务名称的接口），不是实例的类：
+ *      Spring 的 CGLIB 代理类会多出 setCallbacks 之类的 public 方法，实现类自己也可能有不属于服务的 public 方法，这些方法都不对外提供
+ *      找不到服务接口时（服务名称不是接口名）退回到实例的类，CGLIB 代理类换成被代理的类
+ * 分派表：方法名 -> 同名方法的调用器列表（重载的方法通过参数类型区分）
+ * 创建之后不会再修改，可以被多个线程共享
+ * </pre>
+ * @Author veritas
+ * @Data 2025/3/11 14:25
+ */
+public class LocalService {
+    /**
+     * CGLIB 代理类名中的分隔符，比如 UserServiceImpl$$SpringCGLIB$$0
+     */
+    private static final String CGLIB_CLASS_SEPARATOR = "$$";
+
+    /**
+     * 服务名称
+     */
+    @Getter
+    private final String serviceName;
+
+    /**
+     * 服务实例
+     */
+    @Getter
+    private final Object serviceInstance;
+
+    /**
+     * 执行模型 为空时使用全局配置
+     */
+    @Getter
+    private final String executionMode;
+
+    /**
+     * 分派表 方法名 -> 调用器列表
+     */
+    private final Map<String, List<ServiceMethodInvoker>> invokerMap;
+
+    /**
+     * @param serviceName      服务名称
+     * @param serviceInterface 服务接口，为 null 时按服务名称在实例实现的接口中查找
+     * @param serviceInstance  服务实例
+     * @param executionMode    执行模型 为空时使用全局配置
+     */
+    LocalService(String serviceName, Class<?> serviceInterface, Object serviceInstance, String executionMode) {
+        this.serviceName = serviceName;
+        this.serviceInstance = serviceInstance;
+        this.executionMode = executionMode;
+        Class<?> serviceType = serviceInterface != null ? serviceInterface : resolveServiceType(serviceName,
+                serviceInstance.getClass());
+        if (!serviceType.isInstance(serviceInstance)) {
+            throw new RuntimeException("服务实例没有实现服务接口:" + serviceType.getName());
+        }
+        Map<String, List<ServiceMethodInvoker>> map = new HashMap<>();
+        for (Method method : serviceType.getMethods()) {
+            // Object 的方法 和 静态方法 不对外提供
+            if (method.getDeclaringClass() == Object.class || Modifier.isStatic(method.getModifiers())) {
+                continue;
+            }
+            try {
+                map.computeIfAbsent(method.getName(), key -> new ArrayList<>(1))
+                        .add(new ServiceMethodInvoker(serviceName, executionMode, serviceInstance, method));
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException("服务方法无法访问:" + method, e);
+            }
+        }
+        map.replaceAll((methodName, invokers) -> Collections.unmodifiableList(invokers));
+        this.invokerMap = map;
+    }
+
+    /**
+     * 要扫描的类型：实例的类及其父类实现的接口中，名字等于服务名称的那个；没有时是实例的类，CGLIB 代理类换成被代理的类
+     */
+    private static Class<?> resolveServiceType(String serviceName, Class<?> instanceClass) {
+        for (Class<?> type = instanceClass; type != null; type = type.getSuperclass()) {
+            Class<?> serviceInterface = findInterface(serviceName, type.getInterfaces());
+            if (serviceInterface != null) {
+                return serviceInterface;
+            }
+        }
+        Class<?> userClass = instanceClass;
+        while (userClass.getName().contains(CGLIB_CLASS_SEPARATOR) && userClass.getSuperclass() != Object.class) {
+            userClass = userClass.getSuperclass();
+        }
+        return userClass;
+    }
+
+    private static Class<?> findInterface(String serviceName, Class<?>[] interfaces) {
+        for (Class<?> anInterface : interfaces) {
+            if (anInterface.getName().equals(serviceName)) {
+                return anInterface;
+            }
+            Class<?> found = findInterface(serviceName, anInterface.getInterfaces());
+            if (found != null) {
+                return found;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 所有方法的调用器
+     */
+    public List<ServiceMethodInvoker> getInvokers() {
+        List<ServiceMethodInvoker> invokers = new ArrayList<>();
+        invokerMap.values().forEach(invokers::addAll);
+        return invokers;
+    }
+
+    /**
+     * 找到要调用的方法
+     *
+     * @param methodName     方法名称
+     * @param parameterTypes 参数类型列表
+     * @return 找不到时返回 null
+     */
+    public ServiceMethodInvoker getInvoker(String methodName, Class<?>[] parameterTypes) {
+        List<ServiceMethodInvoker> invokers = invokerMap.get(methodName);
+        if (invokers == null) {
+            return null;
+        }
+        Class<?>[] types = parameterTypes == null ? new Class<?>[0] : parameterTypes;
+        for (ServiceMethodInvoker invoker : invokers) {
+            if (Arrays.equals(invoker.getParameterTypes(), types)) {
+                return invoker;
+            }
+        }
+        return null;
+    }
+}
@@ -1,49 +1,278 @@
 package com.rpc.rpc_demo.registry;
 
+import cn.hutool.core.util.StrUtil;
+import com.rpc.rpc_demo.config.RegistryConfig;
 import com.rpc.rpc_demo.model.ServiceMetaData;
+import lombok.extern.slf4j.Slf4j;
 
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
 
 /**
  * @author jiahao.liu
  * @description
+ * 每个服务标识对应一个不可变的实例列表快照 ServiceInstanceSnapshot，读缓存只是读一次引用，不加锁
+ * 注册中心的变更通过 apply 以增量的方式生成新的快照，只影响这一个服务，其他服务的缓存不受影响
+ * 除了和注册中心保持同步的快照，还保存每个服务最后一次知道的快照（lastKnown），注册中心不可用时用它兜底：
+ *      lastKnown 不会因为 watch 出错、clearCache 而丢掉，开启持久化时还会写到本地文件，启动时读回来，见 RegistrySnapshotStore
+ *      lastKnown 记录最后一次和注册中心确认的时间，超过 RegistryConfig.lastKnownMaxAge 之后不再用来兜底
+ *      服务发现的公共流程见 discover
  * @date 2025/03/08 17:54
  */
+@Slf4j
 public class RegisteredServiceCache {
+    /**
+     * 用 lastKnown 兜底时，两次后台同步之间的最小间隔
+     */
+    private static final long RECONCILE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(3);
+
+    /**
+     * 后台和注册中心同步的线程，所有注册中心共用
+     */
+    private static final ExecutorService RECONCILER = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "rpc-registry-reconcile");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     /**
      * 服务缓存
-     * key = ServiceNodeIdentifier
-     * 缓存多个服务的信息：Key 为服务标识，Value 为对应的服务列表
+     * 缓存多个服务的信息：Key 为服务标识，Value 为对应的服务实例快照
+     */
+    private final Map<String, ServiceInstanceSnapshot> serviceCache = new ConcurrentHashMap<>();
+
+    /**
+     * 每个服务最后一次知道的快照：服务标识 -> 快照
+     */
+    private final Map<String, ServiceInstanceSnapshot> lastKnownCache = new ConcurrentHashMap<>();
+
+    /**
+     * 服务标识 -> lastKnown 最后一次和注册中心确认的时间 System.currentTimeMillis()
+     * 还在 serviceCache 中（和注册中心保持同步）的服务，确认时间就是现在
+     */
+    private final Map<String, Long> lastKnownTimes = new ConcurrentHashMap<>();
+
+    /**
+     * 已经提示过在用 lastKnown 兜底的服务，重新和注册中心同步之后去掉，避免每次服务发现都打日志
+     */
+    private final Set<String> staleWarnedServices = ConcurrentHashMap.newKeySet();
+
+    /**
+     * lastKnown 最多能用多久 ms，小于等于 0 时不限制
+     */
+    private volatile long lastKnownMaxAge;
+
+    /**
+     * 服务标识 -> 最近一次后台同步的时间 System.nanoTime()
+     */
+    private final Map<String, Long> reconcileTimes = new ConcurrentHashMap<>();
+
+    /**
+     * 快照文件，没有开启持久化时为 null
+     */
+    private volatile RegistrySnapshotStore snapshotStore;
+
+    /**
+     * 注册中心初始化时调用
+     * 开启持久化：读取快照文件作为 lastKnown（已经过期的不要），之后服务列表的变化都会写回文件
+     * RegistryConfig.snapshotFile 为空时不开启
+     *
+     * @param registryConfig 注册中心配置
+     */
+    public void init(RegistryConfig registryConfig) {
+        lastKnownMaxAge = registryConfig.getLastKnownMaxAge();
+        if (StrUtil.isBlank(registryConfig.getSnapshotFile())) {
+            return;
+        }
+        RegistrySnapshotStore store = new RegistrySnapshotStore(Path.of(registryConfig.getSnapshotFile()),
+                registryConfig.getRegistry() + "@" + registryConfig.getAddress());
+        store.load().forEach((serviceIdentifier, savedService) -> {
+            if (!isExpired(savedService.getUpdateTime())
+                    && lastKnownCache.putIfAbsent(serviceIdentifier, savedService.getSnapshot()) == null) {
+                lastKnownTimes.put(serviceIdentifier, savedService.getUpdateTime());
+            }
+        });
+        snapshotStore = store;
+    }
+
+    /**
+     * 服务发现的公共流程
+     * 1. 有和注册中心同步的快照，直接返回
+     * 2. 没有，但是有不为空、没有过期的 lastKnown（启动时从文件读回来的、注册中心断开之前的），先返回 lastKnown，后台再和注册中心同步，
+     *      注册中心不可用时一直用 lastKnown，每隔 RECONCILE_INTERVAL_NANOS 最多重试一次，每个服务只提示一次
+     * 3. 都没有，在当前线程上加载，加载失败时抛出异常
+     *
+     * @param serviceIdentifier 服务标识
+     * @param loader            从注册中心加载一个服务，加载成功时通过 writeSnapshot 写入快照，失败时抛出异常
+     * @return 服务列表，不可修改
+     */
+    public List<ServiceMetaData> discover(String serviceIdentifier, Consumer<String> loader) {
+        ServiceInstanceSnapshot snapshot = serviceCache.get(serviceIdentifier);
+        if (snapshot != null) {
+            return snapshot.getInstances();
+        }
+        ServiceInstanceSnapshot lastKnown = lastKnownCache.get(serviceIdentifier);
+        if (lastKnown != null && lastKnown.size() > 0) {
+            long updateTime = lastKnownTimes.getOrDefault(serviceIdentifier, System.currentTimeMillis());
+            if (!isExpired(updateTime)) {
+                if (staleWarnedServices.add(serviceIdentifier)) {
+                    log.warn("Registry snapshot of {} not available, use last known instances updated {} ms ago",
+                            serviceIdentifier, System.currentTimeMillis() - updateTime);
+                }
+                reconcileLater(serviceIdentifier, loader);
+                return lastKnown.getInstances();
+            }
+            if (staleWarnedServices.add(serviceIdentifier)) {
+                log.warn("Last known instances of {} updated {} ms ago expired, load from registry",
+                        serviceIdentifier, System.currentTimeMillis() - updateTime);
+            }
+        }
+        loader.accept(serviceIdentifier);
+        snapshot = serviceCache.get(serviceIdentifier);
+        return snapshot == null ? List.of() : snapshot.getInstances();
+    }
+
+    /**
+     * 在后台和注册中心同步一个服务，同一个服务同一时间段内只同步一次
      */
-    private Map<String, List<ServiceMetaData>> serviceCache = new ConcurrentHashMap<>();
+    private void reconcileLater(String serviceIdentifier, Consumer<String> loader) {
+        long now = System.nanoTime();
+        Long previous = reconcileTimes.get(serviceIdentifier);
+        if (previous != null && now - previous < RECONCILE_INTERVAL_NANOS) {
+            return;
+        }
+        boolean acquired = previous == null
+                ? reconcileTimes.putIfAbsent(serviceIdentifier, now) == null
+                : reconcileTimes.replace(serviceIdentifier, previous, now);
+        if (!acquired) {
+            return;
+        }
+        RECONCILER.execute(() -> {
+            try {
+                loader.accept(serviceIdentifier);
+            } catch (Exception e) {
+                log.warn("Registry unavailable for {}, keep using last known instances", serviceIdentifier, e);
+            }
+        });
+    }
 
     /**
      * 写缓存：保存指定服务标识的服务列表
      */
     public void writeCache(String serviceIdentifier, List<ServiceMetaData> newServiceCache) {
-        serviceCache.put(serviceIdentifier, newServiceCache);
+        Map<String, ServiceMetaData> nodes = new LinkedHashMap<>();
+        for (ServiceMetaData serviceMetaData : newServiceCache) {
+            nodes.put(serviceMetaData.getServiceNodeIdentifier(), serviceMetaData);
+        }
+        writeSnapshot(serviceIdentifier, ServiceInstanceSnapshot.of(0, nodes));
     }
 
     /**
-     * 读缓存：获取指定服务标识的服务列表
+     * 写缓存：保存指定服务标识的快照
+     */
+    public void writeSnapshot(String serviceIdentifier, ServiceInstanceSnapshot snapshot) {
+        serviceCache.put(serviceIdentifier, snapshot);
+        lastKnownCache.put(serviceIdentifier, snapshot);
+        lastKnownTimes.put(serviceIdentifier, System.currentTimeMillis());
+        staleWarnedServices.remove(serviceIdentifier);
+        saveLater();
+    }
+
+    /**
+     * 读缓存：获取指定服务标识的服务列表，列表不可修改
      */
     public List<ServiceMetaData> readCache(String serviceIdentifier) {
+        ServiceInstanceSnapshot snapshot = serviceCache.get(serviceIdentifier);
+        return snapshot == null ? null : snapshot.getInstances();
+    }
+
+    /**
+     * 读缓存：获取指定服务标识的快照，没有缓存时返回 null
+     */
+    public ServiceInstanceSnapshot readSnapshot(String serviceIdentifier) {
         return serviceCache.get(serviceIdentifier);
     }
 
     /**
-     * 清空指定服务标识的缓存
+     * 对指定服务标识的快照应用一次变更，没有缓存时不做任何事（还没有全量加载过，变更会包含在之后的全量查询中）
+     *
+     * @param serviceIdentifier 服务标识
+     * @param delta             旧快照 -> 新快照
+     */
+    public void apply(String serviceIdentifier, UnaryOperator<ServiceInstanceSnapshot> delta) {
+        ServiceInstanceSnapshot updated = serviceCache.computeIfPresent(serviceIdentifier, (key, snapshot) -> {
+            ServiceInstanceSnapshot newSnapshot = delta.apply(snapshot);
+            if (newSnapshot != snapshot) {
+                lastKnownCache.put(serviceIdentifier, newSnapshot);
+            }
+            return newSnapshot;
+        });
+        if (updated != null) {
+            saveLater();
+        }
+    }
+
+    /**
+     * 清空指定服务标识的缓存，lastKnown 保留，确认时间记为现在（清空之前一直和注册中心保持同步）
      */
     public void clearCache(String serviceIdentifier) {
-        serviceCache.remove(serviceIdentifier);
+        if (serviceCache.remove(serviceIdentifier) != null) {
+            lastKnownTimes.put(serviceIdentifier, System.currentTimeMillis());
+        }
     }
 
     /**
-     * 清空所有缓存
+     * 清空所有缓存，lastKnown 保留
      */
     public void clearCache() {
-        serviceCache.clear();
+        for (String serviceIdentifier : serviceCache.keySet()) {
+            clearCache(serviceIdentifier);
+        }
+    }
+
+    /**
+     * 立即把 lastKnown 写到快照文件，注册中心销毁时调用
+     */
+    public void flush() {
+        RegistrySnapshotStore store = snapshotStore;
+        if (store != null) {
+            store.save(savedServices());
+        }
+    }
+
+    private void saveLater() {
+        RegistrySnapshotStore store = snapshotStore;
+        if (store != null) {
+            store.saveLater(this::savedServices);
+        }
+    }
+
+    /**
+     * 要写到快照文件的服务列表：lastKnown 和它们的确认时间，还在和注册中心保持同步的服务确认时间就是现在
+     */
+    private Map<String, RegistrySnapshotStore.SavedService> savedServices() {
+        long now = System.currentTimeMillis();
+        Map<String, RegistrySnapshotStore.SavedService> services = new LinkedHashMap<>();
+        lastKnownCache.forEach((serviceIdentifier, snapshot) -> {
+            long updateTime = serviceCache.containsKey(serviceIdentifier)
+                    ? now
+                    : lastKnownTimes.getOrDefault(serviceIdentifier, now);
+            services.put(serviceIdentifier, new RegistrySnapshotStore.SavedService(snapshot, updateTime));
+        });
+        return services;
+    }
+
+    private boolean isExpired(long updateTime) {
+        long maxAge = lastKnownMaxAge;
+        return maxAge > 0 && System.currentTimeMillis() - updateTime > maxAge;
     }
 }
@@ -27,6 +27,19 @@ public interface Registry {
      */
     void register(ServiceMetaData serviceMetaData) throws Exception;
 
+    /**
+     * 批量注册，服务提供者启动时一次注册所有服务
+     * 注册中心支持事务时应该一次写入，默认逐个注册
+     *
+     * @param serviceMetaDataList
+     * @throws Exception
+     */
+    default void registerBatch(List<ServiceMetaData> serviceMetaDataList) throws Exception {
+        for (ServiceMetaData serviceMetaData : serviceMetaDataList) {
+            register(serviceMetaData);
+        }
+    }
+
     /**
      * 服务提供者在下线或退出时调用此方法注销自己的服务
      *
@@ -54,7 +67,9 @@ public interface Registry {
     void heartbeat();
 
     /**
-     * 消费者通过此方法对指定的服务节点进行监听，以便在服务变更（例如服务下线或更新）时及时清除本地缓存，获取最新的服务信息。
+     * 消费者通过此方法对指定的服务进行监听，服务的节点上线、下线、修改时增量更新本地缓存中这个服务的实例列表
+     *
+     * @param serviceIdentifier 服务标识，形如 "serviceName:serviceVersion"，监听的是这个服务下的所有节点
      */
-    void watch(String serviceNodeIdentifier);
+    void watch(String serviceIdentifier);
 }
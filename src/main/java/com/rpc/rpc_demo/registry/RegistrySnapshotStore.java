@@ -0,0 +1,248 @@
+package com.rpc.rpc_demo.registry;
+
+import com.rpc.rpc_demo.model.ServiceMetaData;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * @Description 服务列表的本地快照文件（服务消费者用）
+ * <pre>
+ * 注册中心慢或者不可用的时候（启动时连不上、运行中断开），消费者用上一次知道的服务列表继续调用，而不是直接失败
+ * 文件格式（紧凑的二进制，DataOutputStream）：
+ *      int 魔数 | byte 格式版本 | UTF 注册中心标识（类型 + 地址） | int 服务个数
+ *      每个服务：UTF 服务标识 | long 快照版本 | long 最后一次和注册中心确认的时间（毫秒时间戳） | int 实例个数
+ *      每个实例：UTF 节点 key | 服务名 | 版本号 | 域名 | int 端口 | 分组 | int 权重（字符串可以为 null，前面有一个 boolean 标记）
+ * 注册中心标识不一致（换了注册中心、换了环境）时文件直接忽略，不会用到别的环境的服务列表
+ * 写文件：先写同目录下的临时文件，再原子地替换，进程在写的过程中崩溃也不会留下半个文件
+ * 服务列表变化时不会马上写，而是延迟 SAVE_DELAY_MILLIS 合并成一次写，节点频繁上下线时不会频繁写磁盘
+ * 文件损坏、版本不认识（包括没有确认时间的版本 1）时当作没有快照，不影响启动
+ * </pre>
+ * @Author veritas
+ * @Data 2025/3/17 16:30
+ */
+@Slf4j
+public class RegistrySnapshotStore {
+    private static final int MAGIC = 0x52504353;
+
+    private static final byte FORMAT_VERSION = 2;
+
+    /**
+     * 服务列表变化之后延迟多久写文件 ms
+     */
+    private static final long SAVE_DELAY_MILLIS = 1000;
+
+    /**
+     * 所有快照文件共用的写线程
+     */
+    private static final ScheduledExecutorService SAVER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "rpc-registry-snapshot");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 快照文件
+     */
+    private final Path file;
+
+    /**
+     * 注册中心标识，写在文件里，读的时候不一致就忽略
+     */
+    private final String registryIdentity;
+
+    /**
+     * 是否已经安排了一次写
+     */
+    private final AtomicBoolean saveScheduled = new AtomicBoolean(false);
+
+    /**
+     * @param file             快照文件
+     * @param registryIdentity 注册中心标识，例如 etcd@http://localhost:2379
+     */
+    public RegistrySnapshotStore(Path file, String registryIdentity) {
+        this.file = file;
+        this.registryIdentity = registryIdentity;
+    }
+
+    /**
+     * 读取快照文件
+     *
+     * @return 服务标识 -> 保存的服务列表，文件不存在、损坏、不是同一个注册中心时返回空
+     */
+    public Map<String, SavedService> load() {
+        try (InputStream inputStream = Files.newInputStream(file);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(inputStream))) {
+            if (in.readInt() != MAGIC || in.readByte() != FORMAT_VERSION) {
+                log.warn("Ignore registry snapshot {} with unknown format", file);
+                return Collections.emptyMap();
+            }
+            String identity = in.readUTF();
+            if (!registryIdentity.equals(identity)) {
+                log.info("Ignore registry snapshot {} of another registry {}", file, identity);
+                return Collections.emptyMap();
+            }
+            int serviceCount = in.readInt();
+            Map<String, SavedService> services = new LinkedHashMap<>();
+            for (int i = 0; i < serviceCount; i++) {
+                String serviceIdentifier = in.readUTF();
+                long version = in.readLong();
+                long updateTime = in.readLong();
+                int instanceCount = in.readInt();
+                Map<String, ServiceMetaData> nodes = new LinkedHashMap<>();
+                for (int j = 0; j < instanceCount; j++) {
+                    String key = in.readUTF();
+                    nodes.put(key, readServiceMetaData(in));
+                }
+                services.put(serviceIdentifier, new SavedService(ServiceInstanceSnapshot.of(version, nodes), updateTime));
+            }
+            log.info("Loaded {} services from registry snapshot {}", services.size(), file);
+            return services;
+        } catch (NoSuchFileException e) {
+            return Collections.emptyMap();
+        } catch (Exception e) {
+            log.warn("Ignore broken registry snapshot {}", file, e);
+            return Collections.emptyMap();
+        }
+    }
+
+    /**
+     * 延迟一段时间后写文件，这段时间内的多次变化只写一次
+     *
+     * @param services 写的时候才调用，拿到当时最新的服务列表
+     */
+    public void saveLater(Supplier<Map<String, SavedService>> services) {
+        if (saveScheduled.compareAndSet(false, true)) {
+            SAVER.schedule(() -> {
+                // 先清除标记再取数据，取数据之后的变化会安排新的一次写，不会丢
+                saveScheduled.set(false);
+                save(services.get());
+            }, SAVE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 立即写文件，写失败只记录日志
+     *
+     * @param services 服务标识 -> 保存的服务列表
+     */
+    public synchronized void save(Map<String, SavedService> services) {
+        try {
+            Path parent = file.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            Path tempFile = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+            try {
+                try (OutputStream outputStream = Files.newOutputStream(tempFile);
+                     DataOutputStream out = new DataOutputStream(new BufferedOutputStream(outputStream))) {
+                    write(out, services);
+                }
+                try {
+                    Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+        } catch (IOException e) {
+            log.warn("Failed to save registry snapshot {}", file, e);
+        }
+    }
+
+    private void write(DataOutputStream out, Map<String, SavedService> services) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(FORMAT_VERSION);
+        out.writeUTF(registryIdentity);
+        out.writeInt(services.size());
+        for (Map.Entry<String, SavedService> entry : services.entrySet()) {
+            ServiceInstanceSnapshot snapshot = entry.getValue().getSnapshot();
+            out.writeUTF(entry.getKey());
+            out.writeLong(snapshot.getVersion());
+            out.writeLong(entry.getValue().getUpdateTime());
+            Map<String, ServiceMetaData> nodes = snapshot.getNodes();
+            out.writeInt(nodes.size());
+            for (Map.Entry<String, ServiceMetaData> node : nodes.entrySet()) {
+                out.writeUTF(node.getKey());
+                writeServiceMetaData(out, node.getValue());
+            }
+        }
+    }
+
+    private static void writeServiceMetaData(DataOutputStream out, ServiceMetaData serviceMetaData) throws IOException {
+        writeString(out, serviceMetaData.getServiceName());
+        writeString(out, serviceMetaData.getServiceVersion());
+        writeString(out, serviceMetaData.getServiceHost());
+        out.writeInt(serviceMetaData.getServicePort() == null ? -1 : serviceMetaData.getServicePort());
+        writeString(out, serviceMetaData.getServiceGroup());
+        out.writeInt(serviceMetaData.getWeight());
+    }
+
+    private static ServiceMetaData readServiceMetaData(DataInputStream in) throws IOException {
+        ServiceMetaData serviceMetaData = new ServiceMetaData();
+        serviceMetaData.setServiceName(readString(in));
+        serviceMetaData.setServiceVersion(readString(in));
+        serviceMetaData.setServiceHost(readString(in));
+        int port = in.readInt();
+        serviceMetaData.setServicePort(port < 0 ? null : port);
+        serviceMetaData.setServiceGroup(readString(in));
+        serviceMetaData.setWeight(in.readInt());
+        return serviceMetaData;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * 文件中的一个服务：服务列表快照和它最后一次和注册中心确认的时间
+     */
+    public static final class SavedService {
+        private final ServiceInstanceSnapshot snapshot;
+
+        /**
+         * 最后一次和注册中心确认的时间 System.currentTimeMillis()
+         */
+        private final long updateTime;
+
+        public SavedService(ServiceInstanceSnapshot snapshot, long updateTime) {
+            this.snapshot = snapshot;
+            this.updateTime = updateTime;
+        }
+
+        public ServiceInstanceSnapshot getSnapshot() {
+            return snapshot;
+        }
+
+        public long getUpdateTime() {
+            return updateTime;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.rpc.rpc_demo.registry;
+
+import com.rpc.rpc_demo.model.ServiceMetaData;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @Description 一个服务的实例列表快照（服务消费者用），不可变
+ * <pre>
+ * 注册中心的每次变更（一个节点上线、下线、修改）都生成一个新的快照，而不是修改旧的，也不是清空缓存：
+ *      withPut / withDelete 复制一份节点表，修改之后返回新的快照，旧的快照不受影响
+ *      服务发现只需要读一次当前快照的引用，不需要加锁，拿到的列表在使用期间不会变化
+ * version 是快照对应的注册中心版本（etcd 的 revision），只接受比当前版本新的变更，重复或者过期的事件直接忽略
+ * 节点按 key（注册中心中的节点路径）区分，key 的先后顺序就是节点加入的顺序
+ * </pre>
+ * @Author veritas
+ * @Data 2025/3/17 10:20
+ */
+public final class ServiceInstanceSnapshot {
+    private static final ServiceInstanceSnapshot EMPTY = new ServiceInstanceSnapshot(0, Collections.emptyMap());
+
+    /**
+     * 快照对应的注册中心版本
+     */
+    private final long version;
+
+    /**
+     * 节点 key -> 服务实例，不可修改
+     */
+    private final Map<String, ServiceMetaData> nodes;
+
+    /**
+     * 服务实例列表，不可修改，服务发现直接返回它
+     */
+    private final List<ServiceMetaData> instances;
+
+    private ServiceInstanceSnapshot(long version, Map<String, ServiceMetaData> nodes) {
+        this.version = version;
+        this.nodes = nodes;
+        this.instances = List.copyOf(nodes.values());
+    }
+
+    public static ServiceInstanceSnapshot empty() {
+        return EMPTY;
+    }
+
+    /**
+     * 根据一次全量查询的结果创建快照
+     *
+     * @param version 查询时注册中心的版本
+     * @param nodes   节点 key -> 服务实例
+     * @return
+     */
+    public static ServiceInstanceSnapshot of(long version, Map<String, ServiceMetaData> nodes) {
+        return new ServiceInstanceSnapshot(version, Collections.unmodifiableMap(new LinkedHashMap<>(nodes)));
+    }
+
+    /**
+     * 节点上线或者修改
+     *
+     * @param key             节点 key
+     * @param serviceMetaData 节点的服务信息
+     * @param version         变更的版本
+     * @return 新的快照，版本不比当前新时返回当前快照
+     */
+    public ServiceInstanceSnapshot withPut(String key, ServiceMetaData serviceMetaData, long version) {
+        if (version <= this.version) {
+            return this;
+        }
+        Map<String, ServiceMetaData> newNodes = new LinkedHashMap<>(nodes);
+        newNodes.put(key, serviceMetaData);
+        return new ServiceInstanceSnapshot(version, Collections.unmodifiableMap(newNodes));
+    }
+
+    /**
+     * 节点下线
+     *
+     * @param key     节点 key
+     * @param version 变更的版本
+     * @return 新的快照，版本不比当前新时返回当前快照
+     */
+    public ServiceInstanceSnapshot withDelete(String key, long version) {
+        if (version <= this.version) {
+            return this;
+        }
+        if (!nodes.containsKey(key)) {
+            return new ServiceInstanceSnapshot(version, nodes);
+        }
+        Map<String, ServiceMetaData> newNodes = new LinkedHashMap<>(nodes);
+        newNodes.remove(key);
+        return new ServiceInstanceSnapshot(version, Collections.unmodifiableMap(newNodes));
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * 节点 key -> 服务实例，不可修改
+     */
+    public Map<String, ServiceMetaData> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * 服务实例列表，不可修改
+     */
+    public List<ServiceMetaData> getInstances() {
+        return instances;
+    }
+
+    public int size() {
+        return instances.size();
+    }
+}
@@ -0,0 +1,161 @@
+package com.rpc.rpc_demo.registry;
+
+import com.rpc.rpc_demo.communication.protocol.MethodTable;
+import lombok.Getter;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Iterator;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.stream.BaseStream;
+
+/**
+ * @Description 服务方法调用器（服务提供者用）
+ * <pre>
+ * 注册服务的时候为每个方法创建一个，之后每次请求直接调用，不再需要 getMethod + Method.invoke：
+ *      MethodHandle 已经绑定了服务实例，并且把参数列表展开成 (Object[]) -> Object 的形式，
+ *      调用时只需要 invokeExact(args)，JIT 可以把它当成普通的方法调用来优化
+ * 方法的返回值类型（异步方法是 CompletableFuture 的泛型参数）也提前算好，构造响应的时候直接用
+ * 返回值是 Iterator / Stream / Flow.Publisher 的方法按流式响应处理，见 OutboundStream
+ * 有一个参数是 Iterator / Stream / Flow.Publisher 的方法按流式请求处理（客户端流），参数的元素由消费者逐个上传，见 InboundStream
+ *      两者都有就是双向流
+ * </pre>
+ * @Author veritas
+ * @Data 2025/3/11 14:10
+ */
+@Getter
+public class ServiceMethodInvoker {
+    private static final Object[] EMPTY_ARGS = new Object[0];
+
+    /**
+     * 服务名称
+     */
+    private final String serviceName;
+
+    /**
+     * 执行模型 为空时使用全局配置
+     */
+    private final String executionMode;
+
+    /**
+     * 方法名称
+     */
+    private final String methodName;
+
+    /**
+     * 参数类型列表
+     */
+    private final Class<?>[] parameterTypes;
+
+    /**
+     * 方法的返回值是不是 CompletableFuture / CompletionStage
+     */
+    private final boolean async;
+
+    /**
+     * 方法的返回值是不是流式响应：Iterator、java.util.stream.Stream、Flow.Publisher，元素逐个发送给消费者
+     */
+    private final boolean stream;
+
+    /**
+     * 流式参数的下标，-1 表示没有流式参数；只支持一个流式参数，有多个时取第一个
+     */
+    private final int streamArgIndex;
+
+    /**
+     * 响应的数据类型 同步方法是返回值类型，异步方法是 CompletableFuture 的泛型参数
+     */
+    private final Class<?> dataType;
+
+    /**
+     * 绑定了服务实例的方法句柄 类型是 (Object[]) -> Object
+     */
+    private final MethodHandle methodHandle;
+
+    ServiceMethodInvoker(String serviceName, String executionMode, Object serviceInstance, Method method)
+            throws IllegalAccessException {
+        this.serviceName = serviceName;
+        this.executionMode = executionMode;
+        this.methodName = method.getName();
+        this.parameterTypes = method.getParameterTypes();
+        this.async = CompletionStage.class.isAssignableFrom(method.getReturnType());
+        this.stream = isStreamType(method.getReturnType());
+        this.streamArgIndex = streamArgIndex(parameterTypes);
+        this.dataType = async ? resolveAsyncDataType(method) : method.getReturnType();
+        // 实现类不是 public 的时候也能调用
+        method.trySetAccessible();
+        this.methodHandle = MethodHandles.lookup()
+                .unreflect(method)
+                .bindTo(serviceInstance)
+                .asSpreader(Object[].class, parameterTypes.length)
+                .asType(MethodType.methodType(Object.class, Object[].class));
+    }
+
+    /**
+     * 方法键名，用来分配方法 ID，见 MethodTable
+     */
+    public String getMethodKey() {
+        return MethodTable.methodKey(serviceName, methodName, parameterTypes);
+    }
+
+    /**
+     * 调用服务方法 方法本身抛出的异常原样抛出，不会被包装
+     *
+     * @param args 参数列表
+     * @return 返回值 void 方法返回 null
+     * @throws Throwable
+     */
+    public Object invoke(Object[] args) throws Throwable {
+        return (Object) methodHandle.invokeExact(args == null ? EMPTY_ARGS : args);
+    }
+
+    /**
+     * 流式的返回值 / 参数类型，服务提供者和服务消费者用同一个判断
+     *
+     * @param returnType 方法的返回值类型或者参数类型
+     * @return
+     */
+    public static boolean isStreamType(Class<?> returnType) {
+        return Iterator.class.isAssignableFrom(returnType)
+                || BaseStream.class.isAssignableFrom(returnType)
+                || Flow.Publisher.class.isAssignableFrom(returnType);
+    }
+
+    /**
+     * 第一个流式参数的下标
+     *
+     * @param parameterTypes 参数类型列表
+     * @return 没有流式参数时返回 -1
+     */
+    public static int streamArgIndex(Class<?>[] parameterTypes) {
+        for (int i = 0; i < parameterTypes.length; i++) {
+            if (isStreamType(parameterTypes[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 异步方法的返回值类型是 CompletableFuture<T>，响应的数据类型应该是 T 而不是 CompletableFuture
+     * 拿不到泛型参数时退化为 Object
+     */
+    private static Class<?> resolveAsyncDataType(Method method) {
+        Type genericReturnType = method.getGenericReturnType();
+        if (genericReturnType instanceof ParameterizedType) {
+            Type actualType = ((ParameterizedType) genericReturnType).getActualTypeArguments()[0];
+            if (actualType instanceof Class) {
+                return (Class<?>) actualType;
+            }
+            if (actualType instanceof ParameterizedType) {
+                return (Class<?>) ((ParameterizedType) actualType).getRawType();
+            }
+        }
+        return Object.class;
+    }
+}
@@ -1,29 +1,34 @@
 package com.rpc.rpc_demo.registry.impl;
 
-import cn.hutool.core.collection.CollUtil;
 import cn.hutool.core.collection.ConcurrentHashSet;
-import cn.hutool.cron.CronUtil;
 import cn.hutool.json.JSONUtil;
 import com.rpc.rpc_demo.config.RegistryConfig;
 import com.rpc.rpc_demo.model.ServiceMetaData;
 import com.rpc.rpc_demo.registry.RegisteredServiceCache;
 import com.rpc.rpc_demo.registry.Registry;
+import com.rpc.rpc_demo.registry.ServiceInstanceSnapshot;
 import io.etcd.jetcd.*;
+import io.etcd.jetcd.kv.GetResponse;
+import io.etcd.jetcd.lease.LeaseKeepAliveResponse;
+import io.etcd.jetcd.op.Op;
 import io.etcd.jetcd.options.GetOption;
 import io.etcd.jetcd.options.PutOption;
+import io.etcd.jetcd.options.WatchOption;
 import io.etcd.jetcd.watch.WatchEvent;
-import lombok.extern.log4j.Log4j2;
-import cn.hutool.cron.task.Task;
+import io.etcd.jetcd.support.CloseableClient;
+import io.grpc.stub.StreamObserver;
 import lombok.extern.slf4j.Slf4j;
 
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
-
-import static io.etcd.jetcd.watch.WatchEvent.EventType.DELETE;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author jiahao.liu
@@ -47,27 +52,62 @@ public class EtcdRegistry implements Registry {
     private KV kvClient;
 
     /**
-     * 本地注册节点 key 集合，用于维护续约
-     * 每一个元素形如： serviceName:serviceVersion/serviceHost:servicePort
-     * 注意末尾有 "/"，例如： "testService:v1/127.0.0.1:8080"
-     * 当注册成功后，将该 key 存入集合，用于后续的续约或注销
+     * 租约的有效期 秒，keepAlive 每隔 TTL / 3 续约一次
+     */
+    private static final long LEASE_TTL_SECONDS = 30;
+    /**
+     * 一个事务中最多的操作数，etcd 默认的 --max-txn-ops 是 128
+     */
+    private static final int MAX_TXN_OPS = 128;
+    /**
+     * 租约丢失之后重新注册失败时的重试间隔 ms
+     */
+    private static final long REREGISTER_RETRY_MILLIS = 3000;
+
+    /**
+     * 本地注册节点，用于租约丢失之后重新注册、下线
+     * key 形如： /rpc/serviceName:serviceVersion/serviceHost:servicePort，value 是序列化后的 ServiceMetaData
+     * 当注册成功后，将该节点存入，所有节点都绑定在同一个租约上
      * 主要由 服务提供者 使用
      */
-    private final Set<String> localRegisterNodeKeySet = new HashSet<>();
+    private final Map<String, String> localRegisterNodes = new ConcurrentHashMap<>();
+    /**
+     * 整个进程共用的租约，0 表示还没有创建（或者已经丢失）
+     * 主要由 服务提供者 使用
+     */
+    private long leaseId;
+    /**
+     * 租约的 keepAlive 流，关闭它就停止续约
+     */
+    private CloseableClient keepAlive;
+    /**
+     * 是否已经销毁，销毁之后不再重新注册
+     */
+    private volatile boolean destroyed;
     /**
      * 注册中心缓存，用于缓存 serviceDiscovery 查询到的服务信息
      * 主要由 消费者 使用，在调用 serviceDiscovery 方法时首先从缓存中获取服务列表；如果缓存没有，再从 etcd 查询后将结果写入缓存
+     * 每个服务一个不可变的快照，由 watch 增量更新
      */
     private final RegisteredServiceCache registryServiceCache = new RegisteredServiceCache();
     /**
-     * 监听的 key 集合，用于避免重复监听
-     * 当我们对某个 serviceNodeIdentifier 设置 watch 后，将其加入本集合
+     * 监听的服务标识集合，用于避免重复监听
+     * 当我们对某个 serviceIdentifier 的前缀设置 watch 后，将其加入本集合
      * 主要由 消费者 使用
      */
     private final Set<String> watchingKeySet = new ConcurrentHashSet<>();
+    /**
+     * 服务标识 -> watcher，销毁时关闭
+     */
+    private final Map<String, Watch.Watcher> watchers = new ConcurrentHashMap<>();
+    /**
+     * 服务标识 -> 全量查询的锁，避免同一个服务被多个线程同时查询
+     */
+    private final Map<String, Object> loadingLocks = new ConcurrentHashMap<>();
 
     /**
      * 初始化方法，本质上是获取 etcd 客户端，建立连接
+     * 租约在第一次注册时才创建，只做服务发现的消费者不会创建租约
      *
      * @param registryConfig 包含 etcd 的地址、超时时间等配置
      */
@@ -80,13 +120,12 @@ public class EtcdRegistry implements Registry {
                 .build();
         // 2. 通过 client 获取 KV 客户端，用于后续 put/get/delete 等操作
         kvClient = client.getKVClient();
-        // 3. 启动心跳续约机制
-        heartbeat();
+        // 3. 读取本地的服务列表快照，etcd 连不上时先用它
+        registryServiceCache.init(registryConfig);
     }
 
     /**
-     * 注册服务，将 ServiceMetaData 写入 etcd
-     * 并将该节点 key 缓存在 localRegisterNodeKeySet 中，用于续约和下线操作
+     * 注册服务，将 ServiceMetaData 写入 etcd，绑定在进程共用的租约上
      * 服务提供者在启动时调用此方法将自己的服务信息注册到 etcd
      *
      * @param serviceMetaData 服务节点信息
@@ -94,23 +133,25 @@ public class EtcdRegistry implements Registry {
      */
     @Override
     public void register(ServiceMetaData serviceMetaData) throws Exception {
-        // 1. 获取 LeaseClient，用于管理租约
-        Lease leaseClient = client.getLeaseClient();
-        // 2. 创建一个 30 秒的租约（租约到期后，如果不续约，该 key 会被 etcd 自动删除）
-        long leaseId = leaseClient.grant(30).get().getID();
-        // 3. 构造要注册的 key 和 value
-        String identifierAboutToRegister = ETCD_ROOT_PATH + serviceMetaData.getServiceNodeIdentifier();
-        // key 形如: /rpc/serviceName:serviceVersion/serviceHost:servicePort
-        ByteSequence key = ByteSequence.from(identifierAboutToRegister, StandardCharsets.UTF_8);
-        // value 是序列化后的 ServiceMetaData
-        ByteSequence value = ByteSequence.from(JSONUtil.toJsonStr(serviceMetaData), StandardCharsets.UTF_8);
-        // 4. 将键值对与租约绑定，即 putOption 绑定了该 leaseId
-        // 租约过期后，etcd 会自动删除此 key
-        PutOption putOption = PutOption.builder().withLeaseId(leaseId).build();
-        // 5. 向 etcd 写入 key-value，并绑定租约
-        kvClient.put(key, value, putOption).get();
-        // 6. 将该 key 加入本地集合，用于续约和下线
-        localRegisterNodeKeySet.add(identifierAboutToRegister);
+        registerBatch(List.of(serviceMetaData));
+    }
+
+    /**
+     * 批量注册服务，所有节点在一个事务中写入（超过 MAX_TXN_OPS 个时分成多个事务），都绑定在进程共用的租约上
+     *
+     * @param serviceMetaDataList 服务节点信息
+     * @throws Exception 可能抛出网络或序列化等异常
+     */
+    @Override
+    public void registerBatch(List<ServiceMetaData> serviceMetaDataList) throws Exception {
+        // key 形如: /rpc/serviceName:serviceVersion/serviceHost:servicePort，value 是序列化后的 ServiceMetaData
+        Map<String, String> nodes = new LinkedHashMap<>();
+        for (ServiceMetaData serviceMetaData : serviceMetaDataList) {
+            nodes.put(ETCD_ROOT_PATH + serviceMetaData.getServiceNodeIdentifier(), JSONUtil.toJsonStr(serviceMetaData));
+        }
+        putAll(nodes, ensureLease());
+        // 写入成功后加入本地集合，用于重新注册和下线
+        localRegisterNodes.putAll(nodes);
     }
 
     /**
@@ -123,77 +164,106 @@ public class EtcdRegistry implements Registry {
     public void unRegister(ServiceMetaData serviceMetaData) {
         // 1. 构造要删除的 key
         String registerKey = ETCD_ROOT_PATH + serviceMetaData.getServiceNodeIdentifier();
-        // 2. 调用 etcd 的 delete 操作
+        // 2. 先从本地集合中移除，避免租约丢失时又被重新注册
+        localRegisterNodes.remove(registerKey);
+        // 3. 调用 etcd 的 delete 操作
         kvClient.delete(ByteSequence.from(registerKey, StandardCharsets.UTF_8));
-        // 3. 从本地集合中移除
-        localRegisterNodeKeySet.remove(registerKey);
     }
 
     /**
      * 服务发现，根据 serviceIdentifier 查询所有匹配的节点
      * serviceIdentifier 形如: serviceName:serviceVersion
      * 消费者在调用远程服务前通过该方法获取某个服务标识下所有可用的服务节点
+     * 缓存命中时只读一次快照的引用，不加锁、不访问 etcd；快照由 watch 增量更新，一直是最新的
+     * 缓存没有时（第一次调用、watch 出错之后）全量查询一次，同一个服务同一时刻只有一个线程查询
+     * 有最后一次知道的服务列表（本地快照文件、watch 出错之前的）时先返回它，在后台查询，见 RegisteredServiceCache.discover
      *
      * @param serviceIdentifier 服务标识
-     * @return 返回所有匹配的 ServiceMetaData
+     * @return 返回所有匹配的 ServiceMetaData，列表不可修改
      */
     @Override
     public List<ServiceMetaData> serviceDiscovery(String serviceIdentifier) {
-        // 1. 优先从本地缓存中读取
-        List<ServiceMetaData> serviceMetaInfoList = registryServiceCache.readCache(serviceIdentifier);
-        if (CollUtil.isNotEmpty(serviceMetaInfoList)) {
-            return serviceMetaInfoList;
+        // 优先从本地缓存中读取，已经加载过的服务即使没有节点也不再查询 etcd，节点上线时 watch 会更新快照
+        return registryServiceCache.discover(serviceIdentifier, this::loadOnce);
+    }
+
+    /**
+     * 缓存中没有，则到 etcd 查询，同一个服务只让一个线程查询，其他线程等它查完直接读缓存
+     */
+    private void loadOnce(String serviceIdentifier) {
+        synchronized (loadingLocks.computeIfAbsent(serviceIdentifier, key -> new Object())) {
+            if (registryServiceCache.readSnapshot(serviceIdentifier) != null) {
+                return;
+            }
+            try {
+                load(serviceIdentifier);
+            } catch (Exception e) {
+                throw new RuntimeException("服务发现失败", e);
+            }
         }
-        // 2. 缓存中没有，则到 etcd 查询
+    }
+
+    /**
+     * 全量查询一个服务的所有节点，写入快照，然后从查询时的版本之后开始监听这个服务的前缀
+     * 查询和监听之间发生的变更不会丢：watch 从 revision + 1 开始，etcd 会补发这之间的事件
+     */
+    private ServiceInstanceSnapshot load(String serviceIdentifier) throws Exception {
         //   构造查询前缀: /rpc/serviceName:serviceVersion/
-        String searchPrefix = ETCD_ROOT_PATH + serviceIdentifier + "/";
+        String searchPrefix = servicePrefix(serviceIdentifier);
         GetOption getOption = GetOption.builder().isPrefix(true).build();
-        try {
-            // 2.1 创建一个 30 秒的租约，用于该查询（可选逻辑，具体看需求）
-            Lease leaseClient = client.getLeaseClient();
-            long leaseId = leaseClient.grant(30).get().getID();
-            PutOption putOption = PutOption.builder().withLeaseId(leaseId).build();
-            // 2.2 执行 get 查询，拿到所有匹配前缀的 KeyValue
-            List<KeyValue> kvs = kvClient.get(ByteSequence.from(searchPrefix, StandardCharsets.UTF_8), getOption).get().getKvs();
-            // 2.3 将每个 KeyValue 的 value 解析成 ServiceMetaData
-            //     并对每个 key 调用 watch 方法，监听后续变更
-            List<ServiceMetaData> serviceMetaDataList = kvs.stream().map(keyValue -> {
-                // keyValue.getValue() 是序列化后的 JSON
-                String key = keyValue.getValue().toString(StandardCharsets.UTF_8);
-                // watch(key) 使用的是 jsonString，而实际上这里要注意：keyValue.getKey() 才是节点路径
-                // 代码中 watch(key) 是在 watch(...) 方法里针对 serviceNodeIdentifier 做监听
-                watch(key);
-                // 反序列化为 ServiceMetaData
-                return JSONUtil.toBean(key, ServiceMetaData.class);
-            }).collect(Collectors.toList());
-            // 2.4 将查询结果写入本地缓存
-            registryServiceCache.writeCache(serviceIdentifier, serviceMetaDataList);
-
-            // 2.5 返回查询到的列表
-            return serviceMetaDataList;
-        } catch (Exception e) {
-            throw new RuntimeException("服务发现失败", e);
+        // 执行 get 查询，拿到所有匹配前缀的 KeyValue 和查询时的版本
+        GetResponse getResponse = kvClient.get(ByteSequence.from(searchPrefix, StandardCharsets.UTF_8), getOption).get();
+        Map<String, ServiceMetaData> nodes = new LinkedHashMap<>();
+        for (KeyValue keyValue : getResponse.getKvs()) {
+            // keyValue.getValue() 是序列化后的 JSON，解析不了的节点跳过，不影响这个服务的其他节点
+            ServiceMetaData serviceMetaData = toServiceMetaData(keyValue);
+            if (serviceMetaData != null) {
+                nodes.put(keyValue.getKey().toString(StandardCharsets.UTF_8), serviceMetaData);
+            }
         }
+        long revision = getResponse.getHeader().getRevision();
+        ServiceInstanceSnapshot snapshot = ServiceInstanceSnapshot.of(revision, nodes);
+        // 先写快照再开始监听，监听到的变更都应用在这个快照上
+        registryServiceCache.writeSnapshot(serviceIdentifier, snapshot);
+        watch(serviceIdentifier, revision + 1);
+        return snapshot;
     }
 
     /**
      * 销毁操作，当前节点下线
-     * 遍历 localRegisterNodeKeySet 删除所有注册的 key，并关闭客户端
+     * 撤销租约，etcd 会一次性删除绑定在租约上的所有节点，然后关闭客户端
      */
     @Override
     public void destroy() {
         log.info("当前节点下线");
+        destroyed = true;
         // 1. 下线所有已注册的服务
-        for (String key : localRegisterNodeKeySet) {
+        long currentLeaseId;
+        synchronized (this) {
+            currentLeaseId = leaseId;
+            leaseId = 0;
+            if (keepAlive != null) {
+                keepAlive.close();
+                keepAlive = null;
+            }
+        }
+        if (currentLeaseId != 0) {
             try {
-                kvClient.delete(ByteSequence.from(key, StandardCharsets.UTF_8)).get();
-                System.out.println("下线:" + key);
+                client.getLeaseClient().revoke(currentLeaseId).get();
+                log.info("下线:{}", localRegisterNodes.keySet());
             } catch (Exception e) {
-                throw new RuntimeException(key + "下线失败", e);
+                throw new RuntimeException(localRegisterNodes.keySet() + "下线失败", e);
             }
         }
+        localRegisterNodes.clear();
+
+        // 2. 停止所有监听，保存服务列表快照
+        for (String serviceIdentifier : watchers.keySet()) {
+            stopWatch(serviceIdentifier);
+        }
+        registryServiceCache.flush();
 
-        // 2. 关闭 etcd 客户端
+        // 3. 关闭 etcd 客户端
         if (client != null) {
             client.close();
         }
@@ -202,74 +272,220 @@ public class EtcdRegistry implements Registry {
         }
     }
 
-
     /**
-     * 这里的心跳（heartbeat）实现是每隔10秒重新注册一次已注册的服务（续约）
-     * 租约是30秒，不涉及和服务提供者通信，仅在 etcd 中进行续租操作
+     * 续约由 etcd 的 keepAlive 流完成：整个进程只有一个租约，jetcd 每隔 TTL / 3 在同一个 gRPC 流上续约一次，
+     * 不需要定时读取、重新写入每个节点，注册的服务再多，续约也只是一条很小的消息
+     * 这里只保证租约已经创建并且在续约，第一次注册时会自动调用
      * <p>
      * 服务提供者定时调用续约操作，确保自己的注册信息不会因租约过期而被 etcd 自动删除
      */
     @Override
     public void heartbeat() {
-        // 使用 Hutool 的 CronUtil 来定时执行任务，表达式 "*/10 * * * * *" 表示每隔10秒执行一次
-        CronUtil.schedule("*/10 * * * * *", new Task() {
+        try {
+            ensureLease();
+        } catch (Exception e) {
+            throw new RuntimeException("创建租约失败", e);
+        }
+    }
+
+    /**
+     * 拿到进程共用的租约，还没有时创建一个并开始 keepAlive
+     *
+     * @return 租约 ID
+     */
+    private synchronized long ensureLease() throws Exception {
+        if (leaseId != 0) {
+            return leaseId;
+        }
+        Lease leaseClient = client.getLeaseClient();
+        // 租约到期后，如果不续约，绑定在上面的所有 key 都会被 etcd 自动删除
+        long newLeaseId = leaseClient.grant(LEASE_TTL_SECONDS).get().getID();
+        keepAlive = leaseClient.keepAlive(newLeaseId, new StreamObserver<LeaseKeepAliveResponse>() {
             @Override
-            public void execute() {
-                // 遍历本地保存的所有已注册 key
-                for (String key : localRegisterNodeKeySet) {
-                    try {
-                        // 从 etcd 获取该 key 的信息，若为空，说明已过期
-                        List<KeyValue> kvs = kvClient.get(ByteSequence.from(key, StandardCharsets.UTF_8)).get().getKvs();
-                        if (CollUtil.isEmpty(kvs)) {
-                            // 如果租约已过期，则不再续约
-                            continue;
-                        }
-                        // 如果 key 仍存在，则重新注册，相当于续约操作
-                        KeyValue keyValue = kvs.get(0);
-                        String value = keyValue.getValue().toString(StandardCharsets.UTF_8);
-                        ServiceMetaData serviceMetaData = JSONUtil.toBean(value, ServiceMetaData.class);
-                        log.info("续约：{}", serviceMetaData.getServiceNodeIdentifier());
-                        // 重新执行 register，这会创建新的租约并写入 etcd
-                        register(serviceMetaData);
-                    } catch (Exception e) {
-                        throw new RuntimeException(key + "续约失败", e);
-                    }
-                }
+            public void onNext(LeaseKeepAliveResponse response) {
+                log.debug("续约：lease={}, ttl={}", response.getID(), response.getTTL());
+            }
+
+            @Override
+            public void onError(Throwable e) {
+                log.warn("Lease {} keep-alive failed", newLeaseId, e);
+                onLeaseLost(newLeaseId);
+            }
+
+            @Override
+            public void onCompleted() {
+                onLeaseLost(newLeaseId);
             }
         });
+        leaseId = newLeaseId;
+        log.info("Granted lease {} with ttl {}s", newLeaseId, LEASE_TTL_SECONDS);
+        return newLeaseId;
+    }
+
+    /**
+     * 租约丢失（过期、被撤销、keepAlive 流断开且重试失败），绑定在上面的节点可能已经被 etcd 删除，
+     * 换一个新的租约把本地注册过的节点重新写一遍
+     */
+    private void onLeaseLost(long lostLeaseId) {
+        synchronized (this) {
+            if (destroyed || leaseId != lostLeaseId) {
+                return;
+            }
+            leaseId = 0;
+            if (keepAlive != null) {
+                keepAlive.close();
+                keepAlive = null;
+            }
+        }
+        // 不在 gRPC 的回调线程上阻塞
+        CompletableFuture.runAsync(this::reRegister);
     }
 
     /**
-     * watch 方法，用于监听某个 serviceNodeIdentifier 的变更
-     * 当 etcd 上的该 key 被删除或修改时，清空本地缓存
-     * 消费者通过此方法对指定的服务节点进行监听，以便在服务变更（例如服务下线或更新）时及时清除本地缓存，获取最新的服务信息。
+     * 用新的租约重新注册本地所有节点，失败时稍后重试
+     */
+    private void reRegister() {
+        if (destroyed || localRegisterNodes.isEmpty()) {
+            return;
+        }
+        try {
+            putAll(new LinkedHashMap<>(localRegisterNodes), ensureLease());
+            log.info("Re-registered {} nodes after lease lost", localRegisterNodes.size());
+        } catch (Exception e) {
+            log.warn("Re-register failed, retry in {} ms", REREGISTER_RETRY_MILLIS, e);
+            CompletableFuture.runAsync(this::reRegister,
+                    CompletableFuture.delayedExecutor(REREGISTER_RETRY_MILLIS, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    /**
+     * 把节点绑定在租约上，用事务批量写入，一个事务最多 MAX_TXN_OPS 个节点
+     */
+    private void putAll(Map<String, String> nodes, long leaseId) throws Exception {
+        PutOption putOption = PutOption.builder().withLeaseId(leaseId).build();
+        List<Op> ops = new ArrayList<>(Math.min(nodes.size(), MAX_TXN_OPS));
+        for (Map.Entry<String, String> node : nodes.entrySet()) {
+            ops.add(Op.put(ByteSequence.from(node.getKey(), StandardCharsets.UTF_8),
+                    ByteSequence.from(node.getValue(), StandardCharsets.UTF_8), putOption));
+            if (ops.size() == MAX_TXN_OPS) {
+                kvClient.txn().Then(ops.toArray(new Op[0])).commit().get();
+                ops.clear();
+            }
+        }
+        if (!ops.isEmpty()) {
+            kvClient.txn().Then(ops.toArray(new Op[0])).commit().get();
+        }
+    }
+
+    /**
+     * watch 方法，监听一个服务标识下所有节点的变更（前缀监听），从当前版本开始
+     * 消费者通过此方法对指定的服务进行监听，服务的节点上线、下线、修改时增量更新这个服务的快照，不影响其他服务的缓存
      *
-     * @param serviceNodeIdentifier 形如 "serviceName:serviceVersion/serviceHost:servicePort"
+     * @param serviceIdentifier 形如 "serviceName:serviceVersion"
      */
     @Override
-    public void watch(String serviceNodeIdentifier) {
-        // 1. 获取 etcd 的 watch 客户端
-        Watch watchClient = client.getWatchClient();
+    public void watch(String serviceIdentifier) {
+        watch(serviceIdentifier, 0);
+    }
 
-        // 2. 若尚未监听过该 key，则添加到 watchingKeySet 并开始监听
-        boolean isWatched = watchingKeySet.add(serviceNodeIdentifier);
-        if (isWatched) {
-            // 3. 调用 watchClient.watch 方法，传入要监听的 key
-            watchClient.watch(ByteSequence.from(serviceNodeIdentifier, StandardCharsets.UTF_8), (response) -> {
-                // 4. 当该 key 发生事件时，遍历所有 WatchEvent
-                for (WatchEvent event : response.getEvents()) {
-                    // 5. 如果是 DELETE 事件，说明节点被删除，清除本地缓存
-                    switch (event.getEventType()) {
-                        case DELETE:
-                            registryServiceCache.clearCache();
-                            break;
-                        case PUT:
-                        default:
-                            // PUT 表示新增或修改，同样可以根据需要处理，这里默认不做操作
-                            break;
+    /**
+     * 从指定版本开始监听一个服务标识的前缀，每个服务只监听一次
+     * PUT 事件：节点上线或修改，快照中加入（替换）这个节点
+     * DELETE 事件：节点下线（包括租约过期），快照中去掉这个节点
+     * watch 出错（比如版本已经被压缩、连接断开重试失败）时丢掉这个服务的快照并停止监听，下一次服务发现重新全量查询
+     *
+     * @param serviceIdentifier 服务标识
+     * @param revision          开始的版本，0 表示从当前版本开始
+     */
+    private void watch(String serviceIdentifier, long revision) {
+        // 1. 若尚未监听过该服务，则添加到 watchingKeySet 并开始监听
+        if (!watchingKeySet.add(serviceIdentifier)) {
+            return;
+        }
+        // 2. 获取 etcd 的 watch 客户端，监听 /rpc/serviceName:serviceVersion/ 前缀
+        Watch watchClient = client.getWatchClient();
+        WatchOption.Builder watchOption = WatchOption.builder().isPrefix(true);
+        if (revision > 0) {
+            watchOption.withRevision(revision);
+        }
+        Watch.Watcher watcher = watchClient.watch(
+                ByteSequence.from(servicePrefix(serviceIdentifier), StandardCharsets.UTF_8),
+                watchOption.build(),
+                response -> {
+                    // 3. 一次响应中的事件按版本顺序逐个应用到快照上
+                    for (WatchEvent event : response.getEvents()) {
+                        KeyValue keyValue = event.getKeyValue();
+                        String key = keyValue.getKey().toString(StandardCharsets.UTF_8);
+                        long modRevision = keyValue.getModRevision();
+                        switch (event.getEventType()) {
+                            case PUT:
+                                ServiceMetaData serviceMetaData = toServiceMetaData(keyValue);
+                                if (serviceMetaData == null) {
+                                    // 节点数据变成了解析不了的内容：旧的数据已经不可信，从快照中去掉
+                                    registryServiceCache.apply(serviceIdentifier,
+                                            snapshot -> snapshot.withDelete(key, modRevision));
+                                    break;
+                                }
+                                registryServiceCache.apply(serviceIdentifier,
+                                        snapshot -> snapshot.withPut(key, serviceMetaData, modRevision));
+                                break;
+                            case DELETE:
+                                registryServiceCache.apply(serviceIdentifier,
+                                        snapshot -> snapshot.withDelete(key, modRevision));
+                                break;
+                            default:
+                                break;
+                        }
                     }
-                }
-            });
+                },
+                e -> {
+                    log.warn("Watch {} failed, drop cached instances and reload on next discovery", serviceIdentifier, e);
+                    stopWatch(serviceIdentifier);
+                    registryServiceCache.clearCache(serviceIdentifier);
+                });
+        watchers.put(serviceIdentifier, watcher);
+        // watch 刚建立就出错时 stopWatch 可能已经执行完了，这里补关一次
+        if (!watchingKeySet.contains(serviceIdentifier) && watchers.remove(serviceIdentifier, watcher)) {
+            watcher.close();
         }
     }
+
+    /**
+     * 节点的值是 ServiceMetaData 序列化后的 JSON
+     *
+     * @return 解析失败时返回 null
+     */
+    private static ServiceMetaData toServiceMetaData(KeyValue keyValue) {
+        String key = keyValue.getKey().toString(StandardCharsets.UTF_8);
+        try {
+            ServiceMetaData serviceMetaData = JSONUtil.toBean(keyValue.getValue().toString(StandardCharsets.UTF_8),
+                    ServiceMetaData.class);
+            if (serviceMetaData == null || serviceMetaData.getServiceHost() == null) {
+                log.warn("服务节点数据不完整，跳过:{}", key);
+                return null;
+            }
+            return serviceMetaData;
+        } catch (Exception e) {
+            log.warn("服务节点数据解析失败，跳过:{}", key, e);
+            return null;
+        }
+    }
+
+    /**
+     * 停止监听一个服务
+     */
+    private void stopWatch(String serviceIdentifier) {
+        Watch.Watcher watcher = watchers.remove(serviceIdentifier);
+        if (watcher != null) {
+            watcher.close();
+        }
+        watchingKeySet.remove(serviceIdentifier);
+    }
+
+    /**
+     * 服务标识在 etcd 中的前缀 /rpc/serviceName:serviceVersion/
+     */
+    private static String servicePrefix(String serviceIdentifier) {
+        return ETCD_ROOT_PATH + serviceIdentifier + "/";
+    }
 }
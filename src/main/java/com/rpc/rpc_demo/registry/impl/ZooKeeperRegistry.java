@@ -1,14 +1,14 @@
 package com.rpc.rpc_demo.registry.impl;
 
-import cn.hutool.core.collection.ConcurrentHashSet;
 import com.rpc.rpc_demo.config.RegistryConfig;
 import com.rpc.rpc_demo.model.ServiceMetaData;
 import com.rpc.rpc_demo.registry.RegisteredServiceCache;
 import com.rpc.rpc_demo.registry.Registry;
-import lombok.extern.log4j.Log4j2;
+import com.rpc.rpc_demo.registry.ServiceInstanceSnapshot;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.recipes.cache.ChildData;
 import org.apache.curator.framework.recipes.cache.CuratorCache;
 import org.apache.curator.framework.recipes.cache.CuratorCacheListener;
 import org.apache.curator.retry.ExponentialBackoffRetry;
@@ -17,11 +17,15 @@ import org.apache.curator.x.discovery.ServiceDiscoveryBuilder;
 import org.apache.curator.x.discovery.ServiceInstance;
 import org.apache.curator.x.discovery.details.JsonInstanceSerializer;
 
-import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author jiahao.liu
@@ -52,9 +56,31 @@ public class ZooKeeperRegistry implements Registry {
     private final RegisteredServiceCache registryServiceCache = new RegisteredServiceCache();
 
     /**
-     * 监听的key集合，避免重复监听
+     * 服务标识 -> 这个服务的 CuratorCache 第一次加载完成，同时用来避免重复监听
      */
-    private final Set<String> watchingKeySet = new ConcurrentHashSet<>();
+    private final Map<String, CompletableFuture<Void>> initializedFutures = new ConcurrentHashMap<>();
+
+    /**
+     * 服务标识 -> 这个服务的 CuratorCache，销毁时关闭
+     */
+    private final Map<String, CuratorCache> curatorCaches = new ConcurrentHashMap<>();
+
+    /**
+     * 快照的版本，所有服务共用，每应用一次变更加一
+     * ZK 的删除事件拿不到删除时的 zxid，所以不用 zxid 作为版本；同一个 CuratorCache 的事件是按顺序回调的，本地计数就够了
+     */
+    private final AtomicLong snapshotVersion = new AtomicLong();
+
+    /**
+     * 服务实例的序列化方式，和 ServiceDiscovery 使用同一个
+     */
+    private final JsonInstanceSerializer<ServiceMetaData> instanceSerializer =
+            new JsonInstanceSerializer<>(ServiceMetaData.class);
+
+    /**
+     * 等待第一次加载的超时时间 ms
+     */
+    private long timeout;
 
     /**
      * 初始化注册中心，创建 CuratorFramework 和 ServiceDiscovery 实例并启动
@@ -63,6 +89,9 @@ public class ZooKeeperRegistry implements Registry {
      */
     @Override
     public void init(RegistryConfig registryConfig) {
+        timeout = registryConfig.getTimeout();
+        // 读取本地的服务列表快照，ZK 连不上时先用它
+        registryServiceCache.init(registryConfig);
         // 1. 构建 CuratorFramework 客户端，连接到 ZK
         client = CuratorFrameworkFactory
                 .builder()
@@ -74,7 +103,7 @@ public class ZooKeeperRegistry implements Registry {
         serviceDiscovery = ServiceDiscoveryBuilder.builder(ServiceMetaData.class)
                 .client(client)
                 .basePath(ZK_ROOT_PATH) // 指定在ZK中的根路径
-                .serializer(new JsonInstanceSerializer<>(ServiceMetaData.class)) // 服务信息的序列化方式
+                .serializer(instanceSerializer) // 服务信息的序列化方式
                 .build();
 
         try {
@@ -127,61 +156,150 @@ public class ZooKeeperRegistry implements Registry {
 
     /**
      * 服务发现，根据服务key从ZK获取所有服务节点
+     * 缓存命中时只读一次快照的引用，不加锁、不访问 ZK；快照由这个服务的 CuratorCache 增量更新，一直是最新的
+     * 缓存没有时启动这个服务的 CuratorCache，等它第一次加载完成
+     * 有最后一次知道的服务列表（本地快照文件）时先返回它，在后台加载，见 RegisteredServiceCache.discover
      *
      * @param serviceIdentifier 服务标识，例如 "serviceName:serviceVersion"
-     * @return 服务节点列表
+     * @return 服务节点列表，不可修改
      */
     @Override
     public List<ServiceMetaData> serviceDiscovery(String serviceIdentifier) {
-        // 1. 先从本地缓存中获取
-        List<ServiceMetaData> cachedServiceMetaDataList = registryServiceCache.readCache(serviceIdentifier);
-        if (cachedServiceMetaDataList != null) {
-            return cachedServiceMetaDataList;
-        }
+        // 先从本地缓存中获取，已经加载过的服务即使没有节点也不再查询 ZK，节点上线时 CuratorCache 会更新快照
+        return registryServiceCache.discover(serviceIdentifier, this::load);
+    }
 
+    /**
+     * 如果缓存为空，则监听这个服务，等 CuratorCache 第一次加载完成，同一个服务的多个线程等同一个加载
+     */
+    private void load(String serviceIdentifier) {
         try {
-            // 2. 如果缓存为空，则调用 serviceDiscovery.queryForInstances 查询ZK
-            Collection<ServiceInstance<ServiceMetaData>> serviceInstanceList = serviceDiscovery.queryForInstances(serviceIdentifier);
-
-            // 3. 提取出每个 ServiceInstance 中的 payload（即 ServiceMetaData），组成列表
-            List<ServiceMetaData> ServiceMetaDataList = serviceInstanceList.stream()
-                    .map(ServiceInstance::getPayload)
-                    .collect(Collectors.toList());
-
-            // 4. 写入本地缓存
-            registryServiceCache.writeCache(serviceIdentifier, ServiceMetaDataList);
-            return ServiceMetaDataList;
+            watchService(serviceIdentifier).get(timeout, TimeUnit.MILLISECONDS);
         } catch (Exception e) {
+            // 加载失败，下一次服务发现重新加载
+            stopWatch(serviceIdentifier);
             throw new RuntimeException("获取服务列表失败", e);
         }
     }
 
 
     /**
-     * 监听服务节点（通常在消费端使用），当节点发生变化时清除缓存
+     * 监听一个服务（通常在消费端使用），服务的节点上线、下线、修改时增量更新这个服务的快照，不影响其他服务的缓存
      *
-     * @param serviceNodeKey 服务节点 key
+     * @param serviceIdentifier 服务标识，例如 "serviceName:serviceVersion"
      */
     @Override
-    public void watch(String serviceNodeKey) {
-        // 1. 构造要监听的全路径
-        String watchKey = ZK_ROOT_PATH + "/" + serviceNodeKey;
-
-        // 2. 如果尚未监听该 key，则添加到 watchingKeySet 并开始监听
-        boolean newWatch = watchingKeySet.add(watchKey);
-        if (newWatch) {
-            // 3. 构建 CuratorCache，用于监听 ZK 节点的变化
-            CuratorCache curatorCache = CuratorCache.build(client, watchKey);
-            // 4. 启动 CuratorCache
-            curatorCache.start();
-            // 5. 添加监听器，监控节点的删除和更新事件，一旦发生变动就清除本地缓存
+    public void watch(String serviceIdentifier) {
+        watchService(serviceIdentifier);
+    }
+
+    /**
+     * 为一个服务的路径 /rpc/serviceName:serviceVersion 创建 CuratorCache，每个服务只创建一次
+     * 子节点（一个子节点就是一个服务实例）的事件在 CuratorCache 的同一个线程上按顺序回调：
+     *      初始化完成：用缓存中的所有子节点生成第一个快照
+     *      创建、修改：快照中加入（替换）这个实例
+     *      删除：快照中去掉这个实例
+     * 初始化完成之前的事件不需要处理（还没有快照），它们已经包含在初始化完成时的子节点中
+     * 数据解析失败的节点跳过并记录日志，不能因为一个坏节点让整个服务一直加载不出来；初始化本身失败时返回的 future 异常完成
+     * 断线重连之后 CuratorCache 会自己重新同步，重新同步产生的事件同样增量应用
+     *
+     * @return 第一次加载完成时完成
+     */
+    private CompletableFuture<Void> watchService(String serviceIdentifier) {
+        return initializedFutures.computeIfAbsent(serviceIdentifier, key -> {
+            CompletableFuture<Void> initialized = new CompletableFuture<>();
+            // 1. 构造要监听的服务路径
+            String servicePath = ZK_ROOT_PATH + "/" + serviceIdentifier;
+            // 2. 构建 CuratorCache，用于监听服务路径下子节点的变化
+            CuratorCache curatorCache = CuratorCache.build(client, servicePath);
+            // 3. 添加监听器，把子节点的变化增量应用到快照上
             curatorCache.listenable().addListener(
                     CuratorCacheListener
                             .builder()
-                            .forDeletes(childData -> registryServiceCache.clearCache())
-                            .forChanges(((oldNode, node) -> registryServiceCache.clearCache()))
+                            .forInitialized(() -> {
+                                try {
+                                    Map<String, ServiceMetaData> nodes = new LinkedHashMap<>();
+                                    curatorCache.stream()
+                                            .filter(childData -> isInstanceNode(servicePath, childData))
+                                            .forEach(childData -> {
+                                                ServiceMetaData serviceMetaData = toServiceMetaData(childData);
+                                                if (serviceMetaData != null) {
+                                                    nodes.put(childData.getPath(), serviceMetaData);
+                                                }
+                                            });
+                                    registryServiceCache.writeSnapshot(serviceIdentifier,
+                                            ServiceInstanceSnapshot.of(snapshotVersion.incrementAndGet(), nodes));
+                                    initialized.complete(null);
+                                } catch (Exception e) {
+                                    initialized.completeExceptionally(e);
+                                }
+                            })
+                            .forCreatesAndChanges((oldNode, node) -> {
+                                if (isInstanceNode(servicePath, node)) {
+                                    ServiceMetaData serviceMetaData = toServiceMetaData(node);
+                                    if (serviceMetaData == null) {
+                                        // 节点数据变成了解析不了的内容：旧的数据已经不可信，从快照中去掉
+                                        registryServiceCache.apply(serviceIdentifier, snapshot -> snapshot.withDelete(
+                                                node.getPath(), snapshotVersion.incrementAndGet()));
+                                        return;
+                                    }
+                                    registryServiceCache.apply(serviceIdentifier, snapshot -> snapshot.withPut(
+                                            node.getPath(), serviceMetaData, snapshotVersion.incrementAndGet()));
+                                }
+                            })
+                            .forDeletes(oldNode -> {
+                                if (isInstanceNode(servicePath, oldNode)) {
+                                    registryServiceCache.apply(serviceIdentifier, snapshot -> snapshot.withDelete(
+                                            oldNode.getPath(), snapshotVersion.incrementAndGet()));
+                                }
+                            })
                             .build()
             );
+            // 4. 启动 CuratorCache
+            curatorCaches.put(serviceIdentifier, curatorCache);
+            curatorCache.start();
+            return initialized;
+        });
+    }
+
+    /**
+     * 停止监听一个服务，丢掉它的快照
+     */
+    private void stopWatch(String serviceIdentifier) {
+        initializedFutures.remove(serviceIdentifier);
+        CuratorCache curatorCache = curatorCaches.remove(serviceIdentifier);
+        if (curatorCache != null) {
+            curatorCache.close();
+        }
+        registryServiceCache.clearCache(serviceIdentifier);
+    }
+
+    /**
+     * 是不是服务路径下的实例节点（服务路径本身不是）
+     */
+    private static boolean isInstanceNode(String servicePath, ChildData childData) {
+        String path = childData.getPath();
+        return path.length() > servicePath.length() + 1
+                && path.startsWith(servicePath + "/")
+                && path.indexOf('/', servicePath.length() + 1) < 0
+                && childData.getData() != null;
+    }
+
+    /**
+     * 节点数据是 ServiceDiscovery 序列化的 ServiceInstance，payload 就是 ServiceMetaData
+     *
+     * @return 解析失败（数据不是 ServiceInstance、没有 payload）时返回 null
+     */
+    private ServiceMetaData toServiceMetaData(ChildData childData) {
+        try {
+            ServiceMetaData serviceMetaData = instanceSerializer.deserialize(childData.getData()).getPayload();
+            if (serviceMetaData == null) {
+                log.warn("服务节点没有 payload，跳过:{}", childData.getPath());
+            }
+            return serviceMetaData;
+        } catch (Exception e) {
+            log.warn("服务节点数据解析失败，跳过:{}", childData.getPath(), e);
+            return null;
         }
     }
 
@@ -200,7 +318,13 @@ public class ZooKeeperRegistry implements Registry {
             }
         }
 
-        // 2. 关闭 CuratorFramework 客户端
+        // 2. 关闭所有服务的 CuratorCache，保存服务列表快照
+        for (String serviceIdentifier : curatorCaches.keySet()) {
+            stopWatch(serviceIdentifier);
+        }
+        registryServiceCache.flush();
+
+        // 3. 关闭 CuratorFramework 客户端
         if (client != null) {
             client.close();
         }
@@ -0,0 +1,48 @@
+package com.rpc.rpc_demo.serializer;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * @Description ByteBuffer 的输入流视图，只能基于 InputStream 反序列化的序列化器（JDK、Hessian）用它直接读取网络数据，不需要先拷贝成 byte[]
+ * 读取会移动 ByteBuffer 的 position
+ * @Author veritas
+ * @Data 2025/3/12 17:05
+ */
+public class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer byteBuffer;
+
+    public ByteBufferInputStream(ByteBuffer byteBuffer) {
+        this.byteBuffer = byteBuffer;
+    }
+
+    @Override
+    public int read() {
+        return byteBuffer.hasRemaining() ? byteBuffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+        if (length == 0) {
+            return 0;
+        }
+        if (!byteBuffer.hasRemaining()) {
+            return -1;
+        }
+        int count = Math.min(length, byteBuffer.remaining());
+        byteBuffer.get(bytes, offset, count);
+        return count;
+    }
+
+    @Override
+    public long skip(long n) {
+        int count = (int) Math.max(0, Math.min(n, byteBuffer.remaining()));
+        byteBuffer.position(byteBuffer.position() + count);
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return byteBuffer.remaining();
+    }
+}
@@ -1,6 +1,8 @@
 package com.rpc.rpc_demo.serializer;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 /**
  * @author jiahao.liu
@@ -18,6 +20,20 @@ public interface Serializer {
      */
     <T> byte[] serialize(T obj) throws IOException;
 
+    /**
+     * 序列化 直接写到输出流中（比如要发送的网络 Buffer），不产生中间的 byte[]
+     * 默认实现先序列化成 byte[] 再写出，各个序列化器尽量重写，避免这次拷贝
+     * 实现不应该关闭输出流
+     *
+     * @param obj          待序列化的对象
+     * @param outputStream 输出流
+     * @param <T>          对象类型
+     * @throws IOException 序列化异常
+     */
+    default <T> void serialize(T obj, OutputStream outputStream) throws IOException {
+        outputStream.write(serialize(obj));
+    }
+
     /**
      * 反序列化
      *
@@ -28,4 +44,34 @@ public interface Serializer {
      * @throws IOException 反序列化异常
      */
     <T> T deserialize(byte[] bytes, Class<T> clazz) throws IOException;
+
+    /**
+     * 反序列化 直接读取 ByteBuffer（比如网络数据上的视图），读取范围是 position ~ limit
+     * 默认实现先拷贝成 byte[]，各个序列化器尽量重写，避免这次拷贝
+     *
+     * @param byteBuffer 数据
+     * @param clazz      对象类型
+     * @param <T>        对象类型
+     * @return 反序列化后的对象
+     * @throws IOException 反序列化异常
+     */
+    default <T> T deserialize(ByteBuffer byteBuffer, Class<T> clazz) throws IOException {
+        byte[] bytes = new byte[byteBuffer.remaining()];
+        byteBuffer.duplicate().get(bytes);
+        return deserialize(bytes, clazz);
+    }
+
+    /**
+     * 反序列化参数列表（紧凑格式的请求体，见 ProtocolConstant.PROTOCOL_VERSION_COMPACT），数据是 serialize(Object[]) 的结果
+     * 默认实现按 Object[] 反序列化，不需要参数类型的序列化器（JDK、Kryo、Hessian、Protostuff）直接使用；
+     * JSON 会丢失类型信息，需要按参数类型重写
+     *
+     * @param byteBuffer     数据
+     * @param parameterTypes 参数类型列表
+     * @return 参数列表
+     * @throws IOException 反序列化异常
+     */
+    default Object[] deserializeArgs(ByteBuffer byteBuffer, Class<?>[] parameterTypes) throws IOException {
+        return deserialize(byteBuffer, Object[].class);
+    }
 }
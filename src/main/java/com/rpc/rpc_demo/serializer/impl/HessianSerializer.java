@@ -1,11 +1,14 @@
 package com.rpc.rpc_demo.serializer.impl;
 import com.caucho.hessian.io.HessianInput;
 import com.caucho.hessian.io.HessianOutput;
+import com.rpc.rpc_demo.serializer.ByteBufferInputStream;
 import com.rpc.rpc_demo.serializer.Serializer;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 /**
  * @author jiahao.liu
@@ -21,10 +24,23 @@ public class HessianSerializer implements Serializer {
         return byteArrayOutputStream.toByteArray();
     }
 
+    @Override
+    public <T> void serialize(T obj, OutputStream outputStream) throws IOException {
+        HessianOutput hessianOutput = new HessianOutput(outputStream);
+        hessianOutput.writeObject(obj);
+        hessianOutput.flush();
+    }
+
     @Override
     public <T> T deserialize(byte[] bytes, Class<T> clazz) throws IOException {
         ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(bytes);
         HessianInput hessianInput = new HessianInput(byteArrayInputStream);
         return (T)hessianInput.readObject(clazz);
     }
+
+    @Override
+    public <T> T deserialize(ByteBuffer byteBuffer, Class<T> clazz) throws IOException {
+        HessianInput hessianInput = new HessianInput(new ByteBufferInputStream(byteBuffer.duplicate()));
+        return (T)hessianInput.readObject(clazz);
+    }
 }
@@ -1,13 +1,17 @@
 package com.rpc.rpc_demo.serializer.impl;
 
+import com.rpc.rpc_demo.serializer.ByteBufferInputStream;
 import com.rpc.rpc_demo.serializer.Serializer;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 /**
  * @author jiahao.liu
@@ -27,10 +31,26 @@ public class JDKSerializer implements Serializer {
         return byteArrayOutputStream.toByteArray();
     }
 
+    @Override
+    public <T> void serialize(T obj, OutputStream outputStream) throws IOException {
+        ObjectOutputStream objectOutputStream = new ObjectOutputStream(outputStream);
+        objectOutputStream.writeObject(obj);
+        // 只 flush 不 close，输出流由调用方管理
+        objectOutputStream.flush();
+    }
+
     @Override
     public <T> T deserialize(byte[] bytes, Class<T> clazz) throws IOException {
-        ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(bytes);
-        ObjectInputStream objectInputStream = new ObjectInputStream(byteArrayInputStream);
+        return deserialize(new ByteArrayInputStream(bytes));
+    }
+
+    @Override
+    public <T> T deserialize(ByteBuffer byteBuffer, Class<T> clazz) throws IOException {
+        return deserialize(new ByteBufferInputStream(byteBuffer.duplicate()));
+    }
+
+    private <T> T deserialize(InputStream inputStream) throws IOException {
+        ObjectInputStream objectInputStream = new ObjectInputStream(inputStream);
 
         try{
             return (T)objectInputStream.readObject();
@@ -1,77 +1,230 @@
 package com.rpc.rpc_demo.serializer.impl;
 
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 import com.rpc.rpc_demo.model.RpcRequest;
 import com.rpc.rpc_demo.model.RpcResponse;
+import com.rpc.rpc_demo.serializer.ByteBufferInputStream;
 import com.rpc.rpc_demo.serializer.Serializer;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * @author jiahao.liu
- * @description
+ * @description JSON 序列化器
+ * <pre>
+ * 由于 Object 的原始类型会被擦除，RpcRequest.args、RpcResponse.data 按默认方式反序列化会变成 LinkedHashMap
+ * 之前的做法是反序列化之后再把这些字段序列化成 byte[]、按真实类型再解析一遍
+ * 现在 RpcRequest、RpcResponse 使用自定义的反序列化器，一遍完成：
+ *      序列化时保证类型字段在数据字段前面（parameterTypes 在 args 前面，dataType 在 data 前面）
+ *      反序列化时先读到类型，再直接按类型读取数据
+ *      如果数据字段出现在类型字段前面（比如其他实现发来的 JSON），先把数据字段缓存成 TokenBuffer（不是 byte[]），读到类型之后再解析
+ * </pre>
  * @date 2025/03/08 11:25
  */
 public class JSONSerializer implements Serializer {
-    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
+            .addMixIn(RpcRequest.class, RpcRequestMixin.class)
+            .addMixIn(RpcResponse.class, RpcResponseMixin.class)
+            .registerModule(new SimpleModule()
+                    .addDeserializer(RpcRequest.class, new RpcRequestDeserializer())
+                    .addDeserializer(RpcResponse.class, new RpcResponseDeserializer()));
 
     @Override
     public <T> byte[] serialize(T obj) throws IOException {
         return OBJECT_MAPPER.writeValueAsBytes(obj);
     }
 
+    @Override
+    public <T> void serialize(T obj, OutputStream outputStream) throws IOException {
+        // 不能用 writeValue(OutputStream, ...)，它默认会关闭输出流
+        try (JsonGenerator generator = OBJECT_MAPPER.getFactory().createGenerator(outputStream)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            OBJECT_MAPPER.writeValue(generator, obj);
+        }
+    }
+
     @Override
     public <T> T deserialize(byte[] bytes, Class<T> clazz) throws IOException {
-        T obj = OBJECT_MAPPER.readValue(bytes, clazz);
-        if(obj instanceof RpcRequest) {
-            return handleRequest((RpcRequest)obj, clazz);
+        return OBJECT_MAPPER.readValue(bytes, clazz);
+    }
+
+    @Override
+    public <T> T deserialize(ByteBuffer byteBuffer, Class<T> clazz) throws IOException {
+        if (!byteBuffer.hasArray()) {
+            return Serializer.super.deserialize(byteBuffer, clazz);
         }
-        if(obj instanceof RpcResponse) {
-            return handleResponse((RpcResponse)obj, clazz);
+        // 直接读取 ByteBuffer 底层的数组，不拷贝
+        return OBJECT_MAPPER.readValue(byteBuffer.array(), byteBuffer.arrayOffset() + byteBuffer.position(),
+                byteBuffer.remaining(), clazz);
+    }
+
+    @Override
+    public Object[] deserializeArgs(ByteBuffer byteBuffer, Class<?>[] parameterTypes) throws IOException {
+        try (JsonParser p = byteBuffer.hasArray()
+                ? OBJECT_MAPPER.createParser(byteBuffer.array(), byteBuffer.arrayOffset() + byteBuffer.position(), byteBuffer.remaining())
+                : OBJECT_MAPPER.createParser(new ByteBufferInputStream(byteBuffer.duplicate()))) {
+            if (p.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException("参数列表格式错误");
+            }
+            Object[] args = new Object[parameterTypes.length];
+            for (int i = 0; i < parameterTypes.length; i++) {
+                p.nextToken();
+                args[i] = p.currentToken() == JsonToken.VALUE_NULL ? null : OBJECT_MAPPER.readValue(p, parameterTypes[i]);
+            }
+            return args;
         }
-        return obj;
     }
 
     /**
-     * 由于Object 的原始对象会被擦除，导致反序列化时 LinkedHashMap 无法转换为 原始对象，这里需要特殊处理
-     *
-     * @param rpcRequest
-     * @param type
-     * @param <T>
-     * @return
+     * 序列化 RpcRequest 时，参数类型列表写在参数列表前面
+     */
+    @JsonPropertyOrder({"serviceName", "methodName", "serviceVersion", "parameterTypes", "args"})
+    abstract static class RpcRequestMixin {
+    }
+
+    /**
+     * 序列化 RpcResponse 时，数据类型写在数据前面
      */
-    public <T> T handleRequest(RpcRequest rpcRequest, Class<T> type) throws IOException {
-        // 参数类型列表
-        Class<?>[] parameterTypes = rpcRequest.getParameterTypes();
-        // 参数列表
-        Object[] args = rpcRequest.getArgs();
-
-        for (int i = 0; i < parameterTypes.length; i++) {
-            Class<?> clazz = parameterTypes[i];
-            // 如果类型 与 参数的真正的类型不同
-            if(!clazz.isAssignableFrom(args[i].getClass())) {
-                byte[] bytes = OBJECT_MAPPER.writeValueAsBytes(args[i]);
-
-                args[i] = OBJECT_MAPPER.readValue(bytes, clazz);
+    @JsonPropertyOrder({"dataType", "message", "exception", "data"})
+    abstract static class RpcResponseMixin {
+    }
+
+    /**
+     * RpcRequest 反序列化器，按 parameterTypes 直接读取每个参数
+     */
+    static class RpcRequestDeserializer extends StdDeserializer<RpcRequest> {
+        RpcRequestDeserializer() {
+            super(RpcRequest.class);
+        }
+
+        @Override
+        public RpcRequest deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            RpcRequest rpcRequest = new RpcRequest();
+            // args 出现在 parameterTypes 前面时先缓存起来
+            TokenBuffer bufferedArgs = null;
+            JsonToken token = p.currentToken();
+            if (token == JsonToken.START_OBJECT) {
+                token = p.nextToken();
+            }
+            for (; token == JsonToken.FIELD_NAME; token = p.nextToken()) {
+                String fieldName = p.currentName();
+                p.nextToken();
+                switch (fieldName) {
+                    case "serviceName":
+                        rpcRequest.setServiceName(p.getValueAsString());
+                        break;
+                    case "methodName":
+                        rpcRequest.setMethodName(p.getValueAsString());
+                        break;
+                    case "serviceVersion":
+                        rpcRequest.setServiceVersion(p.getValueAsString());
+                        break;
+                    case "parameterTypes":
+                        rpcRequest.setParameterTypes(ctxt.readValue(p, Class[].class));
+                        break;
+                    case "args":
+                        if (p.currentToken() == JsonToken.VALUE_NULL) {
+                            rpcRequest.setArgs(null);
+                        } else if (rpcRequest.getParameterTypes() != null) {
+                            rpcRequest.setArgs(readArgs(p, ctxt, rpcRequest.getParameterTypes()));
+                        } else {
+                            bufferedArgs = new TokenBuffer(p, ctxt);
+                            bufferedArgs.copyCurrentStructure(p);
+                        }
+                        break;
+                    default:
+                        p.skipChildren();
+                }
+            }
+            if (bufferedArgs != null) {
+                try (JsonParser argsParser = bufferedArgs.asParser(p.getCodec())) {
+                    argsParser.nextToken();
+                    rpcRequest.setArgs(readArgs(argsParser, ctxt, rpcRequest.getParameterTypes()));
+                }
             }
+            return rpcRequest;
+        }
+
+        /**
+         * 按参数类型读取参数列表，当前位置是参数数组的开始
+         */
+        private static Object[] readArgs(JsonParser p, DeserializationContext ctxt, Class<?>[] parameterTypes) throws IOException {
+            List<Object> args = new ArrayList<>(parameterTypes == null ? 4 : parameterTypes.length);
+            int index = 0;
+            while (p.nextToken() != JsonToken.END_ARRAY) {
+                Class<?> type = parameterTypes != null && index < parameterTypes.length ? parameterTypes[index] : Object.class;
+                args.add(p.currentToken() == JsonToken.VALUE_NULL ? null : ctxt.readValue(p, type));
+                index++;
+            }
+            return args.toArray();
         }
-        return type.cast(rpcRequest);
     }
 
     /**
-     * 由于Object 的原始对象会被擦除，导致反序列化时 LinkedHashMap 无法转换为 原始对象，这里需要特殊处理
-     *
-     * @param rpcResponse
-     * @param type
-     * @param <T>
-     * @return
-     * @throws IOException
+     * RpcResponse 反序列化器，按 dataType 直接读取 data
      */
-    public <T> T handleResponse(RpcResponse rpcResponse, Class<T> type) throws IOException {
-        byte[] bytes = OBJECT_MAPPER.writeValueAsBytes(rpcResponse.getData());
-        rpcResponse.setData(OBJECT_MAPPER.readValue(bytes,rpcResponse.getDataType()));
+    static class RpcResponseDeserializer extends StdDeserializer<RpcResponse> {
+        RpcResponseDeserializer() {
+            super(RpcResponse.class);
+        }
 
-        return type.cast(rpcResponse);
+        @Override
+        public RpcResponse deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            RpcResponse rpcResponse = new RpcResponse();
+            // data 出现在 dataType 前面时先缓存起来
+            TokenBuffer bufferedData = null;
+            JsonToken token = p.currentToken();
+            if (token == JsonToken.START_OBJECT) {
+                token = p.nextToken();
+            }
+            for (; token == JsonToken.FIELD_NAME; token = p.nextToken()) {
+                String fieldName = p.currentName();
+                p.nextToken();
+                switch (fieldName) {
+                    case "dataType":
+                        rpcResponse.setDataType(p.currentToken() == JsonToken.VALUE_NULL ? null : ctxt.readValue(p, Class.class));
+                        break;
+                    case "message":
+                        rpcResponse.setMessage(p.getValueAsString());
+                        break;
+                    case "exception":
+                        rpcResponse.setException(p.currentToken() == JsonToken.VALUE_NULL ? null : ctxt.readValue(p, Exception.class));
+                        break;
+                    case "data":
+                        if (p.currentToken() == JsonToken.VALUE_NULL) {
+                            rpcResponse.setData(null);
+                        } else if (rpcResponse.getDataType() != null) {
+                            rpcResponse.setData(ctxt.readValue(p, rpcResponse.getDataType()));
+                        } else {
+                            bufferedData = new TokenBuffer(p, ctxt);
+                            bufferedData.copyCurrentStructure(p);
+                        }
+                        break;
+                    default:
+                        p.skipChildren();
+                }
+            }
+            if (bufferedData != null) {
+                try (JsonParser dataParser = bufferedData.asParser(p.getCodec())) {
+                    dataParser.nextToken();
+                    Class<?> dataType = rpcResponse.getDataType() != null ? rpcResponse.getDataType() : Object.class;
+                    rpcResponse.setData(ctxt.readValue(dataParser, dataType));
+                }
+            }
+            return rpcResponse;
+        }
     }
 }
@@ -1,49 +1,207 @@
 package com.rpc.rpc_demo.serializer.impl;
 
 import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.ByteBufferInput;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.util.Pool;
+import com.rpc.rpc_demo.model.RpcRequest;
+import com.rpc.rpc_demo.model.RpcResponse;
 import com.rpc.rpc_demo.serializer.Serializer;
 
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 
 /**
  * @author jiahao.liu
- * @description
+ * @description Kryo 序列化器
+ * <pre>
+ * Kryo 对象不是线程安全的，之前用 ThreadLocal 保证线程安全，线程很多（大线程池、虚拟线程）时每个线程都有一份，很浪费
+ * 现在 Kryo、Output、Input 都从有界的对象池中借用，用完归还：
+ *      并发数不超过池的容量时不会创建新对象；超过时临时创建，归还时池满了直接丢弃，池中保留的对象数量有上限
+ * 预注册常用类：注册过的类写的是一个很小的 int ID，没有注册的类要写完整的类名，注册之后消息体更小、序列化更快
+ *      默认注册 RpcRequest、RpcResponse 等框架内部的类，业务类通过 register 或者 RpcConfig.kryoRegistrationClasses 注册
+ *      注意：ID 是按注册顺序分配的，服务提供者和服务消费者必须以相同的顺序注册相同的类
+ *      没有注册的类仍然可以序列化（registrationRequired = false）
+ *      每个 Kryo 池对应一份固定的注册列表，register 时换成一个新的池：借出去的 Kryo 归还到它原来的池中，
+ *      不会混进新的池，同一个池中所有 Kryo 的注册信息都是一样的
+ * </pre>
  * @date 2025/03/08 12:00
  */
 public class KryoSerializer implements Serializer {
+    /**
+     * 对象池的容量
+     */
+    private static final int POOL_CAPACITY = Runtime.getRuntime().availableProcessors() * 4;
 
-    // Kryo 对象不是线程安全的，因此使用 ThreadLocal 来保证线程安全
-    private static final ThreadLocal<Kryo> KRYO_THREAD_LOCAL = ThreadLocal.withInitial(() -> {
-        Kryo kryo = new Kryo();
-        // 设置动态序列化和反序列化类，不能提前注册类（可能有安全问题）
-        kryo.setRegistrationRequired(false);
+    /**
+     * Output 缓冲区的初始大小
+     */
+    private static final int OUTPUT_BUFFER_SIZE = 4096;
 
-        return kryo;
-    });
+    /**
+     * Output 缓冲区超过这个大小就不再归还到池中，避免一个大消息让池中一直占着大块内存
+     */
+    private static final int MAX_POOLED_BUFFER_SIZE = 64 * 1024;
+
+    private static final byte[] EMPTY_BYTES = new byte[0];
+
+    private static final ByteBuffer EMPTY_BYTE_BUFFER = ByteBuffer.allocate(0);
+
+    /**
+     * 预注册的类，顺序决定类的 ID，只在 register 中（加锁）替换，不修改
+     */
+    private static volatile List<Class<?>> registrationClasses = List.of(
+            RpcRequest.class,
+            RpcResponse.class,
+            Class.class,
+            Class[].class,
+            Object[].class,
+            String[].class,
+            ArrayList.class,
+            HashMap.class,
+            LinkedHashMap.class,
+            HashSet.class
+    );
+
+    /**
+     * 当前的 Kryo 池，池中的 Kryo 都按 registrationClasses 注册
+     */
+    private static volatile Pool<Kryo> kryoPool = newKryoPool(registrationClasses);
+
+    private static final Pool<Output> OUTPUT_POOL = new Pool<Output>(true, false, POOL_CAPACITY) {
+        @Override
+        protected Output create() {
+            return new Output(OUTPUT_BUFFER_SIZE, -1);
+        }
+    };
+
+    private static final Pool<Input> INPUT_POOL = new Pool<Input>(true, false, POOL_CAPACITY) {
+        @Override
+        protected Input create() {
+            return new Input();
+        }
+    };
+
+    private static final Pool<ByteBufferInput> BYTE_BUFFER_INPUT_POOL = new Pool<ByteBufferInput>(true, false, POOL_CAPACITY) {
+        @Override
+        protected ByteBufferInput create() {
+            return new ByteBufferInput();
+        }
+    };
+
+    /**
+     * 注册业务类，需要在第一次序列化之前调用，服务提供者和服务消费者的注册顺序必须一致
+     *
+     * @param classes 要注册的类
+     */
+    public static synchronized void register(Class<?>... classes) {
+        List<Class<?>> newRegistrationClasses = new ArrayList<>(registrationClasses);
+        for (Class<?> clazz : classes) {
+            if (!newRegistrationClasses.contains(clazz)) {
+                newRegistrationClasses.add(clazz);
+            }
+        }
+        if (newRegistrationClasses.size() == registrationClasses.size()) {
+            return;
+        }
+        // 池中已经创建的 Kryo 没有这些注册信息，整个池换掉，正在使用的 Kryo 归还到旧的池，之后随旧的池一起回收
+        registrationClasses = List.copyOf(newRegistrationClasses);
+        kryoPool = newKryoPool(registrationClasses);
+    }
+
+    private static Pool<Kryo> newKryoPool(List<Class<?>> classes) {
+        return new Pool<Kryo>(true, false, POOL_CAPACITY) {
+            @Override
+            protected Kryo create() {
+                Kryo kryo = new Kryo();
+                // 设置动态序列化和反序列化类，没有注册的类也可以序列化
+                kryo.setRegistrationRequired(false);
+                for (Class<?> clazz : classes) {
+                    kryo.register(clazz);
+                }
+                return kryo;
+            }
+        };
+    }
 
     @Override
     public <T> byte[] serialize(T obj) throws IOException {
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        Output output = new Output(byteArrayOutputStream);
-        KRYO_THREAD_LOCAL.get().writeObject(output, obj);
-        output.close();
-        return byteArrayOutputStream.toByteArray();
+        Pool<Kryo> pool = kryoPool;
+        Kryo kryo = pool.obtain();
+        Output output = OUTPUT_POOL.obtain();
+        try {
+            output.reset();
+            kryo.writeObject(output, obj);
+            return output.toBytes();
+        } finally {
+            freeOutput(output);
+            pool.free(kryo);
+        }
     }
 
     @Override
-    public <T> T deserialize(byte[] bytes, Class<T> clazz) throws IOException {
-        ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(bytes);
-        Input input = new Input(byteArrayInputStream);
+    public <T> void serialize(T obj, OutputStream outputStream) throws IOException {
+        Pool<Kryo> pool = kryoPool;
+        Kryo kryo = pool.obtain();
+        Output output = OUTPUT_POOL.obtain();
+        try {
+            output.setOutputStream(outputStream);
+            kryo.writeObject(output, obj);
+            // 只 flush 不 close，输出流由调用方管理
+            output.flush();
+        } finally {
+            output.setOutputStream(null);
+            freeOutput(output);
+            pool.free(kryo);
+        }
+    }
 
-        T res = KRYO_THREAD_LOCAL.get().readObject(input, clazz);
+    @Override
+    public <T> T deserialize(byte[] bytes, Class<T> clazz) throws IOException {
+        Pool<Kryo> pool = kryoPool;
+        Kryo kryo = pool.obtain();
+        Input input = INPUT_POOL.obtain();
+        try {
+            input.setBuffer(bytes);
+            return kryo.readObject(input, clazz);
+        } finally {
+            input.setBuffer(EMPTY_BYTES);
+            INPUT_POOL.free(input);
+            pool.free(kryo);
+        }
+    }
 
-        input.close();
+    @Override
+    public <T> T deserialize(ByteBuffer byteBuffer, Class<T> clazz) throws IOException {
+        Pool<Kryo> pool = kryoPool;
+        Kryo kryo = pool.obtain();
+        ByteBufferInput input = BYTE_BUFFER_INPUT_POOL.obtain();
+        try {
+            // ByteBufferInput 直接读取 ByteBuffer，不拷贝
+            input.setBuffer(byteBuffer.duplicate());
+            return kryo.readObject(input, clazz);
+        } finally {
+            input.setBuffer(EMPTY_BYTE_BUFFER);
+            BYTE_BUFFER_INPUT_POOL.free(input);
+            pool.free(kryo);
+        }
+    }
 
-        return res;
+    /**
+     * 归还 Output，缓冲区太大时换回初始大小
+     */
+    private static void freeOutput(Output output) {
+        if (output.getBuffer().length > MAX_POOLED_BUFFER_SIZE) {
+            output.setBuffer(new byte[OUTPUT_BUFFER_SIZE], -1);
+        }
+        OUTPUT_POOL.free(output);
     }
 }
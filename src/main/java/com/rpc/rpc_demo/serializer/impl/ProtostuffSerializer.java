@@ -8,50 +8,108 @@ import com.rpc.rpc_demo.serializer.Serializer;
 
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author jiahao.liu
- * @description
+ * @description Protostuff 序列化器
+ * <pre>
+ * LinkedBuffer 不是线程安全的，之前所有线程共用一个静态的 LinkedBuffer，并发时数据会错乱；
+ *      现在从有界的缓冲池中借用，用完归还，池空时临时创建，池满时直接丢弃
+ * schema 创建开销很大，按类型缓存（之前的缓存逻辑写反了，实际上从来没有缓存过）
+ * 根对象统一包装成 Wrapper 再序列化：
+ *      Wrapper 只有一个 Object 类型的字段，protostuff 对 Object 字段会写入真实的类型，
+ *      所以 String、集合、数组、子类对象 作为根对象也能还原成原来的类型，
+ *      RpcRequest.args、RpcResponse.data 这类 Object 字段本身也是按真实类型写入的
+ * </pre>
  * @date 2025/03/08 12:12
  */
 public class ProtostuffSerializer implements Serializer {
 
-    // 避免每次序列化都重新申请Buffer空间
-    private static LinkedBuffer BUFFER = LinkedBuffer.allocate(LinkedBuffer.DEFAULT_BUFFER_SIZE);
+    /**
+     * 缓冲池的容量
+     */
+    private static final int POOL_CAPACITY = Runtime.getRuntime().availableProcessors() * 4;
+
+    /**
+     * LinkedBuffer 缓冲池，避免每次序列化都重新申请Buffer空间
+     */
+    private static final BlockingQueue<LinkedBuffer> BUFFER_POOL = new ArrayBlockingQueue<>(POOL_CAPACITY);
+
     // 缓存schema
-    private static Map<Class<?>, Schema<?>> schemaCache = new ConcurrentHashMap<Class<?>, Schema<?>>();
+    private static final Map<Class<?>, Schema<?>> schemaCache = new ConcurrentHashMap<>();
 
-    private static <T> Schema<T> getSchema(Class<T> clazz) {
-        Schema<T> schema = (Schema<T>) schemaCache.get(clazz);
-        if (schema == null) {
-            schema = RuntimeSchema.getSchema(clazz);
-            if (schema == null) {
-                schemaCache.put(clazz, schema);
-            }
+    /**
+     * 根对象的包装类
+     */
+    static final class Wrapper {
+        Object value;
+
+        Wrapper() {
+        }
+
+        Wrapper(Object value) {
+            this.value = value;
         }
-        return schema;
+    }
+
+    private static <T> Schema<T> getSchema(Class<T> clazz) {
+        return (Schema<T>) schemaCache.computeIfAbsent(clazz, RuntimeSchema::getSchema);
+    }
+
+    private static LinkedBuffer borrowBuffer() {
+        LinkedBuffer buffer = BUFFER_POOL.poll();
+        return buffer != null ? buffer : LinkedBuffer.allocate(LinkedBuffer.DEFAULT_BUFFER_SIZE);
+    }
+
+    private static void returnBuffer(LinkedBuffer buffer) {
+        buffer.clear();
+        BUFFER_POOL.offer(buffer);
     }
 
     @Override
     public <T> byte[] serialize(T obj) throws IOException {
-        Class<T> aClass = (Class<T>) obj.getClass();
-        Schema<T> schema = getSchema(aClass);
-        byte[] data;
+        LinkedBuffer buffer = borrowBuffer();
         try {
-            data = ProtostuffIOUtil.toByteArray(obj, schema, BUFFER);
+            return ProtostuffIOUtil.toByteArray(new Wrapper(obj), getSchema(Wrapper.class), buffer);
         } finally {
-            BUFFER.clear();
+            returnBuffer(buffer);
+        }
+    }
+
+    @Override
+    public <T> void serialize(T obj, OutputStream outputStream) throws IOException {
+        LinkedBuffer buffer = borrowBuffer();
+        try {
+            ProtostuffIOUtil.writeTo(outputStream, new Wrapper(obj), getSchema(Wrapper.class), buffer);
+        } finally {
+            returnBuffer(buffer);
         }
-        return data;
     }
 
     @Override
     public <T> T deserialize(byte[] bytes, Class<T> clazz) throws IOException {
-        Schema<T> schema = getSchema(clazz);
-        T obj = schema.newMessage();
-        ProtostuffIOUtil.mergeFrom(bytes,obj,schema);
-        return obj;
+        Schema<Wrapper> schema = getSchema(Wrapper.class);
+        Wrapper wrapper = schema.newMessage();
+        ProtostuffIOUtil.mergeFrom(bytes, wrapper, schema);
+        return clazz.cast(wrapper.value);
+    }
+
+    @Override
+    public <T> T deserialize(ByteBuffer byteBuffer, Class<T> clazz) throws IOException {
+        if (!byteBuffer.hasArray()) {
+            return Serializer.super.deserialize(byteBuffer, clazz);
+        }
+        Schema<Wrapper> schema = getSchema(Wrapper.class);
+        Wrapper wrapper = schema.newMessage();
+        // 直接读取 ByteBuffer 底层的数组，不拷贝
+        ProtostuffIOUtil.mergeFrom(byteBuffer.array(), byteBuffer.arrayOffset() + byteBuffer.position(),
+                byteBuffer.remaining(), wrapper, schema);
+        return clazz.cast(wrapper.value);
     }
 }
@@ -33,4 +33,12 @@ public @interface RpcService {
      * @return
      */
     String serviceVersion() default DEFAULT_SERVICE_VERSION;
+
+    /**
+     * 执行模型 eventLoop / workerPool / virtualThread，见 ExecutionModeIdentifier
+     * 默认为空，使用全局配置 RpcConfig.executionMode
+     *
+     * @return
+     */
+    String executionMode() default "";
 }
@@ -44,8 +44,8 @@ public class RpcProviderBootstrap implements BeanPostProcessor {
             String serviceVersion = rpcService.serviceVersion();
 
             // 注册服务
-            // 本地注册
-            LocalRegistry.register(serviceName, beanClass);
+            // 本地注册 直接使用 Spring 创建的 Bean 作为服务实例，只对外提供服务接口中的方法
+            LocalRegistry.register(serviceName, interfaceClass, bean, rpcService.executionMode());
 
             // 全局配置
             final RpcConfig rpcConfig = RpcContext.getRpcConfig();
@@ -11,6 +11,8 @@ import com.rpc.rpc_demo.v1.service.UserService;
 import cn.hutool.http.HttpRequest;
 import cn.hutool.http.HttpResponse;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * @author jiahao.liu
  * @description
@@ -48,4 +50,10 @@ public class UserServiceStaticProxy implements UserService {
         }
         return null;
     }
+
+    @Override
+    public CompletableFuture<User> getUserAsync(User user) {
+        // 静态代理版本基于阻塞的 http 请求，这里只是放到其他线程上执行
+        return CompletableFuture.supplyAsync(() -> getUser(user));
+    }
 }
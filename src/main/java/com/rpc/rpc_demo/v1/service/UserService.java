@@ -3,6 +3,8 @@ package com.rpc.rpc_demo.v1.service;
 
 import com.rpc.rpc_demo.model.User;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * @Description
  * @Author veritas
@@ -17,6 +19,14 @@ public interface UserService {
      */
     User getUser(User user);
 
+    /**
+     * 异步获取用户，消费者调用时不会阻塞调用线程
+     *
+     * @param user
+     * @return
+     */
+    CompletableFuture<User> getUserAsync(User user);
+
 
     /**
      * 获取数字
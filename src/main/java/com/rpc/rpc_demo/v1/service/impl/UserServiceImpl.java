@@ -4,6 +4,8 @@ package com.rpc.rpc_demo.v1.service.impl;
 import com.rpc.rpc_demo.model.User;
 import com.rpc.rpc_demo.v1.service.UserService;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * @author jiahao.liu
  * @description
@@ -17,4 +19,9 @@ public class UserServiceImpl implements UserService {
         System.out.println("UserServiceImpl.getUser username=" + user.getName());
         return user;
     }
+
+    @Override
+    public CompletableFuture<User> getUserAsync(User user) {
+        return CompletableFuture.completedFuture(getUser(user));
+    }
 }
@@ -0,0 +1,55 @@
+package com.rpc.rpc_demo;
+
+import com.rpc.rpc_demo.model.RpcRequest;
+import com.rpc.rpc_demo.model.RpcResponse;
+import com.rpc.rpc_demo.model.User;
+import com.rpc.rpc_demo.serializer.impl.JSONSerializer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * @Description
+ * @Author veritas
+ * @Data 2025/3/13 18:00
+ */
+public class JSONSerializerTest {
+    final JSONSerializer serializer = new JSONSerializer();
+
+    @Test
+    public void requestRoundTrip() throws Exception {
+        User user = new User();
+        user.setName("veritas");
+        RpcRequest rpcRequest = new RpcRequest("userService", "getUser",
+                new Class[]{User.class, int.class}, new Object[]{user, 1}, "1.0");
+
+        RpcRequest result = serializer.deserialize(serializer.serialize(rpcRequest), RpcRequest.class);
+        Assert.assertArrayEquals(rpcRequest.getParameterTypes(), result.getParameterTypes());
+        Assert.assertEquals(user, result.getArgs()[0]);
+        Assert.assertEquals(1, result.getArgs()[1]);
+        Assert.assertEquals("1.0", result.getServiceVersion());
+    }
+
+    @Test
+    public void responseRoundTrip() throws Exception {
+        User user = new User();
+        user.setName("veritas");
+        RpcResponse rpcResponse = new RpcResponse();
+        rpcResponse.setData(user);
+        rpcResponse.setDataType(User.class);
+
+        RpcResponse result = serializer.deserialize(serializer.serialize(rpcResponse), RpcResponse.class);
+        Assert.assertEquals(user, result.getData());
+        Assert.assertEquals(User.class, result.getDataType());
+    }
+
+    @Test
+    public void dataBeforeType() throws Exception {
+        String json = "{\"data\":{\"name\":\"veritas\"},\"message\":null,\"dataType\":\"com.rpc.rpc_demo.model.User\"}";
+
+        RpcResponse result = serializer.deserialize(json.getBytes(StandardCharsets.UTF_8), RpcResponse.class);
+        Assert.assertTrue(result.getData() instanceof User);
+        Assert.assertEquals("veritas", ((User) result.getData()).getName());
+    }
+}
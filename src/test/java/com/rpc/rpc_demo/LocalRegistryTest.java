@@ -0,0 +1,80 @@
+package com.rpc.rpc_demo;
+
+import com.rpc.rpc_demo.model.User;
+import com.rpc.rpc_demo.registry.LocalRegistry;
+import com.rpc.rpc_demo.registry.ServiceMethodInvoker;
+import com.rpc.rpc_demo.v1.service.UserService;
+import com.rpc.rpc_demo.v1.service.impl.UserServiceImpl;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.aop.framework.ProxyFactory;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * @Description 本地注册：只对外提供服务接口中的方法，CGLIB 代理类、实现类多出来的 public 方法不能被调用
+ * @Author veritas
+ * @Data 2025/3/11 15:10
+ */
+public class LocalRegistryTest {
+    private static final String SERVICE_NAME = UserService.class.getName();
+
+    private static final Set<String> SERVICE_METHODS = Set.of("getUser", "getUserAsync", "getNumber");
+
+    @After
+    public void tearDown() {
+        LocalRegistry.remove(SERVICE_NAME);
+    }
+
+    @Test
+    public void cglibProxy() throws Throwable {
+        ProxyFactory proxyFactory = new ProxyFactory(new ExtendedUserService());
+        proxyFactory.setProxyTargetClass(true);
+        Object proxy = proxyFactory.getProxy();
+        Assert.assertTrue(proxy.getClass().getName().contains("$$"));
+        LocalRegistry.register(SERVICE_NAME, proxy);
+
+        Assert.assertEquals(SERVICE_METHODS, methodNames());
+        User user = new User();
+        user.setName("veritas");
+        ServiceMethodInvoker invoker = LocalRegistry.get(SERVICE_NAME).getInvoker("getUser", new Class[]{User.class});
+        Assert.assertEquals(user, invoker.invoke(new Object[]{user}));
+    }
+
+    @Test
+    public void explicitServiceInterface() {
+        LocalRegistry.register(SERVICE_NAME, UserService.class, new ExtendedUserService(), null);
+
+        Assert.assertEquals(SERVICE_METHODS, methodNames());
+        Assert.assertNull(LocalRegistry.get(SERVICE_NAME).getInvoker("reset", new Class[0]));
+    }
+
+    @Test
+    public void serviceNameIsNotAnInterface() {
+        // 服务名称不是接口名时退回到实例的类，实现类的 public 方法都对外提供
+        LocalRegistry.register("extendedUserService", new ExtendedUserService());
+        try {
+            Assert.assertNotNull(LocalRegistry.get("extendedUserService").getInvoker("reset", new Class[0]));
+        } finally {
+            LocalRegistry.remove("extendedUserService");
+        }
+    }
+
+    private static Set<String> methodNames() {
+        Set<String> methodNames = new TreeSet<>();
+        for (ServiceMethodInvoker invoker : LocalRegistry.get(SERVICE_NAME).getInvokers()) {
+            methodNames.add(invoker.getMethodName());
+        }
+        return methodNames;
+    }
+
+    /**
+     * 实现类多了一个不属于服务接口的 public 方法
+     */
+    public static class ExtendedUserService extends UserServiceImpl {
+        public void reset() {
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.rpc.rpc_demo;
+
+import com.rpc.rpc_demo.communication.protocol.MethodTable;
+import com.rpc.rpc_demo.communication.protocol.ProtocolCompression;
+import com.rpc.rpc_demo.communication.protocol.ProtocolConstant;
+import com.rpc.rpc_demo.communication.protocol.ProtocolMessage;
+import com.rpc.rpc_demo.communication.protocol.ProtocolMessageCompressorEnum;
+import com.rpc.rpc_demo.communication.protocol.ProtocolMessageDecoder;
+import com.rpc.rpc_demo.communication.protocol.ProtocolMessageEncoder;
+import com.rpc.rpc_demo.communication.protocol.ProtocolMessageSerializerEnum;
+import com.rpc.rpc_demo.communication.protocol.ProtocolMessageStatusEnum;
+import com.rpc.rpc_demo.communication.protocol.ProtocolMessageTypeEnum;
+import com.rpc.rpc_demo.model.RpcRequest;
+import com.rpc.rpc_demo.model.RpcResponse;
+import com.rpc.rpc_demo.model.User;
+import io.vertx.core.buffer.Buffer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @Description 协议消息的编码、解码：每个 SPI 序列化器都要能完成完整格式的请求、响应、紧凑格式请求和握手，
+ * 每个压缩器都要能完成压缩之后的往返
+ * @Author veritas
+ * @Data 2025/3/14 17:20
+ */
+public class ProtocolCodecTest {
+
+    @Test
+    public void requestAndResponseRoundTrip() {
+        for (ProtocolMessageSerializerEnum serializer : ProtocolMessageSerializerEnum.values()) {
+            RpcRequest rpcRequest = new RpcRequest("userService", "getUser",
+                    new Class[]{User.class, int.class}, new Object[]{user(), 1}, "1.0");
+            ProtocolMessage<?> request = ProtocolMessageDecoder.decode(ProtocolMessageEncoder.encode(
+                    new ProtocolMessage<>(header(serializer, ProtocolMessageTypeEnum.REQUEST), rpcRequest)));
+            RpcRequest decodedRequest = (RpcRequest) request.getBody();
+            Assert.assertEquals(serializer.getValue(), "getUser", decodedRequest.getMethodName());
+            Assert.assertEquals(serializer.getValue(), user(), decodedRequest.getArgs()[0]);
+
+            RpcResponse rpcResponse = new RpcResponse();
+            rpcResponse.setData(user());
+            rpcResponse.setDataType(User.class);
+            rpcResponse.setMessage("ok");
+            ProtocolMessage<?> response = ProtocolMessageDecoder.decode(ProtocolMessageEncoder.encode(
+                    new ProtocolMessage<>(header(serializer, ProtocolMessageTypeEnum.RESPONSE), rpcResponse)));
+            Assert.assertEquals(serializer.getValue(), user(), ((RpcResponse) response.getBody()).getData());
+        }
+    }
+
+    @Test
+    public void compactRequestRoundTrip() {
+        for (ProtocolMessageSerializerEnum serializer : ProtocolMessageSerializerEnum.values()) {
+            ProtocolMessage.Header header = header(serializer, ProtocolMessageTypeEnum.REQUEST);
+            Buffer buffer = ProtocolMessageEncoder.encodeCompactRequest(header, 7, new Object[]{user(), 1});
+
+            ProtocolMessage.Header decodedHeader = ProtocolMessageDecoder.decodeHeader(buffer);
+            Assert.assertEquals(ProtocolConstant.PROTOCOL_VERSION_COMPACT, decodedHeader.getVersion());
+            ByteBuffer body = ProtocolMessageDecoder.decodeBody(buffer, decodedHeader);
+            Assert.assertEquals(7, ProtocolMessageDecoder.getMethodId(body));
+            Object[] args = ProtocolMessageDecoder.decodeCompactArgs(body, decodedHeader,
+                    new Class[]{User.class, int.class});
+            Assert.assertEquals(serializer.getValue(), user(), args[0]);
+            Assert.assertEquals(serializer.getValue(), 1, args[1]);
+        }
+    }
+
+    @Test
+    public void handshakeRoundTrip() {
+        Map<String, Integer> methodIds = new HashMap<>();
+        methodIds.put(MethodTable.methodKey("userService", "getUser", new Class[]{User.class, int.class}), 0);
+        methodIds.put(MethodTable.methodKey("userService", "count", new Class[0]), 1);
+        for (ProtocolMessageSerializerEnum serializer : ProtocolMessageSerializerEnum.values()) {
+            // 握手请求：只有消息头
+            ProtocolMessage.Header requestHeader = header(serializer, ProtocolMessageTypeEnum.HANDSHAKE);
+            requestHeader.setVersion(ProtocolConstant.PROTOCOL_VERSION_COMPACT);
+            ProtocolMessage<?> request = ProtocolMessageDecoder.decode(
+                    ProtocolMessageEncoder.encode(new ProtocolMessage<>(requestHeader, null)));
+            Assert.assertNull(request.getBody());
+
+            // 握手响应：方法 ID 表
+            ProtocolMessage.Header responseHeader = header(serializer, ProtocolMessageTypeEnum.HANDSHAKE);
+            responseHeader.setVersion(ProtocolConstant.PROTOCOL_VERSION_COMPACT);
+            ProtocolMessage<?> response = ProtocolMessageDecoder.decode(
+                    ProtocolMessageEncoder.encodeHandshake(responseHeader, methodIds, ProtocolCompression.NONE));
+            Assert.assertEquals(serializer.getValue(), methodIds, response.getBody());
+
+            @SuppressWarnings("unchecked")
+            MethodTable methodTable = new MethodTable((Map<String, Integer>) response.getBody());
+            Assert.assertEquals(0, methodTable.getMethodId("userService", "getUser", new Class[]{User.class, int.class}));
+            Assert.assertEquals(1, methodTable.getMethodId("userService", "count", new Class[0]));
+            Assert.assertEquals(-1, methodTable.getMethodId("userService", "getUser", new Class[]{User.class}));
+        }
+    }
+
+    @Test
+    public void compressedRoundTrip() {
+        User[] users = new User[256];
+        for (int i = 0; i < users.length; i++) {
+            users[i] = user();
+        }
+        for (ProtocolMessageCompressorEnum compressor : ProtocolMessageCompressorEnum.values()) {
+            ProtocolCompression compression = ProtocolCompression.of(compressor.getValue(), 64);
+            for (ProtocolMessageSerializerEnum serializer : ProtocolMessageSerializerEnum.values()) {
+                String name = compressor.getValue() + "/" + serializer.getValue();
+                RpcResponse rpcResponse = new RpcResponse();
+                rpcResponse.setData(users);
+                rpcResponse.setDataType(User[].class);
+                Buffer buffer = ProtocolMessageEncoder.encode(
+                        new ProtocolMessage<>(header(serializer, ProtocolMessageTypeEnum.RESPONSE), rpcResponse), compression);
+                Assert.assertEquals(name, compressor.getKey(), buffer.getByte(ProtocolConstant.COMPRESSOR_OFFSET));
+                ProtocolMessage<?> response = ProtocolMessageDecoder.decode(buffer);
+                Assert.assertArrayEquals(name, users, (Object[]) ((RpcResponse) response.getBody()).getData());
+
+                // 紧凑格式的请求
+                buffer = ProtocolMessageEncoder.encodeCompactRequest(header(serializer, ProtocolMessageTypeEnum.REQUEST),
+                        3, new Object[]{users}, compression);
+                Assert.assertEquals(name, compressor.getKey(), buffer.getByte(ProtocolConstant.COMPRESSOR_OFFSET));
+                ProtocolMessage.Header decodedHeader = ProtocolMessageDecoder.decodeHeader(buffer);
+                ByteBuffer body = ProtocolMessageDecoder.decodeBody(buffer, decodedHeader);
+                Assert.assertEquals(name, 3, ProtocolMessageDecoder.getMethodId(body));
+                Object[] args = ProtocolMessageDecoder.decodeCompactArgs(body, decodedHeader, new Class[]{User[].class});
+                Assert.assertArrayEquals(name, users, (Object[]) args[0]);
+
+                // 没有达到阈值的消息不压缩
+                buffer = ProtocolMessageEncoder.encode(new ProtocolMessage<>(
+                        header(serializer, ProtocolMessageTypeEnum.REQUEST), "small"), compression);
+                Assert.assertEquals(name, ProtocolMessageCompressorEnum.NONE.getKey(),
+                        buffer.getByte(ProtocolConstant.COMPRESSOR_OFFSET));
+            }
+        }
+    }
+
+    static ProtocolMessage.Header header(ProtocolMessageSerializerEnum serializer, ProtocolMessageTypeEnum type) {
+        ProtocolMessage.Header header = new ProtocolMessage.Header();
+        header.setMagic(ProtocolConstant.PROTOCOL_MAGIC);
+        header.setVersion(ProtocolConstant.PROTOCOL_VERSION);
+        header.setSerializer((byte) serializer.getKey());
+        header.setType((byte) type.getKey());
+        header.setStatus((byte) ProtocolMessageStatusEnum.OK.getValue());
+        header.setRequestId(1);
+        return header;
+    }
+
+    static User user() {
+        User user = new User();
+        user.setName("veritas");
+        return user;
+    }
+}
@@ -0,0 +1,69 @@
+package com.rpc.rpc_demo;
+
+import com.rpc.rpc_demo.model.RpcRequest;
+import com.rpc.rpc_demo.model.RpcResponse;
+import com.rpc.rpc_demo.model.User;
+import com.rpc.rpc_demo.serializer.impl.ProtostuffSerializer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * @Description
+ * @Author veritas
+ * @Data 2025/3/13 16:40
+ */
+public class ProtostuffSerializerTest {
+    final ProtostuffSerializer serializer = new ProtostuffSerializer();
+
+    @Test
+    public void requestRoundTrip() throws Exception {
+        User user = new User();
+        user.setName("veritas");
+        RpcRequest rpcRequest = new RpcRequest("userService", "getUser",
+                new Class[]{User.class, List.class}, new Object[]{user, Arrays.asList(1, 2)}, "1.0");
+
+        RpcRequest result = serializer.deserialize(serializer.serialize(rpcRequest), RpcRequest.class);
+        Assert.assertArrayEquals(rpcRequest.getParameterTypes(), result.getParameterTypes());
+        Assert.assertEquals(user, result.getArgs()[0]);
+        Assert.assertEquals(Arrays.asList(1, 2), result.getArgs()[1]);
+    }
+
+    @Test
+    public void responseRoundTrip() throws Exception {
+        RpcResponse rpcResponse = new RpcResponse();
+        rpcResponse.setData("hello");
+        rpcResponse.setDataType(String.class);
+
+        RpcResponse result = serializer.deserialize(serializer.serialize(rpcResponse), RpcResponse.class);
+        Assert.assertEquals("hello", result.getData());
+        Assert.assertEquals(String.class, result.getDataType());
+    }
+
+    @Test
+    public void concurrentSerialize() throws Exception {
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                String name = "user-" + i;
+                futures.add(executorService.submit(() -> {
+                    User user = new User();
+                    user.setName(name);
+                    return serializer.deserialize(serializer.serialize(user), User.class).getName();
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                Assert.assertEquals("user-" + i, futures.get(i).get());
+            }
+        } finally {
+            executorService.shutdown();
+        }
+    }
+}
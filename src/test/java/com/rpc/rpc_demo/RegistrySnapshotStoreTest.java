@@ -0,0 +1,145 @@
+package com.rpc.rpc_demo;
+
+import com.rpc.rpc_demo.config.RegistryConfig;
+import com.rpc.rpc_demo.model.ServiceMetaData;
+import com.rpc.rpc_demo.registry.RegisteredServiceCache;
+import com.rpc.rpc_demo.registry.RegistrySnapshotStore;
+import com.rpc.rpc_demo.registry.ServiceInstanceSnapshot;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @Description 服务列表的本地快照文件：读写一致，文件损坏、别的注册中心、旧版本的文件当作没有快照，过期的 lastKnown 不再兜底
+ * @Author veritas
+ * @Data 2025/3/18 10:40
+ */
+public class RegistrySnapshotStoreTest {
+    private static final String REGISTRY_IDENTITY = "etcd@http://localhost:2379";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path file;
+
+    @Before
+    public void init() {
+        file = folder.getRoot().toPath().resolve("registry.snapshot");
+    }
+
+    @Test
+    public void roundTrip() {
+        ServiceMetaData first = serviceMetaData(1234);
+        ServiceMetaData second = serviceMetaData(1235);
+        second.setServiceGroup(null);
+        second.setWeight(5);
+        Map<String, ServiceMetaData> nodes = new LinkedHashMap<>();
+        nodes.put("/rpc/myService:1.0/localhost:1234", first);
+        nodes.put("/rpc/myService:1.0/localhost:1235", second);
+        Map<String, RegistrySnapshotStore.SavedService> services = new LinkedHashMap<>();
+        services.put("myService:1.0", new RegistrySnapshotStore.SavedService(ServiceInstanceSnapshot.of(42, nodes), 1000L));
+        services.put("emptyService:1.0", new RegistrySnapshotStore.SavedService(ServiceInstanceSnapshot.empty(), 2000L));
+
+        new RegistrySnapshotStore(file, REGISTRY_IDENTITY).save(services);
+        Map<String, RegistrySnapshotStore.SavedService> loaded = new RegistrySnapshotStore(file, REGISTRY_IDENTITY).load();
+
+        Assert.assertEquals(List.of("myService:1.0", "emptyService:1.0"), List.copyOf(loaded.keySet()));
+        RegistrySnapshotStore.SavedService savedService = loaded.get("myService:1.0");
+        Assert.assertEquals(1000L, savedService.getUpdateTime());
+        Assert.assertEquals(42, savedService.getSnapshot().getVersion());
+        Assert.assertEquals(List.copyOf(nodes.keySet()), List.copyOf(savedService.getSnapshot().getNodes().keySet()));
+        Assert.assertEquals(List.of(first, second), savedService.getSnapshot().getInstances());
+        Assert.assertEquals(2000L, loaded.get("emptyService:1.0").getUpdateTime());
+        Assert.assertEquals(0, loaded.get("emptyService:1.0").getSnapshot().size());
+    }
+
+    @Test
+    public void missingFile() {
+        Assert.assertTrue(new RegistrySnapshotStore(file, REGISTRY_IDENTITY).load().isEmpty());
+    }
+
+    @Test
+    public void corruptFile() throws Exception {
+        Files.write(file, "not a registry snapshot".getBytes());
+        Assert.assertTrue(new RegistrySnapshotStore(file, REGISTRY_IDENTITY).load().isEmpty());
+    }
+
+    @Test
+    public void truncatedFile() throws Exception {
+        Map<String, ServiceMetaData> nodes = new LinkedHashMap<>();
+        nodes.put("/rpc/myService:1.0/localhost:1234", serviceMetaData(1234));
+        new RegistrySnapshotStore(file, REGISTRY_IDENTITY).save(Map.of("myService:1.0",
+                new RegistrySnapshotStore.SavedService(ServiceInstanceSnapshot.of(1, nodes), 1000L)));
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 3));
+
+        Assert.assertTrue(new RegistrySnapshotStore(file, REGISTRY_IDENTITY).load().isEmpty());
+    }
+
+    @Test
+    public void anotherRegistry() {
+        new RegistrySnapshotStore(file, REGISTRY_IDENTITY).save(Map.of("myService:1.0",
+                new RegistrySnapshotStore.SavedService(ServiceInstanceSnapshot.empty(), 1000L)));
+
+        Assert.assertTrue(new RegistrySnapshotStore(file, "zookeeper@localhost:2181").load().isEmpty());
+    }
+
+    @Test
+    public void oldFormatVersion() throws Exception {
+        // 版本 1 的文件：没有确认时间
+        try (OutputStream outputStream = Files.newOutputStream(file);
+             DataOutputStream out = new DataOutputStream(outputStream)) {
+            out.writeInt(0x52504353);
+            out.writeByte(1);
+            out.writeUTF(REGISTRY_IDENTITY);
+            out.writeInt(0);
+        }
+
+        Assert.assertTrue(new RegistrySnapshotStore(file, REGISTRY_IDENTITY).load().isEmpty());
+    }
+
+    @Test
+    public void expiredLastKnown() {
+        Map<String, ServiceMetaData> nodes = new LinkedHashMap<>();
+        nodes.put("/rpc/myService:1.0/localhost:1234", serviceMetaData(1234));
+        long now = System.currentTimeMillis();
+        Map<String, RegistrySnapshotStore.SavedService> services = new LinkedHashMap<>();
+        services.put("fresh:1.0", new RegistrySnapshotStore.SavedService(ServiceInstanceSnapshot.of(1, nodes), now));
+        services.put("expired:1.0", new RegistrySnapshotStore.SavedService(ServiceInstanceSnapshot.of(1, nodes), now - 120_000));
+        new RegistrySnapshotStore(file, REGISTRY_IDENTITY).save(services);
+
+        RegistryConfig registryConfig = new RegistryConfig();
+        registryConfig.setSnapshotFile(file.toString());
+        registryConfig.setLastKnownMaxAge(60_000);
+        RegisteredServiceCache cache = new RegisteredServiceCache();
+        cache.init(registryConfig);
+
+        // 注册中心不可用：没有过期的服务用 lastKnown 兜底，过期的服务直接失败
+        Assert.assertEquals(1, cache.discover("fresh:1.0", this::registryUnavailable).size());
+        Assert.assertThrows(IllegalStateException.class, () -> cache.discover("expired:1.0", this::registryUnavailable));
+    }
+
+    private void registryUnavailable(String serviceIdentifier) {
+        throw new IllegalStateException("registry unavailable");
+    }
+
+    private static ServiceMetaData serviceMetaData(int port) {
+        ServiceMetaData serviceMetaData = new ServiceMetaData();
+        serviceMetaData.setServiceName("myService");
+        serviceMetaData.setServiceVersion("1.0");
+        serviceMetaData.setServiceHost("localhost");
+        serviceMetaData.setServicePort(port);
+        return serviceMetaData;
+    }
+}
@@ -0,0 +1,114 @@
+package com.rpc.rpc_demo;
+
+import com.rpc.rpc_demo.communication.protocol.ProtocolConstant;
+import com.rpc.rpc_demo.communication.server.TcpBufferHandlerWrapper;
+import io.vertx.core.buffer.Buffer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @Description 拆包器：半包、粘包、下层处理器抛出异常、非法的消息体长度、旧版本的消息头
+ * @Author veritas
+ * @Data 2025/3/11 16:20
+ */
+public class TcpBufferHandlerWrapperTest {
+    private final List<String> received = new ArrayList<>();
+
+    @Test
+    public void coalescedFrames() {
+        TcpBufferHandlerWrapper wrapper = new TcpBufferHandlerWrapper(this::receive);
+        wrapper.handle(Buffer.buffer().appendBuffer(frame("a")).appendBuffer(frame("bb")).appendBuffer(frame("")));
+
+        Assert.assertEquals(List.of("a", "bb", ""), received);
+    }
+
+    @Test
+    public void splitFrame() {
+        TcpBufferHandlerWrapper wrapper = new TcpBufferHandlerWrapper(this::receive);
+        Buffer frame = frame("hello");
+        // 一个字节一个字节地到达，消息头也可能被拆开
+        for (int i = 0; i < frame.length(); i++) {
+            wrapper.handle(frame.getBuffer(i, i + 1));
+        }
+
+        Assert.assertEquals(List.of("hello"), received);
+    }
+
+    @Test
+    public void splitAndCoalescedFrames() {
+        TcpBufferHandlerWrapper wrapper = new TcpBufferHandlerWrapper(this::receive);
+        Buffer data = Buffer.buffer().appendBuffer(frame("first")).appendBuffer(frame("second")).appendBuffer(frame("third"));
+        int cut = frame("first").length() + 3;
+        wrapper.handle(data.getBuffer(0, cut));
+        Assert.assertEquals(List.of("first"), received);
+
+        wrapper.handle(data.getBuffer(cut, data.length()));
+        Assert.assertEquals(List.of("first", "second", "third"), received);
+    }
+
+    @Test
+    public void throwingHandler() {
+        TcpBufferHandlerWrapper wrapper = new TcpBufferHandlerWrapper(buffer -> {
+            String body = receive(buffer);
+            if (body.startsWith("bad")) {
+                throw new RuntimeException("decode error");
+            }
+        });
+        // 同一次读取中的消息：出错的消息之后的消息照常处理
+        wrapper.handle(Buffer.buffer().appendBuffer(frame("a")).appendBuffer(frame("bad1")).appendBuffer(frame("b")));
+        // 拼接了上一次剩余数据的消息出错：已经处理过的消息不会再处理一次
+        Buffer next = Buffer.buffer().appendBuffer(frame("bad2")).appendBuffer(frame("c")).appendBuffer(frame("d"));
+        wrapper.handle(next.getBuffer(0, 5));
+        wrapper.handle(next.getBuffer(5, next.length() - 2));
+        wrapper.handle(next.getBuffer(next.length() - 2, next.length()));
+        wrapper.handle(frame("e"));
+
+        Assert.assertEquals(List.of("a", "bad1", "b", "bad2", "c", "d", "e"), received);
+    }
+
+    @Test
+    public void illegalBodyLength() {
+        TcpBufferHandlerWrapper wrapper = new TcpBufferHandlerWrapper(this::receive);
+        Buffer illegal = Buffer.buffer(new byte[ProtocolConstant.MESSAGE_HEADER_LENGTH]);
+        illegal.setByte(ProtocolConstant.VERSION_OFFSET, ProtocolConstant.PROTOCOL_VERSION);
+        illegal.setInt(ProtocolConstant.BODY_LENGTH_OFFSET, -1);
+        wrapper.handle(Buffer.buffer().appendBuffer(frame("a")).appendBuffer(illegal).appendBuffer(frame("b")));
+        // 之后的数据全部丢弃
+        wrapper.handle(frame("c"));
+
+        Assert.assertEquals(List.of("a"), received);
+    }
+
+    @Test
+    public void oldProtocolVersion() {
+        TcpBufferHandlerWrapper wrapper = new TcpBufferHandlerWrapper(this::receive);
+        Buffer old = frame("old");
+        old.setByte(ProtocolConstant.VERSION_OFFSET, (byte) 0x01);
+        wrapper.handle(Buffer.buffer().appendBuffer(frame("a")).appendBuffer(old));
+        wrapper.handle(frame("b"));
+
+        Assert.assertEquals(List.of("a"), received);
+    }
+
+    private String receive(Buffer buffer) {
+        String body = buffer.getString(ProtocolConstant.MESSAGE_HEADER_LENGTH, buffer.length(), "UTF-8");
+        received.add(body);
+        return body;
+    }
+
+    /**
+     * 只有消息体长度有意义的消息
+     */
+    private static Buffer frame(String body) {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        Buffer frame = Buffer.buffer(new byte[ProtocolConstant.MESSAGE_HEADER_LENGTH]);
+        frame.setByte(ProtocolConstant.MAGIC_OFFSET, ProtocolConstant.PROTOCOL_MAGIC);
+        frame.setByte(ProtocolConstant.VERSION_OFFSET, ProtocolConstant.PROTOCOL_VERSION);
+        frame.setInt(ProtocolConstant.BODY_LENGTH_OFFSET, bytes.length);
+        return frame.appendBytes(bytes);
+    }
+}
@@ -0,0 +1,121 @@
+package com.rpc.rpc_demo;
+
+import com.rpc.rpc_demo.communication.protocol.ProtocolCompression;
+import com.rpc.rpc_demo.communication.server.TcpClientConnection;
+import com.rpc.rpc_demo.communication.server.TcpConnectionPool;
+import com.rpc.rpc_demo.model.ServiceMetaData;
+import io.vertx.core.Vertx;
+import io.vertx.core.net.NetClientOptions;
+import io.vertx.core.net.NetServer;
+import io.vertx.core.net.NetSocket;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * @Description 连接池：连接全部断开、建立失败、长时间没有使用的服务提供者会被移除
+ * @Author veritas
+ * @Data 2025/3/10 15:30
+ */
+public class TcpConnectionPoolTest {
+    private Vertx vertx;
+
+    private NetServer server;
+
+    /**
+     * 服务端接受的连接
+     */
+    private final List<NetSocket> accepted = new CopyOnWriteArrayList<>();
+
+    private TcpConnectionPool connectionPool;
+
+    @Before
+    public void setUp() throws Exception {
+        vertx = Vertx.vertx();
+        server = vertx.createNetServer().connectHandler(accepted::add);
+        server.listen(0).toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (connectionPool != null) {
+            connectionPool.close();
+        }
+        vertx.close().toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void removeEndpointWhenConnectionsClosed() throws Exception {
+        connectionPool = newPool(2, 0);
+        TcpClientConnection first = connectionPool.acquire(metaData(server.actualPort())).get(10, TimeUnit.SECONDS);
+        TcpClientConnection second = connectionPool.acquire(metaData(server.actualPort())).get(10, TimeUnit.SECONDS);
+        Assert.assertNotSame(first, second);
+        Assert.assertEquals(1, connectionPool.getEndpointCount());
+
+        // 还剩一条连接时不移除
+        first.close();
+        await(() -> first.closeFuture().isDone());
+        Assert.assertEquals(1, connectionPool.getEndpointCount());
+
+        // 服务端关闭了最后一条连接
+        await(() -> accepted.size() == 2);
+        accepted.forEach(NetSocket::close);
+        await(() -> connectionPool.getEndpointCount() == 0);
+
+        // 再次获取时重新建立连接
+        TcpClientConnection connection = connectionPool.acquire(metaData(server.actualPort())).get(10, TimeUnit.SECONDS);
+        Assert.assertTrue(connection.isActive());
+        Assert.assertEquals(1, connectionPool.getEndpointCount());
+    }
+
+    @Test
+    public void removeEndpointWhenConnectFailed() throws Exception {
+        connectionPool = newPool(1, 0);
+        int port = server.actualPort();
+        server.close().toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+        try {
+            connectionPool.acquire(metaData(port)).get(10, TimeUnit.SECONDS);
+            Assert.fail("connect should fail");
+        } catch (ExecutionException e) {
+            // 连接被拒绝
+        }
+        await(() -> connectionPool.getEndpointCount() == 0);
+    }
+
+    @Test
+    public void evictIdleEndpoint() throws Exception {
+        connectionPool = newPool(1, 1000);
+        TcpClientConnection connection = connectionPool.acquire(metaData(server.actualPort())).get(10, TimeUnit.SECONDS);
+        Assert.assertEquals(1, connectionPool.getEndpointCount());
+
+        await(() -> connectionPool.getEndpointCount() == 0);
+        await(() -> !connection.isActive());
+    }
+
+    private TcpConnectionPool newPool(int maxConnectionsPerEndpoint, long endpointIdleTimeoutMillis) {
+        return new TcpConnectionPool(vertx, maxConnectionsPerEndpoint, new NetClientOptions().setConnectTimeout(3000),
+                0, 0, false, ProtocolCompression.NONE, endpointIdleTimeoutMillis);
+    }
+
+    static ServiceMetaData metaData(int port) {
+        ServiceMetaData serviceMetaData = new ServiceMetaData();
+        serviceMetaData.setServiceHost("localhost");
+        serviceMetaData.setServicePort(port);
+        return serviceMetaData;
+    }
+
+    static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            Assert.assertTrue("condition not met in 10s", System.nanoTime() < deadline);
+            Thread.sleep(20);
+        }
+    }
+}
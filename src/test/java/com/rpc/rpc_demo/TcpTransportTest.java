@@ -0,0 +1,280 @@
+package com.rpc.rpc_demo;
+
+import cn.hutool.core.util.IdUtil;
+import com.rpc.rpc_demo.communication.protocol.ProtocolCompression;
+import com.rpc.rpc_demo.communication.protocol.ProtocolConstant;
+import com.rpc.rpc_demo.communication.protocol.ProtocolMessage;
+import com.rpc.rpc_demo.communication.protocol.ProtocolMessageCompressorEnum;
+import com.rpc.rpc_demo.communication.protocol.ProtocolMessageSerializerEnum;
+import com.rpc.rpc_demo.communication.protocol.ProtocolMessageTypeEnum;
+import com.rpc.rpc_demo.communication.server.ClientStream;
+import com.rpc.rpc_demo.communication.server.ExecutionModeIdentifier;
+import com.rpc.rpc_demo.communication.server.TcpClientConnection;
+import com.rpc.rpc_demo.communication.server.TcpConnectionPool;
+import com.rpc.rpc_demo.communication.server.VertxTcpServer;
+import com.rpc.rpc_demo.config.RpcConfig;
+import com.rpc.rpc_demo.model.RpcRequest;
+import com.rpc.rpc_demo.model.RpcResponse;
+import com.rpc.rpc_demo.model.User;
+import com.rpc.rpc_demo.registry.LocalRegistry;
+import io.vertx.core.Vertx;
+import io.vertx.core.net.NetClientOptions;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @Description 传输层的端到端测试：本机启动服务端，通过连接池发送请求
+ * 每个序列化器 × 每个压缩器的请求往返、超时和取消（服务端中断正在执行的方法）、流式响应按信用发送
+ * @Author veritas
+ * @Data 2025/3/16 16:40
+ */
+public class TcpTransportTest {
+    private static final String SERVICE_NAME = TransportService.class.getName();
+
+    /**
+     * 每个压缩器一个服务端，请求和响应都按这个压缩器压缩
+     */
+    private static final List<VertxTcpServer> SERVERS = new ArrayList<>();
+
+    private static final Map<ProtocolMessageCompressorEnum, TcpConnectionPool> CONNECTION_POOLS =
+            new EnumMap<>(ProtocolMessageCompressorEnum.class);
+
+    private static final Map<ProtocolMessageCompressorEnum, Integer> PORTS =
+            new EnumMap<>(ProtocolMessageCompressorEnum.class);
+
+    private static Vertx clientVertx;
+
+    /**
+     * sleep 方法被中断时 countDown
+     */
+    private static volatile CountDownLatch interrupted;
+
+    /**
+     * count 方法返回的 Iterator 已经产生的元素个数
+     */
+    private static final AtomicInteger produced = new AtomicInteger();
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        LocalRegistry.register(SERVICE_NAME, TransportService.class, new TransportServiceImpl(),
+                ExecutionModeIdentifier.WORKER_POOL);
+        clientVertx = Vertx.vertx();
+        for (ProtocolMessageCompressorEnum compressor : ProtocolMessageCompressorEnum.values()) {
+            RpcConfig rpcConfig = new RpcConfig();
+            rpcConfig.setServerInstances(1);
+            rpcConfig.setCompressor(compressor.getValue());
+            rpcConfig.setCompressThreshold(0);
+            int port = freePort();
+            VertxTcpServer server = new VertxTcpServer(rpcConfig);
+            SERVERS.add(server);
+            server.start(port).toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+            PORTS.put(compressor, port);
+            CONNECTION_POOLS.put(compressor, new TcpConnectionPool(clientVertx, 1,
+                    new NetClientOptions().setConnectTimeout(3000), 0, 0, true,
+                    ProtocolCompression.of(compressor.getValue(), 0), 0));
+        }
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        CONNECTION_POOLS.values().forEach(TcpConnectionPool::close);
+        clientVertx.close().toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+        for (VertxTcpServer server : SERVERS) {
+            server.close().toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+        }
+        LocalRegistry.remove(SERVICE_NAME);
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        User[] users = new User[64];
+        for (int i = 0; i < users.length; i++) {
+            users[i] = new User();
+            users[i].setName("veritas-" + i);
+        }
+        for (ProtocolMessageCompressorEnum compressor : ProtocolMessageCompressorEnum.values()) {
+            TcpClientConnection connection = connection(compressor);
+            for (ProtocolMessageSerializerEnum serializer : ProtocolMessageSerializerEnum.values()) {
+                // 第一个请求触发握手，之后的请求使用紧凑格式
+                for (int i = 0; i < 2; i++) {
+                    RpcResponse rpcResponse = connection.send(request(serializer, "echo",
+                            new Class[]{User[].class}, new Object[]{users}), 5000).get(10, TimeUnit.SECONDS);
+                    Assert.assertNull(rpcResponse.getMessage(), rpcResponse.getException());
+                    Assert.assertArrayEquals(compressor.getValue() + "/" + serializer.getValue(),
+                            users, (Object[]) rpcResponse.getData());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void timeout() throws Exception {
+        interrupted = new CountDownLatch(1);
+        TcpClientConnection connection = connection(ProtocolMessageCompressorEnum.NONE);
+        CompletableFuture<RpcResponse> responseFuture = connection.send(request(ProtocolMessageSerializerEnum.JDK,
+                "sleep", new Class[]{long.class}, new Object[]{10_000L}), 300);
+        try {
+            responseFuture.get(5, TimeUnit.SECONDS);
+            Assert.fail("request should time out");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        // 客户端超时之后发送取消消息，服务端中断正在执行的方法
+        Assert.assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(0, connection.getPendingRequestCount());
+    }
+
+    @Test
+    public void cancel() throws Exception {
+        interrupted = new CountDownLatch(1);
+        TcpClientConnection connection = connection(ProtocolMessageCompressorEnum.NONE);
+        CompletableFuture<RpcResponse> responseFuture = connection.send(request(ProtocolMessageSerializerEnum.JDK,
+                "sleep", new Class[]{long.class}, new Object[]{10_000L}), 0);
+        // 等请求开始执行
+        Thread.sleep(300);
+        responseFuture.cancel(true);
+        try {
+            responseFuture.get();
+            Assert.fail("request should be cancelled");
+        } catch (CancellationException e) {
+            // 已取消
+        }
+        Assert.assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(0, connection.getPendingRequestCount());
+
+        // 连接仍然可用
+        RpcResponse rpcResponse = connection.send(request(ProtocolMessageSerializerEnum.JDK, "sleep",
+                new Class[]{long.class}, new Object[]{0L}), 5000).get(10, TimeUnit.SECONDS);
+        Assert.assertEquals("done", rpcResponse.getData());
+    }
+
+    @Test
+    public void streamBackpressure() throws Exception {
+        produced.set(0);
+        TcpClientConnection connection = connection(ProtocolMessageCompressorEnum.NONE);
+        ProtocolMessage<RpcRequest> protocolMessage = request(ProtocolMessageSerializerEnum.JDK, "count",
+                new Class[]{int.class}, new Object[]{100});
+        ClientStream clientStream = new ClientStream(protocolMessage.getHeader().getRequestId(), protocolMessage,
+                () -> CompletableFuture.completedFuture(connection));
+        List<Object> received = new CopyOnWriteArrayList<>();
+        AtomicReference<Flow.Subscription> subscription = new AtomicReference<>();
+        CountDownLatch completed = new CountDownLatch(1);
+        clientStream.subscribe(new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription s) {
+                subscription.set(s);
+                s.request(5);
+            }
+
+            @Override
+            public void onNext(Object item) {
+                received.add(item);
+            }
+
+            @Override
+            public void onError(Throwable e) {
+                e.printStackTrace();
+            }
+
+            @Override
+            public void onComplete() {
+                completed.countDown();
+            }
+        });
+
+        // 只给了 5 个信用，服务端发完 5 个就停下来，不会继续从 Iterator 中读取
+        TcpConnectionPoolTest.await(() -> received.size() == 5);
+        Thread.sleep(300);
+        Assert.assertEquals(5, received.size());
+        Assert.assertEquals(5, produced.get());
+
+        subscription.get().request(Long.MAX_VALUE);
+        Assert.assertTrue(completed.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(100, received.size());
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(i, received.get(i));
+        }
+    }
+
+    private static TcpClientConnection connection(ProtocolMessageCompressorEnum compressor) throws Exception {
+        return CONNECTION_POOLS.get(compressor).acquire(TcpConnectionPoolTest.metaData(PORTS.get(compressor)))
+                .get(10, TimeUnit.SECONDS);
+    }
+
+    private static ProtocolMessage<RpcRequest> request(ProtocolMessageSerializerEnum serializer, String methodName,
+                                                       Class<?>[] parameterTypes, Object[] args) {
+        ProtocolMessage.Header header = new ProtocolMessage.Header();
+        header.setMagic(ProtocolConstant.PROTOCOL_MAGIC);
+        header.setVersion(ProtocolConstant.PROTOCOL_VERSION);
+        header.setSerializer((byte) serializer.getKey());
+        header.setType((byte) ProtocolMessageTypeEnum.REQUEST.getKey());
+        header.setRequestId(IdUtil.getSnowflakeNextId());
+        return new ProtocolMessage<>(header, new RpcRequest(SERVICE_NAME, methodName, parameterTypes, args, "1.0"));
+    }
+
+    private static int freePort() throws Exception {
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            return serverSocket.getLocalPort();
+        }
+    }
+
+    public interface TransportService {
+        User[] echo(User[] users);
+
+        String sleep(long millis);
+
+        Iterator<Integer> count(int n);
+    }
+
+    public static class TransportServiceImpl implements TransportService {
+        @Override
+        public User[] echo(User[] users) {
+            return users;
+        }
+
+        @Override
+        public String sleep(long millis) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                return "interrupted";
+            }
+            return "done";
+        }
+
+        @Override
+        public Iterator<Integer> count(int n) {
+            return new Iterator<>() {
+                @Override
+                public boolean hasNext() {
+                    return produced.get() < n;
+                }
+
+                @Override
+                public Integer next() {
+                    return produced.getAndIncrement();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.rpc.rpc_demo;
+
+import com.rpc.rpc_demo.config.RegistryConfig;
+import com.rpc.rpc_demo.model.ServiceMetaData;
+import com.rpc.rpc_demo.registry.impl.ZooKeeperRegistry;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.TestingServer;
+import org.apache.zookeeper.CreateMode;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * @Description ZooKeeperRegistry 的服务发现：内嵌的 ZooKeeper（TestingServer）上验证快照的增量更新
+ * @Author veritas
+ * @Data 2025/3/17 18:10
+ */
+public class ZooKeeperRegistryTest {
+    private TestingServer server;
+
+    private ZooKeeperRegistry registry;
+
+    @Before
+    public void init() throws Exception {
+        server = new TestingServer();
+        RegistryConfig registryConfig = new RegistryConfig();
+        registryConfig.setRegistry("zookeeper");
+        registryConfig.setAddress(server.getConnectString());
+        registryConfig.setTimeout(5000L);
+        registry = new ZooKeeperRegistry();
+        registry.init(registryConfig);
+    }
+
+    @After
+    public void destroy() throws Exception {
+        registry.destroy();
+        server.close();
+    }
+
+    @Test
+    public void incrementalPutAndDelete() throws Exception {
+        ServiceMetaData first = serviceMetaData(1234);
+        registry.register(first);
+        String serviceIdentifier = first.getServiceIdentifier();
+        List<ServiceMetaData> serviceMetaDataList = awaitInstances(serviceIdentifier, list -> list.size() == 1);
+        Assert.assertEquals(Integer.valueOf(1234), serviceMetaDataList.get(0).getServicePort());
+
+        // 节点上线：快照中加入新的节点
+        registry.register(serviceMetaData(1235));
+        awaitInstances(serviceIdentifier, list -> list.size() == 2);
+
+        // 节点下线：快照中去掉这个节点
+        registry.unRegister(first);
+        serviceMetaDataList = awaitInstances(serviceIdentifier, list -> list.size() == 1);
+        Assert.assertEquals(Integer.valueOf(1235), serviceMetaDataList.get(0).getServicePort());
+    }
+
+    @Test
+    public void skipBrokenNode() throws Exception {
+        ServiceMetaData serviceMetaData = serviceMetaData(1234);
+        registry.register(serviceMetaData);
+        String servicePath = "/rpc/" + serviceMetaData.getServiceIdentifier();
+        try (CuratorFramework client = CuratorFrameworkFactory.newClient(server.getConnectString(), new RetryOneTime(100))) {
+            client.start();
+            client.create().withMode(CreateMode.EPHEMERAL)
+                    .forPath(servicePath + "/broken", "not json".getBytes(StandardCharsets.UTF_8));
+
+            // 初始化时的坏节点：跳过，不影响其他节点
+            long start = System.currentTimeMillis();
+            awaitInstances(serviceMetaData.getServiceIdentifier(), list -> list.size() == 1);
+            Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+
+            // 初始化之后的坏节点：同样跳过，之后的变更照常应用
+            client.create().withMode(CreateMode.EPHEMERAL)
+                    .forPath(servicePath + "/broken2", "not json".getBytes(StandardCharsets.UTF_8));
+            registry.register(serviceMetaData(1235));
+            awaitInstances(serviceMetaData.getServiceIdentifier(), list -> list.size() == 2);
+        }
+    }
+
+    private List<ServiceMetaData> awaitInstances(String serviceIdentifier, Predicate<List<ServiceMetaData>> condition)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        List<ServiceMetaData> serviceMetaDataList = registry.serviceDiscovery(serviceIdentifier);
+        while (!condition.test(serviceMetaDataList) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+            serviceMetaDataList = registry.serviceDiscovery(serviceIdentifier);
+        }
+        Assert.assertTrue("unexpected instances:" + serviceMetaDataList, condition.test(serviceMetaDataList));
+        return serviceMetaDataList;
+    }
+
+    private static ServiceMetaData serviceMetaData(int port) {
+        ServiceMetaData serviceMetaData = new ServiceMetaData();
+        serviceMetaData.setServiceName("myService");
+        serviceMetaData.setServiceVersion("1.0");
+        serviceMetaData.setServiceHost("localhost");
+        serviceMetaData.setServicePort(port);
+        return serviceMetaData;
+    }
+}
@@ -0,0 +1,118 @@
+package com.rpc.rpc_demo.benchmark;
+
+import com.rpc.rpc_demo.communication.protocol.MethodTable;
+import com.rpc.rpc_demo.communication.protocol.ProtocolConstant;
+import com.rpc.rpc_demo.communication.protocol.ProtocolMessage;
+import com.rpc.rpc_demo.communication.protocol.ProtocolMessageDecoder;
+import com.rpc.rpc_demo.communication.protocol.ProtocolMessageEncoder;
+import com.rpc.rpc_demo.communication.protocol.ProtocolMessageSerializerEnum;
+import com.rpc.rpc_demo.communication.protocol.ProtocolMessageTypeEnum;
+import com.rpc.rpc_demo.model.RpcRequest;
+import com.rpc.rpc_demo.model.User;
+import com.rpc.rpc_demo.registry.LocalRegistry;
+import com.rpc.rpc_demo.registry.LocalService;
+import com.rpc.rpc_demo.registry.ServiceMethodInvoker;
+import com.rpc.rpc_demo.v1.service.UserService;
+import com.rpc.rpc_demo.v1.service.impl.UserServiceImpl;
+import io.vertx.core.buffer.Buffer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Description 协议 v1 vs 紧凑格式的基准测试：服务端 解码请求 + 查找调用器 的耗时和分配
+ * <pre>
+ * v1：反序列化完整的 RpcRequest（服务名、方法名、参数类型列表），再按 服务名 -> 方法名 -> 参数类型 查找调用器
+ * 紧凑格式：读出方法 ID 直接找到调用器，再按参数类型反序列化参数列表
+ * 运行 main 方法：先打印两种格式每个请求的字节数，然后运行基准测试
+ * </pre>
+ * @Author veritas
+ * @Data 2025/3/14 17:20
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CompactProtocolBenchmark {
+
+    @Param({"jdk", "json", "hessian", "kryo", "protostuff"})
+    private String serializer;
+
+    private Buffer v1Frame;
+
+    private Buffer compactFrame;
+
+    @Setup
+    public void setup() {
+        LocalRegistry.register(UserService.class.getName(), new UserServiceImpl());
+        v1Frame = v1Frame(serializer);
+        compactFrame = compactFrame(serializer);
+    }
+
+    @Benchmark
+    public void v1(Blackhole blackhole) {
+        RpcRequest rpcRequest = (RpcRequest) ProtocolMessageDecoder.decode(v1Frame).getBody();
+        LocalService localService = LocalRegistry.get(rpcRequest.getServiceName());
+        blackhole.consume(localService.getInvoker(rpcRequest.getMethodName(), rpcRequest.getParameterTypes()));
+        blackhole.consume(rpcRequest.getArgs());
+    }
+
+    @Benchmark
+    public void compact(Blackhole blackhole) {
+        ProtocolMessage.Header header = ProtocolMessageDecoder.decodeHeader(compactFrame);
+        ByteBuffer body = ProtocolMessageDecoder.decodeBody(compactFrame, header);
+        ServiceMethodInvoker invoker = LocalRegistry.getInvoker(ProtocolMessageDecoder.getMethodId(body));
+        blackhole.consume(invoker);
+        blackhole.consume(ProtocolMessageDecoder.decodeCompactArgs(body, header, invoker.getParameterTypes()));
+    }
+
+    private static RpcRequest newRequest() {
+        User user = new User();
+        user.setName("veritas");
+        return new RpcRequest(UserService.class.getName(), "getUser",
+                new Class[]{User.class}, new Object[]{user}, "1.0");
+    }
+
+    private static ProtocolMessage.Header newHeader(String serializer) {
+        ProtocolMessage.Header header = new ProtocolMessage.Header();
+        header.setMagic(ProtocolConstant.PROTOCOL_MAGIC);
+        header.setVersion(ProtocolConstant.PROTOCOL_VERSION);
+        header.setSerializer((byte) ProtocolMessageSerializerEnum.getEnumByValue(serializer).getKey());
+        header.setType((byte) ProtocolMessageTypeEnum.REQUEST.getKey());
+        header.setRequestId(1);
+        return header;
+    }
+
+    private static Buffer v1Frame(String serializer) {
+        return ProtocolMessageEncoder.encode(new ProtocolMessage<>(newHeader(serializer), newRequest()));
+    }
+
+    private static Buffer compactFrame(String serializer) {
+        RpcRequest rpcRequest = newRequest();
+        int methodId = new MethodTable(LocalRegistry.getMethodTable())
+                .getMethodId(rpcRequest.getServiceName(), rpcRequest.getMethodName(), rpcRequest.getParameterTypes());
+        return ProtocolMessageEncoder.encodeCompactRequest(newHeader(serializer), methodId, rpcRequest.getArgs());
+    }
+
+    public static void main(String[] args) throws Exception {
+        LocalRegistry.register(UserService.class.getName(), new UserServiceImpl());
+        System.out.printf("%-12s %10s %10s%n", "serializer", "v1", "compact");
+        for (String serializer : ProtocolMessageSerializerEnum.getValues()) {
+            System.out.printf("%-12s %10d %10d%n", serializer,
+                    v1Frame(serializer).length(), compactFrame(serializer).length());
+        }
+        Options options = new OptionsBuilder()
+                .include(CompactProtocolBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,160 @@
+package com.rpc.rpc_demo.benchmark;
+
+import com.rpc.rpc_demo.communication.protocol.ProtocolCompression;
+import com.rpc.rpc_demo.communication.protocol.ProtocolConstant;
+import com.rpc.rpc_demo.communication.protocol.ProtocolMessage;
+import com.rpc.rpc_demo.communication.protocol.ProtocolMessageDecoder;
+import com.rpc.rpc_demo.communication.protocol.ProtocolMessageEncoder;
+import com.rpc.rpc_demo.communication.protocol.ProtocolMessageSerializerEnum;
+import com.rpc.rpc_demo.communication.protocol.ProtocolMessageTypeEnum;
+import com.rpc.rpc_demo.compress.CompressorType;
+import com.rpc.rpc_demo.model.RpcResponse;
+import com.rpc.rpc_demo.model.User;
+import com.rpc.rpc_demo.serializer.SerializerType;
+import com.rpc.rpc_demo.serializer.impl.KryoSerializer;
+import io.vertx.core.buffer.Buffer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Description 消息体压缩的基准测试，用来确定 RpcConfig.compressThreshold
+ * <pre>
+ * 对每个压缩器、每种消息体大小测 编码 + 解码 一个响应的耗时（压缩器强制生效，阈值为 0）
+ *      消息体是 User 数组，用户名由少量单词随机组合，和常见的业务数据一样有一定重复，但不是全部相同
+ *      users：8、128、2048 个 User，kryo 序列化之后大约是 几百字节、几 KB、几十 KB
+ * 运行 main 方法：先打印每种组合的帧大小，然后运行基准测试，
+ * 最后按 耗时 + 帧大小 / 带宽 估算不同链路上每个响应的总耗时，总耗时比 none 小说明这个大小值得压缩
+ * 链路带宽只是模拟：loopback 按 40 Gbps 算，另外还有 10 Gbps、1 Gbps、100 Mbps
+ * </pre>
+ * @Author veritas
+ * @Data 2025/3/15 10:30
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CompressionBenchmark {
+
+    private static final String[] COMPRESSORS = {CompressorType.NONE, CompressorType.GZIP, CompressorType.LZ4};
+
+    private static final int[] USERS = {8, 128, 2048};
+
+    private static final String[] WORDS = {"alpha", "bravo", "charlie", "delta", "echo", "foxtrot", "golf",
+            "hotel", "india", "juliet", "kilo", "lima", "mike", "november", "oscar", "papa"};
+
+    /**
+     * 模拟的链路：名称 -> 每纳秒传输的比特数
+     */
+    private static final String[] LINKS = {"loopback", "10Gbps", "1Gbps", "100Mbps"};
+
+    private static final double[] LINK_BITS_PER_NANO = {40, 10, 1, 0.1};
+
+    @Param({"none", "gzip", "lz4"})
+    private String compressor;
+
+    @Param({"8", "128", "2048"})
+    private int users;
+
+    private ProtocolMessage<RpcResponse> message;
+
+    private ProtocolCompression compression;
+
+    @Setup
+    public void setup() {
+        KryoSerializer.register(User.class, User[].class);
+        compression = ProtocolCompression.of(compressor, 0);
+        message = newMessage(users);
+    }
+
+    @Benchmark
+    public Object roundTrip() {
+        Buffer buffer = ProtocolMessageEncoder.encode(message, compression);
+        return ProtocolMessageDecoder.decode(buffer).getBody();
+    }
+
+    private static ProtocolMessage<RpcResponse> newMessage(int users) {
+        Random random = new Random(users);
+        User[] data = new User[users];
+        for (int i = 0; i < users; i++) {
+            User user = new User();
+            user.setName(WORDS[random.nextInt(WORDS.length)] + "-" + WORDS[random.nextInt(WORDS.length)]
+                    + "-" + random.nextInt(10000));
+            data[i] = user;
+        }
+        RpcResponse rpcResponse = new RpcResponse();
+        rpcResponse.setData(data);
+        rpcResponse.setDataType(User[].class);
+        rpcResponse.setMessage("ok");
+
+        ProtocolMessage.Header header = new ProtocolMessage.Header();
+        header.setMagic(ProtocolConstant.PROTOCOL_MAGIC);
+        header.setVersion(ProtocolConstant.PROTOCOL_VERSION);
+        header.setSerializer((byte) ProtocolMessageSerializerEnum.getEnumByValue(SerializerType.KRYO).getKey());
+        header.setType((byte) ProtocolMessageTypeEnum.RESPONSE.getKey());
+        header.setRequestId(1);
+        return new ProtocolMessage<>(header, rpcResponse);
+    }
+
+    private static String key(String compressor, int users) {
+        return compressor + ":" + users;
+    }
+
+    public static void main(String[] args) throws Exception {
+        KryoSerializer.register(User.class, User[].class);
+        Map<String, Integer> frameSizes = new HashMap<>();
+        System.out.printf("%-8s %8s %10s%n", "users", "compress", "frame");
+        for (int users : USERS) {
+            for (String compressor : COMPRESSORS) {
+                int frameSize = ProtocolMessageEncoder.encode(newMessage(users), ProtocolCompression.of(compressor, 0))
+                        .length();
+                frameSizes.put(key(compressor, users), frameSize);
+                System.out.printf("%-8d %8s %10d%n", users, compressor, frameSize);
+            }
+        }
+
+        Options options = new OptionsBuilder()
+                .include(CompressionBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        Collection<RunResult> results = new Runner(options).run();
+
+        // 估算每条链路上 编码 + 传输 + 解码 的总耗时（微秒）
+        Map<String, Double> cpuNanos = new HashMap<>();
+        for (RunResult result : results) {
+            String compressor = result.getParams().getParam("compressor");
+            int users = Integer.parseInt(result.getParams().getParam("users"));
+            cpuNanos.put(key(compressor, users), result.getPrimaryResult().getScore());
+        }
+        System.out.printf("%n%-8s %8s", "users", "compress");
+        for (String link : LINKS) {
+            System.out.printf(" %10s", link);
+        }
+        System.out.println("  (us)");
+        for (int users : USERS) {
+            for (String compressor : COMPRESSORS) {
+                Double cpu = cpuNanos.get(key(compressor, users));
+                if (cpu == null) {
+                    continue;
+                }
+                System.out.printf("%-8d %8s", users, compressor);
+                for (double bitsPerNano : LINK_BITS_PER_NANO) {
+                    double wireNanos = frameSizes.get(key(compressor, users)) * 8 / bitsPerNano;
+                    System.out.printf(" %10.1f", (cpu + wireNanos) / 1e3);
+                }
+                System.out.println();
+            }
+        }
+    }
+}
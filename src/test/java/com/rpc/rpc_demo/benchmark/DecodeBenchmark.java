@@ -0,0 +1,147 @@
+package com.rpc.rpc_demo.benchmark;
+
+import com.rpc.rpc_demo.communication.protocol.ProtocolConstant;
+import com.rpc.rpc_demo.communication.protocol.ProtocolMessage;
+import com.rpc.rpc_demo.communication.protocol.ProtocolMessageDecoder;
+import com.rpc.rpc_demo.communication.protocol.ProtocolMessageEncoder;
+import com.rpc.rpc_demo.communication.protocol.ProtocolMessageSerializerEnum;
+import com.rpc.rpc_demo.communication.protocol.ProtocolMessageTypeEnum;
+import com.rpc.rpc_demo.communication.server.TcpBufferHandlerWrapper;
+import com.rpc.rpc_demo.model.RpcRequest;
+import com.rpc.rpc_demo.model.User;
+import com.rpc.rpc_demo.serializer.Serializer;
+import com.rpc.rpc_demo.serializer.factory.SerializerFactory;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.parsetools.RecordParser;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Description 解码链路的基准测试：原来的 RecordParser 拼接 + 拷贝消息体 vs 长度字段拆包器 + 消息体视图
+ * <pre>
+ * 一次读取中包含 framesPerRead 个完整的请求消息，测的是 拆包 + 解码 + 反序列化 一次读取的耗时和分配
+ * 运行 main 方法，结果中的 gc.alloc.rate.norm 就是每次读取分配的字节数
+ * </pre>
+ * @Author veritas
+ * @Data 2025/3/12 17:30
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DecodeBenchmark {
+
+    @Param({"kryo", "json"})
+    private String serializer;
+
+    @Param({"1", "16"})
+    private int framesPerRead;
+
+    /**
+     * 一次读取到的数据
+     */
+    private Buffer read;
+
+    /**
+     * 每次调用时设置，拆包器回调中用它消费解码结果
+     */
+    private Blackhole blackhole;
+
+    private TcpBufferHandlerWrapper frameDecoder;
+
+    private RecordParser legacyParser;
+
+    @Setup
+    public void setup() {
+        User user = new User();
+        user.setName("veritas");
+        RpcRequest rpcRequest = new RpcRequest("com.rpc.rpc_demo.v1.service.UserService", "getUser",
+                new Class[]{User.class}, new Object[]{user}, "1.0");
+        read = Buffer.buffer();
+        for (int i = 0; i < framesPerRead; i++) {
+            ProtocolMessage.Header header = new ProtocolMessage.Header();
+            header.setMagic(ProtocolConstant.PROTOCOL_MAGIC);
+            header.setVersion(ProtocolConstant.PROTOCOL_VERSION);
+            header.setSerializer((byte) ProtocolMessageSerializerEnum.getEnumByValue(serializer).getKey());
+            header.setType((byte) ProtocolMessageTypeEnum.REQUEST.getKey());
+            header.setRequestId(i);
+            read.appendBuffer(ProtocolMessageEncoder.encode(new ProtocolMessage<>(header, rpcRequest)));
+        }
+        frameDecoder = new TcpBufferHandlerWrapper(frame -> this.blackhole.consume(ProtocolMessageDecoder.decode(frame)));
+        legacyParser = legacyRecordParser(frame -> this.blackhole.consume(legacyDecode(frame)));
+    }
+
+    @Benchmark
+    public void frameDecoder(Blackhole blackhole) {
+        this.blackhole = blackhole;
+        frameDecoder.handle(read);
+    }
+
+    @Benchmark
+    public void legacy(Blackhole blackhole) {
+        this.blackhole = blackhole;
+        legacyParser.handle(read);
+    }
+
+    /**
+     * 原来的 TcpBufferHandlerWrapper：每个消息都拼接到一个新的 Buffer 中
+     */
+    private static RecordParser legacyRecordParser(Handler<Buffer> bufferHandler) {
+        RecordParser parser = RecordParser.newFixed(ProtocolConstant.MESSAGE_HEADER_LENGTH);
+        parser.setOutput(new Handler<Buffer>() {
+            int size = -1;
+            Buffer resultBuffer = Buffer.buffer();
+
+            @Override
+            public void handle(Buffer buffer) {
+                if (size == -1) {
+                    size = buffer.getInt(ProtocolConstant.BODY_LENGTH_OFFSET);
+                    parser.fixedSizeMode(size);
+                    resultBuffer.appendBuffer(buffer);
+                } else {
+                    resultBuffer.appendBuffer(buffer);
+                    bufferHandler.handle(resultBuffer);
+                    parser.fixedSizeMode(ProtocolConstant.MESSAGE_HEADER_LENGTH);
+                    size = -1;
+                    resultBuffer = Buffer.buffer();
+                }
+            }
+        });
+        return parser;
+    }
+
+    /**
+     * 原来的 ProtocolMessageDecoder：消息体先拷贝成 byte[] 再反序列化
+     */
+    private static RpcRequest legacyDecode(Buffer buffer) {
+        int bodyLength = buffer.getInt(ProtocolConstant.BODY_LENGTH_OFFSET);
+        byte[] bodyBytes = buffer.getBytes(ProtocolConstant.MESSAGE_HEADER_LENGTH,
+                ProtocolConstant.MESSAGE_HEADER_LENGTH + bodyLength);
+        ProtocolMessageSerializerEnum serializerEnum = ProtocolMessageSerializerEnum
+                .getEnumByKey(buffer.getByte(ProtocolConstant.SERIALIZER_OFFSET));
+        Serializer serializer = SerializerFactory.getInstance(serializerEnum.getValue());
+        try {
+            return serializer.deserialize(bodyBytes, RpcRequest.class);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .include(DecodeBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
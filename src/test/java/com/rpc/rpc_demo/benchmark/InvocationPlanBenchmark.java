@@ -0,0 +1,133 @@
+package com.rpc.rpc_demo.benchmark;
+
+import com.rpc.rpc_demo.config.RpcConfig;
+import com.rpc.rpc_demo.constant.RpcConstant;
+import com.rpc.rpc_demo.fault.retry.RetryStrategy;
+import com.rpc.rpc_demo.fault.retry.RetryStrategyFactory;
+import com.rpc.rpc_demo.fault.tolerant.TolerantStrategy;
+import com.rpc.rpc_demo.fault.tolerant.TolerantStrategyFactory;
+import com.rpc.rpc_demo.loadbalancer.LoadBalancer;
+import com.rpc.rpc_demo.loadbalancer.LoadBalancerFactory;
+import com.rpc.rpc_demo.model.RpcRequest;
+import com.rpc.rpc_demo.model.ServiceMetaData;
+import com.rpc.rpc_demo.model.User;
+import com.rpc.rpc_demo.proxy.MethodInvocationPlan;
+import com.rpc.rpc_demo.registry.Registry;
+import com.rpc.rpc_demo.registry.RegistryFactory;
+import com.rpc.rpc_demo.serializer.Serializer;
+import com.rpc.rpc_demo.serializer.factory.SerializerFactory;
+import com.rpc.rpc_demo.v1.service.UserService;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Description 消费者调用准备阶段的基准测试：每次调用都重新计算 vs 使用调用计划 MethodInvocationPlan
+ * <pre>
+ * 只测 构造请求 -> 计算服务键名 -> 查找各种策略 -> 负载均衡 这一段，不包括服务发现和网络发送
+ * 运行 main 方法，结果中的 gc.alloc.rate.norm 就是每次调用分配的字节数
+ * </pre>
+ * @Author veritas
+ * @Data 2025/3/11 11:20
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class InvocationPlanBenchmark {
+
+    private RpcConfig rpcConfig;
+
+    private Method method;
+
+    private MethodInvocationPlan plan;
+
+    private Object[] args;
+
+    private List<ServiceMetaData> serviceMetaDataList;
+
+    @Setup
+    public void setup() throws Exception {
+        rpcConfig = new RpcConfig();
+        method = UserService.class.getMethod("getUser", User.class);
+        plan = MethodInvocationPlan.of(method, rpcConfig);
+        User user = new User();
+        user.setName("veritas");
+        args = new Object[]{user};
+        serviceMetaDataList = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            ServiceMetaData serviceMetaData = new ServiceMetaData();
+            serviceMetaData.setServiceName(UserService.class.getName());
+            serviceMetaData.setServiceHost("localhost");
+            serviceMetaData.setServicePort(8080 + i);
+            serviceMetaDataList.add(serviceMetaData);
+        }
+    }
+
+    /**
+     * 原来 ServiceProxy.invoke 每次调用的做法
+     */
+    @Benchmark
+    public void perCall(Blackhole blackhole) {
+        Serializer serializer = SerializerFactory.getInstance(rpcConfig.getSerializer());
+        String serviceName = method.getDeclaringClass().getName();
+        RpcRequest rpcRequest = RpcRequest.builder()
+                .serviceName(serviceName)
+                .methodName(method.getName())
+                .parameterTypes(method.getParameterTypes())
+                .args(args)
+                .build();
+        Registry registry = RegistryFactory.getInstance(rpcConfig.getRegistryConfig().getRegistry());
+        ServiceMetaData serviceMetaData = new ServiceMetaData();
+        serviceMetaData.setServiceName(serviceName);
+        serviceMetaData.setServiceVersion(RpcConstant.DEFAULT_SERVICE_VERSION);
+        String serviceIdentifier = serviceMetaData.getServiceIdentifier();
+        LoadBalancer loadBalancer = LoadBalancerFactory.getInstance(rpcConfig.getLoadBalancer());
+        Map<String, Object> requestParams = new HashMap<>();
+        requestParams.put("methodName", rpcRequest.getMethodName());
+        ServiceMetaData selected = loadBalancer.select(requestParams, serviceMetaDataList);
+        RetryStrategy retryStrategy = RetryStrategyFactory.getInstance(rpcConfig.getRetryStrategy());
+        TolerantStrategy tolerantStrategy = TolerantStrategyFactory.getInstance(rpcConfig.getTolerantStrategy());
+        blackhole.consume(serializer);
+        blackhole.consume(registry);
+        blackhole.consume(serviceIdentifier);
+        blackhole.consume(rpcRequest);
+        blackhole.consume(selected);
+        blackhole.consume(retryStrategy);
+        blackhole.consume(tolerantStrategy);
+    }
+
+    /**
+     * 使用调用计划
+     */
+    @Benchmark
+    public void invocationPlan(Blackhole blackhole) {
+        RpcRequest rpcRequest = plan.newRequest(args);
+        ServiceMetaData selected = plan.getLoadBalancer().select(plan.getRequestParams(), serviceMetaDataList);
+        blackhole.consume(plan.getServiceIdentifier());
+        blackhole.consume(rpcRequest);
+        blackhole.consume(selected);
+        blackhole.consume(plan.getRetryStrategy());
+        blackhole.consume(plan.getTolerantStrategy());
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .include(InvocationPlanBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
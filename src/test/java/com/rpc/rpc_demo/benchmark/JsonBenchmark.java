@@ -0,0 +1,98 @@
+package com.rpc.rpc_demo.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rpc.rpc_demo.model.RpcRequest;
+import com.rpc.rpc_demo.model.RpcResponse;
+import com.rpc.rpc_demo.model.User;
+import com.rpc.rpc_demo.serializer.impl.JSONSerializer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Description JSON 序列化器反序列化的基准测试：原来的 先解析成 LinkedHashMap 再序列化成 byte[] 重新解析 vs 按类型一遍解析
+ * <pre>
+ * 消息体是预先序列化好的，测的只是反序列化一个 User 参数的请求 / 一个 User 返回值的响应
+ * 运行 main 方法，结果中的 gc.alloc.rate.norm 就是每次反序列化分配的字节数
+ * </pre>
+ * @Author veritas
+ * @Data 2025/3/13 18:10
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class JsonBenchmark {
+
+    /**
+     * 原来的实现使用的 ObjectMapper，没有自定义的反序列化器
+     */
+    private static final ObjectMapper LEGACY_OBJECT_MAPPER = new ObjectMapper();
+
+    private final JSONSerializer jsonSerializer = new JSONSerializer();
+
+    private byte[] requestBytes;
+
+    private byte[] responseBytes;
+
+    @Setup
+    public void setup() throws IOException {
+        User user = new User();
+        user.setName("veritas");
+        RpcRequest rpcRequest = new RpcRequest("com.rpc.rpc_demo.v1.service.UserService", "getUser",
+                new Class[]{User.class}, new Object[]{user}, "1.0");
+        RpcResponse rpcResponse = new RpcResponse();
+        rpcResponse.setData(user);
+        rpcResponse.setDataType(User.class);
+        rpcResponse.setMessage("ok");
+        requestBytes = jsonSerializer.serialize(rpcRequest);
+        responseBytes = jsonSerializer.serialize(rpcResponse);
+    }
+
+    @Benchmark
+    public Object legacyRequest() throws IOException {
+        RpcRequest rpcRequest = LEGACY_OBJECT_MAPPER.readValue(requestBytes, RpcRequest.class);
+        Class<?>[] parameterTypes = rpcRequest.getParameterTypes();
+        Object[] args = rpcRequest.getArgs();
+        for (int i = 0; i < parameterTypes.length; i++) {
+            if (!parameterTypes[i].isAssignableFrom(args[i].getClass())) {
+                byte[] bytes = LEGACY_OBJECT_MAPPER.writeValueAsBytes(args[i]);
+                args[i] = LEGACY_OBJECT_MAPPER.readValue(bytes, parameterTypes[i]);
+            }
+        }
+        return rpcRequest;
+    }
+
+    @Benchmark
+    public Object singlePassRequest() throws IOException {
+        return jsonSerializer.deserialize(requestBytes, RpcRequest.class);
+    }
+
+    @Benchmark
+    public Object legacyResponse() throws IOException {
+        RpcResponse rpcResponse = LEGACY_OBJECT_MAPPER.readValue(responseBytes, RpcResponse.class);
+        byte[] bytes = LEGACY_OBJECT_MAPPER.writeValueAsBytes(rpcResponse.getData());
+        rpcResponse.setData(LEGACY_OBJECT_MAPPER.readValue(bytes, rpcResponse.getDataType()));
+        return rpcResponse;
+    }
+
+    @Benchmark
+    public Object singlePassResponse() throws IOException {
+        return jsonSerializer.deserialize(responseBytes, RpcResponse.class);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .include(JsonBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
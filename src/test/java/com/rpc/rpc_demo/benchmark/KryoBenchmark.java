@@ -0,0 +1,130 @@
+package com.rpc.rpc_demo.benchmark;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.rpc.rpc_demo.model.RpcRequest;
+import com.rpc.rpc_demo.model.RpcResponse;
+import com.rpc.rpc_demo.model.User;
+import com.rpc.rpc_demo.serializer.impl.KryoSerializer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Description Kryo 序列化器的基准测试：原来的 ThreadLocal + 每次新建流 vs 对象池 + 预注册
+ * <pre>
+ * 测的是一次 序列化 + 反序列化 的吞吐量（多线程），main 方法开始前会先打印两种方式的消息体大小
+ * 参考结果（1 核虚拟机，JDK 17，4 个线程，误差较大，看量级即可）：
+ *                       ops/ms     B/op    消息体字节数
+ *      legacyRequest      55.7     9312    111
+ *      pooledRequest     132.6      496     62
+ *      legacyResponse    137.3     8840     41
+ *      pooledResponse    424.9      272     12
+ * </pre>
+ * @Author veritas
+ * @Data 2025/3/13 14:20
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class KryoBenchmark {
+
+    /**
+     * 原来的实现
+     */
+    private static final ThreadLocal<Kryo> LEGACY_KRYO = ThreadLocal.withInitial(() -> {
+        Kryo kryo = new Kryo();
+        kryo.setRegistrationRequired(false);
+        return kryo;
+    });
+
+    private final KryoSerializer kryoSerializer = new KryoSerializer();
+
+    private RpcRequest rpcRequest;
+
+    private RpcResponse rpcResponse;
+
+    @Setup
+    public void setup() {
+        KryoSerializer.register(User.class);
+        rpcRequest = newRequest();
+        rpcResponse = newResponse();
+    }
+
+    @Benchmark
+    public Object legacyRequest() {
+        return legacyDeserialize(legacySerialize(rpcRequest), RpcRequest.class);
+    }
+
+    @Benchmark
+    public Object pooledRequest() throws Exception {
+        return kryoSerializer.deserialize(kryoSerializer.serialize(rpcRequest), RpcRequest.class);
+    }
+
+    @Benchmark
+    public Object legacyResponse() {
+        return legacyDeserialize(legacySerialize(rpcResponse), RpcResponse.class);
+    }
+
+    @Benchmark
+    public Object pooledResponse() throws Exception {
+        return kryoSerializer.deserialize(kryoSerializer.serialize(rpcResponse), RpcResponse.class);
+    }
+
+    private static byte[] legacySerialize(Object obj) {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        Output output = new Output(byteArrayOutputStream);
+        LEGACY_KRYO.get().writeObject(output, obj);
+        output.close();
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    private static <T> T legacyDeserialize(byte[] bytes, Class<T> clazz) {
+        Input input = new Input(new ByteArrayInputStream(bytes));
+        T res = LEGACY_KRYO.get().readObject(input, clazz);
+        input.close();
+        return res;
+    }
+
+    private static RpcRequest newRequest() {
+        User user = new User();
+        user.setName("veritas");
+        return new RpcRequest("com.rpc.rpc_demo.v1.service.UserService", "getUser",
+                new Class[]{User.class}, new Object[]{user}, "1.0");
+    }
+
+    private static RpcResponse newResponse() {
+        User user = new User();
+        user.setName("veritas");
+        RpcResponse rpcResponse = new RpcResponse();
+        rpcResponse.setData(user);
+        rpcResponse.setDataType(User.class);
+        rpcResponse.setMessage("ok");
+        return rpcResponse;
+    }
+
+    public static void main(String[] args) throws Exception {
+        KryoSerializer.register(User.class);
+        KryoSerializer kryoSerializer = new KryoSerializer();
+        System.out.printf("bytes on wire  request: legacy %d, pooled+registered %d%n",
+                legacySerialize(newRequest()).length, kryoSerializer.serialize(newRequest()).length);
+        System.out.printf("bytes on wire response: legacy %d, pooled+registered %d%n",
+                legacySerialize(newResponse()).length, kryoSerializer.serialize(newResponse()).length);
+        Options options = new OptionsBuilder()
+                .include(KryoBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
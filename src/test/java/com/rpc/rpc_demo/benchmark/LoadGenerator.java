@@ -0,0 +1,242 @@
+package com.rpc.rpc_demo.benchmark;
+
+import com.rpc.rpc_demo.RpcContext;
+import com.rpc.rpc_demo.communication.server.ExecutionModeIdentifier;
+import com.rpc.rpc_demo.communication.server.VertxTcpServer;
+import com.rpc.rpc_demo.config.RpcConfig;
+import com.rpc.rpc_demo.proxy.ServiceProxyFactory;
+import com.rpc.rpc_demo.registry.LocalRegistry;
+import com.rpc.rpc_demo.serializer.SerializerType;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @Description 端到端压测工具：ServiceProxy -> VertxTcpClient -> TcpServerHandler -> LocalRegistry 整条链路
+ * <pre>
+ * 三种运行方式（mode 参数）：
+ *      inprocess：服务提供者和服务消费者在同一个 JVM 中
+ *      provider： 只启动服务提供者，一直运行
+ *      consumer： 只启动服务消费者，压测另一个 JVM 中的服务提供者（host、port 参数）
+ * 注册中心使用 LoopbackRegistry 替身，不需要 etcd / zookeeper
+ *
+ * 两种发压方式：
+ *      rate > 0：开环，按固定速率发请求，在途请求数超过 concurrency 时发送被推迟
+ *              延迟从 计划发送时间 开始算，推迟的时间也算在延迟里（修正 coordinated omission），
+ *              同时打印从 实际发送时间 开始算的延迟作对比，两者差距大说明发压速率超过了系统的处理能力
+ *      rate = 0：闭环，concurrency 个在途请求，一个完成立即发下一个，测最大吞吐量，延迟只是服务时间
+ *
+ * 参数都是 key=value 的形式，例如：
+ *      mode=inprocess rate=20000 concurrency=256 seconds=30 warmup=5 serializer=kryo payload=64
+ *      mode=provider port=8899 executionMode=eventLoop
+ *      mode=inprocess concurrency=1024 writeCoalescing=false（和默认的合并写对比吞吐量）
+ *      mode=consumer host=192.168.1.10 port=8899 rate=50000
+ * </pre>
+ * @Author veritas
+ * @Data 2025/3/14 10:50
+ */
+public class LoadGenerator {
+
+    public interface EchoService {
+        CompletableFuture<String> echo(String message);
+    }
+
+    public static class EchoServiceImpl implements EchoService {
+        @Override
+        public CompletableFuture<String> echo(String message) {
+            return CompletableFuture.completedFuture(message);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseArgs(args);
+        String mode = options.getOrDefault("mode", "inprocess");
+        String host = options.getOrDefault("host", "localhost");
+        int port = Integer.parseInt(options.getOrDefault("port", "8899"));
+
+        RpcConfig rpcConfig = new RpcConfig();
+        rpcConfig.setServerHost(host);
+        rpcConfig.setServerPort(port);
+        rpcConfig.setSerializer(options.getOrDefault("serializer", SerializerType.KRYO));
+        rpcConfig.setExecutionMode(options.getOrDefault("executionMode", ExecutionModeIdentifier.EVENT_LOOP));
+        rpcConfig.getTransportConfig().setWriteCoalescing(
+                Boolean.parseBoolean(options.getOrDefault("writeCoalescing", "true")));
+        rpcConfig.getRegistryConfig().setRegistry(LoopbackRegistry.TYPE);
+        rpcConfig.getRegistryConfig().setAddress(host + ":" + port);
+        RpcContext.init(rpcConfig);
+
+        switch (mode) {
+            case "provider":
+                startProvider(rpcConfig);
+                System.out.printf("provider listening on %d%n", port);
+                Thread.currentThread().join();
+                break;
+            case "consumer":
+                runConsumer(options);
+                System.exit(0);
+                break;
+            case "inprocess":
+                startProvider(rpcConfig);
+                runConsumer(options);
+                System.exit(0);
+                break;
+            default:
+                throw new IllegalArgumentException("未知的运行方式：" + mode);
+        }
+    }
+
+    private static void startProvider(RpcConfig rpcConfig) throws Exception {
+        LocalRegistry.register(EchoService.class.getName(), new EchoServiceImpl(), rpcConfig.getExecutionMode());
+        new VertxTcpServer(rpcConfig).start(rpcConfig.getServerPort())
+                .toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+    }
+
+    private static void runConsumer(Map<String, String> options) throws Exception {
+        long rate = Long.parseLong(options.getOrDefault("rate", "0"));
+        int concurrency = Integer.parseInt(options.getOrDefault("concurrency", "256"));
+        int warmupSeconds = Integer.parseInt(options.getOrDefault("warmup", "5"));
+        int measureSeconds = Integer.parseInt(options.getOrDefault("seconds", "30"));
+        String message = "x".repeat(Integer.parseInt(options.getOrDefault("payload", "64")));
+
+        EchoService echoService = ServiceProxyFactory.getProxy(EchoService.class);
+        Stats stats = new Stats();
+        long start = System.nanoTime();
+        stats.measureStart = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        stats.measureEnd = stats.measureStart + TimeUnit.SECONDS.toNanos(measureSeconds);
+        if (rate > 0) {
+            openLoop(echoService, message, rate, concurrency, start, stats);
+        } else {
+            closedLoop(echoService, message, concurrency, stats);
+        }
+        stats.report(rate, concurrency, measureSeconds);
+    }
+
+    /**
+     * 开环：按计划时间发请求，延迟从计划时间开始算
+     */
+    private static void openLoop(EchoService echoService, String message, long rate, int concurrency,
+                                 long start, Stats stats) throws InterruptedException {
+        Semaphore permits = new Semaphore(concurrency);
+        double intervalNanos = 1e9 / rate;
+        for (long i = 0; ; i++) {
+            long intendedStart = start + (long) (i * intervalNanos);
+            if (intendedStart >= stats.measureEnd) {
+                break;
+            }
+            long now;
+            while ((now = System.nanoTime()) < intendedStart) {
+                LockSupport.parkNanos(intendedStart - now);
+            }
+            // 在途请求达到上限，等待的时间也计入这个请求的延迟
+            permits.acquire();
+            long sendTime = System.nanoTime();
+            echoService.echo(message).whenComplete((result, e) -> {
+                permits.release();
+                stats.record(intendedStart, sendTime, System.nanoTime(), e);
+            });
+        }
+        // 等待在途请求全部完成
+        permits.tryAcquire(concurrency, 30, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 闭环：concurrency 个在途请求，一个完成立即发下一个
+     */
+    private static void closedLoop(EchoService echoService, String message, int concurrency, Stats stats)
+            throws InterruptedException {
+        AtomicBoolean running = new AtomicBoolean(true);
+        for (int i = 0; i < concurrency; i++) {
+            closedLoopNext(echoService, message, running, stats);
+        }
+        long remaining = stats.measureEnd - System.nanoTime();
+        if (remaining > 0) {
+            TimeUnit.NANOSECONDS.sleep(remaining);
+        }
+        running.set(false);
+    }
+
+    private static void closedLoopNext(EchoService echoService, String message, AtomicBoolean running, Stats stats) {
+        if (!running.get()) {
+            return;
+        }
+        long sendTime = System.nanoTime();
+        echoService.echo(message).whenComplete((result, e) -> {
+            stats.record(sendTime, sendTime, System.nanoTime(), e);
+            closedLoopNext(echoService, message, running, stats);
+        });
+    }
+
+    private static Map<String, String> parseArgs(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int index = arg.indexOf('=');
+            if (index <= 0) {
+                throw new IllegalArgumentException("参数格式应为 key=value：" + arg);
+            }
+            options.put(arg.substring(0, index), arg.substring(index + 1));
+        }
+        return options;
+    }
+
+    /**
+     * 压测结果，只统计计划发送时间在测量窗口内的请求
+     */
+    private static class Stats {
+        /**
+         * 从计划发送时间开始算的延迟
+         */
+        final Recorder corrected = new Recorder(3);
+
+        /**
+         * 从实际发送时间开始算的延迟
+         */
+        final Recorder uncorrected = new Recorder(3);
+
+        final LongAdder completed = new LongAdder();
+
+        final LongAdder errors = new LongAdder();
+
+        volatile long measureStart;
+
+        volatile long measureEnd;
+
+        void record(long intendedStart, long sendTime, long endTime, Throwable e) {
+            if (intendedStart < measureStart || intendedStart >= measureEnd) {
+                return;
+            }
+            if (e != null) {
+                errors.increment();
+                return;
+            }
+            completed.increment();
+            corrected.recordValue(endTime - intendedStart);
+            uncorrected.recordValue(endTime - sendTime);
+        }
+
+        void report(long rate, int concurrency, int measureSeconds) {
+            System.out.printf("rate=%s concurrency=%d seconds=%d%n", rate > 0 ? rate : "closed-loop", concurrency, measureSeconds);
+            System.out.printf("throughput: %.0f requests/s, errors: %d%n",
+                    completed.sum() / (double) measureSeconds, errors.sum());
+            System.out.printf("%-14s %10s %10s %10s %10s %10s  (us)%n", "latency", "p50", "p90", "p99", "p999", "max");
+            print("corrected", corrected.getIntervalHistogram());
+            print("uncorrected", uncorrected.getIntervalHistogram());
+        }
+
+        private static void print(String name, Histogram histogram) {
+            System.out.printf("%-14s %10.1f %10.1f %10.1f %10.1f %10.1f%n", name,
+                    histogram.getValueAtPercentile(50) / 1e3,
+                    histogram.getValueAtPercentile(90) / 1e3,
+                    histogram.getValueAtPercentile(99) / 1e3,
+                    histogram.getValueAtPercentile(99.9) / 1e3,
+                    histogram.getMaxValue() / 1e3);
+        }
+    }
+}
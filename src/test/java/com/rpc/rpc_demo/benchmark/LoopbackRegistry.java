@@ -0,0 +1,77 @@
+package com.rpc.rpc_demo.benchmark;
+
+import cn.hutool.core.util.StrUtil;
+import com.rpc.rpc_demo.config.RegistryConfig;
+import com.rpc.rpc_demo.model.ServiceMetaData;
+import com.rpc.rpc_demo.registry.Registry;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @Description 压测用的注册中心替身，不依赖 etcd / zookeeper
+ * <pre>
+ * RegistryConfig.address 配置成服务提供者的 host:port，所有服务都发现到这一个地址
+ * 服务提供者和服务消费者在同一个 JVM 中时，register 注册的节点优先
+ * SPI 标识为 loopback，见测试资源 META-INF/rpc/custom/com.rpc.rpc_demo.registry.Registry
+ * </pre>
+ * @Author veritas
+ * @Data 2025/3/14 10:20
+ */
+public class LoopbackRegistry implements Registry {
+
+    public static final String TYPE = "loopback";
+
+    private final Map<String, List<ServiceMetaData>> serviceMap = new ConcurrentHashMap<>();
+
+    private String host = "localhost";
+
+    private int port = 8080;
+
+    @Override
+    public void init(RegistryConfig registryConfig) {
+        String address = StrUtil.removePrefix(registryConfig.getAddress(), "http://");
+        if (StrUtil.contains(address, ':')) {
+            host = StrUtil.subBefore(address, ':', true);
+            port = Integer.parseInt(StrUtil.subAfter(address, ':', true));
+        }
+    }
+
+    @Override
+    public void register(ServiceMetaData serviceMetaData) {
+        serviceMap.put(serviceMetaData.getServiceIdentifier(), Collections.singletonList(serviceMetaData));
+    }
+
+    @Override
+    public void unRegister(ServiceMetaData serviceMetaData) {
+        serviceMap.remove(serviceMetaData.getServiceIdentifier());
+    }
+
+    @Override
+    public List<ServiceMetaData> serviceDiscovery(String serviceIdentifier) {
+        // 每个服务只构造一次，之后的调用直接返回，不影响压测结果
+        return serviceMap.computeIfAbsent(serviceIdentifier, key -> {
+            ServiceMetaData serviceMetaData = new ServiceMetaData();
+            serviceMetaData.setServiceName(StrUtil.subBefore(key, ':', true));
+            serviceMetaData.setServiceVersion(StrUtil.subAfter(key, ':', true));
+            serviceMetaData.setServiceHost(host);
+            serviceMetaData.setServicePort(port);
+            return Collections.singletonList(serviceMetaData);
+        });
+    }
+
+    @Override
+    public void destroy() {
+        serviceMap.clear();
+    }
+
+    @Override
+    public void heartbeat() {
+    }
+
+    @Override
+    public void watch(String serviceNodeIdentifier) {
+    }
+}
@@ -0,0 +1,144 @@
+package com.rpc.rpc_demo.benchmark;
+
+import com.rpc.rpc_demo.model.RpcRequest;
+import com.rpc.rpc_demo.model.RpcResponse;
+import com.rpc.rpc_demo.model.User;
+import com.rpc.rpc_demo.serializer.Serializer;
+import com.rpc.rpc_demo.serializer.SerializerType;
+import com.rpc.rpc_demo.serializer.factory.SerializerFactory;
+import com.rpc.rpc_demo.serializer.impl.KryoSerializer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Description 所有 SPI 序列化器的基准测试，用来选择 RpcConfig.serializer 的默认值
+ * <pre>
+ * 对每个序列化器、每种消息体大小分别测 RpcRequest、RpcResponse 的序列化和反序列化吞吐量
+ *      small：  1 个 User
+ *      medium： 100 个 User 的数组
+ *      large：  10000 个 User 的数组
+ * 运行 main 方法：先打印每种组合的编码后大小，然后运行基准测试，结果中的 gc.alloc.rate.norm 就是每次操作分配的字节数
+ * Kryo 会预注册 User、User[]，和推荐的使用方式一致
+ * </pre>
+ * @Author veritas
+ * @Data 2025/3/13 19:30
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SerializerBenchmark {
+
+    private static final String[] SERIALIZERS = {SerializerType.JDK, SerializerType.JSON, SerializerType.HESSIAN,
+            SerializerType.KRYO, SerializerType.PROTOSTUFF};
+
+    private static final String[] PAYLOADS = {"small", "medium", "large"};
+
+    @Param({"jdk", "json", "hessian", "kryo", "protostuff"})
+    private String serializer;
+
+    @Param({"small", "medium", "large"})
+    private String payload;
+
+    private Serializer instance;
+
+    private RpcRequest rpcRequest;
+
+    private RpcResponse rpcResponse;
+
+    private byte[] requestBytes;
+
+    private byte[] responseBytes;
+
+    @Setup
+    public void setup() throws IOException {
+        KryoSerializer.register(User.class, User[].class);
+        instance = SerializerFactory.getInstance(serializer);
+        rpcRequest = newRequest(payload);
+        rpcResponse = newResponse(payload);
+        requestBytes = instance.serialize(rpcRequest);
+        responseBytes = instance.serialize(rpcResponse);
+    }
+
+    @Benchmark
+    public byte[] serializeRequest() throws IOException {
+        return instance.serialize(rpcRequest);
+    }
+
+    @Benchmark
+    public Object deserializeRequest() throws IOException {
+        return instance.deserialize(requestBytes, RpcRequest.class);
+    }
+
+    @Benchmark
+    public byte[] serializeResponse() throws IOException {
+        return instance.serialize(rpcResponse);
+    }
+
+    @Benchmark
+    public Object deserializeResponse() throws IOException {
+        return instance.deserialize(responseBytes, RpcResponse.class);
+    }
+
+    private static User[] newUsers(String payload) {
+        int count;
+        switch (payload) {
+            case "small":
+                count = 1;
+                break;
+            case "medium":
+                count = 100;
+                break;
+            case "large":
+                count = 10000;
+                break;
+            default:
+                throw new IllegalArgumentException("未知的消息体大小：" + payload);
+        }
+        User[] users = new User[count];
+        for (int i = 0; i < count; i++) {
+            users[i] = new User();
+            users[i].setName("veritas-" + i);
+        }
+        return users;
+    }
+
+    private static RpcRequest newRequest(String payload) {
+        return new RpcRequest("com.rpc.rpc_demo.v1.service.UserService", "saveUsers",
+                new Class[]{User[].class}, new Object[]{newUsers(payload)}, "1.0");
+    }
+
+    private static RpcResponse newResponse(String payload) {
+        RpcResponse rpcResponse = new RpcResponse();
+        rpcResponse.setData(newUsers(payload));
+        rpcResponse.setDataType(User[].class);
+        rpcResponse.setMessage("ok");
+        return rpcResponse;
+    }
+
+    public static void main(String[] args) throws Exception {
+        KryoSerializer.register(User.class, User[].class);
+        System.out.printf("%-12s %-8s %12s %12s%n", "serializer", "payload", "request", "response");
+        for (String serializer : SERIALIZERS) {
+            Serializer instance = SerializerFactory.getInstance(serializer);
+            for (String payload : PAYLOADS) {
+                System.out.printf("%-12s %-8s %12d %12d%n", serializer, payload,
+                        instance.serialize(newRequest(payload)).length,
+                        instance.serialize(newResponse(payload)).length);
+            }
+        }
+        Options options = new OptionsBuilder()
+                .include(SerializerBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,141 @@
+package com.rpc.rpc_demo.benchmark;
+
+import com.rpc.rpc_demo.communication.protocol.ProtocolConstant;
+import com.rpc.rpc_demo.communication.protocol.ProtocolMessage;
+import com.rpc.rpc_demo.communication.protocol.ProtocolMessageSerializerEnum;
+import com.rpc.rpc_demo.communication.protocol.ProtocolMessageTypeEnum;
+import com.rpc.rpc_demo.communication.server.ExecutionModeIdentifier;
+import com.rpc.rpc_demo.communication.server.TcpClientConnection;
+import com.rpc.rpc_demo.communication.server.TcpConnectionPool;
+import com.rpc.rpc_demo.communication.server.VertxTcpServer;
+import com.rpc.rpc_demo.config.RpcConfig;
+import com.rpc.rpc_demo.model.RpcRequest;
+import com.rpc.rpc_demo.model.ServiceMetaData;
+import com.rpc.rpc_demo.registry.LocalRegistry;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+
+import java.net.ServerSocket;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @Description 服务端多核扩展性测试：服务端实例数从 1 增加到 N，观察本机回环上的吞吐量
+ * <pre>
+ * 服务方法是一个空的 echo，执行模型为 eventLoop，测的是协议编解码 + 网络读写 + 分派的开销
+ * 客户端固定使用足够多的 event loop 和连接，保持固定数量的在途请求（闭环），保证客户端不是瓶颈
+ * 客户端和服务端在同一台机器上抢 CPU，核数较少时结果会偏低，看趋势即可
+ * 运行：main 方法，可选参数 [最大实例数] [每轮测量秒数] [在途请求数]
+ * </pre>
+ * @Author veritas
+ * @Data 2025/3/12 10:40
+ */
+public class ServerScalingBenchmark {
+
+    public interface EchoService {
+        String echo(String message);
+    }
+
+    public static class EchoServiceImpl implements EchoService {
+        @Override
+        public String echo(String message) {
+            return message;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int maxInstances = args.length > 0 ? Integer.parseInt(args[0]) : cores;
+        int measureSeconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int inFlight = args.length > 2 ? Integer.parseInt(args[2]) : 512;
+
+        LocalRegistry.register(EchoService.class.getName(), new EchoServiceImpl(), ExecutionModeIdentifier.EVENT_LOOP);
+
+        System.out.printf("%-10s %-15s %-10s%n", "instances", "requests/s", "speedup");
+        double baseline = 0;
+        for (int instances = 1; instances <= maxInstances; instances *= 2) {
+            double throughput = run(instances, measureSeconds, inFlight);
+            if (baseline == 0) {
+                baseline = throughput;
+            }
+            System.out.printf("%-10d %-15.0f %-10.2f%n", instances, throughput, throughput / baseline);
+        }
+        System.exit(0);
+    }
+
+    private static double run(int instances, int measureSeconds, int inFlight) throws Exception {
+        int port;
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            port = serverSocket.getLocalPort();
+        }
+        RpcConfig rpcConfig = new RpcConfig();
+        rpcConfig.setServerInstances(instances);
+        rpcConfig.setEventLoopThreads(instances);
+        VertxTcpServer server = new VertxTcpServer(rpcConfig);
+        server.start(port).toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        Vertx clientVertx = Vertx.vertx(new VertxOptions().setEventLoopPoolSize(cores));
+        // 连接数是实例数的整数倍，保证每个服务端实例都分到连接
+        TcpConnectionPool connectionPool = new TcpConnectionPool(clientVertx, instances * 4, 3000);
+        ServiceMetaData serviceMetaData = new ServiceMetaData();
+        serviceMetaData.setServiceHost("localhost");
+        serviceMetaData.setServicePort(port);
+
+        LongAdder completed = new LongAdder();
+        AtomicLong requestId = new AtomicLong();
+        RpcRequest rpcRequest = new RpcRequest(EchoService.class.getName(), "echo",
+                new Class[]{String.class}, new Object[]{"hello"}, "1.0");
+        byte serializerKey = (byte) ProtocolMessageSerializerEnum.JDK.getKey();
+        AtomicBoolean running = new AtomicBoolean(true);
+        // 下一个请求交给客户端的 event loop 发送，不在上一个请求的回调里递归
+        Executor executor = clientVertx.nettyEventLoopGroup();
+        for (int i = 0; i < inFlight; i++) {
+            loop(connectionPool, serviceMetaData, rpcRequest, serializerKey, requestId, completed, running, executor);
+        }
+        // 预热
+        TimeUnit.SECONDS.sleep(3);
+        long start = System.nanoTime();
+        long before = completed.sum();
+        TimeUnit.SECONDS.sleep(measureSeconds);
+        long count = completed.sum() - before;
+        double seconds = (System.nanoTime() - start) / 1e9;
+        running.set(false);
+
+        connectionPool.close();
+        clientVertx.close().toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+        server.close().toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+        return count / seconds;
+    }
+
+    /**
+     * 一个在途请求：完成之后立即发下一个，直到测试结束
+     * 下一个请求提交到 executor 上发送：future 已经完成时 whenComplete 会在当前线程上同步回调，直接递归调用会让栈一直增长
+     */
+    private static void loop(TcpConnectionPool connectionPool, ServiceMetaData serviceMetaData, RpcRequest rpcRequest,
+                             byte serializerKey, AtomicLong requestId, LongAdder completed, AtomicBoolean running,
+                             Executor executor) {
+        if (!running.get()) {
+            return;
+        }
+        ProtocolMessage.Header header = new ProtocolMessage.Header();
+        header.setMagic(ProtocolConstant.PROTOCOL_MAGIC);
+        header.setVersion(ProtocolConstant.PROTOCOL_VERSION);
+        header.setSerializer(serializerKey);
+        header.setType((byte) ProtocolMessageTypeEnum.REQUEST.getKey());
+        header.setRequestId(requestId.incrementAndGet());
+        ProtocolMessage<RpcRequest> protocolMessage = new ProtocolMessage<>(header, rpcRequest);
+        connectionPool.acquire(serviceMetaData)
+                .thenCompose((TcpClientConnection connection) -> connection.send(protocolMessage, 5000))
+                .whenComplete((response, e) -> {
+                    if (e == null) {
+                        completed.increment();
+                    }
+                    executor.execute(() -> loop(connectionPool, serviceMetaData, rpcRequest, serializerKey,
+                            requestId, completed, running, executor));
+                });
+    }
+}
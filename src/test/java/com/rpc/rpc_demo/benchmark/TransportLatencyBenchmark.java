@@ -0,0 +1,113 @@
+package com.rpc.rpc_demo.benchmark;
+
+import com.rpc.rpc_demo.communication.protocol.ProtocolConstant;
+import com.rpc.rpc_demo.communication.protocol.ProtocolMessage;
+import com.rpc.rpc_demo.communication.protocol.ProtocolMessageSerializerEnum;
+import com.rpc.rpc_demo.communication.protocol.ProtocolMessageTypeEnum;
+import com.rpc.rpc_demo.communication.server.ExecutionModeIdentifier;
+import com.rpc.rpc_demo.communication.server.TcpClientConnection;
+import com.rpc.rpc_demo.communication.server.TcpConnectionPool;
+import com.rpc.rpc_demo.communication.server.TransportSupport;
+import com.rpc.rpc_demo.communication.server.VertxTcpServer;
+import com.rpc.rpc_demo.config.RpcConfig;
+import com.rpc.rpc_demo.config.TransportConfig;
+import com.rpc.rpc_demo.model.RpcRequest;
+import com.rpc.rpc_demo.model.ServiceMetaData;
+import com.rpc.rpc_demo.registry.LocalRegistry;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Description 传输层延迟测试：本机回环上 NIO 和 epoll 原生传输的单请求往返延迟对比
+ * <pre>
+ * 一次只有一个在途请求（ping-pong），测的是一次往返的延迟而不是吞吐量
+ * 非 Linux 或者没有原生库时，native 一轮会自动退回 NIO，日志中会打印原因
+ * 运行：main 方法，可选参数 [每轮请求数]
+ * </pre>
+ * @Author veritas
+ * @Data 2025/3/12 15:00
+ */
+public class TransportLatencyBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        LocalRegistry.register(ServerScalingBenchmark.EchoService.class.getName(),
+                new ServerScalingBenchmark.EchoServiceImpl(), ExecutionModeIdentifier.EVENT_LOOP);
+
+        System.out.printf("%-8s %-10s %-10s %-10s %-10s %-10s%n", "transport", "mean(us)", "p50(us)", "p99(us)", "p99.9(us)", "max(us)");
+        for (boolean preferNative : new boolean[]{false, true}) {
+            TransportConfig transportConfig = new TransportConfig();
+            transportConfig.setPreferNativeTransport(preferNative);
+            transportConfig.setTcpQuickAck(preferNative);
+            long[] latencies = run(transportConfig, requests);
+            Arrays.sort(latencies);
+            System.out.printf("%-8s %-10.1f %-10.1f %-10.1f %-10.1f %-10.1f%n",
+                    preferNative ? "native" : "nio",
+                    Arrays.stream(latencies).average().orElse(0) / 1000.0,
+                    percentile(latencies, 0.50) / 1000.0,
+                    percentile(latencies, 0.99) / 1000.0,
+                    percentile(latencies, 0.999) / 1000.0,
+                    latencies[latencies.length - 1] / 1000.0);
+        }
+        System.exit(0);
+    }
+
+    private static long[] run(TransportConfig transportConfig, int requests) throws Exception {
+        int port;
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            port = serverSocket.getLocalPort();
+        }
+        RpcConfig rpcConfig = new RpcConfig();
+        rpcConfig.setTransportConfig(transportConfig);
+        rpcConfig.setServerInstances(1);
+        VertxTcpServer server = new VertxTcpServer(rpcConfig);
+        server.start(port).toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+
+        Vertx clientVertx = TransportSupport.createVertx(new VertxOptions().setEventLoopPoolSize(1), transportConfig);
+        TcpConnectionPool connectionPool = new TcpConnectionPool(clientVertx, 1,
+                TransportSupport.clientOptions(transportConfig, 3000));
+        ServiceMetaData serviceMetaData = new ServiceMetaData();
+        serviceMetaData.setServiceHost("localhost");
+        serviceMetaData.setServicePort(port);
+        TcpClientConnection connection = connectionPool.acquire(serviceMetaData).get(10, TimeUnit.SECONDS);
+
+        RpcRequest rpcRequest = new RpcRequest(ServerScalingBenchmark.EchoService.class.getName(), "echo",
+                new Class[]{String.class}, new Object[]{"hello"}, "1.0");
+        byte serializerKey = (byte) ProtocolMessageSerializerEnum.JDK.getKey();
+        // 预热
+        for (int i = 0; i < requests / 10; i++) {
+            connection.send(newMessage(rpcRequest, serializerKey, i), 5000).get();
+        }
+        long[] latencies = new long[requests];
+        for (int i = 0; i < requests; i++) {
+            ProtocolMessage<RpcRequest> protocolMessage = newMessage(rpcRequest, serializerKey, requests + i);
+            long start = System.nanoTime();
+            connection.send(protocolMessage, 5000).get();
+            latencies[i] = System.nanoTime() - start;
+        }
+
+        connectionPool.close();
+        clientVertx.close().toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+        server.close().toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+        return latencies;
+    }
+
+    private static ProtocolMessage<RpcRequest> newMessage(RpcRequest rpcRequest, byte serializerKey, long requestId) {
+        ProtocolMessage.Header header = new ProtocolMessage.Header();
+        header.setMagic(ProtocolConstant.PROTOCOL_MAGIC);
+        header.setVersion(ProtocolConstant.PROTOCOL_VERSION);
+        header.setSerializer(serializerKey);
+        header.setType((byte) ProtocolMessageTypeEnum.REQUEST.getKey());
+        header.setRequestId(requestId);
+        return new ProtocolMessage<>(header, rpcRequest);
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+}